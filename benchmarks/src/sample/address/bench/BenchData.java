@@ -0,0 +1,41 @@
+package sample.address.bench;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+
+import java.time.LocalDate;
+import java.util.Random;
+
+/**
+ * Тестовые адресаты для бенчмарков: имена, улицы и города повторяются,
+ * как в настоящих книгах, дни рождения - с 1940 по 2009 год, у каждого
+ * двадцатого дня рождения нет. Для одного и того же seed данные одинаковые.
+ */
+final class BenchData {
+
+    private static final String[] FIRST_NAMES = {"Alex", "Maria", "Ivan", "Olga", "Peter", "Anna",
+            "Sergey", "Elena", "Dmitry", "Natalia", "Hans", "Ruth", "Heinz", "Cornelia", "Werner", "Lydia"};
+    private static final String[] LAST_NAMES = {"Ivanov", "Petrova", "Sidorov", "Kuznetsova", "Mueller",
+            "Schmidt", "Meier", "Kurz", "Best", "Pim", "Hon", "Kosaa"};
+    private static final String[] CITIES = {"Kiev", "Lvov", "Krakov", "Moscow", "Berlin", "Minsk",
+            "Odessa", "Kharkov", "Riga", "Vilnius"};
+
+    private BenchData() {
+    }
+
+    static PersonStore persons(int count, long seed) {
+        Random random = new Random(seed);
+        PersonStore store = new PersonStore();
+        for (int i = 0; i < count; i++) {
+            Person person = new Person(FIRST_NAMES[random.nextInt(FIRST_NAMES.length)],
+                    LAST_NAMES[random.nextInt(LAST_NAMES.length)] + (i % 97));
+            person.setStreet("Street " + random.nextInt(500));
+            person.setPostalCode(10000 + random.nextInt(90000));
+            person.setCity(CITIES[random.nextInt(CITIES.length)]);
+            person.setBirthday(random.nextInt(20) == 0 ? null
+                    : LocalDate.ofEpochDay(random.nextInt(70 * 365) - 30 * 365));
+            store.add(person);
+        }
+        return store;
+    }
+}
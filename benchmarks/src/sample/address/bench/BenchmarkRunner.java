@@ -0,0 +1,39 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.File;
+
+/**
+ * Запуск всех бенчмарков с сохранением результатов в JSON:
+ * <pre>
+ *   java sample.address.bench.BenchmarkRunner [метка] [регулярное выражение]
+ * </pre>
+ * Результаты пишутся в benchmarks/results/&lt;метка&gt;.json (метка по
+ * умолчанию - "current"). Файлы разных версий можно сравнить между собой,
+ * например в JMH Visualizer. Регулярное выражение отбирает бенчмарки по
+ * имени, например "Date" или "XmlBook.*load".
+ */
+public final class BenchmarkRunner {
+
+    private BenchmarkRunner() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String label = args.length > 0 ? args[0] : "current";
+        String include = args.length > 1 ? args[1] : BenchmarkRunner.class.getPackage().getName() + ".*";
+        File results = new File("benchmarks/results");
+        if (!results.isDirectory() && !results.mkdirs()) {
+            throw new IllegalStateException("Cannot create " + results);
+        }
+        Options options = new OptionsBuilder()
+                .include(include)
+                .resultFormat(ResultFormatType.JSON)
+                .result(new File(results, label + ".json").getPath())
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,70 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sample.address.model.BirthdayHistogram;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+
+import java.time.LocalDate;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Гистограммы дней рождений, которые показывает окно статистики
+ * (BirthdayStatisticsController): полный подсчёт по книге и обновление
+ * счётчиков при изменении одного адресата.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BirthdayHistogramBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    private PersonStore store;
+    private PersonStoreList list;
+    private BirthdayHistogram histogram;
+    private Person edited;
+    private int row;
+
+    @Setup
+    public void setUp() {
+        store = BenchData.persons(size, 42);
+        list = new PersonStoreList(store.copy());
+        histogram = new BirthdayHistogram(list);
+        edited = list.getStore().toPerson(0);
+    }
+
+    /**
+     * Подсчёт с нуля - как при открытии книги.
+     */
+    @Benchmark
+    public int build() {
+        return new BirthdayHistogram(new PersonStoreList(store)).getTotal();
+    }
+
+    /**
+     * Изменение дня рождения одного адресата - как после диалога редактирования.
+     */
+    @Benchmark
+    public int updateOne() {
+        row = (row + 7919) % size;
+        edited.setBirthday(LocalDate.ofEpochDay(row % 20000));
+        list.set(row, edited);
+        return histogram.getMonthCount(1);
+    }
+}
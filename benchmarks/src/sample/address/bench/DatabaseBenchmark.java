@@ -0,0 +1,134 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sample.address.database.BulkInsertStats;
+import sample.address.database.DatabaseHandler;
+import sample.address.database.PersonDao;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Вставка и выборка адресатов через {@link DatabaseHandler} и {@link PersonDao}
+ * на встроенной БД H2 в режиме совместимости с PostgreSQL. Каждый метод
+ * бенчмарка запускается в своём процессе (@Fork), поэтому и БД у него своя:
+ * в начале в таблице persons {@link #ROWS} строк.
+ * <p>
+ * Цифры показывают стоимость кода приложения и JDBC (пул соединений, кэш
+ * запросов, привязка параметров, чтение строк), а не сервера PostgreSQL:
+ * сети нет, а COPY в H2 не поддерживается.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark {
+
+    static final int ROWS = 10_000;
+
+    /**
+     * DatabaseHandler, настроенный на H2 в памяти процесса.
+     */
+    static final class EmbeddedDatabaseHandler extends DatabaseHandler {
+        EmbeddedDatabaseHandler() {
+            dbDriver = "org.h2.Driver";
+            dbUrl = "jdbc:h2:mem:address_book;MODE=PostgreSQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1";
+        }
+    }
+
+    @Param({"1000"})
+    public int batch;
+
+    private DatabaseHandler handler;
+    private PersonDao dao;
+    private List<Person> persons;
+    private int next;
+
+    @Setup
+    public void setUp() throws Exception {
+        handler = new EmbeddedDatabaseHandler();
+        dao = new PersonDao(handler);
+        try (Connection connection = handler.getDbConnection();
+             Statement statement = connection.createStatement()) {
+            statement.execute("create table if not exists persons ("
+                    + " id serial primary key not null,"
+                    + " first_name varchar(255) not null,"
+                    + " last_name varchar(255) not null,"
+                    + " street varchar(255) not null,"
+                    + " postal_code int not null,"
+                    + " city varchar(255) not null,"
+                    + " birthday date,"
+                    + " created timestamp(0) without time zone default now() not null,"
+                    + " updated timestamp(0) without time zone)");
+        }
+        PersonStore store = BenchData.persons(ROWS, 42);
+        persons = new ArrayList<>(ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            persons.add(store.toPerson(row));
+        }
+        handler.createPersonUnits(persons);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        handler.getConnectionPool().close();
+    }
+
+    private Person nextPerson() {
+        next = (next + 7919) % ROWS;
+        return persons.get(next);
+    }
+
+    @Benchmark
+    public Person insertOne() {
+        Person person = nextPerson();
+        handler.createPersonUnit(person);
+        return person;
+    }
+
+    /**
+     * Пачка строк через JDBC batch; время - на всю пачку.
+     */
+    @Benchmark
+    public BulkInsertStats insertBatch() throws Exception {
+        int from = (next = (next + batch) % (ROWS - batch));
+        return handler.createPersonUnits(persons.subList(from, from + batch));
+    }
+
+    @Benchmark
+    public boolean selectByName() throws Exception {
+        Person person = nextPerson();
+        try (ResultSet resultSet = handler.getPersonUnit(person)) {
+            return resultSet.next();
+        }
+    }
+
+    @Benchmark
+    public Person findById() throws Exception {
+        return dao.find(1 + (next = (next + 7919) % ROWS));
+    }
+
+    @Benchmark
+    public int count() throws Exception {
+        return dao.count();
+    }
+}
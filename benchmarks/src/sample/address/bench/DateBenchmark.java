@@ -0,0 +1,111 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import sample.address.util.DateCodec;
+import sample.address.util.DateUtil;
+import sample.address.util.LocalDateAdapter;
+
+import java.time.LocalDate;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разбор и форматирование дат: {@link DateUtil} (дд.мм.гггг, диалог
+ * редактирования и таблица), {@link LocalDateAdapter} (гггг-мм-дд, XML)
+ * и {@link DateCodec}, на котором оба построены. Время - на одну дату.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DateBenchmark {
+
+    private static final int DATES = 1024;
+
+    private final LocalDate[] dates = new LocalDate[DATES];
+    private final String[] dotted = new String[DATES];
+    private final String[] iso = new String[DATES];
+    private final LocalDateAdapter adapter = new LocalDateAdapter();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < DATES; i++) {
+            dates[i] = LocalDate.ofEpochDay(random.nextInt(70 * 365) - 30 * 365);
+            dotted[i] = DateUtil.format(dates[i]);
+            iso[i] = dates[i].toString();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void dateUtilFormat(Blackhole blackhole) {
+        for (LocalDate date : dates) {
+            blackhole.consume(DateUtil.format(date));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void dateUtilParse(Blackhole blackhole) {
+        for (String text : dotted) {
+            blackhole.consume(DateUtil.parse(text));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void dateUtilValidDate(Blackhole blackhole) {
+        for (String text : dotted) {
+            blackhole.consume(DateUtil.validDate(text));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void adapterMarshal(Blackhole blackhole) throws Exception {
+        for (LocalDate date : dates) {
+            blackhole.consume(adapter.marshal(date));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void adapterUnmarshal(Blackhole blackhole) throws Exception {
+        for (String text : iso) {
+            blackhole.consume(adapter.unmarshal(text));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void codecParseIso(Blackhole blackhole) {
+        for (String text : iso) {
+            blackhole.consume(DateCodec.parseIso(text));
+        }
+    }
+
+    /**
+     * Для сравнения: разбор средствами java.time.
+     */
+    @Benchmark
+    @OperationsPerInvocation(DATES)
+    public void localDateParse(Blackhole blackhole) {
+        for (String text : iso) {
+            blackhole.consume(LocalDate.parse(text));
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import sample.address.model.PersonStore;
+import sample.address.storage.BookSnapshot;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Открытие двоичного снимка книги ({@link BookSnapshot}): только открытие,
+ * как при загрузке книги, и открытие с чтением одного столбца у всех
+ * адресатов, как при первом построении гистограммы дней рождений.
+ * Файл после первого чтения лежит в кэше ОС, поэтому меряется открытие,
+ * а не диск.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBenchmark {
+
+    @Param({"100000", "1000000"})
+    public int size;
+
+    private File file;
+
+    @Setup
+    public void setUp() throws Exception {
+        file = File.createTempFile("bench", ".abook");
+        BookSnapshot.write(BenchData.persons(size, 42), file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public PersonStore open() throws Exception {
+        return BookSnapshot.read(file);
+    }
+
+    @Benchmark
+    public long openAndScanBirthdays() throws Exception {
+        PersonStore store = BookSnapshot.read(file);
+        long sum = 0;
+        for (int row = 0; row < store.size(); row++) {
+            sum += store.getBirthdayEpochDay(row);
+        }
+        return sum;
+    }
+}
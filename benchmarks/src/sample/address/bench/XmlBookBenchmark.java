@@ -0,0 +1,97 @@
+package sample.address.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import sample.address.model.Person;
+import sample.address.model.PersonListWrapper;
+import sample.address.model.PersonStore;
+import sample.address.storage.PersonXmlReader;
+import sample.address.storage.PersonXmlWriter;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.Marshaller;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Загрузка и сохранение книги в формате {@link PersonListWrapper}
+ * при разном числе адресатов: потоковые {@link PersonXmlReader} и
+ * {@link PersonXmlWriter}, которыми пользуется приложение, и JAXB
+ * для сравнения. Чтение и запись идут в памяти, чтобы мерить разбор
+ * и форматирование, а не диск.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class XmlBookBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int size;
+
+    private PersonStore store;
+    private PersonListWrapper wrapper;
+    private byte[] document;
+    private JAXBContext context;
+
+    @Setup
+    public void setUp() throws Exception {
+        store = BenchData.persons(size, 42);
+        List<Person> persons = new ArrayList<>(size);
+        for (int row = 0; row < size; row++) {
+            persons.add(store.toPerson(row));
+        }
+        wrapper = new PersonListWrapper();
+        wrapper.setPersons(persons);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PersonXmlWriter.write(store, out);
+        document = out.toByteArray();
+        context = JAXBContext.newInstance(PersonListWrapper.class);
+    }
+
+    @Benchmark
+    public PersonStore loadStax() throws Exception {
+        PersonStore loaded = new PersonStore();
+        try (PersonXmlReader reader = new PersonXmlReader(new ByteArrayInputStream(document), document.length)) {
+            for (Person person = reader.next(); person != null; person = reader.next()) {
+                loaded.add(person);
+            }
+        }
+        return loaded;
+    }
+
+    @Benchmark
+    public int saveStax() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(document.length);
+        PersonXmlWriter.write(store, out);
+        return out.size();
+    }
+
+    @Benchmark
+    public PersonListWrapper loadJaxb() throws Exception {
+        return (PersonListWrapper) context.createUnmarshaller().unmarshal(new ByteArrayInputStream(document));
+    }
+
+    @Benchmark
+    public int saveJaxb() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(document.length);
+        Marshaller marshaller = context.createMarshaller();
+        marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
+        marshaller.marshal(wrapper, out);
+        return out.size();
+    }
+}
@@ -1,29 +1,61 @@
 package sample.address;
 
 import javafx.application.Application;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXMLLoader;
 import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
-import javafx.scene.image.Image;
+import javafx.scene.control.Label;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.layout.AnchorPane;
 import javafx.scene.layout.BorderPane;
-import javafx.stage.Modality;
 import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import sample.address.database.DatabaseHandler;
+import sample.address.database.BookChanges;
+import sample.address.database.BookSync;
+import sample.address.database.DatabasePersonList;
+import sample.address.database.PersonDao;
+import sample.address.metrics.Counter;
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
+import sample.address.model.BirthdayHistogram;
+import sample.address.model.BirthdayIndex;
 import sample.address.model.Person;
-import sample.address.model.PersonListWrapper;
+import sample.address.model.PersonHistory;
+import sample.address.model.PersonSearchIndex;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+import sample.address.model.SearchResultList;
+import sample.address.storage.BookCache;
+import sample.address.storage.BookFormat;
+import sample.address.storage.BookSaver;
+import sample.address.storage.BookSnapshot;
+import sample.address.storage.ChangeJournal;
+import sample.address.storage.LoadPersonsTask;
+import sample.address.storage.LoadSnapshotTask;
+import sample.address.storage.SyncState;
 import sample.address.view.BirthdayStatisticsController;
+import sample.address.view.DuplicatesController;
 import sample.address.view.PersonEditDialogController;
+import sample.address.view.ImageCache;
 import sample.address.view.PersonOverviewController;
+import sample.address.view.ReusableDialog;
 import sample.address.view.RootLayoutController;
+import sample.address.view.ViewLoader;
 
-import javax.xml.bind.JAXBContext;
-import javax.xml.bind.Marshaller;
-import javax.xml.bind.Unmarshaller;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.prefs.Preferences;
 
 /* Мы работаем с классами-представлениями JavaFX, которые необходимо
@@ -67,8 +99,7 @@ import java.util.prefs.Preferences;
  * Посмотрим как это всё работает:
  *
  * 1) Приложение запускается через метод main(...) класса MainApp.
- * 2) Вызывается конструктор public MainApp() и добавляются некоторые тестовые
- * данные.
+ * 2) Вызывается конструктор public MainApp(); список адресатов пока пуст.
  * 3) Дальше в классе MainApp запускается метод start(...), который вызывает
  * метод initRootLayout() для инициализации корневого макета из файла
  * rootLayout.fxml. Файл fxml уже знает, какой контроллер следует использовать
@@ -78,8 +109,10 @@ import java.util.prefs.Preferences;
  * контроллер может обращаться к публичным методам класса MainApp.
  * 5) В конце метода initRootLayout мы стараемся из настроек Preferences
  * получить путь к последнему открытому файлу адресатов. Если этот файл в
- * настройках описан, то мы загружаем из него данные. Эта процедура
- * перезапишет тестовые данные, которые мы добавляли в конструкторе.
+ * настройках описан, то мы загружаем из него данные.
+ * 6) Книга загружается и макет сведений об адресатах разбирается в фоновых
+ * потоках одновременно, а пока на месте таблицы показывается индикатор
+ * загрузки (см. start(...)). Время этапов запуска пишется в журнал.
  *
  *
  * JavaFX предоставляет новую возможность развёртывания, называемую “нативная
@@ -95,15 +128,83 @@ import java.util.prefs.Preferences;
  * */
 public class MainApp extends Application {
 
+    private static final Logger LOG = LoggerFactory.getLogger(MainApp.class);
+
+    // Метрики (см. Metrics): загрузка книги от запроса до появления
+    // всех адресатов и неудачные загрузки.
+    private static final Timer LOAD_TIMER = Metrics.timer("book.load");
+    private static final Counter LOAD_FAILURES = Metrics.counter("book.load.failures");
+
+    /**
+     * Сколько недавних книг помнить для меню File -> Open Recent.
+     */
+    private static final int MAX_RECENT_BOOKS = 10;
+
     private Stage primaryStage;
     private BorderPane rootLayout;
+    private RootLayoutController rootLayoutController;
+
+    private PersonOverviewController personOverviewController;
+
+    // Окна, которые строятся один раз и переиспользуются.
+    private ReusableDialog<PersonEditDialogController> editDialog;
+    private ReusableDialog<BirthdayStatisticsController> statisticsDialog;
+    private ReusableDialog<DuplicatesController> duplicatesDialog;
+
+    // Фоновая загрузка адресной книги, если она сейчас идёт.
+    private Task<Integer> loadTask;
+    // true, пока загрузку отменяет открытие другой книги.
+    private boolean loadSuperseded;
+
+    // Таблица persons из БД, если она сейчас показывается вместо книги.
+    private DatabasePersonList databaseList;
 
     /**
      * Метод start(Stage primaryStage) запускается при старте программы после
      * создания конструктора класса MainApp.
      * Данные, в виде наблюдаемого списка адресатов.
+     * Адресаты хранятся компактно по столбцам (см. PersonStoreList),
+     * объекты Person создаются только для строк, к которым обращаются.
      */
-    private ObservableList<Person> personData = FXCollections.observableArrayList();
+    private PersonStoreList personData = new PersonStoreList();
+
+    // Журнал изменений текущей книги: при сохранении в файл
+    // дописываются только изменения (см. ChangeJournal).
+    private final ChangeJournal journal = new ChangeJournal(personData);
+
+    // Строки, изменённые с прошлой синхронизации с БД (см. BookSync).
+    private final BookChanges bookChanges = new BookChanges(personData);
+
+    // История правок для Edit -> Undo/Redo (см. PersonHistory).
+    private final PersonHistory history = new PersonHistory(personData);
+
+    // Поиск по адресатам: индекс создаётся раньше списка результатов,
+    // чтобы первым узнавать об изменениях personData.
+    private final PersonSearchIndex searchIndex = new PersonSearchIndex(personData);
+    private final SearchResultList searchResults = new SearchResultList(personData, searchIndex);
+
+    // Гистограммы дней рождений для окна статистики, ведутся постоянно.
+    private final BirthdayHistogram birthdayHistogram = new BirthdayHistogram(personData);
+
+    // Индекс дней рождений по дню года для панели ближайших дней рождений.
+    private final BirthdayIndex birthdayIndex = new BirthdayIndex(personData);
+
+    // Сохранение книги в фоновом потоке.
+    private final BookSaver saver = new BookSaver(personData, journal);
+
+    // Неактивные книги рабочей области: к ним можно вернуться без
+    // чтения файла (см. BookCache).
+    private final BookCache books = BookCache.withConfiguredBudget();
+    private final ObservableList<File> recentBooks = FXCollections.observableArrayList(readRecentBooks());
+    // Открыта ли книга из файла filePath. При запуске путь уже есть,
+    // а книга ещё не прочитана.
+    private boolean bookOpen;
+
+    // Состояние синхронизации книги с таблицей persons (см. BookSync).
+    private SyncState syncState = SyncState.EMPTY;
+    // Увеличивается при смене книги: результат синхронизации прежней книги не применяется.
+    private int bookGeneration;
+    private boolean syncing;
 
     @Override
     public void start(Stage primaryStage) throws Exception {
@@ -111,11 +212,41 @@ public class MainApp extends Application {
         this.primaryStage.setTitle("AddressApp");
 
         // Устанавливаем иконку приложения.
-        this.primaryStage.getIcons().add(new Image("file:resources/images/icon_Address_Book.png"));
+        this.primaryStage.getIcons().add(ImageCache.get("icon_Address_Book.png"));
+
+        saver.setOnSaved(this::setPersonFilePath);
+        saver.setOnFailed(this::showSaveError);
+        saver.setOnWritten(this::bookWritten);
+        saver.setSyncState(() -> syncState);
+        // В заголовке окна показываем, как прошло последнее сохранение.
+        saver.statusProperty().addListener((observable, oldValue, newValue) -> updateTitle());
 
+        // Изменения списка адресатов и его размер - в метрики; по свойству
+        // address.metrics.reportSeconds метрики ещё и пишутся в журнал.
+        Metrics.watch("persons", personData);
+        Metrics.startReporterIfConfigured();
+
+        startupPhase("fx-started");
+
+        // Сначала показываем окно с меню и индикатором загрузки на месте
+        // таблицы; книга и макет таблицы загружаются параллельно в фоне.
         initRootLayout();
+        startupPhase("window-shown");
 
         showPersonOverview();
+
+        createDialogs();
+    }
+
+    /**
+     * Записывает в журнал время от запуска JVM до окончания этапа запуска
+     * и публикует его постоянным значением startup.&lt;phase&gt;.ms: каждый
+     * этап проходится один раз, гистограмма длительностей ему не нужна.
+     */
+    private static void startupPhase(String phase) {
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        Metrics.gauge("startup." + phase + ".ms", () -> uptime);
+        LOG.info("Startup: {} at {} ms", phase, uptime);
     }
 
     /**
@@ -124,17 +255,19 @@ public class MainApp extends Application {
     private void initRootLayout() {
         try {
             // Загружаем корневой макет из fxml файла.
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(MainApp.class.getResource("view/rootLayout.fxml"));
-            rootLayout = (BorderPane) loader.load();
+            FXMLLoader loader = ViewLoader.load(MainApp.class.getResource("view/rootLayout.fxml"));
+            rootLayout = (BorderPane) loader.getRoot();
 
             // Отображаем сцену, содержащую корневой макет.
             Scene scene = new Scene(rootLayout);
             primaryStage.setScene(scene);
 
             // Даём контроллеру доступ к главному класса приложения.
-            RootLayoutController controller = loader.getController();
-            controller.setMainApp(this);
+            rootLayoutController = loader.getController();
+            rootLayoutController.setMainApp(this);
+
+            // Пока макет таблицы не готов, на её месте - индикатор загрузки.
+            rootLayout.setCenter(new ProgressIndicator());
 
             primaryStage.show();
         } catch (IOException e) {
@@ -145,55 +278,101 @@ public class MainApp extends Application {
         File file = getPersonFilePath();
         if (file != null) {
             loadPersonDataFromFile(file);
+            loadTask.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED,
+                    event -> startupPhase("book-loaded"));
         }
     }
 
     /**
-     * Показывает в корневом макете сведения об адресатах.
+     * Показывает в корневом макете сведения об адресатах. Макет разбирается
+     * в фоновом потоке, в корневой макет он ставится в потоке JavaFX.
      */
     private void showPersonOverview() {
-        try {
-            // Загружаем сведения об адресатах.
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(MainApp.class.getResource("view/personOverview.fxml"));
-            AnchorPane personOverview = (AnchorPane) loader.load();
+        Task<FXMLLoader> task = new Task<FXMLLoader>() {
+            @Override
+            protected FXMLLoader call() throws Exception {
+                // Загружаем сведения об адресатах.
+                return ViewLoader.load(MainApp.class.getResource("view/personOverview.fxml"));
+            }
+        };
+        task.setOnSucceeded(event -> {
+            FXMLLoader loader = task.getValue();
+            AnchorPane personOverview = (AnchorPane) loader.getRoot();
 
             // Помещаем сведения об адресатах в центр корневого макета.
             rootLayout.setCenter(personOverview);
 
             // Даём контроллеру доступ к главному приложению.
-            PersonOverviewController controller = loader.getController();
-            controller.setMainApp(this);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+            personOverviewController = loader.getController();
+            personOverviewController.setMainApp(this);
+            if (databaseList != null) {
+                personOverviewController.showDatabase(databaseList);
+            }
+            // С этого момента с таблицей можно работать.
+            startupPhase("overview-shown");
+        });
+        task.setOnFailed(event -> {
+            // Обработчик вызывается в потоке JavaFX: убираем индикатор
+            // загрузки, иначе он крутился бы вместо таблицы бесконечно.
+            LOG.error("Could not load the person overview", task.getException());
+            rootLayout.setCenter(new Label("The person table could not be loaded."));
+
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not load the person table");
+            alert.setContentText(String.valueOf(task.getException()));
+
+            alert.showAndWait();
+        });
+
+        Thread thread = new Thread(task, "overview-loader");
+        thread.setDaemon(true);
+        thread.start();
     }
 
     /**
-     * Конструктор
+     * Конструктор. Адресаты появятся при загрузке последней открытой книги.
      */
     public MainApp() {
-        // В качестве образца добавляем некоторые данные
-        personData.add(new Person("Hans", "Muster"));
-        personData.add(new Person("Ruth", "Mueller"));
-        personData.add(new Person("Heinz", "Kurz"));
-        personData.add(new Person("Cornelia", "Meier"));
-        personData.add(new Person("Werner", "Meyer"));
-        personData.add(new Person("Lydia", "Kunz"));
-        personData.add(new Person("Anna", "Best"));
-        personData.add(new Person("Stefan", "Meier"));
-        personData.add(new Person("Martin", "Mueller"));
     }
 
     /**
      * Возвращает данные в виде наблюдаемого списка адресатов.
      *
-     * @return коллекция ObservableList
+     * @return наблюдаемый список адресатов поверх хранилища
      */
-    public ObservableList<Person> getPersonData() {
+    public PersonStoreList getPersonData() {
         return personData;
     }
 
+    /**
+     * Возвращает адресатов, подходящих под строку поиска
+     * (см. {@link SearchResultList#setQuery(String)}).
+     *
+     * @return список результатов поиска
+     */
+    public SearchResultList getSearchResults() {
+        return searchResults;
+    }
+
+    /**
+     * Возвращает индекс дней рождений адресатов.
+     *
+     * @return индекс дней рождений
+     */
+    public BirthdayIndex getBirthdayIndex() {
+        return birthdayIndex;
+    }
+
+    /**
+     * Возвращает историю правок текущей книги.
+     *
+     * @return история для отмены и повтора правок
+     */
+    public PersonHistory getHistory() {
+        return history;
+    }
+
     /**
      * Возвращает главную сцену.
      *
@@ -207,72 +386,68 @@ public class MainApp extends Application {
      * Открывает диалоговое окно для изменения деталей указанного адресата.
      * Если пользователь кликнул OK, то изменения сохраняются в предоставленном
      * объекте адресата и возвращается значение true.
+     * <p>
+     * Окно строится один раз (см. {@link ReusableDialog}), при следующих
+     * вызовах показывается то же окно с новым адресатом.
      *
      * @param person - объект адресата, который надо изменить
      * @return true, если пользователь кликнул OK, в противном случае false.
      */
     public boolean showPersonEditDialog(Person person) {
-        try {
-            // Загружаем fxml-файл и создаём новую сцену
-            // для всплывающего диалогового окна.
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(MainApp.class.getResource("view/personEditDialog.fxml"));
-            AnchorPane page = (AnchorPane) loader.load();
-
-            // Создаём диалоговое окно Stage.
-            Stage dialogStage = new Stage();
-            dialogStage.setTitle("Edit Person");
-            // Устанавливаем иконку для окна.
-            dialogStage.getIcons().add(new Image("file:resources/images/icon_edit.png"));
-            dialogStage.initModality(Modality.WINDOW_MODAL);
-            dialogStage.initOwner(primaryStage);
-            Scene scene = new Scene(page);
-            dialogStage.setScene(scene);
-
-            // Передаём адресата в контроллер.
-            PersonEditDialogController controller = loader.getController();
-            controller.setDialogStage(dialogStage);
-            controller.setPerson(person);
-
-            // Отображаем диалоговое окно и ждём, пока пользователь его не закроет
-            dialogStage.showAndWait();
-
-            return controller.isOkClicked();
-        } catch (IOException e) {
-            e.printStackTrace();
-            return false;
-        }
+        // Передаём адресата в контроллер.
+        PersonEditDialogController controller = editDialog.getController();
+        controller.setDictionary(personData.getStore().getDictionary());
+        controller.setPerson(person);
+
+        // Отображаем диалоговое окно и ждём, пока пользователь его не закроет
+        editDialog.showAndWait();
+
+        return controller.isOkClicked();
     }
 
     /**
      * Открывает диалоговое окно для вывода статистики дней рождений.
+     * Диаграммы следят за гистограммами и тогда, когда окно закрыто,
+     * поэтому повторное открытие ничего не пересчитывает.
      */
     public void showBirthdayStatistics() {
-        try {
-            // Загружает fxml-файл и создаёт новую сцену для всплывающего окна.
-            FXMLLoader loader = new FXMLLoader();
-            loader.setLocation(MainApp.class.getResource("view/birthdayStatistics.fxml"));
-            AnchorPane page = (AnchorPane) loader.load();
-            Stage dialogStage = new Stage();
-            dialogStage.setTitle("Birthday Statistics");
-            dialogStage.initModality(Modality.WINDOW_MODAL);
-            dialogStage.initOwner(primaryStage);
-
-            // Устанавливаем иконку окна статистики дней рождений.
-            dialogStage.getIcons().add(new Image("file:resources/images/icon_calendar.png"));
-
-            Scene scene = new Scene(page);
-            dialogStage.setScene(scene);
-
-            // Передаёт адресатов в контроллер.
-            BirthdayStatisticsController controller = loader.getController();
-            controller.setPersonData(personData);
+        statisticsDialog.show();
+    }
 
-            dialogStage.show();
+    /**
+     * Открывает окно поиска дубликатов среди адресатов книги.
+     */
+    public void showDuplicates() {
+        // Передаёт адресатов в контроллер, он сразу запускает поиск.
+        duplicatesDialog.getController().setPersonData(personData);
+        duplicatesDialog.show();
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    /**
+     * Создаёт окна приложения (без показа). Макеты разбираются заранее
+     * в фоновом потоке, чтобы первое открытие окна тоже было быстрым.
+     */
+    private void createDialogs() {
+        editDialog = new ReusableDialog<>(MainApp.class.getResource("view/personEditDialog.fxml"),
+                "Edit Person", "icon_edit.png", primaryStage,
+                (stage, controller) -> controller.setDialogStage(stage));
+        statisticsDialog = new ReusableDialog<>(MainApp.class.getResource("view/birthdayStatistics.fxml"),
+                "Birthday Statistics", "icon_calendar.png", primaryStage,
+                (stage, controller) -> controller.setHistogram(birthdayHistogram));
+        duplicatesDialog = new ReusableDialog<>(MainApp.class.getResource("view/duplicates.fxml"),
+                "Find Duplicates", "icon_Address_Book.png", primaryStage,
+                (stage, controller) -> controller.setDialogStage(stage));
+
+        ExecutorService preloader = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "view-preloader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Сначала окно, которое открывают чаще всего.
+        editDialog.preload(preloader);
+        statisticsDialog.preload(preloader);
+        duplicatesDialog.preload(preloader);
+        preloader.shutdown();
     }
 
 
@@ -307,79 +482,479 @@ public class MainApp extends Application {
         Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
         if (file != null) {
             prefs.put("filePath", file.getPath());
-
-            // Обновление заглавия сцены.
-            primaryStage.setTitle("AddressApp - " + file.getName());
+            addRecentBook(file);
+            bookOpen = true;
         } else {
             prefs.remove("filePath");
+            bookOpen = false;
+            saver.forget();
+            journal.close();
+            history.reset();
+            bookChanges.reset();
+            syncState = SyncState.EMPTY;
+            bookGeneration++;
+        }
+
+        // Обновление заглавия сцены.
+        updateTitle();
+    }
+
+    /**
+     * Возвращает недавно открытые книги, начиная с последней. Список
+     * хранится в Preferences рядом с путём текущей книги.
+     *
+     * @return недавние книги (только для чтения)
+     */
+    public ObservableList<File> getRecentBooks() {
+        return FXCollections.unmodifiableObservableList(recentBooks);
+    }
+
+    private static List<File> readRecentBooks() {
+        Preferences prefs = Preferences.userNodeForPackage(MainApp.class);
+        List<File> files = new ArrayList<>();
+        for (String path : prefs.get("recentBooks", "").split("\n")) {
+            if (!path.isEmpty()) {
+                files.add(new File(path));
+            }
+        }
+        return files;
+    }
+
+    private void addRecentBook(File file) {
+        File book = file.getAbsoluteFile();
+        if (!recentBooks.isEmpty() && recentBooks.get(0).equals(book)) {
+            return;
+        }
+        recentBooks.remove(book);
+        recentBooks.add(0, book);
+        if (recentBooks.size() > MAX_RECENT_BOOKS) {
+            recentBooks.remove(MAX_RECENT_BOOKS, recentBooks.size());
+        }
+        List<String> paths = new ArrayList<>();
+        for (File recent : recentBooks) {
+            paths.add(recent.getPath());
+        }
+        Preferences.userNodeForPackage(MainApp.class).put("recentBooks", String.join("\n", paths));
+    }
 
-            // Обновление заглавия сцены.
-            primaryStage.setTitle("AddressApp");
+    /**
+     * Обновляет заглавие сцены: имя открытого файла и состояние сохранения.
+     */
+    private void updateTitle() {
+        File file = getPersonFilePath();
+        String title = file != null ? "AddressApp - " + file.getName() : "AddressApp";
+        if (databaseList != null) {
+            primaryStage.setTitle("AddressApp - database (" + databaseList.size() + " persons)");
+            return;
         }
+        String status = saver.statusProperty().get();
+        primaryStage.setTitle(status.isEmpty() ? title : title + " (" + status + ")");
     }
 
     /**
      * -= Демаршализация =-
      * Загружает информацию об адресатах из указанного файла.
      * Текущая информация об адресатах будет заменена.
+     * <p>
+     * Файл читается в фоновом потоке. XML, в том числе сжатый *.xml.gz,
+     * читается потоково (см. {@link LoadPersonsTask}),
+     * адресаты появляются в таблице пачками по мере чтения. Двоичный снимок
+     * *.abook (см. {@link BookSnapshot}) читается целиком. Если загрузку
+     * отменить, то список адресатов вернётся к прежнему состоянию.
+     * После загрузки поверх базового файла проигрывается его журнал изменений.
      *
      * @param file путь к сохраненному файлу.
      */
     public void loadPersonDataFromFile(File file) {
-        try {
-            JAXBContext context = JAXBContext
-                    .newInstance(PersonListWrapper.class);
-            Unmarshaller um = context.createUnmarshaller();
-
-            // Чтение XML из файла и демаршализация.
-            PersonListWrapper wrapper = (PersonListWrapper) um.unmarshal(file);
-
-            personData.clear();
-            personData.addAll(wrapper.getPersons());
-
+        supersedeLoading();
+        closeDatabase();
+        // Прежняя книга остаётся в рабочей области - к ней вернёмся и при отмене загрузки.
+        File previousFile = getPersonFilePath();
+        boolean stashed = stashCurrentBook();
+        // Пока идёт загрузка, в списке не книга из filePath.
+        bookOpen = false;
+        // Незаконченное сохранение относится к прежней книге.
+        saver.forget();
+        bookGeneration++;
+
+        // Запоминаем прежние данные, чтобы вернуть их при отмене или ошибке.
+        long start = LOAD_TIMER.start();
+        PersonStore previous = stashed ? null : personData.copyStore();
+        // Журнал прежней книги закрываем, а не только приостанавливаем: иначе
+        // дописанный в это время пакет мог бы запустить уплотнение, и снимок
+        // списка с новой книгой лёг бы поверх файла прежней.
+        journal.close();
+        journal.suspend();
+        history.suspend();
+        bookChanges.reset();
+        // Новая книга - новый словарь строк: строки прежней книги ему не нужны.
+        personData.setAll(new PersonStore());
+
+        Task<Integer> task = BookFormat.of(file) == BookFormat.SNAPSHOT
+                ? new LoadSnapshotTask(file, personData)
+                : new LoadPersonsTask(file, personData);
+        task.setOnSucceeded(event -> {
+            loadTask = null;
+            LOAD_TIMER.stop(start);
+            try {
+                journal.open(file);
+            } catch (IOException e) {
+                // Журнал не читается - книга остаётся такой, как в базовом файле.
+                e.printStackTrace();
+            }
+            try {
+                syncState = SyncState.read(file);
+                syncState.attach(personData.getStore());
+            } catch (IOException e) {
+                // Без состояния синхронизации все строки книги считаются новыми.
+                e.printStackTrace();
+                syncState = SyncState.EMPTY;
+            }
+            history.reset();
             // Сохраняем путь к файлу в реестре.
             setPersonFilePath(file);
+            trimBooks();
+        });
+        task.setOnCancelled(event -> {
+            loadTask = null;
+            restoreBook(previousFile, previous, !loadSuperseded);
+        });
+        task.setOnFailed(event -> {
+            loadTask = null;
+            LOAD_FAILURES.inc();
+            restoreBook(previousFile, previous, true);
 
-        } catch (Exception e) { // catches ANY exception
             Alert alert = new Alert(Alert.AlertType.ERROR);
             alert.setTitle("Error");
             alert.setHeaderText("Could not load data");
             alert.setContentText("Could not load data from file:\n" + file.getPath());
 
             alert.showAndWait();
+        });
+        loadTask = task;
+
+        if (rootLayoutController != null) {
+            rootLayoutController.showLoadProgress(task);
+        }
+
+        Thread thread = new Thread(task, "person-loader");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Показывает в таблице адресатов из таблицы persons в БД. Таблица
+     * читается по страницам по мере прокрутки (см. {@link DatabasePersonList}),
+     * адресная книга при этом остаётся в памяти без изменений.
+     */
+    public void openDatabase() {
+        Task<DatabasePersonList> task = new Task<DatabasePersonList>() {
+            @Override
+            protected DatabasePersonList call() throws Exception {
+                return DatabasePersonList.open(new DatabaseHandler());
+            }
+        };
+        task.setOnSucceeded(event -> {
+            closeDatabase();
+            databaseList = task.getValue();
+            if (personOverviewController != null) {
+                personOverviewController.showDatabase(databaseList);
+            }
+            updateTitle();
+        });
+        task.setOnFailed(event -> {
+            task.getException().printStackTrace();
+            Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.setTitle("Error");
+            alert.setHeaderText("Could not open database");
+            alert.setContentText("Could not read table persons:\n" + task.getException().getMessage());
+
+            alert.showAndWait();
+        });
+
+        Thread thread = new Thread(task, "database-opener");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Возвращает таблицу к адресной книге, если показывалась БД.
+     */
+    public void closeDatabase() {
+        if (databaseList != null) {
+            databaseList.close();
+            databaseList = null;
+            if (personOverviewController != null) {
+                personOverviewController.showDatabase(null);
+            }
+            updateTitle();
+        }
+    }
+
+    /**
+     * Открывает книгу в рабочей области. Если книга уже открывалась и
+     * ещё в кэше (см. {@link BookCache}), то переключение мгновенное:
+     * файл не читается, журнал не проигрывается. Иначе книга загружается
+     * из файла. Текущая книга при этом сохраняется и остаётся в кэше.
+     *
+     * @param file файл книги
+     */
+    public void openBook(File file) {
+        File current = getPersonFilePath();
+        if (loadTask == null && current != null && current.getAbsoluteFile().equals(file.getAbsoluteFile())) {
+            closeDatabase();
+            return;
+        }
+        if (!books.contains(file)) {
+            loadPersonDataFromFile(file);
+            return;
+        }
+        supersedeLoading();
+        closeDatabase();
+        stashCurrentBook();
+        activateBook(file, books.take(file));
+        trimBooks();
+    }
+
+    /**
+     * Начинает новую пустую книгу. Текущая книга сохраняется и остаётся
+     * в рабочей области.
+     */
+    public void newBook() {
+        supersedeLoading();
+        closeDatabase();
+        stashCurrentBook();
+        personData.setAll(new PersonStore());
+        setPersonFilePath(null);
+        trimBooks();
+    }
+
+    /**
+     * Сохраняет текущую книгу и кладёт её хранилище в кэш рабочей области.
+     * После этого список адресатов нужно сразу переключить на другое
+     * хранилище: прежнее принадлежит кэшу.
+     *
+     * @return false, если книги нет (не загружена или ещё не сохранялась в файл)
+     */
+    private boolean stashCurrentBook() {
+        File file = getPersonFilePath();
+        if (file == null || !bookOpen || loadTask != null) {
+            return false;
+        }
+        boolean current;
+        BookCache.DiskState disk;
+        if (saver.isWriting()) {
+            // Идущая запись сняла копию раньше последних изменений, а
+            // следующую запись переключение книги отменит.
+            current = false;
+            disk = BookCache.DiskState.UNSAVED;
+        } else if (journal.isOpenFor(file) && !journal.hasPendingChanges()) {
+            current = true;
+            disk = BookCache.DiskState.SAVED;
+        } else {
+            boolean append = journal.canAppend(file);
+            savePersonDataToFile(file);
+            current = append && !journal.hasPendingChanges();
+            // Чем закончится начатая запись, кэш узнает из bookWritten.
+            disk = saver.isWriting() ? BookCache.DiskState.WRITING
+                    : current ? BookCache.DiskState.SAVED : BookCache.DiskState.UNSAVED;
+        }
+        books.put(file, personData.getStore(), syncState, current, disk);
+        return true;
+    }
+
+    /**
+     * Делает книгу из кэша текущей: отдаёт её хранилище списку адресатов.
+     */
+    private void activateBook(File file, BookCache.Entry book) {
+        // Незаконченное сохранение относится к прежней книге.
+        saver.forget();
+        bookGeneration++;
+        journal.close();
+        bookChanges.reset();
+        personData.setAll(book.getStore());
+        journal.attach(file, book.isCurrent());
+        history.reset();
+        setPersonFilePath(file);
+        syncState = book.getSyncState();
+    }
+
+    /**
+     * Возвращает книгу, которая была открыта до отменённой или неудачной загрузки.
+     *
+     * @param file     файл прежней книги или null
+     * @param previous копия прежних данных, если книга не попала в кэш
+     * @param reload   перечитать прежнюю книгу с диска, если её уже нет в кэше;
+     *                 false, если вместо неё сразу открывается другая книга
+     */
+    private void restoreBook(File file, PersonStore previous, boolean reload) {
+        BookCache.Entry book = previous == null ? books.take(file) : null;
+        if (book != null) {
+            activateBook(file, book);
+            return;
+        }
+        if (previous != null) {
+            personData.setAll(previous);
+            journal.resume();
+            history.reset();
+        } else if (reload) {
+            // Книгу успели выгрузить из кэша - она целиком на диске.
+            loadPersonDataFromFile(file);
+        } else {
+            // Книгу выгрузили из кэша, а вместо неё уже открывается другая -
+            // не читаем её и не оставляем в списке недочитанную книгу.
+            personData.setAll(new PersonStore());
+            setPersonFilePath(null);
+        }
+    }
+
+    /**
+     * Выгружает из кэша книги, которые не помещаются в его бюджет.
+     */
+    private void trimBooks() {
+        for (File file : books.trim()) {
+            LOG.info("Workspace: unloaded {}", file);
+        }
+    }
+
+    /**
+     * Вызывается после каждой записи книги на диск. Если записывалась
+     * книга из кэша рабочей области, то после успешной записи её можно
+     * выгрузить, а после ошибки она остаётся в кэше и пользователь
+     * узнаёт об ошибке: обработчик ошибки сохранения для неё уже не вызовется.
+     */
+    private void bookWritten(File file, Throwable error) {
+        if (!books.written(file, error == null)) {
+            return;
+        }
+        if (error == null) {
+            trimBooks();
+        } else {
+            showSaveError(file, error);
+        }
+    }
+
+    /**
+     * Сообщает об ошибке сохранения книги.
+     */
+    private void showSaveError(File file, Throwable error) {
+        error.printStackTrace();
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.setTitle("Error");
+        alert.setHeaderText("Could not save data");
+        alert.setContentText("Could not save data to file:\n" + file.getPath());
+
+        alert.showAndWait();
+    }
+
+    /**
+     * Отменяет фоновую загрузку адресной книги, если она идёт.
+     */
+    public void cancelLoading() {
+        if (loadTask != null) {
+            loadTask.cancel();
+            loadTask = null;
+        }
+    }
+
+    /**
+     * Отменяет фоновую загрузку, потому что вместо неё открывается другая
+     * книга. Task.cancel() в потоке JavaFX сразу вызывает обработчик отмены,
+     * и тот возвращает прежнюю книгу, но только если она уже в памяти: иначе
+     * началась бы вложенная загрузка, которую открытие новой книги бросило бы,
+     * и обе загрузки писали бы в один список адресатов.
+     */
+    private void supersedeLoading() {
+        loadSuperseded = true;
+        try {
+            cancelLoading();
+        } finally {
+            loadSuperseded = false;
         }
     }
 
     /**
      * -= Маршаллинг =-
      * Сохраняет текущую информацию об адресатах в указанном файле.
+     * Формат файла (XML или двоичный снимок) определяется по расширению.
+     * <p>
+     * Если книга была загружена из этого же файла, то в его журнал
+     * дописываются только изменения (см. {@link ChangeJournal}). Иначе
+     * файл записывается целиком в фоновом потоке (см. {@link BookSaver}),
+     * а журнал начинается заново. После удачной записи BookSaver пишет и
+     * состояние синхронизации книги. Об ошибке сообщает обработчик BookSaver.
      *
      * @param file к файлу
      */
     public void savePersonDataToFile(File file) {
-        try {
-            JAXBContext context = JAXBContext
-                    .newInstance(PersonListWrapper.class);
-            Marshaller m = context.createMarshaller();
-            m.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
-
-            // Обёртываем наши данные об адресатах.
-            PersonListWrapper wrapper = new PersonListWrapper();
-            wrapper.setPersons(personData);
-
-            // Маршаллируем и сохраняем XML в файл.
-            m.marshal(wrapper, file);
+        saver.save(file);
+    }
 
-            // Сохраняем путь к файлу в реестре.
-            setPersonFilePath(file);
-        } catch (Exception e) { // catches ANY exception
+    /**
+     * Синхронизирует книгу с таблицей persons в обе стороны: передаются
+     * только изменения с прошлой синхронизации (см. {@link BookSync}).
+     * Обмен с БД идёт в фоновом потоке, затем книга сохраняется.
+     */
+    public void syncWithDatabase() {
+        File file = getPersonFilePath();
+        if (file == null || loadTask != null) {
+            Alert alert = new Alert(Alert.AlertType.WARNING);
+            alert.initOwner(primaryStage);
+            alert.setTitle("Sync");
+            alert.setHeaderText("No address book file");
+            alert.setContentText("Open or save the address book to a file before syncing.");
+            alert.showAndWait();
+            return;
+        }
+        if (syncing) {
+            return;
+        }
+        syncing = true;
+        int generation = bookGeneration;
+        BookSync sync = BookSync.prepare(personData, syncState, bookChanges, new PersonDao(new DatabaseHandler()));
+        Task<Void> task = new Task<Void>() {
+            @Override
+            protected Void call() throws Exception {
+                sync.run();
+                return null;
+            }
+        };
+        task.setOnSucceeded(event -> {
+            syncing = false;
+            if (generation != bookGeneration) {
+                return;
+            }
+            syncState = sync.apply(personData);
+            // Синхронизация раздаёт строкам id в обход событий списка - прежние версии устарели.
+            history.reset();
+            savePersonDataToFile(file);
+
+            Alert alert = new Alert(Alert.AlertType.INFORMATION);
+            alert.initOwner(primaryStage);
+            alert.setTitle("Sync");
+            alert.setHeaderText("Synchronized with database");
+            alert.setContentText("Received: " + sync.getPulledCount()
+                    + "\nSent: " + sync.getPushedCount()
+                    + "\nDeleted: " + sync.getDeletedCount()
+                    + "\nTime: " + sync.getElapsedMillis() + " ms");
+            alert.showAndWait();
+        });
+        task.setOnFailed(event -> {
+            syncing = false;
+            // Изменения, забранные синхронизацией, не записаны - следующая сравнит все строки.
+            bookChanges.reset();
+            task.getException().printStackTrace();
             Alert alert = new Alert(Alert.AlertType.ERROR);
+            alert.initOwner(primaryStage);
             alert.setTitle("Error");
-            alert.setHeaderText("Could not save data");
-            alert.setContentText("Could not save data to file:\n" + file.getPath());
-
+            alert.setHeaderText("Could not sync with database");
+            alert.setContentText(String.valueOf(task.getException().getMessage()));
             alert.showAndWait();
-        }
+        });
+
+        Thread thread = new Thread(task, "book-sync");
+        thread.setDaemon(true);
+        thread.start();
     }
 
 // Инициализация и загрузка основной страницы можно загрузить и таким образом, как
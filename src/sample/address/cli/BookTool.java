@@ -0,0 +1,383 @@
+package sample.address.cli;
+
+import sample.address.database.DatabaseHandler;
+import sample.address.database.PersonDao;
+import sample.address.model.PersonStore;
+import sample.address.model.StringDictionary;
+import sample.address.storage.ChunkedGzipInputStream;
+import sample.address.storage.ChunkedGzipOutputStream;
+import sample.address.storage.ParallelPersonXmlReader;
+import sample.address.storage.PersonXmlReader;
+import sample.address.storage.PersonXmlWriter;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Массовый импорт и экспорт адресатов без графического интерфейса:
+ * XML-книга (формат {@link sample.address.model.PersonListWrapper}),
+ * CSV (столбцы таблицы persons) и сама таблица persons - в любом
+ * направлении. JavaFX-приложение не запускается, дисплей не нужен.
+ * <pre>
+ *   java sample.address.cli.BookTool &lt;откуда&gt; &lt;куда&gt; [параметры]
+ *
+ *   &lt;откуда&gt;, &lt;куда&gt;   файл .xml, файл .csv или db (таблица persons);
+ *                     к файлу можно добавить .gz - он будет сжат частями
+ *   --batch N         строк в пачке (1000)
+ *   --queue N         пачек в каждой очереди конвейера (8)
+ *   --workers N       потоков преобразования (по числу ядер)
+ *   --writers N       потоков записи в БД (4)
+ * </pre>
+ * Работа идёт конвейером ({@link Pipeline}): один поток читает источник
+ * пачками, несколько потоков разбирают и кодируют пачки в формат
+ * назначения, запись идёт в файл по порядку или в БД несколькими
+ * соединениями сразу (COPY, пачка - одна транзакция). В конце печатаются
+ * пропускная способность и задержки пачек.
+ * <p>
+ * Файл назначения пишется во временный файл рядом и заменяется целиком
+ * только после успешной записи. Файлы *.gz сжимаются и распаковываются
+ * частями в несколько потоков (см. {@link ChunkedGzipOutputStream}).
+ */
+public final class BookTool {
+
+    private static final String DB = "db";
+
+    /**
+     * Пачка после чтения: строки уже в хранилище (XML, БД)
+     * или ещё не разобранные записи CSV.
+     */
+    private static final class Chunk {
+        final PersonStore rows;
+        final List<String> records;
+        final long firstRecord;
+
+        Chunk(PersonStore rows) {
+            this.rows = rows;
+            this.records = null;
+            this.firstRecord = 0;
+        }
+
+        Chunk(List<String> records, long firstRecord) {
+            this.rows = null;
+            this.records = records;
+            this.firstRecord = firstRecord;
+        }
+    }
+
+    /**
+     * Место назначения: кодирование пачки (из нескольких потоков)
+     * и запись закодированных байт.
+     */
+    private interface Target {
+        boolean isOrdered();
+
+        byte[] encode(PersonStore rows) throws IOException;
+
+        long write(byte[] data) throws Exception;
+
+        void finish() throws IOException;
+
+        void abort();
+    }
+
+    private int batchSize = 1000;
+    private int queueSize = 8;
+    private int workers = Runtime.getRuntime().availableProcessors();
+    private int writers = 4;
+
+    private final DatabaseHandler handler = new DatabaseHandler();
+
+    private BookTool() {
+    }
+
+    public static void main(String[] args) {
+        BookTool tool = new BookTool();
+        List<String> endpoints = new ArrayList<>();
+        try {
+            for (int i = 0; i < args.length; i++) {
+                switch (args[i]) {
+                    case "--batch":
+                        tool.batchSize = positive(args, ++i);
+                        break;
+                    case "--queue":
+                        tool.queueSize = positive(args, ++i);
+                        break;
+                    case "--workers":
+                        tool.workers = positive(args, ++i);
+                        break;
+                    case "--writers":
+                        tool.writers = positive(args, ++i);
+                        break;
+                    default:
+                        endpoints.add(args[i]);
+                        break;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            endpoints.clear();
+        }
+        if (endpoints.size() != 2 || DB.equals(endpoints.get(0)) && DB.equals(endpoints.get(1))) {
+            usage();
+            System.exit(2);
+        }
+
+        try {
+            Pipeline.Stats stats = tool.copy(endpoints.get(0), endpoints.get(1));
+            report(endpoints.get(0), endpoints.get(1), stats);
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println("Failed: " + e);
+            e.printStackTrace();
+            System.exit(1);
+        }
+    }
+
+    private static int positive(String[] args, int i) {
+        try {
+            int value = Integer.parseInt(args[i]);
+            if (value > 0) {
+                return value;
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            // ниже
+        }
+        throw new IllegalArgumentException("Option " + args[i - 1] + " needs a positive number");
+    }
+
+    private static void usage() {
+        System.err.println("Usage: BookTool <from> <to> [--batch N] [--queue N] [--workers N] [--writers N]");
+        System.err.println("  <from>, <to>: a .xml book, a .csv file or \"" + DB + "\" (the persons table)");
+        System.err.println("  files may end with .gz to be compressed");
+    }
+
+    private Pipeline.Stats copy(String from, String to) throws Exception {
+        Pipeline.Source<Chunk> source = source(from);
+        Target target = target(to);
+        Pipeline<Chunk, byte[]> pipeline = new Pipeline<>(queueSize, workers, writers, target.isOrdered());
+        try {
+            Pipeline.Stats stats = pipeline.run(source, chunk -> target.encode(chunk.rows != null
+                    ? chunk.rows : CsvCodec.parse(chunk.records, chunk.firstRecord)), target::write);
+            target.finish();
+            return stats;
+        } catch (Exception e) {
+            target.abort();
+            throw e;
+        }
+    }
+
+    private Pipeline.Source<Chunk> source(String from) throws IOException {
+        if (DB.equals(from)) {
+            PersonDao dao = new PersonDao(handler);
+            return out -> dao.readAll(batchSize, batch -> out.emit(new Chunk(batch), batch.size()));
+        }
+        File file = new File(from);
+        if (!file.isFile()) {
+            throw new IOException("No such file: " + file);
+        }
+        if (isCsv(from)) {
+            return out -> {
+                try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                        ChunkedGzipInputStream.open(file), StandardCharsets.UTF_8), 64 * 1024)) {
+                    List<String> records = new ArrayList<>(batchSize);
+                    long number = 1;
+                    long first = 1;
+                    for (String record = CsvCodec.readRecord(in); record != null;
+                         record = CsvCodec.readRecord(in), number++) {
+                        if (number == 1 && CsvCodec.isHeader(record) || record.isEmpty()) {
+                            continue;
+                        }
+                        if (records.isEmpty()) {
+                            first = number;
+                        }
+                        records.add(record);
+                        if (records.size() == batchSize) {
+                            out.emit(new Chunk(records, first), records.size());
+                            records = new ArrayList<>(batchSize);
+                        }
+                    }
+                    if (!records.isEmpty()) {
+                        out.emit(new Chunk(records, first), records.size());
+                    }
+                }
+            };
+        }
+        if (ParallelPersonXmlReader.isSuitable(file)) {
+            // Участки файла разбираются в пуле fork-join, сюда приходят по порядку.
+            return out -> {
+                try (ParallelPersonXmlReader reader = new ParallelPersonXmlReader(file, new StringDictionary())) {
+                    for (PersonStore rows = reader.nextBatch(); rows != null; rows = reader.nextBatch()) {
+                        for (int start = 0; start < rows.size(); start += batchSize) {
+                            int end = Math.min(rows.size(), start + batchSize);
+                            out.emit(new Chunk(rows.copy(start, end)), end - start);
+                        }
+                    }
+                }
+            };
+        }
+        // Сжатый или небольшой XML разбирается последовательно, в потоке чтения.
+        return out -> {
+            try (PersonXmlReader reader = new PersonXmlReader(file)) {
+                PersonStore batch = new PersonStore();
+                while (reader.next(batch)) {
+                    if (batch.size() == batchSize) {
+                        out.emit(new Chunk(batch), batch.size());
+                        batch = new PersonStore();
+                    }
+                }
+                if (batch.size() > 0) {
+                    out.emit(new Chunk(batch), batch.size());
+                }
+            }
+        };
+    }
+
+    private Target target(String to) throws IOException {
+        if (DB.equals(to)) {
+            return new Target() {
+                @Override
+                public boolean isOrdered() {
+                    return false;
+                }
+
+                @Override
+                public byte[] encode(PersonStore rows) {
+                    StringBuilder text = new StringBuilder(rows.size() * 64);
+                    for (int row = 0; row < rows.size(); row++) {
+                        DatabaseHandler.appendCopyRow(text, rows, row);
+                    }
+                    return text.toString().getBytes(StandardCharsets.UTF_8);
+                }
+
+                @Override
+                public long write(byte[] data) throws Exception {
+                    handler.copyEncoded(data);
+                    return data.length;
+                }
+
+                @Override
+                public void finish() {
+                }
+
+                @Override
+                public void abort() {
+                    // Уже записанные пачки зафиксированы - каждая своей транзакцией.
+                }
+            };
+        }
+        boolean csv = isCsv(to);
+        return new FileTarget(new File(to), isCompressed(to),
+                csv ? CsvCodec.HEADER + "\n" : PersonXmlWriter.DOCUMENT_START,
+                csv ? "" : PersonXmlWriter.DOCUMENT_END) {
+            @Override
+            public byte[] encode(PersonStore rows) throws IOException {
+                if (csv) {
+                    StringBuilder text = new StringBuilder(rows.size() * 64);
+                    for (int row = 0; row < rows.size(); row++) {
+                        CsvCodec.appendRow(text, rows, row);
+                    }
+                    return text.toString().getBytes(StandardCharsets.UTF_8);
+                }
+                ByteArrayOutputStream out = new ByteArrayOutputStream(rows.size() * 200);
+                PersonXmlWriter.writeFragment(rows, out);
+                return out.toByteArray();
+            }
+        };
+    }
+
+    /**
+     * Запись в файл: начало, пачки по порядку, конец; сначала во временный
+     * файл, который затем атомарно заменяет файл назначения.
+     */
+    private abstract static class FileTarget implements Target {
+        private final File file;
+        private final File temp;
+        private final byte[] end;
+        private final FileOutputStream stream;
+        private final OutputStream out;
+        private final ChunkedGzipOutputStream compressed;
+
+        FileTarget(File file, boolean compress, String start, String end) throws IOException {
+            this.file = file;
+            this.temp = new File(file.getPath() + ".part");
+            this.end = end.getBytes(StandardCharsets.UTF_8);
+            this.stream = new FileOutputStream(temp);
+            OutputStream buffered = new BufferedOutputStream(stream, 256 * 1024);
+            this.compressed = compress ? new ChunkedGzipOutputStream(buffered) : null;
+            this.out = compress ? compressed : buffered;
+            out.write(start.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public boolean isOrdered() {
+            return true;
+        }
+
+        @Override
+        public long write(byte[] data) throws IOException {
+            out.write(data);
+            return data.length;
+        }
+
+        @Override
+        public void finish() throws IOException {
+            out.write(end);
+            if (compressed != null) {
+                compressed.finish();
+            }
+            out.flush();
+            stream.getFD().sync();
+            out.close();
+            try {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+
+        @Override
+        public void abort() {
+            try {
+                out.close();
+            } catch (IOException e) {
+                // файл всё равно удаляем
+            }
+            temp.delete();
+        }
+    }
+
+    private static boolean isCsv(String path) {
+        String name = path.toLowerCase(Locale.ROOT);
+        return name.endsWith(".csv") || name.endsWith(".csv.gz");
+    }
+
+    private static boolean isCompressed(String path) {
+        return path.toLowerCase(Locale.ROOT).endsWith(".gz");
+    }
+
+    private static void report(String from, String to, Pipeline.Stats stats) {
+        double seconds = stats.elapsedNanos / 1e9;
+        System.out.printf(Locale.ROOT, "%s -> %s: %d rows in %d batches, %.2f s%n",
+                from, to, stats.rows, stats.batches, seconds);
+        System.out.printf(Locale.ROOT, "throughput: %.0f rows/s, %.1f MB/s written%n",
+                stats.rows / seconds, stats.bytes / seconds / (1024 * 1024));
+        System.out.printf(Locale.ROOT, "batch latency: p50 %.1f ms, p95 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                stats.latencyMillis(50), stats.latencyMillis(95), stats.latencyMillis(99), stats.latencyMillis(100));
+        // Чтение ждёт места в очереди - узкое место дальше; запись ждёт пачек - узкое место раньше.
+        System.out.printf(Locale.ROOT, "reader blocked on full queue: %.2f s, writers idle on empty queue: %.2f s%n",
+                stats.sourceBlockedNanos / 1e9, stats.sinkIdleNanos / 1e9);
+    }
+}
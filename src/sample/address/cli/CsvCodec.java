@@ -0,0 +1,173 @@
+package sample.address.cli;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.util.DateCodec;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Адресаты в CSV (RFC 4180): столбцы и их порядок - как в таблице persons,
+ * первая строка - заголовок {@link #HEADER}. Поля с запятой, кавычкой или
+ * переводом строки заключаются в кавычки, кавычка внутри удваивается.
+ * Пустой индекс - 0, пустой день рождения - нет даты; дата в формате ISO.
+ */
+final class CsvCodec {
+
+    static final String HEADER = "first_name,last_name,street,postal_code,city,birthday";
+
+    private static final int COLUMNS = 6;
+
+    private CsvCodec() {
+    }
+
+    /**
+     * Читает одну запись CSV. Запись может занимать несколько строк файла,
+     * если перевод строки стоит внутри кавычек.
+     *
+     * @return запись без завершающего перевода строки или null в конце файла
+     */
+    static String readRecord(BufferedReader in) throws IOException {
+        String line = in.readLine();
+        if (line == null || !hasOpenQuote(line)) {
+            return line;
+        }
+        StringBuilder record = new StringBuilder(line);
+        while (hasOpenQuote(record)) {
+            line = in.readLine();
+            if (line == null) {
+                throw new IOException("Unexpected end of file inside a quoted field");
+            }
+            record.append('\n').append(line);
+        }
+        return record.toString();
+    }
+
+    // Нечётное число кавычек - поле в кавычках не закрыто.
+    private static boolean hasOpenQuote(CharSequence text) {
+        boolean open = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    /**
+     * @return true, если запись - строка заголовка
+     */
+    static boolean isHeader(String record) {
+        return HEADER.equalsIgnoreCase(record.trim());
+    }
+
+    /**
+     * Разбирает записи CSV в хранилище.
+     *
+     * @param records     записи
+     * @param firstRecord номер первой записи в файле, для сообщений об ошибках
+     */
+    static PersonStore parse(List<String> records, long firstRecord) throws IOException {
+        PersonStore store = new PersonStore();
+        List<String> fields = new ArrayList<>(COLUMNS);
+        for (int i = 0; i < records.size(); i++) {
+            fields.clear();
+            split(records.get(i), fields);
+            if (fields.size() != COLUMNS) {
+                throw new IOException("Record " + (firstRecord + i) + ": expected " + COLUMNS
+                        + " fields, found " + fields.size());
+            }
+            Person person = new Person();
+            person.setFirstName(fields.get(0));
+            person.setLastName(fields.get(1));
+            person.setStreet(fields.get(2));
+            String postalCode = fields.get(3).trim();
+            String birthday = fields.get(5).trim();
+            try {
+                person.setPostalCode(postalCode.isEmpty() ? 0 : Integer.parseInt(postalCode));
+            } catch (NumberFormatException e) {
+                throw new IOException("Record " + (firstRecord + i) + ": no valid postal code: " + postalCode);
+            }
+            person.setCity(fields.get(4));
+            if (birthday.isEmpty()) {
+                person.setBirthday(null);
+            } else {
+                int epochDay = DateCodec.parseIso(birthday);
+                if (epochDay == DateCodec.INVALID) {
+                    throw new IOException("Record " + (firstRecord + i) + ": no valid birthday: " + birthday);
+                }
+                person.setBirthday(DateCodec.toLocalDate(epochDay));
+            }
+            store.add(person);
+        }
+        return store;
+    }
+
+    private static void split(String record, List<String> fields) {
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < record.length() && record.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+    }
+
+    /**
+     * Добавляет строку хранилища как запись CSV с переводом строки.
+     */
+    static void appendRow(StringBuilder out, PersonStore store, int row) {
+        appendText(out, store.getFirstName(row)).append(',');
+        appendText(out, store.getLastName(row)).append(',');
+        appendText(out, store.getStreet(row)).append(',');
+        out.append(store.getPostalCode(row)).append(',');
+        appendText(out, store.getCity(row)).append(',');
+        int birthday = store.getBirthdayEpochDay(row);
+        if (birthday != PersonStore.NULL_DATE) {
+            DateCodec.appendIso(out, birthday);
+        }
+        out.append('\n');
+    }
+
+    private static StringBuilder appendText(StringBuilder out, String value) {
+        if (value == null) {
+            return out;
+        }
+        boolean quote = false;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            return out.append(value);
+        }
+        out.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.append('"');
+            }
+            out.append(c);
+        }
+        return out.append('"');
+    }
+}
@@ -0,0 +1,279 @@
+package sample.address.cli;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Конвейер из трёх ступеней с ограниченными очередями между ними:
+ * <pre>
+ *   чтение (1 поток) -&gt; [очередь] -&gt; преобразование (N потоков) -&gt; [очередь] -&gt; запись (M потоков)
+ * </pre>
+ * Данные идут пачками. Очереди ограничены, поэтому быстрая ступень
+ * ждёт медленную, а в памяти одновременно не больше нескольких пачек.
+ * <p>
+ * Если запись должна сохранять порядок (файл), пачки пишутся одним потоком
+ * в порядке чтения, даже если преобразование закончило их не по порядку.
+ * <p>
+ * Ошибка в любой ступени останавливает весь конвейер, и {@link #run}
+ * выбрасывает её.
+ *
+ * @param <A> пачка после чтения
+ * @param <B> пачка после преобразования
+ */
+final class Pipeline<A, B> {
+
+    /**
+     * Ступень чтения: передаёт пачки в {@link Emitter}.
+     */
+    interface Source<A> {
+        void produce(Emitter<A> out) throws Exception;
+    }
+
+    interface Emitter<A> {
+        /**
+         * @param batch пачка
+         * @param rows  сколько в ней строк
+         */
+        void emit(A batch, int rows) throws InterruptedException;
+    }
+
+    /**
+     * Ступень преобразования; вызывается из нескольких потоков сразу.
+     */
+    interface Stage<A, B> {
+        B apply(A batch) throws Exception;
+    }
+
+    /**
+     * Ступень записи.
+     */
+    interface Sink<B> {
+        /**
+         * @return сколько байт записано
+         */
+        long accept(B batch) throws Exception;
+    }
+
+    /**
+     * Итоги работы конвейера.
+     */
+    static final class Stats {
+        long rows;
+        long batches;
+        long bytes;
+        long elapsedNanos;
+        // Время от чтения пачки до конца её записи, по пачкам.
+        long[] latencyNanos;
+        // Сколько чтение ждало места в очереди и запись - пачек.
+        long sourceBlockedNanos;
+        long sinkIdleNanos;
+
+        /**
+         * @param percent процент, от 0 до 100
+         * @return задержка пачки этого перцентиля, мс
+         */
+        double latencyMillis(double percent) {
+            if (latencyNanos.length == 0) {
+                return 0;
+            }
+            int index = (int) Math.ceil(percent / 100 * latencyNanos.length) - 1;
+            return latencyNanos[Math.max(0, Math.min(index, latencyNanos.length - 1))] / 1e6;
+        }
+    }
+
+    private static final class Batch<T> {
+        // Маркер: этот поток чтения или преобразования закончил.
+        static final Batch<Object> END = new Batch<>(-1, 0, 0, null);
+        // Маркер для потоков записи: закончили все преобразователи.
+        static final Batch<Object> FINAL = new Batch<>(-1, 0, 0, null);
+
+        final long seq;
+        final int rows;
+        final long startNanos;
+        final T value;
+
+        Batch(long seq, int rows, long startNanos, T value) {
+            this.seq = seq;
+            this.rows = rows;
+            this.startNanos = startNanos;
+            this.value = value;
+        }
+    }
+
+    private final int workers;
+    private final int writers;
+    private final boolean ordered;
+    private final BlockingQueue<Batch<?>> read;
+    private final BlockingQueue<Batch<?>> converted;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+    private final List<Thread> threads = new CopyOnWriteArrayList<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong sinkIdle = new AtomicLong();
+    private long sourceBlocked;
+    private long[] latencies = new long[256];
+    private int latencyCount;
+
+    /**
+     * @param capacity размер каждой очереди, в пачках
+     * @param workers  потоков преобразования
+     * @param writers  потоков записи; при ordered всегда один
+     * @param ordered  писать пачки в порядке чтения
+     */
+    Pipeline(int capacity, int workers, int writers, boolean ordered) {
+        this.workers = workers;
+        this.writers = ordered ? 1 : writers;
+        this.ordered = ordered;
+        this.read = new ArrayBlockingQueue<>(capacity);
+        this.converted = new ArrayBlockingQueue<>(capacity);
+    }
+
+    /**
+     * Запускает конвейер и ждёт, пока все пачки будут записаны.
+     */
+    Stats run(Source<A> source, Stage<A, B> stage, Sink<B> sink) throws Exception {
+        long start = System.nanoTime();
+        AtomicLong rows = new AtomicLong();
+        AtomicLong batches = new AtomicLong();
+        AtomicInteger runningWorkers = new AtomicInteger(workers);
+
+        // Сначала создаём все потоки и только потом запускаем: ошибка в
+        // ступени, упавшей сразу, должна прервать все остальные потоки, а
+        // не только те, что успели появиться к этому моменту.
+        add("reader", () -> {
+            long[] seq = {0};
+            source.produce((value, count) -> {
+                long wait = System.nanoTime();
+                read.put(new Batch<>(seq[0]++, count, wait, value));
+                sourceBlocked += System.nanoTime() - wait;
+            });
+            for (int i = 0; i < workers; i++) {
+                read.put(Batch.END);
+            }
+        });
+        for (int i = 0; i < workers; i++) {
+            add("converter-" + i, () -> {
+                for (Batch<?> batch = read.take(); batch != Batch.END; batch = read.take()) {
+                    @SuppressWarnings("unchecked")
+                    A value = (A) batch.value;
+                    converted.put(new Batch<>(batch.seq, batch.rows, batch.startNanos, stage.apply(value)));
+                }
+                converted.put(Batch.END);
+            });
+        }
+        for (int i = 0; i < writers; i++) {
+            add("writer-" + i, () -> {
+                // Пачки, пришедшие раньше своей очереди (только при ordered).
+                Map<Long, Batch<?>> early = new HashMap<>();
+                long next = 0;
+                while (true) {
+                    long wait = System.nanoTime();
+                    Batch<?> batch = converted.take();
+                    sinkIdle.addAndGet(System.nanoTime() - wait);
+                    if (batch == Batch.FINAL) {
+                        break;
+                    }
+                    if (batch == Batch.END) {
+                        if (runningWorkers.decrementAndGet() == 0) {
+                            // Данных больше не будет - отпускаем остальные потоки записи.
+                            for (int other = 1; other < writers; other++) {
+                                converted.put(Batch.FINAL);
+                            }
+                            break;
+                        }
+                        continue;
+                    }
+                    if (!ordered) {
+                        write(sink, batch, rows, batches);
+                        continue;
+                    }
+                    early.put(batch.seq, batch);
+                    for (Batch<?> ready = early.remove(next); ready != null; ready = early.remove(next)) {
+                        write(sink, ready, rows, batches);
+                        next++;
+                    }
+                }
+            });
+        }
+
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        if (failure.get() != null) {
+            // Ступень упала, пока запускались остальные: прерывание потока,
+            // который ещё не был запущен, теряется, поэтому повторяем его.
+            interruptAll();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Throwable error = failure.get();
+        if (error instanceof Exception) {
+            throw (Exception) error;
+        } else if (error != null) {
+            throw new RuntimeException(error);
+        }
+
+        Stats stats = new Stats();
+        stats.rows = rows.get();
+        stats.batches = batches.get();
+        stats.bytes = bytes.get();
+        stats.elapsedNanos = System.nanoTime() - start;
+        stats.latencyNanos = Arrays.copyOf(latencies, latencyCount);
+        Arrays.sort(stats.latencyNanos);
+        stats.sourceBlockedNanos = sourceBlocked;
+        stats.sinkIdleNanos = sinkIdle.get() / writers;
+        return stats;
+    }
+
+    private void write(Sink<B> sink, Batch<?> batch, AtomicLong rows, AtomicLong batches) throws Exception {
+        @SuppressWarnings("unchecked")
+        B value = (B) batch.value;
+        bytes.addAndGet(sink.accept(value));
+        rows.addAndGet(batch.rows);
+        batches.incrementAndGet();
+        long latency = System.nanoTime() - batch.startNanos;
+        synchronized (this) {
+            if (latencyCount == latencies.length) {
+                latencies = Arrays.copyOf(latencies, latencyCount * 2);
+            }
+            latencies[latencyCount++] = latency;
+        }
+    }
+
+    private interface Body {
+        void run() throws Exception;
+    }
+
+    /**
+     * Создаёт поток ступени; запускает все потоки {@link #run}.
+     */
+    private void add(String name, Body body) {
+        Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (InterruptedException e) {
+                // Конвейер остановлен из-за ошибки в другой ступени.
+            } catch (Throwable e) {
+                if (failure.compareAndSet(null, e)) {
+                    interruptAll();
+                }
+            }
+        }, "pipeline-" + name);
+        threads.add(thread);
+    }
+
+    private void interruptAll() {
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+}
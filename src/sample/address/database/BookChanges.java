@@ -0,0 +1,127 @@
+package sample.address.database;
+
+import javafx.collections.ListChangeListener;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/*
+ * Строки книги, изменённые с прошлой синхронизации (см. BookSync).
+ *
+ * Слушатель списка адресатов, как и журнал изменений (ChangeJournal),
+ * запоминает id добавленных и изменённых строк, поэтому синхронизация
+ * хеширует только их, а не всю книгу. Новые строки (без id) и удалённые
+ * строки BookSync находит по столбцу id, без хеширования.
+ *
+ * Пока книгу не синхронизировали после загрузки или переключения (или
+ * прошлая синхронизация не удалась), изменения неизвестны: книгу могли
+ * изменить ещё до загрузки. Тогда BookSync сравнивает все строки, но в
+ * фоновом потоке. Так же - если изменена большая часть книги: хранить
+ * id каждой строки дороже, чем один раз сравнить все.
+ *
+ * Методы вызываются в потоке JavaFX.
+ */
+public class BookChanges {
+
+    // Больше стольких изменённых строк (и не меньше восьмой части книги)
+    // не запоминаем - сравниваются все строки.
+    private static final int MIN_TRACKED = 1024;
+
+    private final PersonStoreList list;
+
+    // Изменения неизвестны: сравнивать все строки.
+    private boolean unknown = true;
+    private boolean suspended;
+    // id добавленных и изменённых строк, в том числе временные id BookSync.
+    private Set<Integer> dirty = new HashSet<>();
+
+    /**
+     * @param list список адресатов, изменения которого запоминаются
+     */
+    public BookChanges(PersonStoreList list) {
+        this.list = list;
+        list.addListener(this::onChanged);
+    }
+
+    /**
+     * Забывает изменения: в списке другая книга или книга загружена заново,
+     * следующая синхронизация сравнит все строки.
+     */
+    public void reset() {
+        unknown = true;
+        dirty = new HashSet<>();
+    }
+
+    /**
+     * @return true, если изменения неизвестны и сравнивать нужно все строки
+     */
+    boolean isUnknown() {
+        return unknown;
+    }
+
+    /**
+     * Забирает id изменённых строк и начинает запоминать изменения заново.
+     * Вызывается в начале синхронизации: правки, сделанные пока она идёт,
+     * достанутся следующей.
+     *
+     * @return id изменённых строк по возрастанию
+     */
+    int[] take() {
+        int[] ids = new int[dirty.size()];
+        int count = 0;
+        for (int id : dirty) {
+            ids[count++] = id;
+        }
+        Arrays.sort(ids);
+        unknown = false;
+        dirty = new HashSet<>();
+        return ids;
+    }
+
+    /**
+     * Перестаёт запоминать изменения: так BookSync применяет к книге
+     * строки из БД, которые изменениями книги не являются.
+     */
+    void suspend() {
+        suspended = true;
+    }
+
+    void resume() {
+        suspended = false;
+    }
+
+    /**
+     * Новая строка получила настоящий id вместо временного.
+     */
+    void renamed(int tempId, int id) {
+        if (dirty.remove(tempId)) {
+            dirty.add(id);
+        }
+    }
+
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        if (unknown || suspended) {
+            return;
+        }
+        PersonStore store = list.getStore();
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                continue;
+            }
+            // Изменённые и добавленные строки; удалённые BookSync найдёт сам.
+            for (int row = change.getFrom(); row < change.getTo(); row++) {
+                int id = store.getId(row);
+                if (id != 0) {
+                    dirty.add(id);
+                }
+            }
+        }
+        if (dirty.size() > Math.max(MIN_TRACKED, store.size() / 8)) {
+            reset();
+        }
+    }
+}
@@ -0,0 +1,360 @@
+package sample.address.database;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+import sample.address.storage.SyncState;
+
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/*
+ * Двусторонняя синхронизация адресной книги с таблицей persons.
+ *
+ * Вместо полного экспорта или импорта передаются только изменения:
+ * - из БД читаются строки, у которых created или updated позже водяного
+ *   знака (см. SyncState) - время последней прошлой синхронизации;
+ * - в БД пишутся только строки книги, изменённые с прошлой синхронизации:
+ *   новые (без id) - пачкой INSERT, изменённые (хеш содержимого отличается
+ *   от запомненного) - пачкой upsert, удалённые - одним DELETE по массиву id.
+ *   Всё это - одна транзакция: либо записаны все изменения, либо ни одного.
+ * Сетевой обмен и работа БД пропорциональны числу изменений, а не размеру
+ * книги. Хешируются только строки, изменённые после прошлой синхронизации
+ * (их id собирает BookChanges); если они неизвестны (первая синхронизация
+ * после загрузки), то все строки, но на шаге 2, по копии хранилища.
+ *
+ * Если строку изменили и в книге, и в БД, побеждает книга. Строки, удалённые
+ * в БД, находятся по списку всех id таблицы: синхронизированные id, которых
+ * в нём нет, удалены там.
+ *
+ * Синхронизация идёт в три шага:
+ * 1) prepare() в потоке JavaFX собирает новые и изменённые строки книги;
+ * 2) run() в фоновом потоке обменивается изменениями с БД;
+ * 3) apply() в потоке JavaFX применяет изменения из БД к книге
+ *    и возвращает новое состояние синхронизации.
+ * Пока идёт шаг 2, книгу можно редактировать: новые строки помечены
+ * временными отрицательными id, по которым на шаге 3 проставляются настоящие.
+ */
+public class BookSync {
+
+    // Запас времени при чтении изменений из БД. Время строк ставится по
+    // часам БД в начале транзакции (см. PersonDao), поэтому долгая
+    // транзакция другого клиента может зафиксировать строки с временем
+    // раньше водяного знака уже после прошлой синхронизации. Повторно
+    // прочитанные строки без изменений ничего не меняют.
+    private static final long OVERLAP_SECONDS = 60;
+
+    private final PersonDao dao;
+    private final SyncState state;
+    private final BookChanges changes;
+
+    // Изменения книги (шаг 1).
+    private final List<Person> created = new ArrayList<>();
+    private final int[] tempIds;
+    // id строк книги по порядку строк (новые - с временными id).
+    private final int[] rowIds;
+    // Строки, которые могли измениться, - их хеши сравниваются на шаге 2.
+    private final List<Person> candidates = new ArrayList<>();
+    // Копия хранилища, если изменения неизвестны и сравниваются все строки, иначе null.
+    private final PersonStore snapshot;
+
+    // Изменённые и удалённые строки книги (шаг 2).
+    private final List<Person> changed = new ArrayList<>();
+    private long[] changedHashes;
+    private int[] deleted;
+
+    // Изменения БД (шаг 2).
+    private List<Person> pulled = new ArrayList<>();
+    // Синхронизированные id, которых в таблице больше нет, по возрастанию.
+    private int[] remoteDeleted;
+    private LocalDateTime watermark;
+    private long elapsedNanos;
+    private int removedCount;
+
+    private BookSync(PersonDao dao, SyncState state, PersonStore store, BookChanges changes) {
+        this.dao = dao;
+        this.state = state;
+        this.changes = changes;
+
+        boolean all = changes.isUnknown();
+        int[] dirty = changes.take();
+        int size = store.size();
+        int[] temps = new int[16];
+        int nextTemp = -1;
+        for (int row = 0; row < size; row++) {
+            int id = store.getId(row);
+            if (id <= 0) {
+                // Новая строка (или строка, которую прошлая синхронизация
+                // не успела записать): помечаем временным id.
+                store.setId(row, nextTemp);
+                Person person = store.toPerson(row);
+                person.setId(0);
+                if (created.size() == temps.length) {
+                    temps = Arrays.copyOf(temps, temps.length * 2);
+                }
+                temps[created.size()] = nextTemp--;
+                created.add(person);
+            } else if (!all && dirty.length > 0 && Arrays.binarySearch(dirty, id) >= 0) {
+                candidates.add(store.toPerson(row));
+            }
+        }
+        this.tempIds = Arrays.copyOf(temps, created.size());
+        this.rowIds = store.copyIds();
+        this.snapshot = all ? store.copy() : null;
+    }
+
+    /**
+     * Шаг 1, поток JavaFX: собирает новые строки книги и строки, изменённые
+     * с прошлой синхронизации.
+     *
+     * @param list    адресаты книги
+     * @param state   состояние прошлой синхронизации
+     * @param changes изменения книги с прошлой синхронизации
+     * @param dao     доступ к таблице persons
+     */
+    public static BookSync prepare(PersonStoreList list, SyncState state, BookChanges changes, PersonDao dao) {
+        return new BookSync(dao, state, list.getStore(), changes);
+    }
+
+    /**
+     * Шаг 2, фоновый поток: читает изменения из БД и записывает в неё
+     * изменения книги.
+     */
+    public void run() throws ClassNotFoundException, SQLException {
+        long start = System.nanoTime();
+        findChanged();
+        findDeleted();
+        LocalDateTime since = state.getWatermark();
+        List<Person> remote = dao.findChangedSince(since == null ? null : since.minusSeconds(OVERLAP_SECONDS));
+
+        LocalDateTime newest = since;
+        Set<Integer> local = new HashSet<>();
+        for (Person person : changed) {
+            local.add(person.getId());
+        }
+        for (int id : deleted) {
+            local.add(id);
+        }
+        for (Person person : remote) {
+            LocalDateTime stamp = person.getUpdated() != null ? person.getUpdated() : person.getCreated();
+            if (stamp != null && (newest == null || stamp.isAfter(newest))) {
+                newest = stamp;
+            }
+            // Локальные изменения побеждают, а строки без изменений пропускаем.
+            if (!local.contains(person.getId())
+                    && SyncState.personHash(person) != state.hashOf(person.getId())) {
+                pulled.add(person);
+            }
+        }
+
+        // Все изменения книги - одной транзакцией: после сбоя в БД не
+        // остаётся части новых строк, которые следующая синхронизация
+        // вставила бы ещё раз.
+        LocalDateTime pushed = dao.pushChanges(created, changed, deleted);
+        // Записанные сейчас строки получили время записи по часам БД - его
+        // тоже учитываем, чтобы не читать их обратно.
+        if ((!created.isEmpty() || !changed.isEmpty()) && (newest == null || pushed.isAfter(newest))) {
+            newest = pushed;
+        }
+        watermark = newest;
+
+        // Удалены в БД: синхронизированные id, которых в таблице уже нет
+        // (кроме удалённых сейчас книгой). Изменённые книгой строки upsert
+        // вставил заново, новые - есть в таблице.
+        int[] remoteIds = dao.findAllIds();
+        int[] gone = new int[state.size()];
+        int goneCount = 0;
+        for (int i = 0; i < state.size(); i++) {
+            int id = state.getId(i);
+            if (Arrays.binarySearch(remoteIds, id) < 0 && Arrays.binarySearch(deleted, id) < 0) {
+                gone[goneCount++] = id;
+            }
+        }
+        remoteDeleted = Arrays.copyOf(gone, goneCount);
+        elapsedNanos = System.nanoTime() - start;
+    }
+
+    /**
+     * Сравнивает хеши строк-кандидатов (или всех строк копии хранилища)
+     * с запомненными: строки с другим хешем изменены книгой.
+     */
+    private void findChanged() {
+        long[] hashes = new long[16];
+        if (snapshot != null) {
+            for (int row = 0; row < snapshot.size(); row++) {
+                int id = snapshot.getId(row);
+                if (id > 0) {
+                    long hash = SyncState.rowHash(snapshot, row);
+                    if (hash != state.hashOf(id)) {
+                        hashes = addChanged(snapshot.toPerson(row), hash, hashes);
+                    }
+                }
+            }
+        } else {
+            for (Person person : candidates) {
+                long hash = SyncState.personHash(person);
+                if (hash != state.hashOf(person.getId())) {
+                    hashes = addChanged(person, hash, hashes);
+                }
+            }
+        }
+        changedHashes = Arrays.copyOf(hashes, changed.size());
+    }
+
+    private long[] addChanged(Person person, long hash, long[] hashes) {
+        if (changed.size() == hashes.length) {
+            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+        }
+        hashes[changed.size()] = hash;
+        changed.add(person);
+        return hashes;
+    }
+
+    /**
+     * Удалены книгой: синхронизированные id, которых нет среди id строк.
+     */
+    private void findDeleted() {
+        int[] present = rowIds.clone();
+        Arrays.sort(present);
+        int[] gone = new int[state.size()];
+        int goneCount = 0;
+        for (int i = 0; i < state.size(); i++) {
+            if (Arrays.binarySearch(present, state.getId(i)) < 0) {
+                gone[goneCount++] = state.getId(i);
+            }
+        }
+        deleted = Arrays.copyOf(gone, goneCount);
+    }
+
+    /**
+     * Шаг 3, поток JavaFX: применяет изменения из БД к книге.
+     *
+     * @param list адресаты книги
+     * @return новое состояние синхронизации
+     */
+    public SyncState apply(PersonStoreList list) {
+        PersonStore store = list.getStore();
+        // Нужные строки книги по id: новые (временные id) и пришедшие из БД.
+        Map<Integer, Integer> rows = new HashMap<>();
+        for (int id : tempIds) {
+            rows.put(id, -1);
+        }
+        for (Person person : pulled) {
+            rows.put(person.getId(), -1);
+        }
+        List<Integer> removedRows = new ArrayList<>();
+        List<Integer> removedIds = new ArrayList<>();
+        if (!rows.isEmpty() || remoteDeleted.length > 0) {
+            for (int row = 0; row < store.size(); row++) {
+                int id = store.getId(row);
+                if (rows.containsKey(id)) {
+                    rows.put(id, row);
+                }
+                if (remoteDeleted.length > 0 && id > 0 && Arrays.binarySearch(remoteDeleted, id) >= 0) {
+                    removedRows.add(row);
+                    removedIds.add(id);
+                }
+            }
+        }
+
+        int puts = created.size() + changed.size() + pulled.size();
+        int[] putIds = new int[puts];
+        long[] putHashes = new long[puts];
+        int count = 0;
+        for (int i = 0; i < created.size(); i++) {
+            Person person = created.get(i);
+            Integer row = rows.get(tempIds[i]);
+            if (row != null && row >= 0) {
+                store.setId(row, person.getId());
+            }
+            changes.renamed(tempIds[i], person.getId());
+            putIds[count] = person.getId();
+            putHashes[count++] = SyncState.personHash(person);
+        }
+        for (int i = 0; i < changed.size(); i++) {
+            putIds[count] = changed.get(i).getId();
+            putHashes[count++] = changedHashes[i];
+        }
+
+        // Пришедшие из БД строки, которые уже есть в книге, записываем
+        // одним изменением списка, по возрастанию номеров строк.
+        List<Person> added = new ArrayList<>();
+        long[] updates = new long[pulled.size()];
+        int updateCount = 0;
+        for (int i = 0; i < pulled.size(); i++) {
+            Person person = pulled.get(i);
+            int row = rows.get(person.getId());
+            if (row >= 0) {
+                updates[updateCount++] = (long) row << 32 | i;
+            } else {
+                added.add(person);
+            }
+            putIds[count] = person.getId();
+            putHashes[count++] = SyncState.personHash(person);
+        }
+        Arrays.sort(updates, 0, updateCount);
+        int[] updatedRows = new int[updateCount];
+        PersonStore values = new PersonStore(store.getDictionary());
+        for (int i = 0; i < updateCount; i++) {
+            updatedRows[i] = (int) (updates[i] >> 32);
+            values.add(pulled.get((int) updates[i]));
+        }
+        // Удалённые в БД строки - одним изменением (номера уже по возрастанию).
+        int[] removed = new int[removedRows.size()];
+        for (int i = 0; i < removed.length; i++) {
+            removed[i] = removedRows.get(i);
+        }
+        // Строки из БД - не изменения книги для следующей синхронизации.
+        changes.suspend();
+        try {
+            list.setRows(updatedRows, values);
+            list.removeRows(removed);
+            list.addAll(added);
+        } finally {
+            changes.resume();
+        }
+        removedCount = removed.length;
+
+        int[] removeIds = new int[deleted.length + removedIds.size()];
+        System.arraycopy(deleted, 0, removeIds, 0, deleted.length);
+        for (int i = 0; i < removedIds.size(); i++) {
+            removeIds[deleted.length + i] = removedIds.get(i);
+        }
+        return state.update(watermark, putIds, putHashes, removeIds);
+    }
+
+    /**
+     * @return сколько строк пришло из БД
+     */
+    public int getPulledCount() {
+        return pulled.size();
+    }
+
+    /**
+     * @return сколько строк книги записано в БД (новые и изменённые)
+     */
+    public int getPushedCount() {
+        return created.size() + changed.size();
+    }
+
+    /**
+     * @return сколько строк удалено: в БД по книге и в книге по БД
+     */
+    public int getDeletedCount() {
+        return deleted.length + removedCount;
+    }
+
+    /**
+     * @return время обмена с БД, мс
+     */
+    public long getElapsedMillis() {
+        return elapsedNanos / 1_000_000;
+    }
+}
@@ -0,0 +1,55 @@
+package sample.address.database;
+
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Итог массовой вставки адресатов в таблицу persons:
+ * сколько строк записано, сколькими порциями (транзакциями)
+ * и за какое время. Используется методами
+ * DatabaseHandler.createPersonUnits(...) и DatabaseHandler.copyPersonUnits(...).
+ */
+public class BulkInsertStats {
+    private final long rows;
+    private final int chunks;
+    private final long elapsedNanos;
+
+    public BulkInsertStats(long rows, int chunks, long elapsedNanos) {
+        this.rows = rows;
+        this.chunks = chunks;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return сколько строк записано в БД
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    /**
+     * @return сколько порций (транзакций) было зафиксировано
+     */
+    public int getChunks() {
+        return chunks;
+    }
+
+    /**
+     * @return время вставки в миллисекундах
+     */
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+    }
+
+    /**
+     * @return скорость вставки, строк в секунду
+     */
+    public double getRowsPerSecond() {
+        return elapsedNanos == 0 ? 0 : rows * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rows in %d chunks, %d ms (%.0f rows/s)",
+                rows, chunks, getElapsedMillis(), getRowsPerSecond());
+    }
+}
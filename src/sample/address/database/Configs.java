@@ -13,5 +13,22 @@ public class Configs {
     protected String dbPass = "qwerty"; //password - пароль пользователя
     protected String dbName = "postgres"; //имя БД
     protected String schemaName = "address_app"; //название схемы в БД
+    protected String dbDriver = "org.postgresql.Driver"; //класс драйвера JDBC
+    protected String dbUrl = null; //строка подключения целиком; null - собрать из настроек выше
+
+    // Настройки пула соединений (см. ConnectionPool)
+    protected int poolMinSize = 1; //сколько соединений держать открытыми всегда
+    protected int poolMaxSize = 10; //максимальное число соединений
+    protected long poolIdleTimeoutMillis = 5 * 60 * 1000; //через сколько закрывать простаивающее соединение
+    protected long poolBorrowTimeoutMillis = 10 * 1000; //сколько ждать свободного соединения
+    protected int poolValidationTimeoutSeconds = 2; //таймаут проверки соединения при выдаче
+    protected int statementCacheSize = 32; //сколько подготовленных запросов кэшировать на соединение
+
+    // Массовая вставка адресатов (см. DatabaseHandler.createPersonUnits)
+    protected int bulkBatchSize = 1000; //сколько строк отправлять и фиксировать одной порцией
+
+    // Постраничный просмотр таблицы persons (см. DatabasePersonList)
+    protected int pageSize = 200; //сколько строк читать из БД за один запрос
+    protected int pageCacheSize = 16; //сколько прочитанных страниц держать в памяти
 
 }
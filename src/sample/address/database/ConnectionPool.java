@@ -0,0 +1,517 @@
+package sample.address.database;
+
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Простой ограниченный пул соединений с БД.
+ *
+ * Установка соединения с PostgreSQL - дорогая операция (сетевое
+ * рукопожатие, аутентификация), поэтому соединения не закрываются
+ * после каждого запроса, а возвращаются в пул и выдаются повторно.
+ *
+ * Как пользоваться:
+ * try (Connection connection = pool.borrow()) {
+ *     ...
+ * }
+ * Выданное соединение - это обёртка над настоящим соединением. Её метод
+ * close() не закрывает соединение, а возвращает его в пул.
+ *
+ * Что умеет пул:
+ * - не больше maxSize соединений одновременно, если все заняты, то
+ *   borrow() ждёт освобождения не дольше borrowTimeoutMillis, а потом
+ *   бросает SQLException;
+ * - при выдаче соединение проверяется методом Connection.isValid(),
+ *   "мёртвые" соединения закрываются и заменяются новыми;
+ * - при возврате в пул незавершённая транзакция откатывается, а настройки
+ *   соединения (autocommit, readOnly, уровень изоляции, каталог и схема)
+ *   возвращаются к тем, с которыми оно было открыто;
+ * - соединения, которые простаивают дольше idleTimeoutMillis, закрываются
+ *   фоновым потоком, но в пуле остаётся не меньше minSize соединений;
+ * - подготовленные запросы кэшируются отдельно для каждого соединения
+ *   (см. StatementCache): повторный prepareStatement(sql) с тем же SQL
+ *   возвращает уже подготовленный запрос;
+ * - метрики: сколько соединений выдано (active), сколько простаивает (idle),
+ *   сколько времени ждали выдачи соединения.
+ */
+public class ConnectionPool implements AutoCloseable {
+
+    private final String url;
+    private final String user;
+    private final String password;
+    private final int minSize;
+    private final int maxSize;
+    private final long idleTimeoutMillis;
+    private final long borrowTimeoutMillis;
+    private final int validationTimeoutSeconds;
+    private final int statementCacheSize;
+
+    // Свободные соединения. Последнее возвращённое выдаётся первым,
+    // тогда редко используемые соединения дольше простаивают и закрываются.
+    private final Deque<IdleConnection> idle = new ArrayDeque<>();
+    private final Semaphore permits;
+    private final ScheduledExecutorService evictor;
+    // Кэши подготовленных запросов по настоящим соединениям.
+    private final Map<Connection, StatementCache> statementCaches = new ConcurrentHashMap<>();
+    // Настройки настоящих соединений сразу после открытия.
+    private final Map<Connection, ConnectionSettings> settings = new ConcurrentHashMap<>();
+
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final AtomicLong borrowCount = new AtomicLong();
+    private final AtomicLong timeoutCount = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private volatile boolean closed;
+
+    // Метрики (см. Metrics): ожидание свободного соединения и время,
+    // на которое соединение выдано, - это длительность одного обращения к БД.
+    private static final Timer WAIT_TIMER = Metrics.timer("db.pool.wait");
+    private static final Timer LEASE_TIMER = Metrics.timer("db.pool.lease");
+
+    /**
+     * Создаёт пул соединений.
+     *
+     * @param url                      строка подключения JDBC
+     * @param user                     имя пользователя БД
+     * @param password                 пароль пользователя БД
+     * @param minSize                  сколько соединений держать открытыми всегда
+     * @param maxSize                  максимальное число соединений
+     * @param idleTimeoutMillis        через сколько закрывать простаивающее соединение
+     * @param borrowTimeoutMillis      сколько ждать свободного соединения
+     * @param validationTimeoutSeconds таймаут проверки соединения при выдаче
+     * @param statementCacheSize       сколько подготовленных запросов хранить
+     *                                 на одно соединение (0 - не кэшировать)
+     */
+    public ConnectionPool(String url, String user, String password,
+                          int minSize, int maxSize,
+                          long idleTimeoutMillis, long borrowTimeoutMillis,
+                          int validationTimeoutSeconds, int statementCacheSize) {
+        if (minSize < 0 || maxSize < 1 || minSize > maxSize) {
+            throw new IllegalArgumentException("Invalid pool size: min=" + minSize + ", max=" + maxSize);
+        }
+        this.url = url;
+        this.user = user;
+        this.password = password;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        this.validationTimeoutSeconds = validationTimeoutSeconds;
+        this.statementCacheSize = statementCacheSize;
+        this.permits = new Semaphore(maxSize, true);
+
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Выдаёт соединение из пула. Соединение обязательно нужно закрыть
+     * (лучше всего через try-with-resources) - так оно вернётся в пул.
+     *
+     * @return соединение с БД
+     * @throws SQLException если свободного соединения не дождались или БД недоступна
+     */
+    public Connection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                timeoutCount.incrementAndGet();
+                throw new SQLException("Timed out after " + borrowTimeoutMillis
+                        + " ms waiting for a database connection (active=" + active.get() + ")");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        recordWait(System.nanoTime() - start);
+
+        try {
+            Connection physical = takeValidIdle();
+            if (physical == null) {
+                physical = open();
+            }
+            active.incrementAndGet();
+            borrowCount.incrementAndGet();
+            return lease(physical);
+        } catch (SQLException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Достаёт из пула свободное соединение, которое прошло проверку.
+     *
+     * @return соединение или null, если свободных нет
+     */
+    private Connection takeValidIdle() {
+        while (true) {
+            IdleConnection candidate;
+            synchronized (idle) {
+                candidate = idle.pollFirst();
+            }
+            if (candidate == null) {
+                return null;
+            }
+            if (isValid(candidate.connection)) {
+                return candidate.connection;
+            }
+            discard(candidate.connection);
+        }
+    }
+
+    private boolean isValid(Connection connection) {
+        try {
+            return !connection.isClosed() && connection.isValid(validationTimeoutSeconds);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private Connection open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url, user, password);
+        try {
+            settings.put(connection, new ConnectionSettings(connection));
+        } catch (SQLException | RuntimeException e) {
+            connection.close();
+            throw e;
+        }
+        opened.incrementAndGet();
+        return connection;
+    }
+
+    private void discard(Connection connection) {
+        opened.decrementAndGet();
+        settings.remove(connection);
+        StatementCache statements = statementCaches.remove(connection);
+        if (statements != null) {
+            statements.close();
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            // Соединение и так уже никому не нужно.
+        }
+    }
+
+    /**
+     * Возвращает настоящее соединение в пул. Вызывается из close() обёртки.
+     */
+    private void release(Connection physical) {
+        active.decrementAndGet();
+        try {
+            boolean reusable = !closed && !physical.isClosed();
+            if (reusable && !physical.getAutoCommit()) {
+                // Незавершённую транзакцию откатываем, чтобы она не досталась
+                // следующему пользователю соединения.
+                physical.rollback();
+                physical.setAutoCommit(true);
+            }
+            if (reusable) {
+                // Настройки, изменённые пользователем соединения, тоже
+                // не должны достаться следующему.
+                settings.get(physical).restore(physical);
+                synchronized (idle) {
+                    idle.addFirst(new IdleConnection(physical, System.currentTimeMillis()));
+                }
+            } else {
+                discard(physical);
+            }
+        } catch (SQLException e) {
+            discard(physical);
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Закрывает соединения, которые простаивают слишком долго,
+     * и открывает новые, если их меньше minSize.
+     */
+    private void evictIdle() {
+        long deadline = System.currentTimeMillis() - idleTimeoutMillis;
+        synchronized (idle) {
+            Iterator<IdleConnection> it = idle.descendingIterator();
+            while (it.hasNext() && opened.get() > minSize) {
+                IdleConnection candidate = it.next();
+                if (candidate.lastUsed < deadline) {
+                    it.remove();
+                    discard(candidate.connection);
+                }
+            }
+        }
+        try {
+            while (!closed && opened.get() < minSize) {
+                Connection connection = open();
+                synchronized (idle) {
+                    idle.addLast(new IdleConnection(connection, System.currentTimeMillis()));
+                }
+            }
+        } catch (SQLException e) {
+            // БД недоступна - попробуем в следующий раз.
+        }
+    }
+
+    private void recordWait(long nanos) {
+        WAIT_TIMER.record(nanos);
+        totalWaitNanos.addAndGet(nanos);
+        long max;
+        do {
+            max = maxWaitNanos.get();
+        } while (nanos > max && !maxWaitNanos.compareAndSet(max, nanos));
+    }
+
+    /**
+     * Оборачивает настоящее соединение так, чтобы close() возвращал его в пул.
+     */
+    private Connection lease(Connection physical) {
+        return (Connection) Proxy.newProxyInstance(
+                ConnectionPool.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                new LeaseHandler(physical));
+    }
+
+    /**
+     * @return сколько соединений сейчас выдано
+     */
+    public int getActiveCount() {
+        return active.get();
+    }
+
+    /**
+     * @return сколько соединений сейчас простаивает в пуле
+     */
+    public int getIdleCount() {
+        synchronized (idle) {
+            return idle.size();
+        }
+    }
+
+    /**
+     * @return сколько всего соединений открыто (выданные и свободные)
+     */
+    public int getOpenCount() {
+        return opened.get();
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return сколько раз соединение выдавалось из пула
+     */
+    public long getBorrowCount() {
+        return borrowCount.get();
+    }
+
+    /**
+     * @return сколько раз подготовленный запрос взят из кэша (по открытым соединениям)
+     */
+    public long getStatementCacheHits() {
+        return statementCaches.values().stream().mapToLong(StatementCache::getHits).sum();
+    }
+
+    /**
+     * @return сколько раз запрос пришлось подготовить заново (по открытым соединениям)
+     */
+    public long getStatementCacheMisses() {
+        return statementCaches.values().stream().mapToLong(StatementCache::getMisses).sum();
+    }
+
+    /**
+     * @return сколько раз не дождались свободного соединения
+     */
+    public long getTimeoutCount() {
+        return timeoutCount.get();
+    }
+
+    /**
+     * @return суммарное время ожидания свободного соединения, мс
+     */
+    public long getTotalWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(totalWaitNanos.get());
+    }
+
+    /**
+     * @return среднее время ожидания свободного соединения, мс
+     */
+    public double getAverageWaitMillis() {
+        long count = borrowCount.get();
+        return count == 0 ? 0 : totalWaitNanos.get() / 1_000_000.0 / count;
+    }
+
+    /**
+     * @return самое долгое ожидание свободного соединения, мс
+     */
+    public long getMaxWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxWaitNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ConnectionPool[active=%d, idle=%d, open=%d, max=%d, borrows=%d, timeouts=%d, avgWait=%.2f ms]",
+                getActiveCount(), getIdleCount(), getOpenCount(), maxSize,
+                getBorrowCount(), getTimeoutCount(), getAverageWaitMillis());
+    }
+
+    /**
+     * Закрывает пул и все свободные соединения. Выданные соединения
+     * закроются, когда их вернут.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        evictor.shutdownNow();
+        synchronized (idle) {
+            for (IdleConnection candidate : idle) {
+                discard(candidate.connection);
+            }
+            idle.clear();
+        }
+    }
+
+    /**
+     * Свободное соединение и время, когда его вернули в пул.
+     */
+    private static class IdleConnection {
+        private final Connection connection;
+        private final long lastUsed;
+
+        IdleConnection(Connection connection, long lastUsed) {
+            this.connection = connection;
+            this.lastUsed = lastUsed;
+        }
+    }
+
+    /**
+     * Настройки соединения, которые пользователь может изменить: readOnly,
+     * уровень изоляции транзакций, каталог и схема. autocommit сюда не
+     * входит - его release() возвращает вместе с откатом транзакции.
+     */
+    private static class ConnectionSettings {
+        private final boolean readOnly;
+        private final int transactionIsolation;
+        private final String catalog;
+        private final String schema;
+
+        ConnectionSettings(Connection connection) throws SQLException {
+            readOnly = connection.isReadOnly();
+            transactionIsolation = connection.getTransactionIsolation();
+            catalog = connection.getCatalog();
+            schema = connection.getSchema();
+        }
+
+        /**
+         * Возвращает соединению эти настройки. Вызывается вне транзакции:
+         * readOnly и уровень изоляции внутри неё менять нельзя.
+         */
+        void restore(Connection connection) throws SQLException {
+            if (connection.isReadOnly() != readOnly) {
+                connection.setReadOnly(readOnly);
+            }
+            if (connection.getTransactionIsolation() != transactionIsolation) {
+                connection.setTransactionIsolation(transactionIsolation);
+            }
+            if (!Objects.equals(connection.getCatalog(), catalog)) {
+                connection.setCatalog(catalog);
+            }
+            if (!Objects.equals(connection.getSchema(), schema)) {
+                connection.setSchema(schema);
+            }
+        }
+    }
+
+    /**
+     * Обработчик вызовов выданного соединения: close() возвращает соединение
+     * в пул, остальные методы передаются настоящему соединению.
+     */
+    private class LeaseHandler implements InvocationHandler {
+        private final Connection physical;
+        private final long leasedAt = LEASE_TIMER.start();
+        private boolean released;
+
+        LeaseHandler(Connection physical) {
+            this.physical = physical;
+        }
+
+        @Override
+        public synchronized Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        LEASE_TIMER.stop(leasedAt);
+                        release(physical);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + physical + (released ? ", released]" : "]");
+                case "prepareStatement":
+                    if (!released && args.length == 1) {
+                        return statementCaches.computeIfAbsent(physical,
+                                connection -> new StatementCache(connection, statementCacheSize))
+                                .prepare((String) args[0]);
+                    }
+                    // Остальные варианты prepareStatement не кэшируются.
+                    return invokePhysical(method, args);
+                default:
+                    return invokePhysical(method, args);
+            }
+        }
+
+        /**
+         * Передаёт вызов физическому соединению, если оно ещё не возвращено в пул.
+         */
+        private Object invokePhysical(Method method, Object[] args) throws Throwable {
+            if (released) {
+                throw new SQLException("Connection has already been returned to the pool");
+            }
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+    }
+}
@@ -17,7 +17,7 @@ public class Const {
 
     // поля в таблице persons (вводим эти соответсвия чтоб не
     // сделать ошибок при наборе имени полей)
-    public static final String PERSON_ID = "id_person";
+    public static final String PERSON_ID = "id";
     public static final String PERSON_FIRSTNAME = "first_name";
     public static final String PERSON_LASTNAME = "last_name";
     public static final String PERSON_STREET = "street";
@@ -1,7 +1,18 @@
 package sample.address.database;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.postgresql.copy.CopyManager;
+import sample.address.metrics.Counter;
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
 import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.util.DateCodec;
 
+import javax.sql.rowset.CachedRowSet;
+import javax.sql.rowset.RowSetProvider;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 
 /*
@@ -25,53 +36,337 @@ import java.sql.*;
  * Project Structure -> Libraries -> + lib Java -> выбираем наш файл -> OK
  * Так мы подключаем postgresql в наш проект. Его мы видим в External Libraries.
  *
+ * Соединения берутся из общего пула ConnectionPool и после работы
+ * обязательно возвращаются в него - вызовом close() (try-with-resources).
+ * Пул создаётся один раз при первом обращении к БД.
+ *
  */
 public class DatabaseHandler extends Configs {
 
-    //Объект Connection для соединения с БД
-    private Connection dbConnection;
+    //Общий пул соединений с БД
+    private static ConnectionPool connectionPool;
+
+    // Метрики вызовов (см. Metrics): длительность каждого метода и число ошибок.
+    private static final Timer CREATE_TIMER = Metrics.timer("db.createPersonUnit");
+    private static final Timer CREATE_ALL_TIMER = Metrics.timer("db.createPersonUnits");
+    private static final Timer COPY_TIMER = Metrics.timer("db.copyPersonUnits");
+    private static final Timer COPY_ENCODED_TIMER = Metrics.timer("db.copyEncoded");
+    private static final Timer SELECT_TIMER = Metrics.timer("db.getPersonUnit");
+    private static final Counter ERRORS = Metrics.counter("db.errors");
 
+    /**
+     * Выдаёт соединение с БД из пула. Соединение нужно закрыть после
+     * использования - тогда оно вернётся в пул.
+     */
     public Connection getDbConnection() throws ClassNotFoundException, SQLException {
-        //стока подключения к БД
-        String connectionString = "jdbc:postgresql://" + bdHost + ":"
-                + dbPort + "/" + dbName + "?currentSchema=" + schemaName;
-        /*Прописываем, какой драйвер будем использовать (jdbc.driver или driver-class-name=org.postgresql.Driver)*/
-        Class.forName("org.postgresql.Driver");
-        /*Помещаем в переменную dbConnection соединение.*/
-        dbConnection = DriverManager.getConnection(connectionString,
-                dbUserName, dbPass);
-        return dbConnection;
+        return getConnectionPool().borrow();
     }
 
+    /**
+     * Возвращает общий пул соединений, создавая его при первом вызове.
+     */
+    public ConnectionPool getConnectionPool() throws ClassNotFoundException {
+        synchronized (DatabaseHandler.class) {
+            if (connectionPool == null) {
+                //стока подключения к БД
+                String connectionString = dbUrl != null ? dbUrl : "jdbc:postgresql://" + bdHost + ":"
+                        + dbPort + "/" + dbName + "?currentSchema=" + schemaName;
+                /*Прописываем, какой драйвер будем использовать (jdbc.driver или driver-class-name=org.postgresql.Driver)*/
+                Class.forName(dbDriver);
+                connectionPool = new ConnectionPool(connectionString, dbUserName, dbPass,
+                        poolMinSize, poolMaxSize, poolIdleTimeoutMillis,
+                        poolBorrowTimeoutMillis, poolValidationTimeoutSeconds, statementCacheSize);
+                ConnectionPool pool = connectionPool;
+                Metrics.gauge("db.pool.active", pool::getActiveCount);
+                Metrics.gauge("db.pool.idle", pool::getIdleCount);
+                Metrics.gauge("db.pool.open", pool::getOpenCount);
+                Metrics.gauge("db.pool.timeouts", pool::getTimeoutCount);
+                Metrics.gauge("db.statementCache.hits", pool::getStatementCacheHits);
+                Metrics.gauge("db.statementCache.misses", pool::getStatementCacheMisses);
+            }
+            return connectionPool;
+        }
+    }
+
+    /*SQL запрос для помещения данных в таблицу базы данных*/
+    private static final String INSERT_PERSON = "INSERT INTO " + Const.PERSON_TABLE + " ("
+            + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "," + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + ") "
+            + "VALUES (?,?,?,?,?,?)";
+
+    /*Команда COPY для быстрой загрузки строк в PostgreSQL (текстовый формат)*/
+    private static final String COPY_PERSONS = "COPY " + Const.PERSON_TABLE + " ("
+            + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "," + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + ") FROM STDIN";
+
     /**
      * Метод помещающий данные Person в таблицу
      * persons в базе данных
      */
     public void createPersonUnit(Person person) {
-
-        /*Пишем SQL запрос для помещения данных в таблицу базы данных*/
-        String insert = "INSERT INTO " + Const.PERSON_TABLE + " ("
-                + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
-                + Const.PERSON_STREET + "," + Integer.valueOf(Const.PERSON_POST_CODE) + ","
-                + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + ") "
-                + "VALUES (?,?,?,?,?,?)";
-
-        try {
-            /*Создаем объект PreparedStatement и инициализируем знаки ?,?..? в SQL запросе,
-             * который написан выше.*/
-            PreparedStatement preparedStatement = getDbConnection().prepareStatement(insert);
-            preparedStatement.setString(1, person.getFirstName());
-            preparedStatement.setString(2, person.getLastName());
-            preparedStatement.setString(3, person.getStreet());
-            preparedStatement.setString(4, String.valueOf((person.getPostalCode())));
-            preparedStatement.setString(5, person.getCity());
-            preparedStatement.setString(6, String.valueOf(person.getBirthday()));
+        long start = CREATE_TIMER.start();
+        /*Соединение и PreparedStatement закрываются автоматически (try-with-resources),
+         * соединение при этом возвращается в пул.*/
+        try (Connection connection = getDbConnection();
+             /*Создаем объект PreparedStatement и инициализируем знаки ?,?..? в SQL запросе,
+              * который написан выше.*/
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT_PERSON)) {
+            bindPerson(preparedStatement, person);
 
             /*Выполняем наш preparedStatement*/
             preparedStatement.executeUpdate();
         } catch (ClassNotFoundException | SQLException e) {
+            ERRORS.inc();
             e.printStackTrace();
+        } finally {
+            CREATE_TIMER.stop(start);
+        }
+    }
+
+    /**
+     * Массовая вставка адресатов в таблицу persons.
+     * <p>
+     * Строки отправляются в БД пачками (JDBC batch) по {@link Configs#bulkBatchSize}
+     * штук, и каждая пачка фиксируется отдельной транзакцией. Если во время
+     * вставки произойдёт ошибка, то незафиксированная пачка откатится, а уже
+     * зафиксированные останутся в БД.
+     *
+     * @param persons адресаты для вставки
+     * @return сколько строк записано и с какой скоростью
+     */
+    public BulkInsertStats createPersonUnits(Iterable<Person> persons)
+            throws ClassNotFoundException, SQLException {
+        return timed(CREATE_ALL_TIMER, () -> {
+            long start = System.nanoTime();
+            long rows = 0;
+            int chunks = 0;
+
+            try (Connection connection = getDbConnection();
+                 PreparedStatement preparedStatement = connection.prepareStatement(INSERT_PERSON)) {
+                connection.setAutoCommit(false);
+                try {
+                    int inBatch = 0;
+                    for (Person person : persons) {
+                        bindPerson(preparedStatement, person);
+                        preparedStatement.addBatch();
+                        if (++inBatch == bulkBatchSize) {
+                            preparedStatement.executeBatch();
+                            connection.commit();
+                            rows += inBatch;
+                            chunks++;
+                            inBatch = 0;
+                        }
+                    }
+                    if (inBatch > 0) {
+                        preparedStatement.executeBatch();
+                        connection.commit();
+                        rows += inBatch;
+                        chunks++;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            return new BulkInsertStats(rows, chunks, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Быстрая массовая вставка адресатов через команду PostgreSQL COPY.
+     * <p>
+     * Строки передаются в БД потоком в текстовом формате COPY, без разбора
+     * отдельных INSERT. Каждые {@link Configs#bulkBatchSize} строк команда
+     * COPY завершается и фиксируется, затем начинается следующая.
+     * Работает только с драйвером PostgreSQL.
+     *
+     * @param persons адресаты для вставки
+     * @return сколько строк записано и с какой скоростью
+     */
+    public BulkInsertStats copyPersonUnits(Iterable<Person> persons)
+            throws ClassNotFoundException, SQLException {
+        return timed(COPY_TIMER, () -> {
+            long start = System.nanoTime();
+            long rows = 0;
+            int chunks = 0;
+
+            try (Connection connection = getDbConnection()) {
+                connection.setAutoCommit(false);
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                StringBuilder line = new StringBuilder(256);
+                CopyIn copyIn = null;
+                int inChunk = 0;
+                try {
+                    for (Person person : persons) {
+                        if (copyIn == null) {
+                            copyIn = copyManager.copyIn(COPY_PERSONS);
+                        }
+                        line.setLength(0);
+                        appendCopyRow(line, person);
+                        byte[] bytes = line.toString().getBytes(StandardCharsets.UTF_8);
+                        copyIn.writeToCopy(bytes, 0, bytes.length);
+                        if (++inChunk == bulkBatchSize) {
+                            rows += copyIn.endCopy();
+                            copyIn = null;
+                            connection.commit();
+                            chunks++;
+                            inChunk = 0;
+                        }
+                    }
+                    if (copyIn != null) {
+                        rows += copyIn.endCopy();
+                        copyIn = null;
+                        connection.commit();
+                        chunks++;
+                    }
+                } catch (SQLException | RuntimeException e) {
+                    if (copyIn != null && copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                    connection.rollback();
+                    throw e;
+                }
+            }
+            return new BulkInsertStats(rows, chunks, System.nanoTime() - start);
+        });
+    }
+
+    /**
+     * Загружает в таблицу persons строки, уже закодированные в текстовый
+     * формат COPY (см. {@link #appendCopyRow(StringBuilder, PersonStore, int)}),
+     * одной командой COPY и одной транзакцией. Кодировать строки можно
+     * заранее и параллельно, здесь остаётся только передать байты.
+     *
+     * @param rows строки в формате COPY, UTF-8
+     * @return сколько строк записано
+     */
+    public long copyEncoded(byte[] rows) throws ClassNotFoundException, SQLException {
+        return timed(COPY_ENCODED_TIMER, () -> {
+            try (Connection connection = getDbConnection()) {
+                connection.setAutoCommit(false);
+                CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+                CopyIn copyIn = copyManager.copyIn(COPY_PERSONS);
+                try {
+                    copyIn.writeToCopy(rows, 0, rows.length);
+                    long count = copyIn.endCopy();
+                    connection.commit();
+                    return count;
+                } catch (SQLException | RuntimeException e) {
+                    if (copyIn.isActive()) {
+                        copyIn.cancelCopy();
+                    }
+                    connection.rollback();
+                    throw e;
+                }
+            }
+        });
+    }
+
+    private interface Call<T> {
+        T call() throws ClassNotFoundException, SQLException;
+    }
+
+    /**
+     * Выполняет обращение к БД, записывая его длительность в timer,
+     * а ошибку - в счётчик db.errors.
+     */
+    private static <T> T timed(Timer timer, Call<T> call) throws ClassNotFoundException, SQLException {
+        long start = timer.start();
+        try {
+            return call.call();
+        } catch (ClassNotFoundException | SQLException | RuntimeException e) {
+            ERRORS.inc();
+            throw e;
+        } finally {
+            timer.stop(start);
+        }
+    }
+
+    /**
+     * Подставляет поля адресата в параметры INSERT_PERSON с их настоящими типами.
+     */
+    private static void bindPerson(PreparedStatement preparedStatement, Person person) throws SQLException {
+        preparedStatement.setString(1, person.getFirstName());
+        preparedStatement.setString(2, person.getLastName());
+        preparedStatement.setString(3, person.getStreet());
+        preparedStatement.setInt(4, person.getPostalCode());
+        preparedStatement.setString(5, person.getCity());
+        // Дата передаётся в БД типом DATE (java.sql.Date), а не строкой.
+        int birthday = DateCodec.toEpochDay(person.getBirthday());
+        if (birthday == DateCodec.INVALID) {
+            preparedStatement.setNull(6, Types.DATE);
+        } else {
+            preparedStatement.setDate(6, Date.valueOf(DateCodec.toLocalDate(birthday)));
+        }
+    }
+
+    /**
+     * Добавляет строку адресата в текстовом формате COPY:
+     * поля разделены табуляцией, строка заканчивается переводом строки.
+     */
+    private static void appendCopyRow(StringBuilder line, Person person) {
+        appendCopyText(line, person.getFirstName()).append('\t');
+        appendCopyText(line, person.getLastName()).append('\t');
+        appendCopyText(line, person.getStreet()).append('\t');
+        line.append(person.getPostalCode()).append('\t');
+        appendCopyText(line, person.getCity()).append('\t');
+        int birthday = DateCodec.toEpochDay(person.getBirthday());
+        if (birthday == DateCodec.INVALID) {
+            line.append("\\N");
+        } else {
+            DateCodec.appendIso(line, birthday);
+        }
+        line.append('\n');
+    }
+
+    /**
+     * Добавляет строку хранилища в текстовом формате COPY, как
+     * {@link #appendCopyRow(StringBuilder, Person)}, но без объекта Person.
+     */
+    public static void appendCopyRow(StringBuilder line, PersonStore store, int row) {
+        appendCopyText(line, store.getFirstName(row)).append('\t');
+        appendCopyText(line, store.getLastName(row)).append('\t');
+        appendCopyText(line, store.getStreet(row)).append('\t');
+        line.append(store.getPostalCode(row)).append('\t');
+        appendCopyText(line, store.getCity(row)).append('\t');
+        int birthday = store.getBirthdayEpochDay(row);
+        if (birthday == DateCodec.INVALID) {
+            line.append("\\N");
+        } else {
+            DateCodec.appendIso(line, birthday);
         }
+        line.append('\n');
+    }
+
+    /**
+     * Экранирует текст для формата COPY. Значение null записывается как \N.
+     */
+    private static StringBuilder appendCopyText(StringBuilder line, String value) {
+        if (value == null) {
+            return line.append("\\N");
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '\\':
+                    line.append("\\\\");
+                    break;
+                case '\t':
+                    line.append("\\t");
+                    break;
+                case '\n':
+                    line.append("\\n");
+                    break;
+                case '\r':
+                    line.append("\\r");
+                    break;
+                default:
+                    line.append(c);
+            }
+        }
+        return line;
     }
 
     /**
@@ -79,23 +374,34 @@ public class DatabaseHandler extends Configs {
      * Вводятся только имя и фамилия person. И если есть совпадания по ним,
      * то вернется объект ResultSet, содержащий такого Person.
      * Если не будет совпадений, то никаих данных не будет возвращено.
+     * <p>
+     * Строки копируются в отключённый от БД CachedRowSet, поэтому
+     * соединение сразу возвращается в пул.
      */
     public ResultSet getPersonUnit(Person person) {
-        ResultSet resultSet = null;
+        long start = SELECT_TIMER.start();
+        CachedRowSet resultSet = null;
 
         String select = "SELECT * FROM " + Const.PERSON_TABLE + " WHERE "
                 + Const.PERSON_FIRSTNAME + "=? AND " + Const.PERSON_LASTNAME + "=?";
-        try {
-            PreparedStatement preparedStatement = getDbConnection().prepareStatement(select);
+        try (Connection connection = getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(select)) {
             preparedStatement.setString(1, person.getFirstName());
             preparedStatement.setString(2, person.getLastName());
 
             /*Вызываем метод executeQuery(), который возвращает ResultSet*/
-            resultSet = preparedStatement.executeQuery();
+            try (ResultSet rows = preparedStatement.executeQuery()) {
+                resultSet = RowSetProvider.newFactory().createCachedRowSet();
+                resultSet.populate(rows);
+            }
         } catch (SQLException e) {
+            ERRORS.inc();
             e.printStackTrace();
         } catch (ClassNotFoundException e) {
+            ERRORS.inc();
             e.printStackTrace();
+        } finally {
+            SELECT_TIMER.stop(start);
         }
         return resultSet;
     }
@@ -0,0 +1,221 @@
+package sample.address.database;
+
+import javafx.application.Platform;
+import javafx.collections.ObservableListBase;
+import sample.address.model.Person;
+import sample.address.model.StringDictionary;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Список адресатов из таблицы persons, который читается из БД по страницам.
+ * <p>
+ * Таблица не загружается в память целиком. При открытии читаются только
+ * количество строк и id первой строки каждой страницы (одно число на
+ * {@link Configs#pageSize} строк). Страница читается запросом
+ * <pre>
+ * SELECT ... FROM persons WHERE id &gt;= ? ORDER BY id LIMIT ?
+ * </pre>
+ * по первичному ключу (keyset pagination), без OFFSET: БД не приходится
+ * пропускать предыдущие строки, поэтому страница в конце таблицы читается
+ * так же быстро, как в начале.
+ * <p>
+ * Прочитанные страницы хранятся в LRU-кэше на {@link Configs#pageCacheSize}
+ * страниц, поэтому расход памяти не зависит от размера таблицы. Страницы
+ * читаются в фоновом потоке, когда TableView обращается к их строкам; пока
+ * страница не прочитана, на её месте показывается заглушка. Заодно
+ * читаются соседние страницы, чтобы прокрутка не упиралась в ожидание.
+ * Строки страниц берутся из общего словаря (см. {@link StringDictionary}),
+ * чтобы одинаковые города и имена не хранились в каждой строке заново;
+ * словарь заводится заново, когда вырастает больше {@link #MAX_DICTIONARY_SIZE}.
+ * <p>
+ * Список только для чтения. Его методы вызываются в потоке JavaFX.
+ */
+public class DatabasePersonList extends ObservableListBase<Person> implements AutoCloseable {
+
+    private static final String SELECT_PAGE_STARTS = "SELECT " + Const.PERSON_ID + ", total FROM ("
+            + "SELECT " + Const.PERSON_ID + ", row_number() OVER (ORDER BY " + Const.PERSON_ID + ") AS rn, "
+            + "count(*) OVER () AS total FROM " + Const.PERSON_TABLE + ") AS numbered "
+            + "WHERE (rn - 1) % ? = 0 ORDER BY " + Const.PERSON_ID;
+
+    private static final String SELECT_PAGE = "SELECT " + PersonDao.COLUMNS + " FROM " + Const.PERSON_TABLE + " WHERE " + Const.PERSON_ID + " >= ?"
+            + " ORDER BY " + Const.PERSON_ID + " LIMIT ?";
+
+    private static final int MAX_DICTIONARY_SIZE = 64 * 1024;
+
+    // Заглушка для строк, страница которых ещё читается.
+    private static final Person LOADING = new Person("...", "");
+
+    private final DatabaseHandler handler;
+    private final int pageSize;
+    private final int[] pageStarts;
+    private final int size;
+
+    // Прочитанные страницы в порядке последнего обращения (LRU).
+    private final Map<Integer, Person[]> cache;
+    // Страницы, которые сейчас читаются.
+    private final Set<Integer> loading = new HashSet<>();
+    // Словарь строк страниц; меняется только в потоке чтения страниц.
+    private StringDictionary dictionary = new StringDictionary();
+    // Последняя страница, к которой обращалась таблица.
+    private volatile int currentPage;
+    private volatile boolean closed;
+
+    private final ExecutorService fetcher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "database-pages");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private DatabasePersonList(DatabaseHandler handler, int[] pageStarts, int size) {
+        this.handler = handler;
+        this.pageSize = handler.pageSize;
+        this.pageStarts = pageStarts;
+        this.size = size;
+        int cacheSize = Math.max(3, handler.pageCacheSize);
+        this.cache = new LinkedHashMap<Integer, Person[]>(cacheSize * 2, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Person[]> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Открывает таблицу persons: читает количество строк и начала страниц.
+     * Выполняется долго, поэтому вызывать его нужно не в потоке JavaFX.
+     *
+     * @param handler подключение к БД
+     * @return список адресатов из БД
+     */
+    public static DatabasePersonList open(DatabaseHandler handler) throws ClassNotFoundException, SQLException {
+        int[] starts = new int[16];
+        int count = 0;
+        int total = 0;
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PAGE_STARTS)) {
+            preparedStatement.setInt(1, handler.pageSize);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    if (count == starts.length) {
+                        starts = Arrays.copyOf(starts, count * 2);
+                    }
+                    starts[count++] = resultSet.getInt(1);
+                    total = resultSet.getInt(2);
+                }
+            }
+        }
+        return new DatabasePersonList(handler, Arrays.copyOf(starts, count), total);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public Person get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        int page = index / pageSize;
+        currentPage = page;
+        Person[] rows = cache.get(page);
+
+        // Читаем заранее соседние страницы.
+        request(page + 1);
+        request(page - 1);
+        if (rows == null) {
+            request(page);
+            return LOADING;
+        }
+        Person person = rows[index - page * pageSize];
+        return person != null ? person : LOADING;
+    }
+
+    /**
+     * @return количество страниц в кэше
+     */
+    public int getCachedPageCount() {
+        return cache.size();
+    }
+
+    /**
+     * Останавливает чтение страниц.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        fetcher.shutdownNow();
+    }
+
+    /**
+     * Ставит страницу в очередь на чтение, если её нет в кэше.
+     */
+    private void request(int page) {
+        if (closed || page < 0 || page >= pageStarts.length
+                || cache.containsKey(page) || !loading.add(page)) {
+            return;
+        }
+        fetcher.execute(() -> {
+            Person[] rows = null;
+            // Если таблицу успели прокрутить далеко, страница уже не нужна.
+            if (!closed && Math.abs(page - currentPage) <= handler.pageCacheSize / 2) {
+                try {
+                    rows = fetchPage(page);
+                } catch (ClassNotFoundException | SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            Person[] result = rows;
+            Platform.runLater(() -> pageLoaded(page, result));
+        });
+    }
+
+    private void pageLoaded(int page, Person[] rows) {
+        loading.remove(page);
+        if (closed || rows == null) {
+            return;
+        }
+        cache.put(page, rows);
+
+        // Заглушки страницы заменились настоящими адресатами - сообщаем
+        // об этом таблице, чтобы она перерисовала видимые строки.
+        int from = page * pageSize;
+        int to = Math.min(from + pageSize, size);
+        beginChange();
+        nextReplace(from, to, Collections.nCopies(to - from, LOADING));
+        endChange();
+    }
+
+    private Person[] fetchPage(int page) throws ClassNotFoundException, SQLException {
+        if (dictionary.size() > MAX_DICTIONARY_SIZE) {
+            // Строки уже прочитанных страниц остаются у них.
+            dictionary = new StringDictionary();
+        }
+        Person[] rows = new Person[pageSize];
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_PAGE)) {
+            preparedStatement.setInt(1, pageStarts[page]);
+            preparedStatement.setInt(2, pageSize);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                int row = 0;
+                while (resultSet.next() && row < pageSize) {
+                    rows[row++] = PersonDao.mapRow(resultSet, dictionary);
+                }
+            }
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,614 @@
+package sample.address.database;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.StringDictionary;
+import sample.address.util.DateCodec;
+
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Доступ к таблице persons: создание, чтение, изменение и удаление
+ * адресатов, по одному и пачками.
+ *
+ * Строки таблицы сразу превращаются в объекты Person (mapRow) с типами
+ * полей из схемы: postal_code читается как int, birthday - как LocalDate,
+ * created и updated - как LocalDateTime. Адресат из БД знает свой id,
+ * по нему выполняются update и delete. При потоковом чтении (readAll)
+ * строки сразу кодируются в хранилище, объекты Person не создаются.
+ *
+ * Столбцы created и updated заполняет DAO по часам БД: created - при
+ * вставке, updated - при каждом изменении. Значения записываются и в
+ * объект Person.
+ *
+ * Соединения берутся из пула DatabaseHandler, а подготовленные запросы
+ * кэшируются пулом для каждого соединения (см. StatementCache), поэтому
+ * SQL каждого метода разбирается один раз на соединение, а не на вызов.
+ */
+public class PersonDao {
+
+    // Столбцы в порядке, который ожидает mapRow.
+    static final String COLUMNS = Const.PERSON_ID + ","
+            + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "," + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + ","
+            + Const.PERSON_CREATED + "," + Const.PERSON_UPDATED;
+
+    private static final String INSERT = "INSERT INTO " + Const.PERSON_TABLE + " ("
+            + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "," + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + "," + Const.PERSON_CREATED + ") "
+            + "VALUES (?,?,?,?,?,?,?) RETURNING " + Const.PERSON_ID;
+
+    private static final String INSERT_WITH_ID = "INSERT INTO " + Const.PERSON_TABLE + " ("
+            + Const.PERSON_FIRSTNAME + "," + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "," + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "," + Const.PERSON_BIRTHDAY + "," + Const.PERSON_CREATED + ","
+            + Const.PERSON_ID + ") VALUES (?,?,?,?,?,?,?,?)";
+
+    // Номера для пачки новых строк берутся из последовательности столбца id.
+    private static final String NEXT_IDS = "SELECT nextval(pg_get_serial_sequence('"
+            + Const.PERSON_TABLE + "', '" + Const.PERSON_ID + "')) FROM generate_series(1, ?)";
+
+    private static final String SELECT_BY_ID = "SELECT " + COLUMNS + " FROM " + Const.PERSON_TABLE
+            + " WHERE " + Const.PERSON_ID + "=?";
+
+    private static final String SELECT_BY_NAME = "SELECT " + COLUMNS + " FROM " + Const.PERSON_TABLE
+            + " WHERE " + Const.PERSON_FIRSTNAME + "=? AND " + Const.PERSON_LASTNAME + "=?"
+            + " ORDER BY " + Const.PERSON_ID;
+
+    private static final String SELECT_ALL = "SELECT " + COLUMNS + " FROM " + Const.PERSON_TABLE
+            + " ORDER BY " + Const.PERSON_ID;
+
+    // Строки, созданные или изменённые позже указанного времени.
+    private static final String SELECT_CHANGED = "SELECT " + COLUMNS + " FROM " + Const.PERSON_TABLE
+            + " WHERE coalesce(" + Const.PERSON_UPDATED + "," + Const.PERSON_CREATED + ") > ?"
+            + " ORDER BY " + Const.PERSON_ID;
+
+    private static final String SELECT_IDS = "SELECT " + Const.PERSON_ID + " FROM " + Const.PERSON_TABLE
+            + " ORDER BY " + Const.PERSON_ID;
+
+    // Вставка с известным id, а если строка с таким id есть - её изменение.
+    private static final String UPSERT = INSERT_WITH_ID + " ON CONFLICT (" + Const.PERSON_ID + ") DO UPDATE SET "
+            + Const.PERSON_FIRSTNAME + "=EXCLUDED." + Const.PERSON_FIRSTNAME + ","
+            + Const.PERSON_LASTNAME + "=EXCLUDED." + Const.PERSON_LASTNAME + ","
+            + Const.PERSON_STREET + "=EXCLUDED." + Const.PERSON_STREET + ","
+            + Const.PERSON_POST_CODE + "=EXCLUDED." + Const.PERSON_POST_CODE + ","
+            + Const.PERSON_CITY + "=EXCLUDED." + Const.PERSON_CITY + ","
+            + Const.PERSON_BIRTHDAY + "=EXCLUDED." + Const.PERSON_BIRTHDAY + ","
+            + Const.PERSON_UPDATED + "=EXCLUDED." + Const.PERSON_CREATED;
+
+    // Время БД без часового пояса, как в столбцах created и updated.
+    private static final String NOW = "SELECT date_trunc('second', localtimestamp)";
+
+    private static final String COUNT = "SELECT count(*) FROM " + Const.PERSON_TABLE;
+
+    private static final String UPDATE = "UPDATE " + Const.PERSON_TABLE + " SET "
+            + Const.PERSON_FIRSTNAME + "=?," + Const.PERSON_LASTNAME + "=?,"
+            + Const.PERSON_STREET + "=?," + Const.PERSON_POST_CODE + "=?,"
+            + Const.PERSON_CITY + "=?," + Const.PERSON_BIRTHDAY + "=?,"
+            + Const.PERSON_UPDATED + "=? WHERE " + Const.PERSON_ID + "=?";
+
+    private static final String DELETE = "DELETE FROM " + Const.PERSON_TABLE
+            + " WHERE " + Const.PERSON_ID + "=?";
+
+    private static final String DELETE_ALL_OF = "DELETE FROM " + Const.PERSON_TABLE
+            + " WHERE " + Const.PERSON_ID + " = ANY(?)";
+
+    private final DatabaseHandler handler;
+
+    /**
+     * Получатель пачек строк при потоковом чтении таблицы.
+     */
+    public interface BatchConsumer {
+        void accept(PersonStore batch) throws InterruptedException;
+    }
+
+    public PersonDao(DatabaseHandler handler) {
+        this.handler = handler;
+    }
+
+    /**
+     * Добавляет адресата в таблицу. Адресату присваиваются id и время создания.
+     *
+     * @param person новый адресат
+     * @return тот же адресат
+     */
+    public Person create(Person person) throws ClassNotFoundException, SQLException {
+        LocalDateTime now;
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(INSERT)) {
+            now = now(connection);
+            bind(preparedStatement, person);
+            preparedStatement.setObject(7, now);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                person.setId(resultSet.getInt(1));
+            }
+        }
+        person.setCreated(now);
+        person.setUpdated(null);
+        return person;
+    }
+
+    /**
+     * Добавляет адресатов пачками по {@link Configs#bulkBatchSize} (JDBC batch),
+     * каждая пачка фиксируется отдельной транзакцией. Адресатам
+     * присваиваются id и время создания.
+     *
+     * @param persons новые адресаты
+     * @return сколько строк добавлено и с какой скоростью
+     */
+    public BulkInsertStats createAll(List<Person> persons) throws ClassNotFoundException, SQLException {
+        long start = System.nanoTime();
+        int chunks = 0;
+        try (Connection connection = handler.getDbConnection()) {
+            connection.setAutoCommit(false);
+            LocalDateTime now = now(connection);
+            try (PreparedStatement nextIds = connection.prepareStatement(NEXT_IDS);
+                 PreparedStatement insert = connection.prepareStatement(INSERT_WITH_ID)) {
+                for (int from = 0; from < persons.size(); from += handler.bulkBatchSize) {
+                    List<Person> chunk = persons.subList(from, Math.min(from + handler.bulkBatchSize, persons.size()));
+                    int[] ids = insertChunk(nextIds, insert, chunk, now);
+                    connection.commit();
+                    chunks++;
+                    markCreated(chunk, ids, now);
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return new BulkInsertStats(persons.size(), chunks, System.nanoTime() - start);
+    }
+
+    /**
+     * Записывает в таблицу все изменения книги одной транзакцией: новых
+     * адресатов (пачками INSERT), изменённых (пачками upsert) и удаление
+     * строк по id. Если что-то не удалось, не записывается ничего, и
+     * следующая синхронизация повторит все изменения без дубликатов.
+     * id и время создания или изменения присваиваются адресатам только
+     * после фиксации транзакции.
+     *
+     * @param created новые адресаты
+     * @param changed изменённые адресаты с id
+     * @param deleted id удалённых строк
+     * @return время записи строк по часам БД
+     */
+    public LocalDateTime pushChanges(List<Person> created, List<Person> changed, int[] deleted)
+            throws ClassNotFoundException, SQLException {
+        LocalDateTime now;
+        int[] createdIds = new int[created.size()];
+        try (Connection connection = handler.getDbConnection()) {
+            connection.setAutoCommit(false);
+            try {
+                now = now(connection);
+                if (!created.isEmpty()) {
+                    try (PreparedStatement nextIds = connection.prepareStatement(NEXT_IDS);
+                         PreparedStatement insert = connection.prepareStatement(INSERT_WITH_ID)) {
+                        for (int from = 0; from < created.size(); from += handler.bulkBatchSize) {
+                            int to = Math.min(from + handler.bulkBatchSize, created.size());
+                            int[] ids = insertChunk(nextIds, insert, created.subList(from, to), now);
+                            System.arraycopy(ids, 0, createdIds, from, ids.length);
+                        }
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    try (PreparedStatement upsert = connection.prepareStatement(UPSERT)) {
+                        for (int from = 0; from < changed.size(); from += handler.bulkBatchSize) {
+                            int to = Math.min(from + handler.bulkBatchSize, changed.size());
+                            upsertChunk(upsert, changed.subList(from, to), now);
+                        }
+                    }
+                }
+                if (deleted.length > 0) {
+                    deleteIds(connection, deleted);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        markCreated(created, createdIds, now);
+        for (Person person : changed) {
+            person.setUpdated(now);
+        }
+        return now;
+    }
+
+    /**
+     * Вставляет пачку новых адресатов (без фиксации транзакции).
+     *
+     * @return id, выданные адресатам пачки
+     */
+    private static int[] insertChunk(PreparedStatement nextIds, PreparedStatement insert,
+                                     List<Person> chunk, LocalDateTime now) throws SQLException {
+        // Номера берём заранее, чтобы знать id каждого адресата пачки.
+        int[] ids = new int[chunk.size()];
+        nextIds.setInt(1, ids.length);
+        try (ResultSet resultSet = nextIds.executeQuery()) {
+            for (int i = 0; resultSet.next(); i++) {
+                ids[i] = resultSet.getInt(1);
+            }
+        }
+        for (int i = 0; i < ids.length; i++) {
+            bind(insert, chunk.get(i));
+            insert.setObject(7, now);
+            insert.setInt(8, ids[i]);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        return ids;
+    }
+
+    private static void markCreated(List<Person> persons, int[] ids, LocalDateTime now) {
+        for (int i = 0; i < ids.length; i++) {
+            Person person = persons.get(i);
+            person.setId(ids[i]);
+            person.setCreated(now);
+            person.setUpdated(null);
+        }
+    }
+
+    /**
+     * @param id id строки
+     * @return адресат или null, если такой строки нет
+     */
+    public Person find(int id) throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_BY_ID)) {
+            preparedStatement.setInt(1, id);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                return resultSet.next() ? mapRow(resultSet) : null;
+            }
+        }
+    }
+
+    /**
+     * @return адресаты с указанными именем и фамилией по возрастанию id
+     */
+    public List<Person> findByName(String firstName, String lastName)
+            throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_BY_NAME)) {
+            preparedStatement.setString(1, firstName);
+            preparedStatement.setString(2, lastName);
+            return mapRows(preparedStatement);
+        }
+    }
+
+    /**
+     * Читает всю таблицу. Для больших таблиц лучше {@link DatabasePersonList}.
+     *
+     * @return все адресаты по возрастанию id
+     */
+    public List<Person> findAll() throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_ALL)) {
+            return mapRows(preparedStatement);
+        }
+    }
+
+    /**
+     * Читает всю таблицу потоком, не загружая её в память: PostgreSQL
+     * отдаёт строки курсором по batchSize штук, и каждая такая пачка
+     * передаётся получателю.
+     *
+     * @param batchSize сколько строк в пачке
+     * @param consumer  получатель пачек
+     * @return сколько строк прочитано
+     */
+    public long readAll(int batchSize, BatchConsumer consumer)
+            throws ClassNotFoundException, SQLException, InterruptedException {
+        long rows = 0;
+        try (Connection connection = handler.getDbConnection()) {
+            // Курсор с fetchSize работает только внутри транзакции.
+            connection.setAutoCommit(false);
+            // Запрос мимо кэша запросов соединения: размер выборки остался бы
+            // у закэшированного запроса и после возврата в кэш.
+            try (PreparedStatement preparedStatement = connection.prepareStatement(SELECT_ALL,
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+                preparedStatement.setFetchSize(batchSize);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    PersonStore batch = new PersonStore();
+                    while (resultSet.next()) {
+                        int row = batch.add(resultSet.getString(2), resultSet.getString(3),
+                                resultSet.getString(4), resultSet.getInt(5), resultSet.getString(6),
+                                DateCodec.toEpochDay(resultSet.getObject(7, LocalDate.class)));
+                        batch.setId(row, resultSet.getInt(1));
+                        if (batch.size() == batchSize) {
+                            rows += batch.size();
+                            consumer.accept(batch);
+                            batch = new PersonStore();
+                        }
+                    }
+                    if (batch.size() > 0) {
+                        rows += batch.size();
+                        consumer.accept(batch);
+                    }
+                }
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * @param since время; null - прочитать все строки
+     * @return адресаты, созданные или изменённые позже since, по возрастанию id
+     */
+    public List<Person> findChangedSince(LocalDateTime since) throws ClassNotFoundException, SQLException {
+        if (since == null) {
+            return findAll();
+        }
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_CHANGED)) {
+            preparedStatement.setObject(1, since);
+            return mapRows(preparedStatement);
+        }
+    }
+
+    /**
+     * @return id всех строк таблицы по возрастанию
+     */
+    public int[] findAllIds() throws ClassNotFoundException, SQLException {
+        int[] ids = new int[1024];
+        int count = 0;
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(SELECT_IDS);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = resultSet.getInt(1);
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    /**
+     * @return количество строк в таблице
+     */
+    public int count() throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(COUNT);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /**
+     * Записывает поля адресата в его строку и время изменения.
+     *
+     * @param person адресат из БД (с id)
+     * @return false, если строки с таким id нет
+     */
+    public boolean update(Person person) throws ClassNotFoundException, SQLException {
+        LocalDateTime now;
+        int updated;
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+            now = now(connection);
+            bind(preparedStatement, person);
+            preparedStatement.setObject(7, now);
+            preparedStatement.setInt(8, requireId(person));
+            updated = preparedStatement.executeUpdate();
+        }
+        if (updated > 0) {
+            person.setUpdated(now);
+        }
+        return updated > 0;
+    }
+
+    /**
+     * Изменяет адресатов пачками по {@link Configs#bulkBatchSize},
+     * каждая пачка фиксируется отдельной транзакцией.
+     *
+     * @param persons адресаты из БД (с id)
+     * @return сколько строк изменено
+     */
+    public int updateAll(List<Person> persons) throws ClassNotFoundException, SQLException {
+        int updated = 0;
+        try (Connection connection = handler.getDbConnection()) {
+            connection.setAutoCommit(false);
+            LocalDateTime now = now(connection);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(UPDATE)) {
+                for (int from = 0; from < persons.size(); from += handler.bulkBatchSize) {
+                    List<Person> chunk = persons.subList(from, Math.min(from + handler.bulkBatchSize, persons.size()));
+                    for (Person person : chunk) {
+                        bind(preparedStatement, person);
+                        preparedStatement.setObject(7, now);
+                        preparedStatement.setInt(8, requireId(person));
+                        preparedStatement.addBatch();
+                    }
+                    int[] counts = preparedStatement.executeBatch();
+                    connection.commit();
+                    for (int i = 0; i < counts.length; i++) {
+                        // SUCCESS_NO_INFO: драйвер не сообщил число строк, считаем одну.
+                        if (counts[i] > 0 || counts[i] == PreparedStatement.SUCCESS_NO_INFO) {
+                            chunk.get(i).setUpdated(now);
+                            updated++;
+                        }
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Записывает адресатов с известными id пачками по {@link Configs#bulkBatchSize}:
+     * существующие строки изменяются (заполняется updated), а строки, которых
+     * в таблице уже нет, вставляются заново с тем же id (заполняется created).
+     *
+     * @param persons адресаты с id
+     */
+    public void upsertAll(List<Person> persons) throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection()) {
+            connection.setAutoCommit(false);
+            LocalDateTime now = now(connection);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(UPSERT)) {
+                for (int from = 0; from < persons.size(); from += handler.bulkBatchSize) {
+                    List<Person> chunk = persons.subList(from, Math.min(from + handler.bulkBatchSize, persons.size()));
+                    upsertChunk(preparedStatement, chunk, now);
+                    connection.commit();
+                    for (Person person : chunk) {
+                        person.setUpdated(now);
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Записывает пачку адресатов запросом UPSERT (без фиксации транзакции).
+     */
+    private static void upsertChunk(PreparedStatement upsert, List<Person> chunk, LocalDateTime now)
+            throws SQLException {
+        for (Person person : chunk) {
+            bind(upsert, person);
+            upsert.setObject(7, now);
+            upsert.setInt(8, requireId(person));
+            upsert.addBatch();
+        }
+        upsert.executeBatch();
+    }
+
+    /**
+     * @param id id строки
+     * @return false, если строки с таким id нет
+     */
+    public boolean delete(int id) throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection();
+             PreparedStatement preparedStatement = connection.prepareStatement(DELETE)) {
+            preparedStatement.setInt(1, id);
+            return preparedStatement.executeUpdate() > 0;
+        }
+    }
+
+    /**
+     * Удаляет строки одним запросом с массивом id.
+     *
+     * @param ids id строк
+     * @return сколько строк удалено
+     */
+    public int deleteAll(int[] ids) throws ClassNotFoundException, SQLException {
+        try (Connection connection = handler.getDbConnection()) {
+            return deleteIds(connection, ids);
+        }
+    }
+
+    private static int deleteIds(Connection connection, int[] ids) throws SQLException {
+        Integer[] values = new Integer[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            values[i] = ids[i];
+        }
+        try (PreparedStatement preparedStatement = connection.prepareStatement(DELETE_ALL_OF)) {
+            Array array = connection.createArrayOf("integer", values);
+            try {
+                preparedStatement.setArray(1, array);
+                return preparedStatement.executeUpdate();
+            } finally {
+                array.free();
+            }
+        }
+    }
+
+    /**
+     * Создаёт адресата из текущей строки ResultSet со столбцами {@link #COLUMNS}.
+     */
+    static Person mapRow(ResultSet resultSet) throws SQLException {
+        return mapRow(resultSet, null);
+    }
+
+    /**
+     * Создаёт адресата из текущей строки ResultSet со столбцами {@link #COLUMNS}.
+     * Строки берутся из словаря: одинаковые имена, улицы и города разных
+     * строк таблицы становятся одним объектом String.
+     *
+     * @param dictionary словарь строк или null - строки как есть
+     */
+    static Person mapRow(ResultSet resultSet, StringDictionary dictionary) throws SQLException {
+        Person person = new Person(getString(resultSet, 2, dictionary), getString(resultSet, 3, dictionary));
+        person.setId(resultSet.getInt(1));
+        person.setStreet(getString(resultSet, 4, dictionary));
+        person.setPostalCode(resultSet.getInt(5));
+        person.setCity(getString(resultSet, 6, dictionary));
+        person.setBirthday(resultSet.getObject(7, LocalDate.class));
+        person.setCreated(resultSet.getObject(8, LocalDateTime.class));
+        person.setUpdated(resultSet.getObject(9, LocalDateTime.class));
+        return person;
+    }
+
+    private static String getString(ResultSet resultSet, int column, StringDictionary dictionary)
+            throws SQLException {
+        String value = resultSet.getString(column);
+        return dictionary == null ? value : dictionary.intern(value);
+    }
+
+    private static List<Person> mapRows(PreparedStatement preparedStatement) throws SQLException {
+        List<Person> persons = new ArrayList<>();
+        try (ResultSet resultSet = preparedStatement.executeQuery()) {
+            while (resultSet.next()) {
+                persons.add(mapRow(resultSet));
+            }
+        }
+        return persons;
+    }
+
+    /**
+     * Подставляет поля адресата в первые шесть параметров запроса.
+     */
+    private static void bind(PreparedStatement preparedStatement, Person person) throws SQLException {
+        preparedStatement.setString(1, person.getFirstName());
+        preparedStatement.setString(2, person.getLastName());
+        preparedStatement.setString(3, person.getStreet());
+        preparedStatement.setInt(4, person.getPostalCode());
+        preparedStatement.setString(5, person.getCity());
+        if (person.getBirthday() == null) {
+            preparedStatement.setNull(6, Types.DATE);
+        } else {
+            preparedStatement.setObject(6, person.getBirthday());
+        }
+    }
+
+    private static int requireId(Person person) {
+        if (person.getId() <= 0) {
+            throw new IllegalArgumentException("Person is not stored in the database: "
+                    + person.getFirstName() + " " + person.getLastName());
+        }
+        return person.getId();
+    }
+
+    /**
+     * Время для столбцов created и updated - по часам БД, а не клиента:
+     * по нему BookSync выбирает изменения, и часы всех клиентов должны
+     * совпадать. Внутри транзакции это время её начала, одно на все запросы.
+     * Столбцы хранят время с точностью до секунды.
+     */
+    private static LocalDateTime now(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(NOW);
+             ResultSet resultSet = preparedStatement.executeQuery()) {
+            resultSet.next();
+            return resultSet.getObject(1, LocalDateTime.class);
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package sample.address.database;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Кэш подготовленных запросов одного соединения с БД.
+ *
+ * Подготовка запроса (prepareStatement) - это разбор SQL драйвером,
+ * а для PostgreSQL после нескольких выполнений ещё и серверный план.
+ * Если после каждого запроса закрывать PreparedStatement, то всё это
+ * повторяется при следующем вызове. Поэтому пул оставляет запросы
+ * открытыми и выдаёт их повторно тому, кто подготовит тот же SQL на
+ * том же соединении.
+ *
+ * Выданный запрос - обёртка, её close() не закрывает запрос, а очищает
+ * параметры и возвращает его в кэш. Кэш хранит не больше capacity
+ * запросов, давно не использованные закрываются (LRU). Если тот же SQL
+ * уже выдан и ещё не возвращён, то готовится обычный, некэшируемый запрос.
+ */
+final class StatementCache {
+
+    private final Connection connection;
+    private final int capacity;
+    private final Map<String, Entry> statements;
+
+    private long hits;
+    private long misses;
+
+    StatementCache(Connection connection, int capacity) {
+        this.connection = connection;
+        this.capacity = capacity;
+        this.statements = new LinkedHashMap<>(capacity * 2, 0.75f, true);
+    }
+
+    /**
+     * Выдаёт подготовленный запрос из кэша или готовит новый.
+     *
+     * @param sql текст запроса
+     * @return запрос, который нужно закрыть после использования
+     */
+    synchronized PreparedStatement prepare(String sql) throws SQLException {
+        if (capacity <= 0) {
+            return connection.prepareStatement(sql);
+        }
+        Entry entry = statements.get(sql);
+        if (entry != null && entry.inUse) {
+            misses++;
+            return connection.prepareStatement(sql);
+        }
+        if (entry == null) {
+            misses++;
+            entry = new Entry(sql, connection.prepareStatement(sql));
+            statements.put(sql, entry);
+            evict();
+        } else {
+            hits++;
+        }
+        entry.inUse = true;
+        return lease(entry);
+    }
+
+    synchronized long getHits() {
+        return hits;
+    }
+
+    synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Закрывает все запросы кэша. Вызывается перед закрытием соединения.
+     */
+    synchronized void close() {
+        for (Entry entry : statements.values()) {
+            closeQuietly(entry.statement);
+        }
+        statements.clear();
+    }
+
+    private void evict() {
+        Iterator<Entry> it = statements.values().iterator();
+        while (statements.size() > capacity && it.hasNext()) {
+            Entry eldest = it.next();
+            it.remove();
+            eldest.evicted = true;
+            if (!eldest.inUse) {
+                closeQuietly(eldest.statement);
+            }
+        }
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.inUse = false;
+        if (entry.evicted) {
+            closeQuietly(entry.statement);
+            return;
+        }
+        try {
+            entry.statement.clearParameters();
+            entry.statement.clearBatch();
+        } catch (SQLException e) {
+            // Запрос больше не годится - готовим его заново в следующий раз.
+            statements.remove(entry.sql);
+            closeQuietly(entry.statement);
+        }
+    }
+
+    private PreparedStatement lease(Entry entry) {
+        return (PreparedStatement) Proxy.newProxyInstance(
+                StatementCache.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class},
+                new LeaseHandler(entry));
+    }
+
+    private static void closeQuietly(PreparedStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            // Соединение, скорее всего, уже закрыто.
+        }
+    }
+
+    /**
+     * Запрос в кэше.
+     */
+    private static final class Entry {
+        private final String sql;
+        private final PreparedStatement statement;
+        private boolean inUse;
+        private boolean evicted;
+
+        Entry(String sql, PreparedStatement statement) {
+            this.sql = sql;
+            this.statement = statement;
+        }
+    }
+
+    /**
+     * Обработчик вызовов выданного запроса: close() возвращает запрос
+     * в кэш, остальные методы передаются настоящему запросу.
+     */
+    private class LeaseHandler implements InvocationHandler {
+        private final Entry entry;
+        private boolean released;
+
+        LeaseHandler(Entry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!released) {
+                        released = true;
+                        release(entry);
+                    }
+                    return null;
+                case "isClosed":
+                    return released || entry.statement.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    if (released) {
+                        throw new SQLException("Statement has already been returned to the cache");
+                    }
+                    try {
+                        return method.invoke(entry.statement, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+            }
+        }
+    }
+}
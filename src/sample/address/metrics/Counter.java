@@ -0,0 +1,28 @@
+package sample.address.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Счётчик событий. Увеличивать можно из любых потоков: {@link LongAdder}
+ * не создаёт конкуренции за одну ячейку памяти.
+ */
+public final class Counter implements CounterMBean {
+
+    private final LongAdder count = new LongAdder();
+
+    Counter() {
+    }
+
+    public void inc() {
+        count.increment();
+    }
+
+    public void add(long n) {
+        count.add(n);
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,9 @@
+package sample.address.metrics;
+
+/**
+ * JMX-представление {@link Counter}.
+ */
+public interface CounterMBean {
+
+    long getCount();
+}
@@ -0,0 +1,21 @@
+package sample.address.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Текущее значение, которое вычисляется при каждом чтении
+ * (размер списка, число соединений в пуле и т.п.).
+ */
+public final class Gauge implements GaugeMBean {
+
+    private final LongSupplier value;
+
+    Gauge(LongSupplier value) {
+        this.value = value;
+    }
+
+    @Override
+    public long getValue() {
+        return value.getAsLong();
+    }
+}
@@ -0,0 +1,9 @@
+package sample.address.metrics;
+
+/**
+ * JMX-представление {@link Gauge}.
+ */
+public interface GaugeMBean {
+
+    long getValue();
+}
@@ -0,0 +1,181 @@
+package sample.address.metrics;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Метрики приложения: счётчики ({@link Counter}), текущие значения
+ * ({@link Gauge}) и гистограммы длительностей ({@link Timer}).
+ * <p>
+ * Каждая метрика при создании публикуется как JMX MBean
+ * "sample.address:type=&lt;Counter|Gauge|Timer&gt;,name=&lt;имя&gt;",
+ * так что её видно в JConsole или VisualVM работающего приложения.
+ * Метрику с тем же именем можно запросить сколько угодно раз - вернётся
+ * один и тот же объект; обычно его держат в статическом поле.
+ * <p>
+ * Дополнительно все метрики можно периодически писать в журнал SLF4J
+ * ({@link #startReporter}); в приложении это включается системным
+ * свойством {@link #REPORT_PROPERTY} (период в секундах).
+ */
+public final class Metrics {
+
+    /**
+     * Системное свойство: период записи метрик в журнал, с; не задано - не писать.
+     */
+    public static final String REPORT_PROPERTY = "address.metrics.reportSeconds";
+
+    private static final String DOMAIN = "sample.address";
+    private static final Logger LOG = LoggerFactory.getLogger(Metrics.class);
+
+    private static final Map<String, Object> METRICS = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService reporter;
+
+    private Metrics() {
+    }
+
+    public static Counter counter(String name) {
+        return (Counter) METRICS.computeIfAbsent(name, key -> register("Counter", key, new Counter()));
+    }
+
+    public static Timer timer(String name) {
+        return (Timer) METRICS.computeIfAbsent(name, key -> register("Timer", key, new Timer()));
+    }
+
+    /**
+     * Регистрирует текущее значение. Повторная регистрация с тем же именем
+     * заменяет источник значения (например, после пересоздания пула).
+     */
+    public static Gauge gauge(String name, LongSupplier value) {
+        Gauge gauge = new Gauge(value);
+        Object previous = METRICS.put(name, gauge);
+        if (previous != null) {
+            unregister("Gauge", name);
+        }
+        return register("Gauge", name, gauge);
+    }
+
+    /**
+     * Считает изменения списка: добавленные, удалённые и обновлённые
+     * элементы (&lt;prefix&gt;.added, .removed, .updated) и его размер
+     * (&lt;prefix&gt;.size). Размер читается из потока JMX без синхронизации -
+     * для наблюдения этого достаточно.
+     */
+    public static void watch(String prefix, ObservableList<?> list) {
+        Counter added = counter(prefix + ".added");
+        Counter removed = counter(prefix + ".removed");
+        Counter updated = counter(prefix + ".updated");
+        Counter permutated = counter(prefix + ".permutated");
+        gauge(prefix + ".size", list::size);
+        list.addListener((ListChangeListener<Object>) change -> {
+            while (change.next()) {
+                if (change.wasPermutated()) {
+                    permutated.add(change.getTo() - change.getFrom());
+                } else if (change.wasUpdated()) {
+                    updated.add(change.getTo() - change.getFrom());
+                } else {
+                    added.add(change.getAddedSize());
+                    removed.add(change.getRemovedSize());
+                }
+            }
+        });
+    }
+
+    /**
+     * Начинает периодически писать все метрики в журнал (уровень INFO).
+     *
+     * @param periodSeconds период, с
+     */
+    public static synchronized void startReporter(long periodSeconds) {
+        if (reporter != null) {
+            return;
+        }
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(Metrics::report, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Начинает писать метрики в журнал, если задано свойство {@link #REPORT_PROPERTY}.
+     */
+    public static void startReporterIfConfigured() {
+        Long period = Long.getLong(REPORT_PROPERTY);
+        if (period != null && period > 0) {
+            startReporter(period);
+        }
+    }
+
+    /**
+     * Пишет все метрики в журнал, по одной строке на метрику.
+     */
+    public static void report() {
+        if (!LOG.isInfoEnabled()) {
+            return;
+        }
+        for (Map.Entry<String, Object> entry : new TreeMap<>(METRICS).entrySet()) {
+            Object metric = entry.getValue();
+            if (metric instanceof Timer) {
+                Timer timer = (Timer) metric;
+                if (timer.getCount() > 0) {
+                    LOG.info(String.format(Locale.ROOT,
+                            "%s: count=%d mean=%.2fms p50=%.2fms p95=%.2fms p99=%.2fms max=%.2fms",
+                            entry.getKey(), timer.getCount(), timer.getMeanMillis(),
+                            timer.get50thPercentileMillis(), timer.get95thPercentileMillis(),
+                            timer.get99thPercentileMillis(), timer.getMaxMillis()));
+                }
+            } else if (metric instanceof Counter) {
+                LOG.info("{}: count={}", entry.getKey(), ((Counter) metric).getCount());
+            } else {
+                LOG.info("{}: value={}", entry.getKey(), ((Gauge) metric).getValue());
+            }
+        }
+    }
+
+    private static <T> T register(String type, String name, T metric) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (!server.isRegistered(objectName)) {
+                server.registerMBean(metric, objectName);
+            }
+        } catch (JMException e) {
+            // Без JMX метрика всё равно считается и попадает в журнал.
+            LOG.warn("Could not register metric " + name, e);
+        }
+        return metric;
+    }
+
+    private static void unregister(String type, String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = objectName(type, name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+        } catch (JMException e) {
+            LOG.warn("Could not unregister metric " + name, e);
+        }
+    }
+
+    private static ObjectName objectName(String type, String name) throws JMException {
+        return new ObjectName(DOMAIN + ":type=" + type + ",name=" + ObjectName.quote(name));
+    }
+}
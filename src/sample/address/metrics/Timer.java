@@ -0,0 +1,140 @@
+package sample.address.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма длительностей операции.
+ * <p>
+ * Длительности раскладываются по логарифмическим корзинам: каждая степень
+ * двойки наносекунд делится на 8 корзин, так что перцентили получаются
+ * с ошибкой не больше 12.5%, а память постоянная (512 счётчиков).
+ * Запись - несколько атомарных сложений без блокировок, её можно делать
+ * из любых потоков:
+ * <pre>
+ *     long start = timer.start();
+ *     ...
+ *     timer.stop(start);
+ * </pre>
+ */
+public final class Timer implements TimerMBean {
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64 * SUB_BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    Timer() {
+    }
+
+    /**
+     * @return момент начала операции для {@link #stop(long)}
+     */
+    public long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Записывает длительность операции, начатой в start.
+     */
+    public void stop(long start) {
+        record(System.nanoTime() - start);
+    }
+
+    /**
+     * Записывает длительность операции.
+     *
+     * @param nanos длительность, нс
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        buckets.incrementAndGet(bucketOf(nanos));
+        count.increment();
+        totalNanos.add(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    private static int bucketOf(long nanos) {
+        if (nanos < SUB_BUCKETS) {
+            return (int) nanos;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+        int sub = (int) (nanos >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Верхняя граница корзины, нс.
+    private static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    /**
+     * @param percent процент, от 0 до 100
+     * @return длительность этого перцентиля, нс (оценка сверху)
+     */
+    public long percentileNanos(double percent) {
+        long total = 0;
+        long[] counts = new long[buckets.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percent / 100 * total);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank && counts[i] > 0) {
+                return Math.min(upperBoundOf(i), maxNanos.get());
+            }
+        }
+        return maxNanos.get();
+    }
+
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        long n = count.sum();
+        return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return maxNanos.get() / 1e6;
+    }
+
+    @Override
+    public double get50thPercentileMillis() {
+        return percentileNanos(50) / 1e6;
+    }
+
+    @Override
+    public double get95thPercentileMillis() {
+        return percentileNanos(95) / 1e6;
+    }
+
+    @Override
+    public double get99thPercentileMillis() {
+        return percentileNanos(99) / 1e6;
+    }
+}
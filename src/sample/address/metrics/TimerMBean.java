@@ -0,0 +1,20 @@
+package sample.address.metrics;
+
+/**
+ * JMX-представление {@link Timer}. Время - в миллисекундах,
+ * с момента запуска приложения.
+ */
+public interface TimerMBean {
+
+    long getCount();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double get50thPercentileMillis();
+
+    double get95thPercentileMillis();
+
+    double get99thPercentileMillis();
+}
@@ -0,0 +1,234 @@
+package sample.address.model;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import sample.address.util.DateCodec;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Гистограммы дней рождений адресатов: по месяцам, по дням года и по годам.
+ * <p>
+ * Гистограммы не пересчитываются при открытии окна статистики, а ведутся
+ * постоянно по событиям {@link PersonStoreList}: при добавлении, удалении
+ * и изменении адресата меняются только его счётчики. Изменение дня
+ * рождения в диалоге редактирования приходит событием обновления строки.
+ * Для этого гистограмма хранит копию дней рождений по строкам - по ней
+ * видно, какое значение было у строки до изменения.
+ * <p>
+ * Большие порции строк (загрузка книги) считаются параллельно: каждый
+ * поток считает свою часть строк, затем счётчики складываются.
+ * <p>
+ * После каждого изменения вызываются слушатели InvalidationListener.
+ * Все методы вызываются в потоке JavaFX.
+ */
+public class BirthdayHistogram implements Observable {
+
+    /**
+     * Количество дней в гистограмме по дням года (см. {@link DateCodec#dayOfLeapYearOf}).
+     */
+    public static final int DAYS = 366;
+
+    /**
+     * Гистограмма по годам охватывает годы от 1 до MAX_YEAR.
+     */
+    public static final int MAX_YEAR = 9999;
+
+    // С какого числа строк порцию выгоднее считать параллельно.
+    private static final int PARALLEL_THRESHOLD = 50_000;
+
+    private final PersonStoreList list;
+
+    private Counts counts = new Counts();
+    // День рождения каждой строки (номер дня от 1970-01-01) на момент подсчёта.
+    private int[] birthdays = new int[16];
+    private int rows;
+
+    private final List<InvalidationListener> listeners = new ArrayList<>();
+
+    /**
+     * Считает гистограммы по текущему содержимому списка и подписывается
+     * на его изменения.
+     *
+     * @param list список адресатов
+     */
+    public BirthdayHistogram(PersonStoreList list) {
+        this.list = list;
+        insertRows(0, list.size());
+        list.addListener(this::onChanged);
+    }
+
+    /**
+     * @param month месяц, 1-12
+     * @return количество дней рождений в месяце
+     */
+    public int getMonthCount(int month) {
+        return counts.months[month - 1];
+    }
+
+    /**
+     * @param day номер дня по {@link DateCodec#dayOfLeapYearOf}, 0-365
+     * @return количество дней рождений в этот день года
+     */
+    public int getDayCount(int day) {
+        return counts.days[day];
+    }
+
+    /**
+     * @param year год, 1-{@link #MAX_YEAR}
+     * @return количество адресатов, родившихся в этом году
+     */
+    public int getYearCount(int year) {
+        return counts.years[year];
+    }
+
+    /**
+     * @return самый ранний год рождения или 0, если дней рождений нет
+     */
+    public int getMinYear() {
+        for (int year = 1; year <= MAX_YEAR; year++) {
+            if (counts.years[year] > 0) {
+                return year;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return самый поздний год рождения или 0, если дней рождений нет
+     */
+    public int getMaxYear() {
+        for (int year = MAX_YEAR; year >= 1; year--) {
+            if (counts.years[year] > 0) {
+                return year;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return количество адресатов с указанным днём рождения
+     */
+    public int getTotal() {
+        return counts.total;
+    }
+
+    @Override
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        PersonStore store = list.getStore();
+        while (change.next()) {
+            int from = change.getFrom();
+            if (change.wasPermutated()) {
+                // Счётчики не меняются, переставляем только копию дней рождений.
+                int[] permuted = Arrays.copyOfRange(birthdays, from, change.getTo());
+                for (int row = from; row < change.getTo(); row++) {
+                    birthdays[change.getPermutation(row)] = permuted[row - from];
+                }
+            } else if (change.wasUpdated()) {
+                for (int row = from; row < change.getTo(); row++) {
+                    int birthday = store.getBirthdayEpochDay(row);
+                    if (birthday != birthdays[row]) {
+                        counts.add(birthdays[row], -1);
+                        counts.add(birthday, 1);
+                        birthdays[row] = birthday;
+                    }
+                }
+            } else {
+                if (change.wasRemoved()) {
+                    removeRows(from, from + change.getRemovedSize());
+                }
+                if (change.wasAdded()) {
+                    insertRows(from, change.getTo());
+                }
+            }
+        }
+        for (InvalidationListener listener : listeners.toArray(new InvalidationListener[0])) {
+            listener.invalidated(this);
+        }
+    }
+
+    private void removeRows(int from, int to) {
+        if (from == 0 && to == rows) {
+            counts = new Counts();
+        } else {
+            for (int row = from; row < to; row++) {
+                counts.add(birthdays[row], -1);
+            }
+        }
+        System.arraycopy(birthdays, to, birthdays, from, rows - to);
+        rows -= to - from;
+    }
+
+    private void insertRows(int from, int to) {
+        int added = to - from;
+        if (rows + added > birthdays.length) {
+            birthdays = Arrays.copyOf(birthdays, Math.max(rows + added, birthdays.length * 2));
+        }
+        System.arraycopy(birthdays, from, birthdays, to, rows - from);
+        rows += added;
+
+        PersonStore store = list.getStore();
+        for (int row = from; row < to; row++) {
+            birthdays[row] = store.getBirthdayEpochDay(row);
+        }
+        if (added >= PARALLEL_THRESHOLD) {
+            int[] column = birthdays;
+            Counts partial = IntStream.range(from, to).parallel()
+                    .collect(Counts::new, (part, row) -> part.add(column[row], 1), Counts::merge);
+            counts.merge(partial);
+        } else {
+            for (int row = from; row < to; row++) {
+                counts.add(birthdays[row], 1);
+            }
+        }
+    }
+
+    /**
+     * Счётчики гистограмм.
+     */
+    private static final class Counts {
+        final int[] months = new int[12];
+        final int[] days = new int[DAYS];
+        final int[] years = new int[MAX_YEAR + 1];
+        int total;
+
+        void add(int epochDay, int delta) {
+            if (epochDay == PersonStore.NULL_DATE) {
+                return;
+            }
+            months[DateCodec.monthOf(epochDay) - 1] += delta;
+            days[DateCodec.dayOfLeapYearOf(epochDay)] += delta;
+            int year = DateCodec.yearOf(epochDay);
+            if (year >= 1 && year <= MAX_YEAR) {
+                years[year] += delta;
+            }
+            total += delta;
+        }
+
+        void merge(Counts other) {
+            for (int i = 0; i < months.length; i++) {
+                months[i] += other.months[i];
+            }
+            for (int i = 0; i < days.length; i++) {
+                days[i] += other.days[i];
+            }
+            for (int i = 0; i < years.length; i++) {
+                years[i] += other.years[i];
+            }
+            total += other.total;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package sample.address.model;
+
+import javafx.beans.InvalidationListener;
+import javafx.beans.Observable;
+import javafx.collections.ListChangeListener;
+import sample.address.util.DateCodec;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Индекс дней рождений по дню года для вопросов вроде "у кого день рождения
+ * в ближайшие две недели".
+ * <p>
+ * Строки списка разложены по 366 корзинам - по дню года в календаре
+ * високосного года (см. {@link DateCodec#dayOfLeapYearOf}), так что
+ * 29 февраля получает свою корзину. Непустые корзины отмечены в битовой
+ * карте, поэтому поиск сразу переходит к следующему дню, в который у
+ * кого-то день рождения, и не зависит от числа адресатов.
+ * <p>
+ * Родившиеся 29 февраля в невисокосные годы празднуют 28 февраля.
+ * Поиск с конца декабря продолжается с января следующего года.
+ * <p>
+ * Индекс обновляется по событиям {@link PersonStoreList}. Изменения дня
+ * рождения и добавление в конец обрабатываются сразу, а вставка и удаление
+ * в середине списка сдвигают номера строк - тогда индекс перестраивается
+ * при следующем запросе.
+ * <p>
+ * Все методы вызываются в потоке JavaFX.
+ */
+public class BirthdayIndex implements Observable {
+
+    private static final int DAYS = 366;
+    private static final int FEB_29 = 59;
+
+    /**
+     * Ближайший день рождения адресата.
+     */
+    public static final class Occurrence {
+        private final int row;
+        private final LocalDate date;
+        private final int age;
+
+        Occurrence(int row, LocalDate date, int age) {
+            this.row = row;
+            this.date = date;
+            this.age = age;
+        }
+
+        /**
+         * @return номер строки адресата в списке
+         */
+        public int getRow() {
+            return row;
+        }
+
+        /**
+         * @return дата, в которую празднуется день рождения
+         */
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /**
+         * @return сколько лет исполняется в этот день
+         */
+        public int getAge() {
+            return age;
+        }
+    }
+
+    private final PersonStoreList list;
+
+    // Номера строк по дням года.
+    private final IntList[] buckets = new IntList[DAYS];
+    // Непустые корзины.
+    private final BitSet occupied = new BitSet(DAYS);
+    // День рождения каждой проиндексированной строки (номер дня от 1970-01-01).
+    private int[] birthdays = new int[16];
+    private int rows;
+    private boolean stale = true;
+
+    private final List<InvalidationListener> listeners = new ArrayList<>();
+
+    /**
+     * Создаёт индекс и подписывается на изменения списка.
+     *
+     * @param list список адресатов
+     */
+    public BirthdayIndex(PersonStoreList list) {
+        this.list = list;
+        for (int day = 0; day < DAYS; day++) {
+            buckets[day] = new IntList();
+        }
+        list.addListener(this::onChanged);
+    }
+
+    /**
+     * Ближайшие дни рождения, начиная с указанной даты включительно.
+     *
+     * @param from  с какой даты искать
+     * @param limit сколько дней рождений вернуть не больше
+     * @return дни рождения по возрастанию даты
+     */
+    public List<Occurrence> upcoming(LocalDate from, int limit) {
+        return find(from, from.plusYears(1).minusDays(1), limit);
+    }
+
+    /**
+     * Дни рождения в промежутке дат. Если промежуток длиннее года,
+     * то каждый адресат попадёт в результат несколько раз.
+     *
+     * @param from первая дата промежутка
+     * @param to   последняя дата промежутка (включительно)
+     * @return дни рождения по возрастанию даты
+     */
+    public List<Occurrence> between(LocalDate from, LocalDate to) {
+        return find(from, to, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Первые limit дней рождений в промежутке дат.
+     *
+     * @param from  первая дата промежутка
+     * @param to    последняя дата промежутка (включительно)
+     * @param limit сколько дней рождений вернуть не больше
+     * @return дни рождения по возрастанию даты
+     */
+    public List<Occurrence> between(LocalDate from, LocalDate to, int limit) {
+        return find(from, to, limit);
+    }
+
+    @Override
+    public void addListener(InvalidationListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(InvalidationListener listener) {
+        listeners.remove(listener);
+    }
+
+    private List<Occurrence> find(LocalDate from, LocalDate to, int limit) {
+        refresh();
+        List<Occurrence> result = new ArrayList<>();
+        int year = from.getYear();
+        int slot = DateCodec.dayOfLeapYearOf((int) from.toEpochDay());
+        // Родившиеся 29 февраля в невисокосный год празднуют 28-го:
+        // если поиск начинается 1 марта, их корзину уже пропустили.
+        while (result.size() < limit) {
+            slot = occupied.nextSetBit(slot);
+            if (slot < 0) {
+                // Дошли до конца года - продолжаем с января следующего.
+                year++;
+                slot = 0;
+                if (LocalDate.of(year, 1, 1).isAfter(to) || occupied.isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+            LocalDate date = dateOf(year, slot);
+            if (date.isAfter(to)) {
+                break;
+            }
+            if (!date.isBefore(from)) {
+                IntList bucket = buckets[slot];
+                for (int i = 0; i < bucket.size && result.size() < limit; i++) {
+                    int row = bucket.values[i];
+                    result.add(new Occurrence(row, date, year - DateCodec.yearOf(birthdays[row])));
+                }
+            }
+            slot++;
+        }
+        return result;
+    }
+
+    /**
+     * Дата, в которую в указанном году празднуется день из корзины.
+     */
+    private static LocalDate dateOf(int year, int slot) {
+        if (slot == FEB_29 && !DateCodec.isLeapYear(year)) {
+            return LocalDate.of(year, 2, 28);
+        }
+        // В високосном 2000 году номер дня совпадает с номером корзины.
+        LocalDate leapDate = LocalDate.ofYearDay(2000, slot + 1);
+        return LocalDate.of(year, leapDate.getMonthValue(), leapDate.getDayOfMonth());
+    }
+
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        if (!stale) {
+            PersonStore store = list.getStore();
+            while (change.next() && !stale) {
+                if (change.wasPermutated()) {
+                    stale = true;
+                } else if (change.wasUpdated()
+                        || (change.wasReplaced() && change.getRemovedSize() == change.getAddedSize())) {
+                    for (int row = change.getFrom(); row < change.getTo(); row++) {
+                        int birthday = store.getBirthdayEpochDay(row);
+                        if (birthday != birthdays[row]) {
+                            unindex(row);
+                            birthdays[row] = birthday;
+                            index(row, true);
+                        }
+                    }
+                } else if (!change.wasRemoved() && change.getFrom() == rows) {
+                    for (int row = change.getFrom(); row < change.getTo(); row++) {
+                        append(store, row);
+                    }
+                } else {
+                    // Номера строк сдвинулись - перестроим индекс при запросе.
+                    stale = true;
+                }
+            }
+        }
+        for (InvalidationListener listener : listeners.toArray(new InvalidationListener[0])) {
+            listener.invalidated(this);
+        }
+    }
+
+    /**
+     * Перестраивает индекс, если он устарел.
+     */
+    private void refresh() {
+        if (!stale) {
+            return;
+        }
+        for (IntList bucket : buckets) {
+            bucket.size = 0;
+        }
+        occupied.clear();
+        rows = 0;
+        PersonStore store = list.getStore();
+        int size = store.size();
+        if (birthdays.length < size) {
+            birthdays = new int[size];
+        }
+        for (int row = 0; row < size; row++) {
+            append(store, row);
+        }
+        stale = false;
+    }
+
+    private void append(PersonStore store, int row) {
+        if (row == birthdays.length) {
+            birthdays = Arrays.copyOf(birthdays, row * 2);
+        }
+        birthdays[row] = store.getBirthdayEpochDay(row);
+        rows = row + 1;
+        // Строки добавляются по возрастанию номеров - корзины остаются упорядоченными.
+        index(row, false);
+    }
+
+    private void index(int row, boolean sorted) {
+        int birthday = birthdays[row];
+        if (birthday == PersonStore.NULL_DATE) {
+            return;
+        }
+        int slot = DateCodec.dayOfLeapYearOf(birthday);
+        if (sorted) {
+            buckets[slot].insertSorted(row);
+        } else {
+            buckets[slot].add(row);
+        }
+        occupied.set(slot);
+    }
+
+    private void unindex(int row) {
+        int birthday = birthdays[row];
+        if (birthday == PersonStore.NULL_DATE) {
+            return;
+        }
+        int slot = DateCodec.dayOfLeapYearOf(birthday);
+        buckets[slot].removeSorted(row);
+        if (buckets[slot].size == 0) {
+            occupied.clear(slot);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package sample.address.model;
+
+import java.util.Arrays;
+
+/**
+ * Группа адресатов, которые, вероятно, являются одним человеком.
+ * Хранит номера строк списка адресатов по возрастанию.
+ */
+public final class DuplicateCluster {
+
+    private int[] rows;
+
+    DuplicateCluster(int[] rows) {
+        this.rows = rows;
+    }
+
+    /**
+     * @return номера строк по возрастанию
+     */
+    public int[] getRows() {
+        return rows;
+    }
+
+    /**
+     * @return количество адресатов в группе
+     */
+    public int size() {
+        return rows.length;
+    }
+
+    /**
+     * Сдвигает номера строк после удаления строк из списка. Сдвиг строки
+     * находится двоичным поиском, поэтому время не зависит от того,
+     * сколько всего строк удалено.
+     *
+     * @param removed удалённые номера строк по возрастанию
+     */
+    public void shift(int[] removed) {
+        int[] shifted = new int[rows.length];
+        int count = 0;
+        for (int row : rows) {
+            int at = Arrays.binarySearch(removed, row);
+            if (at < 0) {
+                // Перед строкой удалено столько строк, какова точка вставки.
+                shifted[count++] = row - (-at - 1);
+            }
+        }
+        rows = count == rows.length ? shifted : Arrays.copyOf(shifted, count);
+    }
+}
@@ -0,0 +1,571 @@
+package sample.address.model;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+import java.util.stream.IntStream;
+
+/**
+ * Поиск похожих адресатов (возможных дубликатов) в адресной книге.
+ * <p>
+ * Сравнивать каждого адресата с каждым слишком долго (n² пар), поэтому
+ * адресаты сначала раскладываются по "блокам" - группам с одинаковым ключом,
+ * и попарно сравниваются только внутри блока. Ключей три:
+ * <ul>
+ * <li>имя и фамилия без учёта регистра и диакритических знаков;</li>
+ * <li>фонетические коды (Soundex) имени и фамилии - находят "Meier" и "Meyer";</li>
+ * <li>почтовый индекс и город.</li>
+ * </ul>
+ * Пара, попавшая хотя бы в один общий блок, получает оценку сходства от 0
+ * до 1 по всем полям. Пары с оценкой не ниже {@link #THRESHOLD} объединяются
+ * в группы дубликатов (система непересекающихся множеств).
+ * <p>
+ * Блок больше {@link #MAX_BLOCK} строк (например, все адресаты одного
+ * города) попарно не сравнивается: строки блока сортируются по второму
+ * ключу (для блока по адресу - по фамилии и имени, для блока по имени -
+ * по улице), и каждая строка сравнивается только с {@link #WINDOW}
+ * соседями ("скользящее окно"). Сколько строк так обработано, сообщает
+ * {@link Result}.
+ * <p>
+ * Все шаги - построение ключей, сортировка, сравнение внутри блоков -
+ * выполняются параллельно в ForkJoinPool и прерываются, если поиск отменён.
+ * Работает над копией хранилища, поэтому её можно запускать в фоновом потоке.
+ */
+public final class DuplicateFinder {
+
+    /**
+     * Минимальная оценка сходства, при которой пара считается дубликатом.
+     */
+    public static final double THRESHOLD = 0.85;
+
+    /**
+     * Блоки больше этого размера не сравниваются попарно: такой ключ
+     * мало говорит о сходстве (например, все адресаты одного города).
+     */
+    public static final int MAX_BLOCK = 200;
+
+    /**
+     * Со сколькими соседями сравнивается строка большого блока.
+     */
+    public static final int WINDOW = 20;
+
+    private static final int KEY_NAME = 1;
+    private static final int KEY_PHONETIC = 2;
+    private static final int KEY_ADDRESS = 3;
+
+    private final PersonStore store;
+    private final BooleanSupplier cancelled;
+
+    // Нормализованные строки и фонетические коды по кодам словаря.
+    private String[] folded;
+    private int[] foldedIds;
+    private int[] soundex;
+    // Место нормализованной строки в алфавитном порядке (для больших блоков).
+    private int[] ranks;
+
+    private DuplicateFinder(PersonStore store, BooleanSupplier cancelled) {
+        this.store = store;
+        this.cancelled = cancelled;
+    }
+
+    /**
+     * Находит группы возможных дубликатов.
+     *
+     * @param store хранилище адресатов (не должно меняться во время поиска)
+     * @return результат поиска
+     */
+    public static Result find(PersonStore store) {
+        return find(store, ForkJoinPool.commonPool(), () -> false);
+    }
+
+    /**
+     * Находит группы возможных дубликатов, выполняя работу в указанном пуле.
+     *
+     * @param store     хранилище адресатов (не должно меняться во время поиска)
+     * @param pool      пул потоков
+     * @param cancelled проверка отмены поиска; задачи пула проверяют её
+     *                  по ходу работы
+     * @return результат поиска
+     * @throws CancellationException если поиск отменён
+     */
+    public static Result find(PersonStore store, ForkJoinPool pool, BooleanSupplier cancelled) {
+        DuplicateFinder finder = new DuplicateFinder(store, cancelled);
+        return pool.invoke(ForkJoinTask.adapt(finder::run));
+    }
+
+    /**
+     * Объединяет каждую группу дубликатов в первого адресата группы: его
+     * пустые поля заполняются из остальных, а остальные адресаты всех групп
+     * удаляются одним изменением списка.
+     *
+     * @param list     список адресатов
+     * @param clusters непересекающиеся группы с номерами строк этого списка
+     * @return удалённые номера строк по возрастанию (см. {@link DuplicateCluster#shift})
+     */
+    public static int[] merge(PersonStoreList list, List<DuplicateCluster> clusters) {
+        int count = 0;
+        for (DuplicateCluster cluster : clusters) {
+            fill(list, cluster.getRows());
+            count += cluster.size() - 1;
+        }
+        int[] removed = new int[count];
+        int at = 0;
+        for (DuplicateCluster cluster : clusters) {
+            int[] rows = cluster.getRows();
+            System.arraycopy(rows, 1, removed, at, rows.length - 1);
+            at += rows.length - 1;
+        }
+        Arrays.sort(removed);
+        list.removeRows(removed);
+        return removed;
+    }
+
+    /**
+     * Заполняет пустые поля первого адресата группы из остальных.
+     */
+    private static void fill(PersonStoreList list, int[] rows) {
+        Person keep = list.get(rows[0]);
+        for (int i = 1; i < rows.length; i++) {
+            Person other = list.get(rows[i]);
+            if (isEmpty(keep.getFirstName())) {
+                keep.setFirstName(other.getFirstName());
+            }
+            if (isEmpty(keep.getLastName())) {
+                keep.setLastName(other.getLastName());
+            }
+            if (isEmpty(keep.getStreet())) {
+                keep.setStreet(other.getStreet());
+            }
+            if (keep.getPostalCode() == 0) {
+                keep.setPostalCode(other.getPostalCode());
+            }
+            if (isEmpty(keep.getCity())) {
+                keep.setCity(other.getCity());
+            }
+            if (keep.getBirthday() == null) {
+                keep.setBirthday(other.getBirthday());
+            }
+        }
+    }
+
+    private Result run() {
+        prepareStrings();
+
+        // Ключи блоков: для каждой строки до трёх ключей. Ключ сворачивается
+        // в 32-битный хеш и упаковывается в long вместе с номером строки,
+        // так что после сортировки строки одного блока идут подряд.
+        // Совпадение хешей разных ключей лишь добавит лишних сравнений.
+        int size = store.size();
+        long[] entries = new long[size * 3];
+        IntStream.range(0, size).parallel().forEach(row -> {
+            checkCancelled(row);
+            int at = row * 3;
+            entries[at] = entry(nameKey(row), row);
+            entries[at + 1] = entry(phoneticKey(row), row);
+            entries[at + 2] = entry(addressKey(row), row);
+        });
+        Arrays.parallelSort(entries);
+
+        // Границы блоков из двух и более строк.
+        List<int[]> blocks = new ArrayList<>();
+        int windowedBlocks = 0;
+        int windowedRows = 0;
+        int start = 0;
+        for (int i = 1; i <= entries.length; i++) {
+            if (i == entries.length || (entries[i] >>> 32) != (entries[start] >>> 32)) {
+                int length = i - start;
+                if (length >= 2 && (entries[start] >>> 32) != 0) {
+                    blocks.add(new int[]{start, i});
+                    if (length > MAX_BLOCK) {
+                        windowedBlocks++;
+                        windowedRows += length;
+                    }
+                }
+                start = i;
+            }
+        }
+        if (windowedBlocks > 0) {
+            prepareRanks();
+        }
+
+        // Сравнение пар внутри блоков.
+        long[][] pairs = blocks.parallelStream()
+                .map(block -> scoreBlock(entries, block[0], block[1]))
+                .toArray(long[][]::new);
+
+        return new Result(cluster(pairs), windowedBlocks, windowedRows);
+    }
+
+    /**
+     * Прерывает поиск, если он отменён. Проверяется раз в 1024 шага.
+     */
+    private void checkCancelled(int step) {
+        if ((step & 1023) == 0 && cancelled.getAsBoolean()) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Нормализует строки словаря один раз на каждую строку, а не на каждого адресата.
+     */
+    private void prepareStrings() {
+        StringDictionary dictionary = store.getDictionary();
+        int count = dictionary.size();
+        folded = new String[count];
+        soundex = new int[count];
+        IntStream.range(0, count).parallel().forEach(code -> {
+            checkCancelled(code);
+            folded[code] = fold(dictionary.decode(code));
+            soundex[code] = soundex(folded[code]);
+        });
+        // Одинаковые после нормализации строки получают один номер.
+        foldedIds = new int[count];
+        Map<String, Integer> ids = new HashMap<>();
+        for (int code = 0; code < count; code++) {
+            Integer id = ids.putIfAbsent(folded[code], ids.size() + 1);
+            foldedIds[code] = id != null ? id : ids.size();
+        }
+    }
+
+    /**
+     * Нумерует нормализованные строки в алфавитном порядке: по этим номерам
+     * сортируются строки больших блоков.
+     */
+    private void prepareRanks() {
+        Integer[] codes = new Integer[folded.length];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = code;
+        }
+        Arrays.parallelSort(codes, Comparator.comparing((Integer code) -> folded[code]));
+        ranks = new int[folded.length];
+        for (int rank = 0; rank < codes.length; rank++) {
+            ranks[codes[rank]] = rank + 1;
+        }
+    }
+
+    /**
+     * Второй ключ строки большого блока: соседи по нему сравниваются друг
+     * с другом. В блоке по имени имена одинаковы, поэтому сортируем по улице
+     * и индексу, в остальных - по фамилии и имени.
+     */
+    private long neighbourKey(int type, int row) {
+        if (type == KEY_NAME) {
+            return (long) rank(store.getStreetCode(row)) << 32 | (store.getPostalCode(row) & 0xFFFFFFFFL);
+        }
+        return (long) rank(store.getLastNameCode(row)) << 32 | rank(store.getFirstNameCode(row));
+    }
+
+    private int rank(int code) {
+        return code == StringDictionary.NULL_CODE ? 0 : ranks[code];
+    }
+
+    private long nameKey(int row) {
+        int first = id(store.getFirstNameCode(row));
+        int last = id(store.getLastNameCode(row));
+        return first == 0 || last == 0 ? 0 : key(KEY_NAME, first, last);
+    }
+
+    private long phoneticKey(int row) {
+        int first = sound(store.getFirstNameCode(row));
+        int last = sound(store.getLastNameCode(row));
+        return first == 0 || last == 0 ? 0 : key(KEY_PHONETIC, first, last);
+    }
+
+    private long addressKey(int row) {
+        int postalCode = store.getPostalCode(row);
+        int city = id(store.getCityCode(row));
+        return postalCode == 0 || city == 0 ? 0 : key(KEY_ADDRESS, postalCode, city);
+    }
+
+    private int id(int code) {
+        return code == StringDictionary.NULL_CODE ? 0 : foldedIds[code];
+    }
+
+    private int sound(int code) {
+        return code == StringDictionary.NULL_CODE ? 0 : soundex[code];
+    }
+
+    private static long key(int type, int a, int b) {
+        long h = type * 0x9E3779B97F4A7C15L ^ a * 0xC2B2AE3D27D4EB4FL ^ (b + 1L) * 0x165667B19E3779F9L;
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        // Старшие два бита - тип ключа (не 0, поэтому 0 остаётся "ключа нет"),
+        // остальные 30 - хеш.
+        return (long) type << 30 | h >>> 34;
+    }
+
+    private static int keyType(long entry) {
+        return (int) (entry >>> 62);
+    }
+
+    private static long entry(long key, int row) {
+        return key << 32 | row;
+    }
+
+    /**
+     * Сравнивает пары строк блока: в небольшом блоке - все пары, в большом -
+     * каждую строку с {@link #WINDOW} соседями по второму ключу.
+     *
+     * @return найденные пары, упакованные в long: (строка1 &lt;&lt; 32) | строка2
+     */
+    private long[] scoreBlock(long[] entries, int from, int to) {
+        int length = to - from;
+        int[] rows = new int[length];
+        for (int i = 0; i < length; i++) {
+            rows[i] = (int) entries[from + i];
+        }
+        int window = length;
+        if (length > MAX_BLOCK) {
+            int type = keyType(entries[from]);
+            Integer[] sorted = new Integer[length];
+            for (int i = 0; i < length; i++) {
+                sorted[i] = rows[i];
+            }
+            Arrays.sort(sorted, Comparator.comparingLong((Integer row) -> neighbourKey(type, row)));
+            for (int i = 0; i < length; i++) {
+                rows[i] = sorted[i];
+            }
+            window = WINDOW;
+        }
+
+        long[] found = new long[8];
+        int count = 0;
+        for (int i = 0; i < length; i++) {
+            checkCancelled(i);
+            int a = rows[i];
+            int end = Math.min(length, i + window + 1);
+            for (int j = i + 1; j < end; j++) {
+                int b = rows[j];
+                if (a != b && score(a, b) >= THRESHOLD) {
+                    if (count == found.length) {
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = (long) Math.min(a, b) << 32 | Math.max(a, b);
+                }
+            }
+        }
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Оценка сходства двух адресатов от 0 до 1.
+     */
+    double score(int a, int b) {
+        double score = 0.3 * similarity(store.getLastNameCode(a), store.getLastNameCode(b))
+                + 0.25 * similarity(store.getFirstNameCode(a), store.getFirstNameCode(b))
+                + 0.1 * similarity(store.getStreetCode(a), store.getStreetCode(b))
+                + 0.1 * (id(store.getCityCode(a)) == id(store.getCityCode(b)) ? 1 : 0)
+                + 0.1 * (store.getPostalCode(a) == store.getPostalCode(b) ? 1 : 0);
+        int birthdayA = store.getBirthdayEpochDay(a);
+        int birthdayB = store.getBirthdayEpochDay(b);
+        if (birthdayA == PersonStore.NULL_DATE || birthdayB == PersonStore.NULL_DATE) {
+            score += 0.15 * 0.5;
+        } else if (birthdayA == birthdayB) {
+            score += 0.15;
+        }
+        return score;
+    }
+
+    private double similarity(int codeA, int codeB) {
+        if (codeA == codeB) {
+            return 1;
+        }
+        if (codeA == StringDictionary.NULL_CODE || codeB == StringDictionary.NULL_CODE) {
+            return 0;
+        }
+        if (foldedIds[codeA] == foldedIds[codeB]) {
+            return 1;
+        }
+        return jaroWinkler(folded[codeA], folded[codeB]);
+    }
+
+    /**
+     * Собирает пары в группы (система непересекающихся множеств).
+     */
+    private List<DuplicateCluster> cluster(long[][] pairs) {
+        int[] parent = new int[store.size()];
+        for (int i = 0; i < parent.length; i++) {
+            parent[i] = i;
+        }
+        for (long[] blockPairs : pairs) {
+            for (long pair : blockPairs) {
+                int a = root(parent, (int) (pair >>> 32));
+                int b = root(parent, (int) pair);
+                if (a != b) {
+                    parent[Math.max(a, b)] = Math.min(a, b);
+                }
+            }
+        }
+
+        Map<Integer, IntList> groups = new HashMap<>();
+        for (long[] blockPairs : pairs) {
+            for (long pair : blockPairs) {
+                int first = (int) (pair >>> 32);
+                groups.computeIfAbsent(root(parent, first), key -> new IntList());
+            }
+        }
+        if (groups.isEmpty()) {
+            return new ArrayList<>();
+        }
+        for (int row = 0; row < parent.length; row++) {
+            IntList group = groups.get(root(parent, row));
+            if (group != null) {
+                group.add(row);
+            }
+        }
+
+        List<DuplicateCluster> clusters = new ArrayList<>(groups.size());
+        for (IntList group : groups.values()) {
+            clusters.add(new DuplicateCluster(Arrays.copyOf(group.values, group.size)));
+        }
+        clusters.sort(Comparator.comparingInt((DuplicateCluster c) -> -c.size())
+                .thenComparingInt(c -> c.getRows()[0]));
+        return clusters;
+    }
+
+    private static int root(int[] parent, int row) {
+        while (parent[row] != row) {
+            parent[row] = parent[parent[row]];
+            row = parent[row];
+        }
+        return row;
+    }
+
+    /**
+     * Нижний регистр, без диакритических знаков и лишних пробелов.
+     */
+    static String fold(String value) {
+        if (value == null) {
+            return "";
+        }
+        String decomposed = Normalizer.normalize(value.trim(), Normalizer.Form.NFD);
+        return decomposed.replaceAll("\\p{M}", "").replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Код Soundex (буква и три цифры), упакованный в int, или 0 для строк
+     * без латинских букв.
+     */
+    static int soundex(String value) {
+        final String codes = "01230120022455012623010202";
+        int result = 0;
+        int digits = 0;
+        char last = 0;
+        for (int i = 0; i < value.length() && digits < 3; i++) {
+            char c = value.charAt(i);
+            if (c < 'a' || c > 'z') {
+                continue;
+            }
+            char code = codes.charAt(c - 'a');
+            if (result == 0) {
+                result = (c - 'a' + 1) * 1000;
+            } else if (code != '0' && code != last) {
+                result += (code - '0') * (digits == 0 ? 100 : digits == 1 ? 10 : 1);
+                digits++;
+            }
+            if (c != 'h' && c != 'w') {
+                last = code;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Сходство Джаро-Винклера двух строк от 0 до 1.
+     */
+    static double jaroWinkler(String a, String b) {
+        if (a.isEmpty() || b.isEmpty()) {
+            return 0;
+        }
+        int window = Math.max(0, Math.max(a.length(), b.length()) / 2 - 1);
+        boolean[] matchedA = new boolean[a.length()];
+        boolean[] matchedB = new boolean[b.length()];
+        int matches = 0;
+        for (int i = 0; i < a.length(); i++) {
+            int from = Math.max(0, i - window);
+            int to = Math.min(b.length(), i + window + 1);
+            for (int j = from; j < to; j++) {
+                if (!matchedB[j] && a.charAt(i) == b.charAt(j)) {
+                    matchedA[i] = true;
+                    matchedB[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < a.length(); i++) {
+            if (matchedA[i]) {
+                while (!matchedB[j]) {
+                    j++;
+                }
+                if (a.charAt(i) != b.charAt(j)) {
+                    transpositions++;
+                }
+                j++;
+            }
+        }
+        double m = matches;
+        double jaro = (m / a.length() + m / b.length() + (m - transpositions / 2.0) / m) / 3;
+        int prefix = 0;
+        while (prefix < 4 && prefix < a.length() && prefix < b.length()
+                && a.charAt(prefix) == b.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    private static boolean isEmpty(String value) {
+        return value == null || value.isEmpty();
+    }
+
+    /**
+     * Результат поиска дубликатов.
+     */
+    public static final class Result {
+        private final List<DuplicateCluster> clusters;
+        private final int windowedBlocks;
+        private final int windowedRows;
+
+        Result(List<DuplicateCluster> clusters, int windowedBlocks, int windowedRows) {
+            this.clusters = clusters;
+            this.windowedBlocks = windowedBlocks;
+            this.windowedRows = windowedRows;
+        }
+
+        /**
+         * @return группы дубликатов, самые большие первыми
+         */
+        public List<DuplicateCluster> getClusters() {
+            return clusters;
+        }
+
+        /**
+         * @return сколько блоков больше {@link #MAX_BLOCK} строк сравнивалось
+         * только скользящим окном, а не всеми парами
+         */
+        public int getWindowedBlocks() {
+            return windowedBlocks;
+        }
+
+        /**
+         * @return сколько строк в этих блоках (строка может входить в несколько блоков)
+         */
+        public int getWindowedRows() {
+            return windowedRows;
+        }
+    }
+}
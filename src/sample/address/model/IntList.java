@@ -0,0 +1,84 @@
+package sample.address.model;
+
+import java.util.Arrays;
+
+/**
+ * Растущий массив int для списков номеров строк в индексах.
+ */
+final class IntList {
+    int[] values = new int[4];
+    int size;
+
+    void add(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size++] = value;
+    }
+
+    /**
+     * Вставляет значение в упорядоченный список, сохраняя порядок.
+     */
+    void insertSorted(int value) {
+        int at = Arrays.binarySearch(values, 0, size, value);
+        if (at < 0) {
+            at = -at - 1;
+        }
+        add(0);
+        System.arraycopy(values, at, values, at + 1, size - 1 - at);
+        values[at] = value;
+    }
+
+    /**
+     * @return позиция первого значения не меньше value в упорядоченном списке
+     */
+    int lowerBound(int value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (values[middle] < value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Вставляет в упорядоченный список упорядоченный участок значений,
+     * которые все лежат между двумя соседними значениями списка.
+     */
+    void insertRun(IntList run) {
+        int at = lowerBound(run.values[0]);
+        if (size + run.size > values.length) {
+            values = Arrays.copyOf(values, Math.max(size + run.size, size * 2));
+        }
+        System.arraycopy(values, at, values, at + run.size, size - at);
+        System.arraycopy(run.values, 0, values, at, run.size);
+        size += run.size;
+    }
+
+    /**
+     * Удаляет из упорядоченного списка все значения от from (включительно)
+     * до to (не включительно).
+     */
+    void removeRange(int from, int to) {
+        int start = lowerBound(from);
+        int end = lowerBound(to);
+        System.arraycopy(values, end, values, start, size - end);
+        size -= end - start;
+    }
+
+    /**
+     * Удаляет одно вхождение значения из упорядоченного списка.
+     */
+    void removeSorted(int value) {
+        int at = Arrays.binarySearch(values, 0, size, value);
+        if (at >= 0) {
+            System.arraycopy(values, at + 1, values, at, size - at - 1);
+            size--;
+        }
+    }
+}
@@ -12,10 +12,9 @@ import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import sample.address.util.LocalDateAdapter;
 
+import javax.xml.bind.annotation.XmlTransient;
 import javax.xml.bind.annotation.adapters.XmlJavaTypeAdapter;
 
-import static java.time.LocalDateTime.now;
-
 /*Класс-модель Person необходим для хранения в нашей будущей
  * адресной книге информации об адресатах. В нём будет несколько
  * переменных для хранения информации об имени, адресе и дне рождения.
@@ -26,14 +25,30 @@ import static java.time.LocalDateTime.now;
  * позволяет поддерживать синхронность представления и данных.
  */
 public class Person {
+
+    /**
+     * Значения полей нового адресата (и адресата из XML без этих элементов).
+     */
+    public static final String DEFAULT_STREET = "какая-то улица";
+    public static final int DEFAULT_POSTAL_CODE = 1234;
+    public static final String DEFAULT_CITY = "какой-то город";
+    public static final LocalDate DEFAULT_BIRTHDAY = LocalDate.of(1999, Month.AUGUST, 21);
+
     private final StringProperty firstName;
     private final StringProperty lastName;
     private final StringProperty street;
     private final IntegerProperty postalCode;
     private final StringProperty city;
     private final ObjectProperty<LocalDate> birthday;
-//    private final ObjectProperty<LocalDateTime> created;
-//    private final ObjectProperty<LocalDateTime> udated;
+    // Поля строки таблицы persons. У адресатов из файла книги они не заданы.
+    private int id;
+    private final ObjectProperty<LocalDateTime> created;
+    private final ObjectProperty<LocalDateTime> updated;
+
+    // Если объект является представлением строки PersonStoreList,
+    // то здесь ссылка на этот список и номер строки.
+    PersonStoreList owner;
+    int storeRow = -1;
 
     /**
      * Конструктор по умолчанию.
@@ -49,17 +64,19 @@ public class Person {
      * @param lastName  фамилия персоны
      */
     public Person(String firstName, String lastName) {
-        this.firstName = new SimpleStringProperty(firstName);
-        this.lastName = new SimpleStringProperty(lastName);
+        // Свойства знают свой объект и своё имя - так один слушатель
+        // может обслуживать свойства многих адресатов.
+        this.firstName = new SimpleStringProperty(this, "firstName", firstName);
+        this.lastName = new SimpleStringProperty(this, "lastName", lastName);
 
         // Какие-то фиктивные начальные данные для удобства тестирования.
-        this.street = new SimpleStringProperty("какая-то улица");
-        this.postalCode = new SimpleIntegerProperty(1234);
-        this.city = new SimpleStringProperty("какой-то город");
-        this.birthday = new SimpleObjectProperty<LocalDate>(LocalDate.of(1999, Month.AUGUST, 21));
+        this.street = new SimpleStringProperty(this, "street", DEFAULT_STREET);
+        this.postalCode = new SimpleIntegerProperty(this, "postalCode", DEFAULT_POSTAL_CODE);
+        this.city = new SimpleStringProperty(this, "city", DEFAULT_CITY);
+        this.birthday = new SimpleObjectProperty<LocalDate>(this, "birthday", DEFAULT_BIRTHDAY);
 //        this.birthday = new SimpleObjectProperty<LocalDate>(LocalDate.of(1999, 8, 21));
-//        this.created = new SimpleObjectProperty<LocalDateTime>(now());
-//        this.udated = new SimpleObjectProperty<LocalDateTime>(null);
+        this.created = new SimpleObjectProperty<LocalDateTime>(this, "created", null);
+        this.updated = new SimpleObjectProperty<LocalDateTime>(this, "updated", null);
     }
 
     public String getFirstName() {
@@ -135,27 +152,41 @@ public class Person {
         return birthday;
     }
 
-//    public LocalDateTime getCreated() {
-//        return created.get();
-//    }
+    /**
+     * @return id строки в таблице persons или 0, если адресат не из БД
+     */
+    @XmlTransient
+    public int getId() {
+        return id;
+    }
+
+    public void setId(int id) {
+        this.id = id;
+    }
 
-//    public ObjectProperty<LocalDateTime> createdProperty() {
-//        return created;
-//    }
+    @XmlTransient
+    public LocalDateTime getCreated() {
+        return created.get();
+    }
 
-//    public void setCreated(LocalDateTime created) {
-//        this.created.set(created);
-//    }
+    public ObjectProperty<LocalDateTime> createdProperty() {
+        return created;
+    }
 
-//    public LocalDateTime getUdated() {
-//        return udated.get();
-//    }
+    public void setCreated(LocalDateTime created) {
+        this.created.set(created);
+    }
 
-//    public ObjectProperty<LocalDateTime> udatedProperty() {
-//        return udated;
-//    }
+    @XmlTransient
+    public LocalDateTime getUpdated() {
+        return updated.get();
+    }
+
+    public ObjectProperty<LocalDateTime> updatedProperty() {
+        return updated;
+    }
 
-//    public void setUdated(LocalDateTime udated) {
-//        this.udated.set(udated);
-//    }
+    public void setUpdated(LocalDateTime updated) {
+        this.updated.set(updated);
+    }
 }
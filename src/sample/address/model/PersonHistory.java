@@ -0,0 +1,240 @@
+package sample.address.model;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import javafx.collections.ListChangeListener;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * История правок адресной книги: отмена (undo) и повтор (redo).
+ * <p>
+ * История слушает изменения {@link PersonStoreList} и ведёт копию списка
+ * в виде неизменяемого дерева строк {@link RowVector}. Версия книги до
+ * правки - просто прежний корень дерева: новая версия делит с ним все
+ * неизменённые узлы, так что шаг истории стоит O(log n) памяти, а не
+ * копию всей книги.
+ * <p>
+ * Отмена сравнивает текущую версию с нужной, пропуская общие листья, и
+ * заменяет в списке одним изменением только отличающийся участок строк.
+ * Поэтому отмена правки одного адресата трогает одну строку, а отмена
+ * массового изменения (сортировки, слияния дубликатов) - один диапазон.
+ * <p>
+ * Все изменения списка за один проход обработки событий JavaFX (нажатие
+ * кнопки, закрытие диалога) становятся одним шагом: например, диалог
+ * редактирования меняет поля адресата по одному, а отменяется правка целиком.
+ * <p>
+ * Старые шаги забываются, когда их больше {@link #MAX_STEPS} или когда
+ * строк, которые держат только они, становится больше
+ * {@link #MAX_ROWS_PROPERTY}. Все методы вызываются в потоке JavaFX.
+ */
+public class PersonHistory {
+
+    /**
+     * Сколько шагов можно отменить.
+     */
+    public static final int MAX_STEPS = 100;
+
+    /**
+     * Системное свойство: сколько строк могут держать отменяемые шаги
+     * (по умолчанию 2 000 000, это около 60 МБ).
+     */
+    public static final String MAX_ROWS_PROPERTY = "address.history.maxRows";
+
+    private static final long MAX_ROWS = Long.getLong(MAX_ROWS_PROPERTY, 2_000_000L);
+
+    private final PersonStoreList list;
+    private final Deque<Step> undo = new ArrayDeque<>();
+    private final Deque<Step> redo = new ArrayDeque<>();
+    private final ReadOnlyBooleanWrapper canUndo = new ReadOnlyBooleanWrapper(this, "canUndo");
+    private final ReadOnlyBooleanWrapper canRedo = new ReadOnlyBooleanWrapper(this, "canRedo");
+
+    // Копия списка и словарь, по которому закодированы её строки.
+    private RowVector current = RowVector.EMPTY;
+    private StringDictionary dictionary;
+    private boolean recording;
+    // Открытый шаг: изменения до конца прохода событий добавляются в него.
+    private Step open;
+    private long undoRows;
+
+    /**
+     * Создаёт историю и подписывается на изменения списка.
+     *
+     * @param list список адресатов
+     */
+    public PersonHistory(PersonStoreList list) {
+        this.list = list;
+        list.addListener(this::onChanged);
+        reset();
+    }
+
+    /**
+     * Забывает все шаги и начинает историю с текущего содержимого списка
+     * (например, после загрузки книги).
+     */
+    public void reset() {
+        current = RowVector.of(list.getStore());
+        dictionary = list.getStore().getDictionary();
+        clear();
+        recording = true;
+    }
+
+    /**
+     * Забывает все шаги и перестаёт записывать изменения до {@link #reset()}
+     * (например, на время загрузки книги).
+     */
+    public void suspend() {
+        recording = false;
+        current = RowVector.EMPTY;
+        clear();
+    }
+
+    /**
+     * Заканчивает текущий шаг: следующие изменения попадут уже в новый.
+     */
+    public void checkpoint() {
+        open = null;
+    }
+
+    /**
+     * Отменяет последний шаг.
+     */
+    public void undo() {
+        Step step = undo.poll();
+        if (step == null) {
+            return;
+        }
+        undoRows -= step.rows;
+        redo.push(new Step(current, step.rows));
+        restore(step.version);
+    }
+
+    /**
+     * Повторяет последний отменённый шаг.
+     */
+    public void redo() {
+        Step step = redo.poll();
+        if (step == null) {
+            return;
+        }
+        pushUndo(new Step(current, step.rows));
+        restore(step.version);
+    }
+
+    public ReadOnlyBooleanProperty canUndoProperty() {
+        return canUndo.getReadOnlyProperty();
+    }
+
+    public ReadOnlyBooleanProperty canRedoProperty() {
+        return canRedo.getReadOnlyProperty();
+    }
+
+    /**
+     * Возвращает список к версии target, заменив только отличающиеся строки.
+     */
+    private void restore(RowVector target) {
+        int[] common = current.commonEnds(target);
+        int from = common[0];
+        PersonStore rows = target.toStore(dictionary, from, target.size() - common[1]);
+        recording = false;
+        try {
+            list.replace(from, current.size() - common[1], rows);
+        } finally {
+            recording = true;
+        }
+        current = target;
+        open = null;
+        updateFlags();
+    }
+
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        if (!recording) {
+            return;
+        }
+        PersonStore store = list.getStore();
+        if (store.getDictionary() != dictionary) {
+            // Список получил хранилище другой книги - прежняя история к нему не относится.
+            reset();
+            return;
+        }
+        if (open == null) {
+            open = new Step(current, 0);
+            pushUndo(open);
+            redo.clear();
+            Platform.runLater(this::checkpoint);
+        }
+        RowVector next = current;
+        long rows = 0;
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                rows += next.size();
+                next = RowVector.of(store);
+                break;
+            }
+            if (change.wasUpdated()) {
+                for (int row = change.getFrom(); row < change.getTo(); row++) {
+                    next = next.set(row, store, row);
+                }
+                rows += change.getTo() - change.getFrom();
+            } else {
+                if (change.wasRemoved()) {
+                    next = next.remove(change.getFrom(), change.getFrom() + change.getRemovedSize());
+                    rows += change.getRemovedSize();
+                }
+                next = next.insert(change.getFrom(), store, change.getFrom(), change.getTo());
+            }
+            // Прежняя версия держит ещё и края изменённых листьев.
+            rows += RowVector.LEAF_ROWS;
+        }
+        current = next;
+        open.rows += rows;
+        undoRows += rows;
+        trim();
+    }
+
+    private void pushUndo(Step step) {
+        undo.push(step);
+        undoRows += step.rows;
+        trim();
+    }
+
+    /**
+     * Забывает самые старые шаги, если их слишком много. Последний шаг
+     * остаётся всегда, каким бы большим он ни был.
+     */
+    private void trim() {
+        while (undo.size() > 1 && (undo.size() > MAX_STEPS || undoRows > MAX_ROWS)) {
+            undoRows -= undo.removeLast().rows;
+        }
+        updateFlags();
+    }
+
+    private void clear() {
+        undo.clear();
+        redo.clear();
+        undoRows = 0;
+        open = null;
+        updateFlags();
+    }
+
+    private void updateFlags() {
+        canUndo.set(!undo.isEmpty());
+        canRedo.set(!redo.isEmpty());
+    }
+
+    /**
+     * Шаг истории: версия книги и примерное число строк, которые
+     * держит только она (для ограничения памяти).
+     */
+    private static final class Step {
+        final RowVector version;
+        long rows;
+
+        Step(RowVector version, long rows) {
+            this.version = version;
+            this.rows = rows;
+        }
+    }
+}
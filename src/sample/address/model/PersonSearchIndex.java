@@ -0,0 +1,401 @@
+package sample.address.model;
+
+import javafx.collections.ListChangeListener;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Индекс для поиска адресатов по началу имени, фамилии, города или улицы.
+ * <p>
+ * Индекс устроен в два уровня и опирается на словарь строк хранилища
+ * ({@link StringDictionary}):
+ * <ul>
+ * <li>упорядоченная карта "ключ - коды строк словаря". Ключами служат
+ * значения в нижнем регистре, а также их окончания, начинающиеся с каждого
+ * слова ("anna maria" даёт ключи "anna maria" и "maria"). Поиск по началу
+ * слова - это выборка диапазона ключей из карты;</li>
+ * <li>для каждого кода строки - упорядоченный список номеров строк списка,
+ * в полях которых встречается этот код.</li>
+ * </ul>
+ * Различных строк в книге намного меньше, чем адресатов, поэтому поиск
+ * просматривает только подходящие строки словаря и их списки, а не всех
+ * адресатов.
+ * <p>
+ * Индекс обновляется по событиям {@link PersonStoreList} на месте: при
+ * вставке и удалении в середине списка номера последующих строк в списках
+ * сдвигаются, при перестановке (сортировке) - переводятся через массив
+ * перестановки. Строки словаря и карта ключей при этом не затрагиваются.
+ * Целиком индекс перестраивается при следующем поиске только после
+ * замены хранилища с другим словарём.
+ * <p>
+ * Все методы вызываются в потоке JavaFX.
+ */
+public class PersonSearchIndex {
+
+    private static final int FIELDS = 4;
+
+    private final PersonStoreList list;
+
+    // Словарь, по кодам которого построен индекс.
+    private StringDictionary dictionary;
+    // Ключ поиска -> коды строк словаря.
+    private final TreeMap<String, IntList> keys = new TreeMap<>();
+    // Коды строк, для которых ключи уже добавлены в карту.
+    private final BitSet keyed = new BitSet();
+    // Код строки -> номера строк списка (с повторами, если код
+    // встречается в нескольких полях одной строки).
+    private IntList[] postings = new IntList[16];
+    // Коды полей каждой проиндексированной строки: по ним находим,
+    // из каких списков убрать строку при её изменении.
+    private int[] rowCodes = new int[16 * FIELDS];
+    private int rows;
+    private boolean stale = true;
+
+    /**
+     * Создаёт индекс и подписывается на изменения списка.
+     *
+     * @param list список адресатов
+     */
+    public PersonSearchIndex(PersonStoreList list) {
+        this.list = list;
+        list.addListener(this::onChanged);
+    }
+
+    /**
+     * Ищет адресатов, у которых имя, фамилия, город или улица начинаются
+     * с каждого из слов запроса (регистр не учитывается). Например, запрос
+     * "an ber" найдёт Anna из Berlin.
+     *
+     * @param query строка запроса
+     * @return номера подходящих строк списка по возрастанию или null,
+     * если запрос пустой и подходят все адресаты
+     */
+    public int[] search(String query) {
+        String[] terms = query == null ? new String[0] : fold(query).trim().split("\\s+");
+        if (terms.length == 0 || terms[0].isEmpty()) {
+            return null;
+        }
+        refresh();
+
+        int[] result = null;
+        for (String term : terms) {
+            int[] matches = searchTerm(term);
+            result = result == null ? matches : intersect(result, matches);
+            if (result.length == 0) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Находит строки, в которых какое-либо поле начинается с указанного слова.
+     *
+     * @return номера строк по возрастанию, без повторов
+     */
+    private int[] searchTerm(String term) {
+        NavigableMap<String, IntList> range = keys.subMap(term, true, term + Character.MAX_VALUE, false);
+        long total = 0;
+        for (IntList codes : range.values()) {
+            for (int i = 0; i < codes.size; i++) {
+                total += posting(codes.values[i]).size;
+            }
+        }
+
+        if (total < rows / 64) {
+            // Совпадений немного: собираем номера в массив и сортируем.
+            int[] found = new int[(int) total];
+            int count = 0;
+            for (IntList codes : range.values()) {
+                for (int i = 0; i < codes.size; i++) {
+                    IntList rowList = posting(codes.values[i]);
+                    System.arraycopy(rowList.values, 0, found, count, rowList.size);
+                    count += rowList.size;
+                }
+            }
+            Arrays.sort(found);
+            int unique = 0;
+            for (int i = 0; i < found.length; i++) {
+                if (i == 0 || found[i] != found[i - 1]) {
+                    found[unique++] = found[i];
+                }
+            }
+            return Arrays.copyOf(found, unique);
+        }
+
+        // Совпадений много: отмечаем строки в битовой карте.
+        BitSet found = new BitSet(rows);
+        for (IntList codes : range.values()) {
+            for (int i = 0; i < codes.size; i++) {
+                IntList rowList = posting(codes.values[i]);
+                for (int j = 0; j < rowList.size; j++) {
+                    found.set(rowList.values[j]);
+                }
+            }
+        }
+        return found.stream().toArray();
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int count = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[count++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        if (stale) {
+            return;
+        }
+        if (list.getStore().getDictionary() != dictionary) {
+            stale = true;
+            return;
+        }
+        while (change.next()) {
+            int from = change.getFrom();
+            if (change.wasPermutated()) {
+                int[] permutation = new int[change.getTo() - from];
+                for (int i = 0; i < permutation.length; i++) {
+                    permutation[i] = change.getPermutation(from + i);
+                }
+                permuteRows(from, permutation);
+            } else if (change.wasUpdated()
+                    || (change.wasReplaced() && change.getRemovedSize() == change.getAddedSize())) {
+                for (int row = from; row < change.getTo(); row++) {
+                    reindexRow(row);
+                }
+            } else {
+                if (change.wasRemoved()) {
+                    removeRows(from, from + change.getRemovedSize());
+                }
+                if (change.wasAdded()) {
+                    insertRows(from, change.getTo());
+                }
+            }
+        }
+    }
+
+    /**
+     * Добавляет в индекс строки с from по to (не включительно), вставленные
+     * в список: номера строк после них сдвигаются.
+     */
+    private void insertRows(int from, int to) {
+        if (from == rows) {
+            for (int row = from; row < to; row++) {
+                appendRow(row);
+            }
+            return;
+        }
+        int count = to - from;
+        shiftRows(from, count);
+        if (rowCodes.length < (rows + count) * FIELDS) {
+            rowCodes = Arrays.copyOf(rowCodes, Math.max((rows + count) * FIELDS, rowCodes.length * 2));
+        }
+        System.arraycopy(rowCodes, from * FIELDS, rowCodes, to * FIELDS, (rows - from) * FIELDS);
+        rows += count;
+
+        // Новые строки идут подряд, поэтому в списке каждого кода они
+        // ложатся одним участком - вставляем его за один раз.
+        PersonStore store = list.getStore();
+        Map<Integer, IntList> runs = new HashMap<>();
+        for (int row = from; row < to; row++) {
+            int at = row * FIELDS;
+            rowCodes[at] = store.getFirstNameCode(row);
+            rowCodes[at + 1] = store.getLastNameCode(row);
+            rowCodes[at + 2] = store.getStreetCode(row);
+            rowCodes[at + 3] = store.getCityCode(row);
+            for (int field = 0; field < FIELDS; field++) {
+                int code = rowCodes[at + field];
+                if (code != StringDictionary.NULL_CODE) {
+                    addKeys(code);
+                    runs.computeIfAbsent(code, key -> new IntList()).add(row);
+                }
+            }
+        }
+        for (Map.Entry<Integer, IntList> run : runs.entrySet()) {
+            posting(run.getKey()).insertRun(run.getValue());
+        }
+    }
+
+    /**
+     * Убирает из индекса строки с from по to (не включительно), удалённые
+     * из списка: номера строк после них сдвигаются.
+     */
+    private void removeRows(int from, int to) {
+        for (int at = from * FIELDS; at < to * FIELDS; at++) {
+            int code = rowCodes[at];
+            if (code != StringDictionary.NULL_CODE) {
+                posting(code).removeRange(from, to);
+            }
+        }
+        shiftRows(to, from - to);
+        System.arraycopy(rowCodes, to * FIELDS, rowCodes, from * FIELDS, (rows - to) * FIELDS);
+        rows -= to - from;
+    }
+
+    /**
+     * Сдвигает номера строк, начиная с from, во всех списках строк.
+     * Списки остаются упорядоченными: сдвигается их хвост целиком.
+     */
+    private void shiftRows(int from, int delta) {
+        for (IntList posting : postings) {
+            if (posting != null) {
+                for (int i = posting.lowerBound(from); i < posting.size; i++) {
+                    posting.values[i] += delta;
+                }
+            }
+        }
+    }
+
+    /**
+     * Переставляет строки с from: прежняя строка from + i становится
+     * строкой permutation[i]. Номера в пределах участка
+     * переходят в те же позиции списков, поэтому сортируется только этот
+     * участок каждого списка.
+     */
+    private void permuteRows(int from, int[] permutation) {
+        int to = from + permutation.length;
+        int[] codes = Arrays.copyOfRange(rowCodes, from * FIELDS, to * FIELDS);
+        for (int i = 0; i < permutation.length; i++) {
+            System.arraycopy(codes, i * FIELDS, rowCodes, permutation[i] * FIELDS, FIELDS);
+        }
+        for (IntList posting : postings) {
+            if (posting == null) {
+                continue;
+            }
+            int start = posting.lowerBound(from);
+            int end = posting.lowerBound(to);
+            for (int i = start; i < end; i++) {
+                posting.values[i] = permutation[posting.values[i] - from];
+            }
+            Arrays.sort(posting.values, start, end);
+        }
+    }
+
+    /**
+     * Перестраивает индекс, если он устарел.
+     */
+    private void refresh() {
+        if (!stale) {
+            return;
+        }
+        PersonStore store = list.getStore();
+        if (store.getDictionary() != dictionary) {
+            dictionary = store.getDictionary();
+            keys.clear();
+            keyed.clear();
+            postings = new IntList[Math.max(16, dictionary.size())];
+        } else {
+            for (IntList posting : postings) {
+                if (posting != null) {
+                    posting.size = 0;
+                }
+            }
+        }
+        rows = 0;
+        int size = store.size();
+        if (rowCodes.length < size * FIELDS) {
+            rowCodes = new int[size * FIELDS];
+        }
+        for (int row = 0; row < size; row++) {
+            appendRow(row);
+        }
+        stale = false;
+    }
+
+    private void appendRow(int row) {
+        PersonStore store = list.getStore();
+        if (rowCodes.length < (row + 1) * FIELDS) {
+            rowCodes = Arrays.copyOf(rowCodes, Math.max((row + 1) * FIELDS, rowCodes.length * 2));
+        }
+        int at = row * FIELDS;
+        rowCodes[at] = store.getFirstNameCode(row);
+        rowCodes[at + 1] = store.getLastNameCode(row);
+        rowCodes[at + 2] = store.getStreetCode(row);
+        rowCodes[at + 3] = store.getCityCode(row);
+        for (int field = 0; field < FIELDS; field++) {
+            int code = rowCodes[at + field];
+            if (code != StringDictionary.NULL_CODE) {
+                addKeys(code);
+                // Строки добавляются по возрастанию номеров - список остаётся упорядоченным.
+                posting(code).add(row);
+            }
+        }
+        rows = row + 1;
+    }
+
+    private void reindexRow(int row) {
+        PersonStore store = list.getStore();
+        int at = row * FIELDS;
+        int[] codes = {store.getFirstNameCode(row), store.getLastNameCode(row),
+                store.getStreetCode(row), store.getCityCode(row)};
+        for (int field = 0; field < FIELDS; field++) {
+            int oldCode = rowCodes[at + field];
+            int newCode = codes[field];
+            if (oldCode == newCode) {
+                continue;
+            }
+            if (oldCode != StringDictionary.NULL_CODE) {
+                posting(oldCode).removeSorted(row);
+            }
+            if (newCode != StringDictionary.NULL_CODE) {
+                addKeys(newCode);
+                posting(newCode).insertSorted(row);
+            }
+            rowCodes[at + field] = newCode;
+        }
+    }
+
+    /**
+     * Добавляет в карту ключи для строки словаря, если их там ещё нет.
+     */
+    private void addKeys(int code) {
+        if (keyed.get(code)) {
+            return;
+        }
+        keyed.set(code);
+        String value = fold(dictionary.decode(code));
+        for (int i = 0; i < value.length(); i++) {
+            if (i == 0 || isWordStart(value, i)) {
+                keys.computeIfAbsent(value.substring(i), key -> new IntList()).add(code);
+            }
+        }
+    }
+
+    private IntList posting(int code) {
+        if (code >= postings.length) {
+            postings = Arrays.copyOf(postings, Math.max(code + 1, postings.length * 2));
+        }
+        IntList posting = postings[code];
+        if (posting == null) {
+            posting = new IntList();
+            postings[code] = posting;
+        }
+        return posting;
+    }
+
+    private static boolean isWordStart(String value, int i) {
+        char previous = value.charAt(i - 1);
+        return !Character.isLetterOrDigit(previous) && Character.isLetterOrDigit(value.charAt(i));
+    }
+
+    private static String fold(String value) {
+        return value.toLowerCase(Locale.ROOT);
+    }
+}
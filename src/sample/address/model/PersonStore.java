@@ -0,0 +1,666 @@
+package sample.address.model;
+
+import sample.address.util.DateCodec;
+
+import java.nio.IntBuffer;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+
+/**
+ * Компактное хранилище адресатов "по столбцам".
+ * <p>
+ * Каждый объект {@link Person} содержит шесть объектов-свойств JavaFX
+ * и их слушателей. Для нескольких миллионов адресатов эти накладные
+ * расходы занимают большую часть памяти. Здесь же каждое поле хранится
+ * в отдельном массиве примитивов:
+ * - строки (имя, фамилия, улица, город) - кодами из общего {@link StringDictionary};
+ * - почтовый индекс - числом int;
+ * - день рождения - номером дня от 1970-01-01 (LocalDate.toEpochDay());
+ * - id строки в таблице persons, если адресат синхронизирован с БД, иначе 0.
+ * Итого 28 байт на адресата плюс уникальные строки словаря.
+ * <p>
+ * id не входит в содержимое адресата: {@link #write} его не меняет,
+ * а форматы книги его не сохраняют (см. SyncState).
+ * <p>
+ * Хранилище, открытое из снимка книги ({@link #fromMapped}), читает столбцы
+ * прямо из отображённого в память файла. Столбец копируется в массив при
+ * первой записи в него, все столбцы - при вставке, удалении и перестановке
+ * строк; после копирования последнего столбца отображение освобождается.
+ * <p>
+ * Хранилище не потокобезопасно. Наблюдаемый список поверх него -
+ * {@link PersonStoreList}.
+ */
+public class PersonStore {
+
+    /**
+     * Значение столбца дней рождения для даты null.
+     */
+    public static final int NULL_DATE = DateCodec.INVALID;
+
+    // Номера столбцов для fromMapped - в порядке столбцов снимка книги.
+    public static final int FIRST_NAME = 0;
+    public static final int LAST_NAME = 1;
+    public static final int STREET = 2;
+    public static final int POSTAL_CODE = 3;
+    public static final int CITY = 4;
+    public static final int BIRTHDAY = 5;
+    private static final int COLUMNS = 6;
+
+    private final StringDictionary dictionary;
+
+    private int[] firstName;
+    private int[] lastName;
+    private int[] street;
+    private int[] postalCode;
+    private int[] city;
+    private int[] birthday;
+    // id всегда в массиве: его длина - ёмкость хранилища.
+    private int[] id;
+    private int size;
+
+    // Столбцы, которые ещё читаются из отображённого файла (массив столбца
+    // при этом null), по номеру столбца; null - таких столбцов нет.
+    private IntBuffer[] mapped;
+    private IntConsumer unmap;
+
+    /**
+     * Создаёт пустое хранилище со своим словарём строк.
+     */
+    public PersonStore() {
+        this(new StringDictionary());
+    }
+
+    /**
+     * Создаёт пустое хранилище с общим словарём строк.
+     *
+     * @param dictionary словарь строк
+     */
+    public PersonStore(StringDictionary dictionary) {
+        this(dictionary, 16);
+    }
+
+    private PersonStore(StringDictionary dictionary, int capacity) {
+        this.dictionary = dictionary;
+        firstName = new int[capacity];
+        lastName = new int[capacity];
+        street = new int[capacity];
+        postalCode = new int[capacity];
+        city = new int[capacity];
+        birthday = new int[capacity];
+        id = new int[capacity];
+    }
+
+    /**
+     * Создаёт хранилище из готовых столбцов. Массивы не копируются.
+     *
+     * @param dictionary словарь, по которому закодированы строки
+     * @param size       количество строк
+     * @return хранилище поверх переданных массивов
+     */
+    public static PersonStore fromColumns(StringDictionary dictionary, int size,
+                                          int[] firstName, int[] lastName, int[] street,
+                                          int[] postalCode, int[] city, int[] birthday) {
+        PersonStore store = new PersonStore(dictionary, 0);
+        store.firstName = firstName;
+        store.lastName = lastName;
+        store.street = street;
+        store.postalCode = postalCode;
+        store.city = city;
+        store.birthday = birthday;
+        store.id = new int[firstName.length];
+        store.size = size;
+        return store;
+    }
+
+    /**
+     * Создаёт хранилище поверх столбцов отображённого в память файла.
+     * Столбцы не копируются, пока в них не пишут (см. {@link #unmap()}).
+     *
+     * @param dictionary словарь, по которому закодированы строки
+     * @param size       количество строк
+     * @param columns    столбцы по номерам {@link #FIRST_NAME} ... {@link #BIRTHDAY}
+     * @param unmap      освобождает отображение столбца, когда он скопирован
+     * @return хранилище поверх отображённых столбцов
+     */
+    public static PersonStore fromMapped(StringDictionary dictionary, int size,
+                                         IntBuffer[] columns, IntConsumer unmap) {
+        PersonStore store = new PersonStore(dictionary, 0);
+        store.firstName = null;
+        store.lastName = null;
+        store.street = null;
+        store.postalCode = null;
+        store.city = null;
+        store.birthday = null;
+        store.id = new int[Math.max(size, 1)];
+        store.size = size;
+        store.mapped = columns.clone();
+        store.unmap = unmap;
+        return store;
+    }
+
+    /**
+     * Код строки в словаре для столбцов с текстом: без декодирования строки.
+     */
+    public int getFirstNameCode(int row) {
+        return firstName != null ? firstName[check(row)] : mapped(FIRST_NAME, row);
+    }
+
+    public int getLastNameCode(int row) {
+        return lastName != null ? lastName[check(row)] : mapped(LAST_NAME, row);
+    }
+
+    public int getStreetCode(int row) {
+        return street != null ? street[check(row)] : mapped(STREET, row);
+    }
+
+    public int getCityCode(int row) {
+        return city != null ? city[check(row)] : mapped(CITY, row);
+    }
+
+    /**
+     * @return id строки в таблице persons или 0, если строка не из БД
+     */
+    public int getId(int row) {
+        return id[check(row)];
+    }
+
+    /**
+     * Задаёт id строки в БД. Это не изменение адресата, поэтому
+     * {@link PersonStoreList} о нём не сообщает.
+     */
+    public void setId(int row, int value) {
+        id[check(row)] = value;
+    }
+
+    /**
+     * @return копия столбца id по порядку строк
+     */
+    public int[] copyIds() {
+        return Arrays.copyOf(id, size);
+    }
+
+    public StringDictionary getDictionary() {
+        return dictionary;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public String getFirstName(int row) {
+        return dictionary.decode(getFirstNameCode(row));
+    }
+
+    public void setFirstName(int row, String value) {
+        materialize(FIRST_NAME);
+        firstName[check(row)] = dictionary.encode(value);
+    }
+
+    public String getLastName(int row) {
+        return dictionary.decode(getLastNameCode(row));
+    }
+
+    public void setLastName(int row, String value) {
+        materialize(LAST_NAME);
+        lastName[check(row)] = dictionary.encode(value);
+    }
+
+    public String getStreet(int row) {
+        return dictionary.decode(getStreetCode(row));
+    }
+
+    public void setStreet(int row, String value) {
+        materialize(STREET);
+        street[check(row)] = dictionary.encode(value);
+    }
+
+    public int getPostalCode(int row) {
+        return postalCode != null ? postalCode[check(row)] : mapped(POSTAL_CODE, row);
+    }
+
+    public void setPostalCode(int row, int value) {
+        materialize(POSTAL_CODE);
+        postalCode[check(row)] = value;
+    }
+
+    public String getCity(int row) {
+        return dictionary.decode(getCityCode(row));
+    }
+
+    public void setCity(int row, String value) {
+        materialize(CITY);
+        city[check(row)] = dictionary.encode(value);
+    }
+
+    public LocalDate getBirthday(int row) {
+        return DateCodec.toLocalDate(getBirthdayEpochDay(row));
+    }
+
+    public void setBirthday(int row, LocalDate value) {
+        materialize(BIRTHDAY);
+        birthday[check(row)] = DateCodec.toEpochDay(value);
+    }
+
+    /**
+     * День рождения без создания объекта LocalDate.
+     *
+     * @param row номер строки
+     * @return номер дня от 1970-01-01 или {@link #NULL_DATE}
+     */
+    public int getBirthdayEpochDay(int row) {
+        return birthday != null ? birthday[check(row)] : mapped(BIRTHDAY, row);
+    }
+
+    /**
+     * Задаёт день рождения номером дня от 1970-01-01.
+     *
+     * @param row      номер строки
+     * @param epochDay номер дня или {@link #NULL_DATE}
+     */
+    public void setBirthdayEpochDay(int row, int epochDay) {
+        materialize(BIRTHDAY);
+        birthday[check(row)] = epochDay;
+    }
+
+    /**
+     * Вставляет адресата в указанную строку, сдвигая последующие строки.
+     * Сохраняются значения полей, сам объект не запоминается.
+     *
+     * @param row    номер строки (от 0 до size включительно)
+     * @param person адресат
+     */
+    public void insert(int row, Person person) {
+        if (row < 0 || row > size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+        unmap();
+        ensureCapacity(size + 1);
+        if (row < size) {
+            shift(row, row + 1, size - row);
+        }
+        size++;
+        write(row, person);
+        id[row] = person.getId();
+    }
+
+    /**
+     * Добавляет адресата в конец хранилища.
+     *
+     * @param person адресат
+     */
+    public void add(Person person) {
+        insert(size, person);
+    }
+
+    /**
+     * Добавляет строку в конец хранилища прямо из значений полей, не
+     * создавая объекта Person. Строки кодируются словарём хранилища.
+     *
+     * @param birthdayEpochDay день рождения или {@link #NULL_DATE}
+     * @return номер добавленной строки
+     */
+    public int add(String firstName, String lastName, String street, int postalCode,
+                   String city, int birthdayEpochDay) {
+        unmap();
+        ensureCapacity(size + 1);
+        int row = size++;
+        this.firstName[row] = dictionary.encode(firstName);
+        this.lastName[row] = dictionary.encode(lastName);
+        this.street[row] = dictionary.encode(street);
+        this.postalCode[row] = postalCode;
+        this.city[row] = dictionary.encode(city);
+        this.birthday[row] = birthdayEpochDay;
+        this.id[row] = 0;
+        return row;
+    }
+
+    /**
+     * Записывает значения полей адресата в существующую строку.
+     * id строки не меняется.
+     *
+     * @param row    номер строки
+     * @param person адресат
+     */
+    public void write(int row, Person person) {
+        check(row);
+        unmap();
+        firstName[row] = dictionary.encode(person.getFirstName());
+        lastName[row] = dictionary.encode(person.getLastName());
+        street[row] = dictionary.encode(person.getStreet());
+        postalCode[row] = person.getPostalCode();
+        city[row] = dictionary.encode(person.getCity());
+        birthday[row] = DateCodec.toEpochDay(person.getBirthday());
+    }
+
+    /**
+     * Записывает в существующую строку значения полей строки другого
+     * хранилища. id строки не меняется.
+     *
+     * @param row       номер строки
+     * @param source    хранилище, из которого берутся значения
+     * @param sourceRow номер строки в нём
+     */
+    public void write(int row, PersonStore source, int sourceRow) {
+        check(row);
+        source.check(sourceRow);
+        unmap();
+        if (source.dictionary == dictionary) {
+            firstName[row] = source.getFirstNameCode(sourceRow);
+            lastName[row] = source.getLastNameCode(sourceRow);
+            street[row] = source.getStreetCode(sourceRow);
+            city[row] = source.getCityCode(sourceRow);
+        } else {
+            firstName[row] = dictionary.encode(source.getFirstName(sourceRow));
+            lastName[row] = dictionary.encode(source.getLastName(sourceRow));
+            street[row] = dictionary.encode(source.getStreet(sourceRow));
+            city[row] = dictionary.encode(source.getCity(sourceRow));
+        }
+        postalCode[row] = source.getPostalCode(sourceRow);
+        birthday[row] = source.getBirthdayEpochDay(sourceRow);
+    }
+
+    /**
+     * Создаёт нового адресата со значениями полей указанной строки.
+     * Объект никак не связан с хранилищем.
+     *
+     * @param row номер строки
+     * @return новый объект адресата
+     */
+    public Person toPerson(int row) {
+        Person person = new Person(getFirstName(row), getLastName(row));
+        person.setStreet(getStreet(row));
+        person.setPostalCode(getPostalCode(row));
+        person.setCity(getCity(row));
+        person.setBirthday(getBirthday(row));
+        person.setId(id[row]);
+        return person;
+    }
+
+    /**
+     * Удаляет строки с from (включительно) по to (не включительно).
+     */
+    public void remove(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", size: " + size);
+        }
+        unmap();
+        shift(to, from, size - to);
+        size -= to - from;
+    }
+
+    /**
+     * Удаляет указанные строки за один проход: оставшиеся строки
+     * сдвигаются непрерывными участками.
+     *
+     * @param rows номера удаляемых строк по возрастанию, без повторов
+     */
+    public void removeRows(int[] rows) {
+        checkAscending(rows);
+        if (rows.length == 0) {
+            return;
+        }
+        unmap();
+        int target = rows[0];
+        for (int i = 0; i < rows.length; i++) {
+            int from = rows[i] + 1;
+            int to = i + 1 < rows.length ? rows[i + 1] : size;
+            shift(from, target, to - from);
+            target += to - from;
+        }
+        size = target;
+    }
+
+    /**
+     * Проверяет, что номера строк идут по возрастанию, без повторов и
+     * не выходят за пределы хранилища.
+     */
+    void checkAscending(int[] rows) {
+        for (int i = 0; i < rows.length; i++) {
+            if (rows[i] < 0 || rows[i] >= size || (i > 0 && rows[i] <= rows[i - 1])) {
+                throw new IllegalArgumentException("Rows must be ascending and within 0.." + size + ": " + rows[i]);
+            }
+        }
+    }
+
+    /**
+     * Удаляет все строки. Выделенная память сохраняется.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Копирует все строки в новое хранилище с тем же словарём.
+     */
+    public PersonStore copy() {
+        return copy(0, size);
+    }
+
+    /**
+     * Копирует строки с from (включительно) по to (не включительно)
+     * в новое хранилище с тем же словарём.
+     */
+    public PersonStore copy(int from, int to) {
+        if (from < 0 || to > size || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", size: " + size);
+        }
+        int length = to - from;
+        PersonStore copy = new PersonStore(dictionary, Math.max(length, 1));
+        copyColumn(FIRST_NAME, firstName, from, copy.firstName, length);
+        copyColumn(LAST_NAME, lastName, from, copy.lastName, length);
+        copyColumn(STREET, street, from, copy.street, length);
+        copyColumn(POSTAL_CODE, postalCode, from, copy.postalCode, length);
+        copyColumn(CITY, city, from, copy.city, length);
+        copyColumn(BIRTHDAY, birthday, from, copy.birthday, length);
+        System.arraycopy(id, from, copy.id, 0, length);
+        copy.size = length;
+        return copy;
+    }
+
+    /**
+     * Вставляет все строки другого хранилища начиная с указанной строки.
+     */
+    public void insertAll(int row, PersonStore other) {
+        if (row < 0 || row > size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+        int length = other.size;
+        unmap();
+        ensureCapacity(size + length);
+        shift(row, row + length, size - row);
+        size += length;
+        for (int i = 0; i < length; i++) {
+            int target = row + i;
+            if (other.dictionary == dictionary) {
+                firstName[target] = other.getFirstNameCode(i);
+                lastName[target] = other.getLastNameCode(i);
+                street[target] = other.getStreetCode(i);
+                city[target] = other.getCityCode(i);
+            } else {
+                firstName[target] = dictionary.encode(other.getFirstName(i));
+                lastName[target] = dictionary.encode(other.getLastName(i));
+                street[target] = dictionary.encode(other.getStreet(i));
+                city[target] = dictionary.encode(other.getCity(i));
+            }
+            postalCode[target] = other.getPostalCode(i);
+            birthday[target] = other.getBirthdayEpochDay(i);
+            id[target] = other.id[i];
+        }
+    }
+
+    /**
+     * Переставляет строки на месте: строкой i становится прежняя строка
+     * order[i]. Каждый столбец переставляется по циклам перестановки,
+     * без копии хранилища.
+     *
+     * @param order новый порядок строк - перестановка чисел от 0 до size - 1
+     */
+    public void permute(int[] order) {
+        if (order.length != size) {
+            throw new IllegalArgumentException("Order length: " + order.length + ", size: " + size);
+        }
+        BitSet done = new BitSet(size);
+        for (int row : order) {
+            if (row < 0 || row >= size || done.get(row)) {
+                throw new IllegalArgumentException("Not a permutation of rows: " + row);
+            }
+            done.set(row);
+        }
+        unmap();
+        permuteColumn(firstName, order, done);
+        permuteColumn(lastName, order, done);
+        permuteColumn(street, order, done);
+        permuteColumn(postalCode, order, done);
+        permuteColumn(city, order, done);
+        permuteColumn(birthday, order, done);
+        permuteColumn(id, order, done);
+    }
+
+    private void permuteColumn(int[] column, int[] order, BitSet done) {
+        done.clear();
+        for (int start = 0; start < size; start++) {
+            if (done.get(start)) {
+                continue;
+            }
+            int first = column[start];
+            int row = start;
+            done.set(row);
+            for (int next = order[row]; next != start; next = order[row]) {
+                column[row] = column[next];
+                row = next;
+                done.set(row);
+            }
+            column[row] = first;
+        }
+    }
+
+    /**
+     * Примерный объём памяти хранилища вместе со словарём, в байтах.
+     * Для строки словаря берётся средняя цена: объект String с массивом
+     * и запись в таблице кодов. Столбцы, которые ещё читаются из
+     * отображённого файла, памяти кучи не занимают и не считаются.
+     */
+    public long estimateBytes() {
+        int columns = COLUMNS + 1;
+        if (mapped != null) {
+            for (IntBuffer column : mapped) {
+                if (column != null) {
+                    columns--;
+                }
+            }
+        }
+        return 4L * columns * id.length + 96L * dictionary.size();
+    }
+
+    /**
+     * Уменьшает массивы до фактического количества строк.
+     */
+    public void trimToSize() {
+        unmap();
+        resize(Math.max(size, 1));
+    }
+
+    /**
+     * Копирует в массивы столбцы, которые ещё читаются из отображённого
+     * файла, и освобождает отображение. Вызывается перед тем, как файл
+     * снимка будет заменён новым: в Windows отображённый файл нельзя
+     * ни удалить, ни переименовать поверх него другой.
+     */
+    public void unmap() {
+        if (mapped != null) {
+            for (int column = 0; column < COLUMNS; column++) {
+                materialize(column);
+            }
+        }
+    }
+
+    /**
+     * Копирует отображённый столбец в массив перед первой записью в него.
+     */
+    private void materialize(int column) {
+        if (mapped == null || mapped[column] == null) {
+            return;
+        }
+        int[] values = new int[id.length];
+        mapped[column].get(0, values, 0, size);
+        switch (column) {
+            case FIRST_NAME:
+                firstName = values;
+                break;
+            case LAST_NAME:
+                lastName = values;
+                break;
+            case STREET:
+                street = values;
+                break;
+            case POSTAL_CODE:
+                postalCode = values;
+                break;
+            case CITY:
+                city = values;
+                break;
+            default:
+                birthday = values;
+                break;
+        }
+        mapped[column] = null;
+        unmap.accept(column);
+        for (IntBuffer buffer : mapped) {
+            if (buffer != null) {
+                return;
+            }
+        }
+        mapped = null;
+        unmap = null;
+    }
+
+    private int mapped(int column, int row) {
+        return mapped[column].get(check(row));
+    }
+
+    /**
+     * Копирует length значений столбца с from в начало target.
+     */
+    private void copyColumn(int column, int[] values, int from, int[] target, int length) {
+        if (values != null) {
+            System.arraycopy(values, from, target, 0, length);
+        } else {
+            mapped[column].get(from, target, 0, length);
+        }
+    }
+
+    private void shift(int from, int to, int length) {
+        System.arraycopy(firstName, from, firstName, to, length);
+        System.arraycopy(lastName, from, lastName, to, length);
+        System.arraycopy(street, from, street, to, length);
+        System.arraycopy(postalCode, from, postalCode, to, length);
+        System.arraycopy(city, from, city, to, length);
+        System.arraycopy(birthday, from, birthday, to, length);
+        System.arraycopy(id, from, id, to, length);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > id.length) {
+            resize(Math.max(capacity, id.length + (id.length >> 1)));
+        }
+    }
+
+    private void resize(int capacity) {
+        firstName = Arrays.copyOf(firstName, capacity);
+        lastName = Arrays.copyOf(lastName, capacity);
+        street = Arrays.copyOf(street, capacity);
+        postalCode = Arrays.copyOf(postalCode, capacity);
+        city = Arrays.copyOf(city, capacity);
+        birthday = Arrays.copyOf(birthday, capacity);
+        id = Arrays.copyOf(id, capacity);
+    }
+
+    private int check(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("Row: " + row + ", size: " + size);
+        }
+        return row;
+    }
+}
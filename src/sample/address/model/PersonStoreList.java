@@ -0,0 +1,580 @@
+package sample.address.model;
+
+import javafx.beans.property.ReadOnlyProperty;
+import javafx.beans.value.ChangeListener;
+import javafx.beans.value.ObservableValue;
+import javafx.collections.ObservableListBase;
+
+import java.lang.ref.WeakReference;
+import java.time.LocalDate;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+
+/**
+ * Наблюдаемый список адресатов поверх компактного хранилища {@link PersonStore}.
+ * <p>
+ * Данные хранятся в столбцах хранилища, а объекты {@link Person} со
+ * свойствами JavaFX создаются лениво - только для тех строк, к которым
+ * обратились через {@link #get(int)} (видимые строки TableView, выбранный
+ * адресат, диалог редактирования). Созданные объекты-представления
+ * запоминаются через слабые ссылки: пока представление кому-то нужно,
+ * get(...) возвращает тот же объект, а когда оно больше никому не нужно,
+ * его забирает сборщик мусора.
+ * <p>
+ * Изменения свойств представления сразу записываются в хранилище,
+ * а слушатели списка получают об этом событие обновления
+ * (ListChangeListener.Change.wasUpdated()).
+ * <p>
+ * Список хранит значения, а не объекты: add(...), set(...) и addAll(...)
+ * копируют поля переданных адресатов в хранилище, и get(...) потом
+ * возвращает уже представление строки. Список, как и остальные объекты
+ * JavaFX, нужно изменять только в потоке JavaFX.
+ */
+public class PersonStoreList extends ObservableListBase<Person> {
+
+    private PersonStore store;
+
+    private WeakReference<Person>[] views = newViewArray(16);
+
+    // Один слушатель на все представления: адресата и поле он узнаёт
+    // из самого свойства (getBean() и getName()).
+    private final ChangeListener<Object> writeBack = this::writeBack;
+
+    /**
+     * Создаёт пустой список со своим хранилищем.
+     */
+    public PersonStoreList() {
+        this(new PersonStore());
+    }
+
+    /**
+     * Создаёт список поверх существующего хранилища.
+     *
+     * @param store хранилище адресатов
+     */
+    public PersonStoreList(PersonStore store) {
+        this.store = store;
+        ensureViewCapacity(store.size());
+    }
+
+    /**
+     * Возвращает хранилище списка. Изменять хранилище напрямую нельзя,
+     * иначе слушатели списка не узнают об изменениях.
+     *
+     * @return хранилище адресатов
+     */
+    public PersonStore getStore() {
+        return store;
+    }
+
+    /**
+     * Возвращает копию хранилища, например, чтобы потом вернуть
+     * список к этому состоянию методом {@link #setAll(PersonStore)}.
+     *
+     * @return копия хранилища
+     */
+    public PersonStore copyStore() {
+        return store.copy();
+    }
+
+    @Override
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Возвращает представление строки, создавая его при необходимости.
+     */
+    @Override
+    public Person get(int index) {
+        WeakReference<Person> ref = views[checkIndex(index)];
+        Person view = ref == null ? null : ref.get();
+        if (view == null) {
+            view = store.toPerson(index);
+            attach(view, index);
+        }
+        return view;
+    }
+
+    @Override
+    public void add(int index, Person person) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        store.insert(index, person);
+        insertViewSlots(index, 1);
+
+        beginChange();
+        nextAdd(index, index + 1);
+        endChange();
+    }
+
+    @Override
+    public Person set(int index, Person person) {
+        Person old = get(index);
+        detach(old);
+        views[index] = null;
+        store.write(index, person);
+
+        beginChange();
+        nextSet(index, old);
+        endChange();
+        return old;
+    }
+
+    @Override
+    public Person remove(int index) {
+        Person old = get(index);
+        removeRange(index, index + 1);
+        return old;
+    }
+
+    @Override
+    public boolean addAll(Collection<? extends Person> persons) {
+        return addAll(size(), persons);
+    }
+
+    @Override
+    public boolean addAll(int index, Collection<? extends Person> persons) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (persons.isEmpty()) {
+            return false;
+        }
+        PersonStore added = new PersonStore(store.getDictionary());
+        for (Person person : persons) {
+            added.add(person);
+        }
+        store.insertAll(index, added);
+        insertViewSlots(index, added.size());
+
+        beginChange();
+        nextAdd(index, index + added.size());
+        endChange();
+        return true;
+    }
+
+    /**
+     * Вставляет в конец списка все строки другого хранилища, не создавая
+     * объектов Person. Удобно для массовой загрузки.
+     *
+     * @param rows строки для вставки
+     */
+    public void addAll(PersonStore rows) {
+        if (rows.size() == 0) {
+            return;
+        }
+        int index = size();
+        store.insertAll(index, rows);
+        insertViewSlots(index, rows.size());
+
+        beginChange();
+        nextAdd(index, index + rows.size());
+        endChange();
+    }
+
+    @Override
+    public boolean setAll(Collection<? extends Person> persons) {
+        PersonStore rows = new PersonStore(store.getDictionary());
+        for (Person person : persons) {
+            rows.add(person);
+        }
+        setAll(rows);
+        return true;
+    }
+
+    /**
+     * Заменяет всё содержимое списка строками указанного хранилища.
+     * Хранилище не копируется и дальше принадлежит списку.
+     *
+     * @param rows новое содержимое списка
+     */
+    public void setAll(PersonStore rows) {
+        PersonStore old = store;
+        detachAll(0, old.size());
+        store = rows;
+        views = newViewArray(Math.max(16, rows.size()));
+
+        beginChange();
+        if (old.size() > 0) {
+            nextRemove(0, detachedRows(old));
+        }
+        if (rows.size() > 0) {
+            nextAdd(0, rows.size());
+        }
+        endChange();
+    }
+
+    /**
+     * Заменяет строки с from (включительно) по to (не включительно)
+     * строками указанного хранилища, включая их id. Слушатели получают
+     * одно изменение с удалёнными и добавленными строками.
+     *
+     * @param from первая заменяемая строка
+     * @param to   строка после последней заменяемой
+     * @param rows новые строки
+     */
+    public void replace(int from, int to, PersonStore rows) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", size: " + size());
+        }
+        if (from == to && rows.size() == 0) {
+            return;
+        }
+        int oldSize = size();
+        PersonStore removed = store.copy(from, to);
+        detachAll(from, to);
+        store.remove(from, to);
+        store.insertAll(from, rows);
+        int end = from + rows.size();
+        if (end != to) {
+            ensureViewCapacity(store.size());
+            System.arraycopy(views, to, views, end, oldSize - to);
+            if (end < to) {
+                Arrays.fill(views, store.size(), oldSize, null);
+            } else {
+                Arrays.fill(views, to, end, null);
+            }
+            renumberViews(end);
+        }
+
+        beginChange();
+        if (removed.size() > 0) {
+            nextRemove(from, detachedRows(removed));
+        }
+        if (end > from) {
+            nextAdd(from, end);
+        }
+        endChange();
+    }
+
+    /**
+     * Сортирует список на месте, не создавая объектов Person: сравниваются
+     * номера строк хранилища, строки переставляются прямо в столбцах, а
+     * слушатели получают одно изменение-перестановку. Представления строк
+     * остаются теми же объектами. Сортировка устойчивая.
+     *
+     * @param comparator сравнивает две строки хранилища по их номерам
+     */
+    public void sortRows(IntBinaryOperator comparator) {
+        int size = size();
+        int[] order = new int[size];
+        for (int row = 0; row < size; row++) {
+            order[row] = row;
+        }
+        mergeSort(order, new int[size], 0, size, comparator);
+
+        // permutation[прежняя строка] = новая строка, как в nextPermutation(...).
+        int[] permutation = new int[size];
+        boolean moved = false;
+        for (int row = 0; row < size; row++) {
+            permutation[order[row]] = row;
+            moved |= order[row] != row;
+        }
+        if (!moved) {
+            return;
+        }
+        store.permute(order);
+        WeakReference<Person>[] permuted = newViewArray(views.length);
+        for (int row = 0; row < size; row++) {
+            permuted[permutation[row]] = views[row];
+        }
+        views = permuted;
+        renumberViews(0);
+
+        beginChange();
+        nextPermutation(0, size, permutation);
+        endChange();
+    }
+
+    /**
+     * Устойчивая сортировка слиянием номеров строк с from по to.
+     */
+    private static void mergeSort(int[] rows, int[] buffer, int from, int to, IntBinaryOperator comparator) {
+        if (to - from < 16) {
+            for (int i = from + 1; i < to; i++) {
+                int row = rows[i];
+                int j = i;
+                while (j > from && comparator.applyAsInt(rows[j - 1], row) > 0) {
+                    rows[j] = rows[j - 1];
+                    j--;
+                }
+                rows[j] = row;
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        mergeSort(rows, buffer, from, middle, comparator);
+        mergeSort(rows, buffer, middle, to, comparator);
+        if (comparator.applyAsInt(rows[middle - 1], rows[middle]) <= 0) {
+            return;
+        }
+        System.arraycopy(rows, from, buffer, from, to - from);
+        int left = from;
+        int right = middle;
+        for (int i = from; i < to; i++) {
+            if (right >= to || (left < middle && comparator.applyAsInt(buffer[left], buffer[right]) <= 0)) {
+                rows[i] = buffer[left++];
+            } else {
+                rows[i] = buffer[right++];
+            }
+        }
+    }
+
+    @Override
+    public void clear() {
+        removeRange(0, size());
+    }
+
+    @Override
+    public void remove(int from, int to) {
+        removeRange(from, to);
+    }
+
+    @Override
+    protected void removeRange(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", size: " + size());
+        }
+        if (from == to) {
+            return;
+        }
+        // Удалённые строки отдаём слушателям в виде ленивого списка:
+        // объекты Person будут созданы, только если их кто-то запросит.
+        PersonStore removed = store.copy(from, to);
+        detachAll(from, to);
+        store.remove(from, to);
+        int size = store.size();
+        System.arraycopy(views, to, views, from, size - from);
+        Arrays.fill(views, size, size + (to - from), null);
+        renumberViews(from);
+
+        beginChange();
+        nextRemove(from, detachedRows(removed));
+        endChange();
+    }
+
+    /**
+     * Удаляет указанные строки одним изменением списка: слушатели получают
+     * по одному удалению на каждый непрерывный участок строк, а хранилище
+     * и представления сдвигаются за один проход.
+     *
+     * @param rows номера удаляемых строк по возрастанию, без повторов
+     */
+    public void removeRows(int[] rows) {
+        store.checkAscending(rows);
+        if (rows.length == 0) {
+            return;
+        }
+        // Непрерывные участки удаляемых строк и их копии для слушателей.
+        List<PersonStore> removed = new ArrayList<>();
+        IntList starts = new IntList();
+        for (int i = 0; i < rows.length; ) {
+            int from = rows[i];
+            int to = from + 1;
+            while (++i < rows.length && rows[i] == to) {
+                to++;
+            }
+            starts.add(from);
+            removed.add(store.copy(from, to));
+            detachAll(from, to);
+        }
+
+        int oldSize = store.size();
+        store.removeRows(rows);
+        int target = rows[0];
+        for (int i = 0; i < rows.length; i++) {
+            int from = rows[i] + 1;
+            int to = i + 1 < rows.length ? rows[i + 1] : oldSize;
+            System.arraycopy(views, from, views, target, to - from);
+            target += to - from;
+        }
+        Arrays.fill(views, target, oldSize, null);
+        renumberViews(rows[0]);
+
+        beginChange();
+        int shift = 0;
+        for (int i = 0; i < removed.size(); i++) {
+            nextRemove(starts.values[i] - shift, detachedRows(removed.get(i)));
+            shift += removed.get(i).size();
+        }
+        endChange();
+    }
+
+    /**
+     * Записывает в указанные строки значения строк другого хранилища одним
+     * изменением списка: слушатели получают по замене на каждую строку, как
+     * от {@link #set}, но одним событием. id строк не меняются.
+     *
+     * @param rows   номера строк по возрастанию, без повторов
+     * @param values новые значения: строка i - для строки rows[i]
+     */
+    public void setRows(int[] rows, PersonStore values) {
+        store.checkAscending(rows);
+        if (rows.length != values.size()) {
+            throw new IllegalArgumentException("Rows: " + rows.length + ", values: " + values.size());
+        }
+        if (rows.length == 0) {
+            return;
+        }
+        List<PersonStore> replaced = new ArrayList<>(rows.length);
+        for (int i = 0; i < rows.length; i++) {
+            int row = rows[i];
+            replaced.add(store.copy(row, row + 1));
+            detachAll(row, row + 1);
+            store.write(row, values, i);
+        }
+
+        beginChange();
+        for (int i = 0; i < rows.length; i++) {
+            nextReplace(rows[i], rows[i] + 1, detachedRows(replaced.get(i)));
+        }
+        endChange();
+    }
+
+    /**
+     * Запоминает представление строки и подписывается на изменения его свойств.
+     */
+    private void attach(Person view, int row) {
+        view.owner = this;
+        view.storeRow = row;
+        views[row] = new WeakReference<>(view);
+        view.firstNameProperty().addListener(writeBack);
+        view.lastNameProperty().addListener(writeBack);
+        view.streetProperty().addListener(writeBack);
+        view.postalCodeProperty().addListener(writeBack);
+        view.cityProperty().addListener(writeBack);
+        view.birthdayProperty().addListener(writeBack);
+    }
+
+    /**
+     * Отвязывает представление от списка: его изменения больше не
+     * попадают в хранилище.
+     */
+    private void detach(Person view) {
+        if (view == null || view.owner != this) {
+            return;
+        }
+        view.owner = null;
+        view.storeRow = -1;
+        view.firstNameProperty().removeListener(writeBack);
+        view.lastNameProperty().removeListener(writeBack);
+        view.streetProperty().removeListener(writeBack);
+        view.postalCodeProperty().removeListener(writeBack);
+        view.cityProperty().removeListener(writeBack);
+        view.birthdayProperty().removeListener(writeBack);
+    }
+
+    private void detachAll(int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (views[i] != null) {
+                detach(views[i].get());
+                views[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Записывает изменённое свойство представления в хранилище.
+     */
+    private void writeBack(ObservableValue<?> property, Object oldValue, Object newValue) {
+        Person view = (Person) ((ReadOnlyProperty<?>) property).getBean();
+        if (view.owner != this) {
+            return;
+        }
+        int row = view.storeRow;
+        switch (((ReadOnlyProperty<?>) property).getName()) {
+            case "firstName":
+                store.setFirstName(row, (String) newValue);
+                break;
+            case "lastName":
+                store.setLastName(row, (String) newValue);
+                break;
+            case "street":
+                store.setStreet(row, (String) newValue);
+                break;
+            case "postalCode":
+                store.setPostalCode(row, ((Number) newValue).intValue());
+                break;
+            case "city":
+                store.setCity(row, (String) newValue);
+                break;
+            case "birthday":
+                store.setBirthday(row, (LocalDate) newValue);
+                break;
+            default:
+                return;
+        }
+        beginChange();
+        nextUpdate(row);
+        endChange();
+    }
+
+    /**
+     * Освобождает место под count новых строк в массиве представлений.
+     */
+    private void insertViewSlots(int index, int count) {
+        int oldSize = store.size() - count;
+        ensureViewCapacity(store.size());
+        System.arraycopy(views, index, views, index + count, oldSize - index);
+        Arrays.fill(views, index, index + count, null);
+        renumberViews(index + count);
+    }
+
+    /**
+     * Обновляет номера строк у представлений после вставки или удаления.
+     */
+    private void renumberViews(int from) {
+        int size = store.size();
+        for (int i = from; i < size; i++) {
+            if (views[i] != null) {
+                Person view = views[i].get();
+                if (view == null) {
+                    views[i] = null;
+                } else {
+                    view.storeRow = i;
+                }
+            }
+        }
+    }
+
+    private void ensureViewCapacity(int capacity) {
+        if (capacity > views.length) {
+            views = Arrays.copyOf(views, Math.max(capacity, views.length + (views.length >> 1)));
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static WeakReference<Person>[] newViewArray(int capacity) {
+        return new WeakReference[capacity];
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        return index;
+    }
+
+    /**
+     * Список отвязанных от хранилища адресатов, объекты создаются при обращении.
+     */
+    private static List<Person> detachedRows(PersonStore rows) {
+        return new AbstractList<Person>() {
+            @Override
+            public Person get(int index) {
+                return rows.toPerson(index);
+            }
+
+            @Override
+            public int size() {
+                return rows.size();
+            }
+        };
+    }
+}
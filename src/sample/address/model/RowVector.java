@@ -0,0 +1,420 @@
+package sample.address.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Неизменяемый список строк адресатов - версия книги для истории правок.
+ * <p>
+ * Строки лежат в листьях дерева по {@link #LEAF_ROWS} штук, по
+ * {@link #FIELDS} чисел int на строку: коды строк словаря, индекс,
+ * день рождения и id, как в столбцах {@link PersonStore}. Все листья на
+ * одной глубине, у внутреннего узла не больше {@link #BRANCHING} детей и
+ * таблица накопленных размеров, поэтому строка ищется за O(log n).
+ * <p>
+ * Изменение не трогает прежнюю версию: копируется только путь от корня
+ * до изменённых листьев, остальные узлы у версий общие. Правка одного
+ * адресата стоит O(log n) памяти, удаление диапазона - O(log n) плюс
+ * края диапазона, вставка k строк - O(k + log n).
+ * <p>
+ * Узлы после удалений могут оставаться неполными - глубина дерева от
+ * этого не растёт, а поиск остаётся логарифмическим.
+ */
+final class RowVector {
+
+    static final int FIELDS = 7;
+    static final int LEAF_ROWS = 32;
+    static final int BRANCHING = 32;
+
+    private static final int FIRST_NAME = 0;
+    private static final int LAST_NAME = 1;
+    private static final int STREET = 2;
+    private static final int POSTAL_CODE = 3;
+    private static final int CITY = 4;
+    private static final int BIRTHDAY = 5;
+    private static final int ID = 6;
+
+    static final RowVector EMPTY = new RowVector(new Leaf(new int[0]));
+
+    private final Node root;
+
+    private RowVector(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Создаёт версию со всеми строками хранилища.
+     */
+    static RowVector of(PersonStore store) {
+        return EMPTY.insert(0, store, 0, store.size());
+    }
+
+    int size() {
+        return root.size();
+    }
+
+    /**
+     * Вставляет строки хранилища с from по to (не включительно) перед строкой index.
+     */
+    RowVector insert(int index, PersonStore store, int from, int to) {
+        if (index < 0 || index > size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (from == to) {
+            return this;
+        }
+        int[] rows = new int[(to - from) * FIELDS];
+        for (int row = from; row < to; row++) {
+            read(store, row, rows, (row - from) * FIELDS);
+        }
+        Node[] nodes = insert(root, index, rows);
+        while (nodes.length > 1) {
+            nodes = group(nodes, 0, nodes.length, null);
+        }
+        return new RowVector(nodes[0]);
+    }
+
+    /**
+     * Удаляет строки с from (включительно) по to (не включительно).
+     */
+    RowVector remove(int from, int to) {
+        if (from < 0 || to > size() || from > to) {
+            throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", size: " + size());
+        }
+        if (from == to) {
+            return this;
+        }
+        Node node = remove(root, from, to);
+        if (node == null) {
+            return EMPTY;
+        }
+        // Корень с одним ребёнком не нужен: все листья при этом остаются на одной глубине.
+        while (node instanceof Branch && ((Branch) node).children.length == 1) {
+            node = ((Branch) node).children[0];
+        }
+        return new RowVector(node);
+    }
+
+    /**
+     * Заменяет строку index текущими значениями строки хранилища.
+     */
+    RowVector set(int index, PersonStore store, int row) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        int[] values = new int[FIELDS];
+        read(store, row, values, 0);
+        return new RowVector(set(root, index, values));
+    }
+
+    /**
+     * Сравнивает версии и находит, сколько строк у них совпадает в начале
+     * и в конце. Одинаковые (общие) листья на одинаковых местах
+     * пропускаются целиком, поэтому версии, которые отличаются немногими
+     * строками, сравниваются быстро даже для большой книги.
+     *
+     * @return {длина общего начала, длина общего конца}; вместе не больше размера меньшей версии
+     */
+    int[] commonEnds(RowVector other) {
+        Leaves a = new Leaves(root);
+        Leaves b = new Leaves(other.root);
+        int limit = Math.min(a.size, b.size);
+
+        int prefix = 0;
+        while (prefix < limit) {
+            int la = a.find(prefix);
+            int lb = b.find(prefix);
+            if (a.leaves[la] == b.leaves[lb] && a.starts[la] == prefix && b.starts[lb] == prefix) {
+                prefix += a.leaves[la].size();
+            } else if (a.sameRow(la, prefix, b, lb, prefix)) {
+                prefix++;
+            } else {
+                break;
+            }
+        }
+
+        int suffix = 0;
+        while (suffix < limit - prefix) {
+            int ra = a.size - 1 - suffix;
+            int rb = b.size - 1 - suffix;
+            int la = a.find(ra);
+            int lb = b.find(rb);
+            int length = a.leaves[la].size();
+            if (a.leaves[la] == b.leaves[lb] && a.starts[la] + length - 1 == ra
+                    && b.starts[lb] + length - 1 == rb && suffix + length <= limit - prefix) {
+                suffix += length;
+            } else if (a.sameRow(la, ra, b, lb, rb)) {
+                suffix++;
+            } else {
+                break;
+            }
+        }
+        return new int[]{prefix, suffix};
+    }
+
+    /**
+     * Копирует строки с from (включительно) по to (не включительно)
+     * в новое хранилище с указанным словарём, вместе с id.
+     */
+    PersonStore toStore(StringDictionary dictionary, int from, int to) {
+        int length = to - from;
+        int capacity = Math.max(length, 1);
+        int[][] columns = new int[FIELDS][capacity];
+        Leaves leaves = new Leaves(root);
+        int row = from;
+        while (row < to) {
+            int leaf = leaves.find(row);
+            int[] values = leaves.leaves[leaf].rows;
+            int end = Math.min(to, leaves.starts[leaf] + leaves.leaves[leaf].size());
+            for (; row < end; row++) {
+                int offset = (row - leaves.starts[leaf]) * FIELDS;
+                for (int field = 0; field < FIELDS; field++) {
+                    columns[field][row - from] = values[offset + field];
+                }
+            }
+        }
+        PersonStore store = PersonStore.fromColumns(dictionary, length,
+                columns[FIRST_NAME], columns[LAST_NAME], columns[STREET],
+                columns[POSTAL_CODE], columns[CITY], columns[BIRTHDAY]);
+        for (int i = 0; i < length; i++) {
+            store.setId(i, columns[ID][i]);
+        }
+        return store;
+    }
+
+    private static void read(PersonStore store, int row, int[] target, int offset) {
+        target[offset + FIRST_NAME] = store.getFirstNameCode(row);
+        target[offset + LAST_NAME] = store.getLastNameCode(row);
+        target[offset + STREET] = store.getStreetCode(row);
+        target[offset + POSTAL_CODE] = store.getPostalCode(row);
+        target[offset + CITY] = store.getCityCode(row);
+        target[offset + BIRTHDAY] = store.getBirthdayEpochDay(row);
+        target[offset + ID] = store.getId(row);
+    }
+
+    private static Node[] insert(Node node, int index, int[] rows) {
+        if (node instanceof Leaf) {
+            return leaves(((Leaf) node).rows, index * FIELDS, rows);
+        }
+        Branch branch = (Branch) node;
+        // Вставка на границе детей - в конец левого из них.
+        int child = branch.find(index - 1);
+        Node[] replaced = insert(branch.children[child], index - branch.start(child), rows);
+        return group(branch.children, child, child + 1, replaced);
+    }
+
+    private static Node remove(Node node, int from, int to) {
+        int size = node.size();
+        if (from <= 0 && to >= size) {
+            return null;
+        }
+        if (node instanceof Leaf) {
+            int[] rows = ((Leaf) node).rows;
+            int start = Math.max(from, 0) * FIELDS;
+            int end = Math.min(to, size) * FIELDS;
+            int[] left = new int[rows.length - (end - start)];
+            System.arraycopy(rows, 0, left, 0, start);
+            System.arraycopy(rows, end, left, start, rows.length - end);
+            return new Leaf(left);
+        }
+        Branch branch = (Branch) node;
+        List<Node> children = new ArrayList<>(branch.children.length);
+        for (int i = 0; i < branch.children.length; i++) {
+            int start = branch.start(i);
+            int end = branch.ends[i];
+            if (end <= from || start >= to) {
+                children.add(branch.children[i]);
+            } else {
+                Node left = remove(branch.children[i], from - start, to - start);
+                if (left != null) {
+                    children.add(left);
+                }
+            }
+        }
+        return children.isEmpty() ? null : new Branch(children.toArray(new Node[0]));
+    }
+
+    private static Node set(Node node, int index, int[] values) {
+        if (node instanceof Leaf) {
+            int[] rows = ((Leaf) node).rows.clone();
+            System.arraycopy(values, 0, rows, index * FIELDS, FIELDS);
+            return new Leaf(rows);
+        }
+        Branch branch = (Branch) node;
+        int child = branch.find(index);
+        Node[] children = branch.children.clone();
+        children[child] = set(children[child], index - branch.start(child), values);
+        return new Branch(children);
+    }
+
+    /**
+     * Раскладывает строки rows[0..at) + inserted + rows[at..) по листьям
+     * поровну, не больше {@link #LEAF_ROWS} строк в листе.
+     */
+    private static Node[] leaves(int[] rows, int at, int[] inserted) {
+        int total = (rows.length + inserted.length) / FIELDS;
+        int count = (total + LEAF_ROWS - 1) / LEAF_ROWS;
+        Node[] leaves = new Node[count];
+        for (int i = 0; i < count; i++) {
+            int start = (int) ((long) total * i / count) * FIELDS;
+            int end = (int) ((long) total * (i + 1) / count) * FIELDS;
+            int[] values = new int[end - start];
+            copy(rows, at, inserted, start, values);
+            leaves[i] = new Leaf(values);
+        }
+        return leaves;
+    }
+
+    /**
+     * Копирует участок склейки rows[0..at) + inserted + rows[at..), начиная с position.
+     */
+    private static void copy(int[] rows, int at, int[] inserted, int position, int[] target) {
+        int done = 0;
+        while (done < target.length) {
+            int p = position + done;
+            int n;
+            if (p < at) {
+                n = Math.min(at - p, target.length - done);
+                System.arraycopy(rows, p, target, done, n);
+            } else if (p < at + inserted.length) {
+                n = Math.min(at + inserted.length - p, target.length - done);
+                System.arraycopy(inserted, p - at, target, done, n);
+            } else {
+                n = target.length - done;
+                System.arraycopy(rows, p - inserted.length, target, done, n);
+            }
+            done += n;
+        }
+    }
+
+    /**
+     * Заменяет детей nodes[from..to) на replaced (если не null) и
+     * раскладывает получившихся детей по узлам поровну, не больше
+     * {@link #BRANCHING} детей в узле.
+     */
+    private static Node[] group(Node[] nodes, int from, int to, Node[] replaced) {
+        Node[] all = nodes;
+        if (replaced != null) {
+            all = new Node[nodes.length - (to - from) + replaced.length];
+            System.arraycopy(nodes, 0, all, 0, from);
+            System.arraycopy(replaced, 0, all, from, replaced.length);
+            System.arraycopy(nodes, to, all, from + replaced.length, nodes.length - to);
+        }
+        int count = (all.length + BRANCHING - 1) / BRANCHING;
+        Node[] branches = new Node[count];
+        for (int i = 0; i < count; i++) {
+            int start = (int) ((long) all.length * i / count);
+            int end = (int) ((long) all.length * (i + 1) / count);
+            branches[i] = new Branch(Arrays.copyOfRange(all, start, end));
+        }
+        return branches;
+    }
+
+    private abstract static class Node {
+        abstract int size();
+    }
+
+    private static final class Leaf extends Node {
+        final int[] rows;
+
+        Leaf(int[] rows) {
+            this.rows = rows;
+        }
+
+        @Override
+        int size() {
+            return rows.length / FIELDS;
+        }
+    }
+
+    private static final class Branch extends Node {
+        final Node[] children;
+        // ends[i] - сколько строк в детях с 0 по i включительно.
+        final int[] ends;
+
+        Branch(Node[] children) {
+            this.children = children;
+            this.ends = new int[children.length];
+            int size = 0;
+            for (int i = 0; i < children.length; i++) {
+                size += children[i].size();
+                ends[i] = size;
+            }
+        }
+
+        @Override
+        int size() {
+            return ends[ends.length - 1];
+        }
+
+        int start(int child) {
+            return child == 0 ? 0 : ends[child - 1];
+        }
+
+        /**
+         * @return номер ребёнка, в котором лежит строка index (для index = -1 - первый)
+         */
+        int find(int index) {
+            int at = Arrays.binarySearch(ends, index + 1);
+            if (at < 0) {
+                at = -at - 1;
+            } else {
+                // Среди детей с одинаковым концом (пустых не бывает) ищем первого.
+                while (at > 0 && ends[at - 1] == index + 1) {
+                    at--;
+                }
+            }
+            return Math.min(at, children.length - 1);
+        }
+    }
+
+    /**
+     * Листья версии по порядку и номера их первых строк.
+     */
+    private static final class Leaves {
+        final Leaf[] leaves;
+        final int[] starts;
+        final int size;
+
+        Leaves(Node root) {
+            List<Leaf> list = new ArrayList<>();
+            collect(root, list);
+            leaves = list.toArray(new Leaf[0]);
+            starts = new int[leaves.length];
+            int start = 0;
+            for (int i = 0; i < leaves.length; i++) {
+                starts[i] = start;
+                start += leaves[i].size();
+            }
+            size = start;
+        }
+
+        private static void collect(Node node, List<Leaf> list) {
+            if (node instanceof Leaf) {
+                if (node.size() > 0) {
+                    list.add((Leaf) node);
+                }
+            } else {
+                for (Node child : ((Branch) node).children) {
+                    collect(child, list);
+                }
+            }
+        }
+
+        /**
+         * @return номер листа, в котором лежит строка row
+         */
+        int find(int row) {
+            int at = Arrays.binarySearch(starts, row);
+            return at >= 0 ? at : -at - 2;
+        }
+
+        boolean sameRow(int leaf, int row, Leaves other, int otherLeaf, int otherRow) {
+            int offset = (row - starts[leaf]) * FIELDS;
+            int otherOffset = (otherRow - other.starts[otherLeaf]) * FIELDS;
+            return Arrays.equals(leaves[leaf].rows, offset, offset + FIELDS,
+                    other.leaves[otherLeaf].rows, otherOffset, otherOffset + FIELDS);
+        }
+    }
+}
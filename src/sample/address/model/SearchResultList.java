@@ -0,0 +1,242 @@
+package sample.address.model;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.transformation.TransformationList;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Список адресатов, подходящих под строку поиска.
+ * <p>
+ * Работает как FilteredList, но не проверяет условие для каждого адресата:
+ * номера подходящих строк берутся из {@link PersonSearchIndex}. Пока
+ * строка поиска пустая, список показывает исходный список целиком
+ * и просто пересылает его изменения.
+ * <p>
+ * Индекс должен быть создан раньше этого списка, чтобы получать события
+ * исходного списка первым.
+ */
+public class SearchResultList extends TransformationList<Person, Person> {
+
+    private final PersonSearchIndex index;
+    private String query = "";
+    // Номера подходящих строк исходного списка по возрастанию или null,
+    // если подходят все строки.
+    private int[] rows;
+
+    /**
+     * @param source исходный список адресатов
+     * @param index  поисковый индекс по этому списку
+     */
+    public SearchResultList(PersonStoreList source, PersonSearchIndex index) {
+        super(source);
+        this.index = index;
+    }
+
+    /**
+     * @return текущая строка поиска
+     */
+    public String getQuery() {
+        return query;
+    }
+
+    /**
+     * Задаёт строку поиска и обновляет список.
+     *
+     * @param query строка поиска; пустая строка или null - показать всех
+     */
+    public void setQuery(String query) {
+        this.query = query == null ? "" : query;
+        int[] oldRows = rows;
+        int oldSize = size();
+        rows = index.search(this.query);
+        if (oldRows == null && rows == null) {
+            return;
+        }
+        // Строки исходного списка не менялись, поэтому старое содержимое
+        // отдаём слушателям ленивым списком - объекты Person создаются,
+        // только если их запросят.
+        int[] previous = oldRows;
+        List<Person> removed = new AbstractList<Person>() {
+            @Override
+            public Person get(int index) {
+                return getSource().get(previous != null ? previous[index] : index);
+            }
+
+            @Override
+            public int size() {
+                return oldSize;
+            }
+        };
+        beginChange();
+        if (oldSize > 0) {
+            nextRemove(0, removed);
+        }
+        if (size() > 0) {
+            nextAdd(0, size());
+        }
+        endChange();
+    }
+
+    @Override
+    public int size() {
+        return rows != null ? rows.length : getSource().size();
+    }
+
+    @Override
+    public Person get(int index) {
+        if (rows == null) {
+            return getSource().get(index);
+        }
+        if (index < 0 || index >= rows.length) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + rows.length);
+        }
+        return getSource().get(rows[index]);
+    }
+
+    @Override
+    public int getSourceIndex(int index) {
+        return rows != null ? rows[index] : index;
+    }
+
+    /**
+     * @return позиция строки исходного списка в этом списке или -1
+     */
+    public int getViewIndex(int index) {
+        if (rows == null) {
+            return index;
+        }
+        int at = Arrays.binarySearch(rows, index);
+        return at >= 0 ? at : -1;
+    }
+
+    @Override
+    protected void sourceChanged(ListChangeListener.Change<? extends Person> change) {
+        if (rows == null) {
+            forward(change);
+            return;
+        }
+
+        // Переводим старые номера строк в нумерацию после изменения.
+        // Удалённые строки помечаем -1 и запоминаем их объекты Person.
+        int[] oldRows = rows.clone();
+        Person[] removed = new Person[oldRows.length];
+        BitSet updated = new BitSet();
+        boolean permutated = false;
+        while (change.next()) {
+            int from = change.getFrom();
+            if (change.wasPermutated()) {
+                permutated = true;
+                for (int i = 0; i < oldRows.length; i++) {
+                    if (oldRows[i] >= from && oldRows[i] < change.getTo()) {
+                        oldRows[i] = change.getPermutation(oldRows[i]);
+                    }
+                }
+            } else if (change.wasUpdated()) {
+                updated.set(from, change.getTo());
+            } else {
+                int removedSize = change.getRemovedSize();
+                int shift = change.getAddedSize() - removedSize;
+                for (int i = 0; i < oldRows.length; i++) {
+                    int row = oldRows[i];
+                    if (row < from) {
+                        continue;
+                    }
+                    if (row < from + removedSize) {
+                        removed[i] = change.getRemoved().get(row - from);
+                        oldRows[i] = -1;
+                    } else {
+                        oldRows[i] = row + shift;
+                    }
+                }
+            }
+        }
+
+        rows = index.search(query);
+        beginChange();
+        if (permutated) {
+            // После перестановки старые номера идут не по порядку -
+            // сообщаем о замене всего списка.
+            for (int i = 0; i < oldRows.length; i++) {
+                if (oldRows[i] >= 0) {
+                    removed[i] = getSource().get(oldRows[i]);
+                }
+            }
+            if (oldRows.length > 0) {
+                nextRemove(0, Arrays.asList(removed));
+            }
+            if (rows.length > 0) {
+                nextAdd(0, rows.length);
+            }
+        } else {
+            diff(oldRows, removed, rows, updated);
+        }
+        endChange();
+    }
+
+    /**
+     * Сообщает слушателям разницу между старыми и новыми номерами строк.
+     * Оба массива упорядочены; -1 в старом массиве - удалённая строка,
+     * её объект Person лежит в removed.
+     */
+    private void diff(int[] oldRows, Person[] removed, int[] newRows, BitSet updated) {
+        int position = 0;
+        int i = 0;
+        int j = 0;
+        while (i < oldRows.length) {
+            int oldRow = oldRows[i];
+            if (oldRow < 0) {
+                nextRemove(position, removed[i]);
+                i++;
+            } else if (j < newRows.length && newRows[j] < oldRow) {
+                nextAdd(position, position + 1);
+                position++;
+                j++;
+            } else if (j < newRows.length && newRows[j] == oldRow) {
+                if (updated.get(oldRow)) {
+                    nextUpdate(position);
+                }
+                position++;
+                i++;
+                j++;
+            } else {
+                nextRemove(position, getSource().get(oldRow));
+                i++;
+            }
+        }
+        if (j < newRows.length) {
+            nextAdd(position, position + newRows.length - j);
+        }
+    }
+
+    /**
+     * Пересылает изменение исходного списка без поиска.
+     */
+    private void forward(ListChangeListener.Change<? extends Person> change) {
+        beginChange();
+        while (change.next()) {
+            if (change.wasPermutated()) {
+                int[] permutation = new int[change.getTo() - change.getFrom()];
+                for (int i = 0; i < permutation.length; i++) {
+                    permutation[i] = change.getPermutation(change.getFrom() + i);
+                }
+                nextPermutation(change.getFrom(), change.getTo(), permutation);
+            } else if (change.wasUpdated()) {
+                for (int i = change.getFrom(); i < change.getTo(); i++) {
+                    nextUpdate(i);
+                }
+            } else {
+                if (change.wasRemoved()) {
+                    nextRemove(change.getFrom(), change.getRemoved());
+                }
+                if (change.wasAdded()) {
+                    nextAdd(change.getFrom(), change.getTo());
+                }
+            }
+        }
+        endChange();
+    }
+}
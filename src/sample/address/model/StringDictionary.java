@@ -0,0 +1,131 @@
+package sample.address.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Словарь строк: каждой различной строке сопоставляется целочисленный код.
+ * <p>
+ * В адресной книге одни и те же города, улицы и имена повторяются
+ * тысячи раз. Вместо того, чтобы хранить тысячи одинаковых объектов
+ * String, храним строку один раз в словаре, а в записях - только её код.
+ * Код {@link #NULL_CODE} означает значение null.
+ * <p>
+ * Коды выдаются подряд, начиная с 0, и никогда не меняются - словарь
+ * только пополняется. Методы словаря потокобезопасны.
+ * <p>
+ * Словарь может быть "ленивым" (см. {@link #lazy(int, IntFunction)}): первые
+ * коды уже заняты строками из файла, но сами строки создаются только при
+ * первом обращении к ним. Так большой файл открывается быстро.
+ */
+public class StringDictionary {
+
+    /**
+     * Код значения null.
+     */
+    public static final int NULL_CODE = -1;
+
+    private final Map<String, Integer> codes = new HashMap<>();
+    private String[] values = new String[16];
+    private int size;
+
+    // Источник строк ленивого словаря и признак того, что все его строки
+    // уже попали в codes.
+    private IntFunction<String> source;
+    private boolean sourceIndexed = true;
+
+    /**
+     * Создаёт словарь, в котором коды от 0 до count - 1 уже заняты строками,
+     * которые выдаёт source. Строка создаётся при первом обращении к её коду.
+     * Строки источника должны быть различными.
+     *
+     * @param count  количество строк в источнике
+     * @param source функция, возвращающая строку по её коду
+     * @return новый словарь
+     */
+    public static StringDictionary lazy(int count, IntFunction<String> source) {
+        StringDictionary dictionary = new StringDictionary();
+        dictionary.values = new String[Math.max(16, count + (count >> 2))];
+        dictionary.size = count;
+        dictionary.source = source;
+        dictionary.sourceIndexed = count == 0;
+        return dictionary;
+    }
+
+    /**
+     * Возвращает код строки, добавляя её в словарь, если её там ещё нет.
+     *
+     * @param value строка или null
+     * @return код строки
+     */
+    public synchronized int encode(String value) {
+        if (value == null) {
+            return NULL_CODE;
+        }
+        Integer code = codes.get(value);
+        if (code == null && !sourceIndexed) {
+            // Строка могла быть в источнике, но ещё не прочитана - один раз
+            // читаем все строки источника, чтобы не завести дубликат.
+            indexSource();
+            code = codes.get(value);
+        }
+        if (code != null) {
+            return code;
+        }
+        if (size == values.length) {
+            values = Arrays.copyOf(values, size + (size >> 1));
+        }
+        values[size] = value;
+        codes.put(value, size);
+        return size++;
+    }
+
+    /**
+     * Возвращает экземпляр строки, хранящийся в словаре, добавляя строку,
+     * если её там ещё нет. Так одинаковые строки из разных источников
+     * (файл, БД, поля ввода) становятся одним объектом.
+     *
+     * @param value строка или null
+     * @return равная ей строка из словаря или null
+     */
+    public synchronized String intern(String value) {
+        return decode(encode(value));
+    }
+
+    /**
+     * Возвращает строку по её коду.
+     *
+     * @param code код, полученный из {@link #encode(String)}
+     * @return строка или null для {@link #NULL_CODE}
+     */
+    public synchronized String decode(int code) {
+        if (code == NULL_CODE) {
+            return null;
+        }
+        String value = values[code];
+        if (value == null && source != null) {
+            value = source.apply(code);
+            values[code] = value;
+        }
+        return value;
+    }
+
+    /**
+     * @return сколько различных строк хранится в словаре
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    private void indexSource() {
+        for (int code = 0; code < size; code++) {
+            String value = decode(code);
+            if (value != null) {
+                codes.putIfAbsent(value, code);
+            }
+        }
+        sourceIndexed = true;
+    }
+}
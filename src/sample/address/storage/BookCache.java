@@ -0,0 +1,211 @@
+package sample.address.storage;
+
+import sample.address.metrics.Counter;
+import sample.address.metrics.Metrics;
+import sample.address.model.PersonStore;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Кэш неактивных книг рабочей области.
+ * <p>
+ * Когда пользователь переключается на другую книгу, хранилище прежней
+ * не копируется и не выбрасывается, а уходит в кэш вместе с её
+ * состоянием синхронизации. Вернуться к такой книге можно сразу, без
+ * чтения файла: хранилище просто снова отдаётся списку адресатов.
+ * <p>
+ * Объём кэша ограничен ({@link #BUDGET_PROPERTY}). Если книги в кэше не
+ * помещаются в бюджет, дольше всех не открывавшиеся из них выгружаются:
+ * в памяти от них ничего не остаётся, и открыть их снова можно только
+ * из файла. Поэтому выгружаются только книги, которые целиком записаны
+ * на диск; книга с несохранёнными изменениями остаётся в кэше, даже если
+ * бюджет превышен. Книга, запись которой ещё идёт, становится выгружаемой
+ * только после того, как запись закончится успешно (см. {@link #written});
+ * если запись упала, книга остаётся в кэше с несохранёнными изменениями.
+ * <p>
+ * Методы вызываются в потоке JavaFX.
+ */
+public class BookCache {
+
+    /**
+     * Системное свойство: бюджет кэша в мегабайтах; по умолчанию -
+     * четверть максимального размера кучи.
+     */
+    public static final String BUDGET_PROPERTY = "address.workspace.cacheMB";
+
+    private static final Counter HITS = Metrics.counter("workspace.cache.hits");
+    private static final Counter EVICTIONS = Metrics.counter("workspace.cache.evictions");
+
+    private final long budget;
+    // Порядок обхода - от давно открывавшихся книг к недавним.
+    private final LinkedHashMap<File, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    /**
+     * @param budget бюджет кэша в байтах
+     */
+    public BookCache(long budget) {
+        this.budget = budget;
+        Metrics.gauge("workspace.cache.bytes", () -> bytes);
+        Metrics.gauge("workspace.cache.books", entries::size);
+    }
+
+    /**
+     * Создаёт кэш с бюджетом из свойства {@link #BUDGET_PROPERTY}.
+     */
+    public static BookCache withConfiguredBudget() {
+        Long megabytes = Long.getLong(BUDGET_PROPERTY);
+        long budget = megabytes != null ? megabytes * 1024 * 1024 : Runtime.getRuntime().maxMemory() / 4;
+        return new BookCache(budget);
+    }
+
+    /**
+     * Кладёт книгу в кэш. Хранилище дальше принадлежит кэшу.
+     *
+     * @param file      файл книги
+     * @param store     хранилище адресатов книги
+     * @param syncState состояние синхронизации книги с БД
+     * @param current   совпадают ли базовый файл и журнал на диске с хранилищем
+     *                  (см. {@link ChangeJournal#attach(File, boolean)})
+     * @param disk      записаны ли все изменения книги на диск
+     */
+    public void put(File file, PersonStore store, SyncState syncState, boolean current, DiskState disk) {
+        Entry entry = new Entry(store, syncState, current, disk);
+        Entry previous = entries.put(key(file), entry);
+        if (previous != null) {
+            bytes -= previous.bytes;
+        }
+        bytes += entry.bytes;
+    }
+
+    /**
+     * Забирает книгу из кэша.
+     *
+     * @param file файл книги
+     * @return книга или null, если её в кэше нет
+     */
+    public Entry take(File file) {
+        Entry entry = entries.remove(key(file));
+        if (entry != null) {
+            bytes -= entry.bytes;
+            HITS.inc();
+        }
+        return entry;
+    }
+
+    /**
+     * Сообщает, чем закончилась запись книги на диск. Учитывается только
+     * запись, которая шла, когда книга попала в кэш ({@link DiskState#WRITING}).
+     *
+     * @param file    файл, в который шла запись
+     * @param success true, если запись закончилась успешно
+     * @return true, если запись относилась к книге в кэше
+     */
+    public boolean written(File file, boolean success) {
+        Entry entry = entries.get(key(file));
+        if (entry == null || entry.disk != DiskState.WRITING) {
+            return false;
+        }
+        if (success) {
+            entry.disk = DiskState.SAVED;
+        } else {
+            // Журнал на диске не дописан - при возврате книги её нужно
+            // будет записать целиком.
+            entry.disk = DiskState.UNSAVED;
+            entry.current = false;
+        }
+        return true;
+    }
+
+    /**
+     * @return true, если книга в кэше
+     */
+    public boolean contains(File file) {
+        return entries.containsKey(key(file));
+    }
+
+    /**
+     * @return сколько байт примерно занимают книги в кэше
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Выгружает дольше всех не открывавшиеся книги, пока кэш не поместится
+     * в бюджет. Книги с несохранёнными изменениями и книги, запись которых
+     * ещё идёт, не выгружаются.
+     *
+     * @return выгруженные книги
+     */
+    public List<File> trim() {
+        List<File> evicted = new ArrayList<>();
+        Iterator<Map.Entry<File, Entry>> it = entries.entrySet().iterator();
+        while (bytes > budget && it.hasNext()) {
+            Map.Entry<File, Entry> next = it.next();
+            if (next.getValue().disk == DiskState.SAVED) {
+                it.remove();
+                bytes -= next.getValue().bytes;
+                evicted.add(next.getKey());
+                EVICTIONS.inc();
+            }
+        }
+        return evicted;
+    }
+
+    private static File key(File file) {
+        return file.getAbsoluteFile();
+    }
+
+    /**
+     * Записана ли книга на диск.
+     */
+    public enum DiskState {
+        /** Все изменения книги на диске. */
+        SAVED,
+        /** Запись книги идёт; её результат придёт в {@link #written}. */
+        WRITING,
+        /** Часть изменений есть только в памяти. */
+        UNSAVED
+    }
+
+    /**
+     * Книга в кэше.
+     */
+    public static final class Entry {
+        private final PersonStore store;
+        private final SyncState syncState;
+        private final long bytes;
+        private boolean current;
+        private DiskState disk;
+
+        Entry(PersonStore store, SyncState syncState, boolean current, DiskState disk) {
+            this.store = store;
+            this.syncState = syncState;
+            this.current = current;
+            this.disk = disk;
+            this.bytes = store.estimateBytes();
+        }
+
+        public PersonStore getStore() {
+            return store;
+        }
+
+        public SyncState getSyncState() {
+            return syncState;
+        }
+
+        /**
+         * @return true, если базовый файл и журнал на диске совпадают с книгой;
+         *         пока запись книги не закончилась, это неизвестно
+         */
+        public boolean isCurrent() {
+            return current && disk != DiskState.WRITING;
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package sample.address.storage;
+
+import sample.address.model.PersonStore;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Форматы файлов адресной книги.
+ */
+public enum BookFormat {
+
+    /**
+     * XML-файл в формате {@link sample.address.model.PersonListWrapper} (JAXB).
+     */
+    XML("XML files (*.xml)", ".xml"),
+
+    /**
+     * Тот же XML, сжатый gzip частями (см. {@link ChunkedGzipOutputStream}).
+     * Части сжимаются и распаковываются параллельно.
+     */
+    COMPRESSED_XML("Compressed XML files (*.xml.gz)", ".xml.gz"),
+
+    /**
+     * Двоичный снимок адресной книги (см. {@link BookSnapshot}).
+     */
+    SNAPSHOT("Binary address books (*.abook)", ".abook");
+
+    private final String description;
+    private final String extension;
+
+    BookFormat(String description, String extension) {
+        this.description = description;
+        this.extension = extension;
+    }
+
+    /**
+     * @return описание для фильтра FileChooser
+     */
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @return расширение файла вместе с точкой, например ".xml"
+     */
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * @return шаблон для фильтра FileChooser, например "*.xml"
+     */
+    public String getPattern() {
+        return "*" + extension;
+    }
+
+    /**
+     * Добавляет расширение формата к файлу, если его там нет.
+     */
+    public File withExtension(File file) {
+        return file.getPath().toLowerCase().endsWith(extension) ? file : new File(file.getPath() + extension);
+    }
+
+    /**
+     * Записывает адресатов из хранилища в файл этого формата.
+     * Не использует объекты JavaFX, поэтому может работать в фоновом потоке.
+     *
+     * @param store хранилище адресатов
+     * @param file  файл для записи
+     * @throws IOException если файл не удалось записать
+     */
+    public void write(PersonStore store, File file) throws IOException {
+        if (this == SNAPSHOT) {
+            BookSnapshot.write(store, file);
+        } else if (this == COMPRESSED_XML) {
+            PersonXmlWriter.writeCompressed(store, file);
+        } else {
+            PersonXmlWriter.write(store, file);
+        }
+    }
+
+    /**
+     * Определяет формат файла по расширению. Любой файл *.gz считается
+     * сжатым XML, всё остальное, что не является двоичным снимком, - XML.
+     */
+    public static BookFormat of(File file) {
+        String name = file.getName().toLowerCase();
+        if (name.endsWith(SNAPSHOT.extension)) {
+            return SNAPSHOT;
+        }
+        return name.endsWith(".gz") ? COMPRESSED_XML : XML;
+    }
+}
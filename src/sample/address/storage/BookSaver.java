@@ -0,0 +1,317 @@
+package sample.address.storage;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import sample.address.metrics.Counter;
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Сохранение адресной книги в фоновом потоке.
+ * <p>
+ * В потоке JavaFX снимается только копия хранилища адресатов (это копирование
+ * нескольких массивов int). Сериализация и запись на диск выполняются
+ * отдельным потоком: данные пишутся во временный файл рядом с книгой,
+ * сбрасываются на диск (fsync) и только затем временный файл атомарно
+ * переименовывается в файл книги, после чего сбрасывается и каталог.
+ * Сбой посреди записи не портит книгу.
+ * <p>
+ * Если сохранение запрошено, пока предыдущая запись ещё идёт, то все такие
+ * запросы сливаются в одну следующую запись, которая снимет уже самую
+ * свежую копию данных.
+ * <p>
+ * Небольшие изменения дописываются в журнал (см. {@link ChangeJournal}):
+ * в потоке JavaFX накопленные записи только забираются из журнала, а
+ * дозапись в файл и fsync выполняет тот же поток записи.
+ * <p>
+ * После удачной записи тот же поток записывает и состояние синхронизации
+ * книги с БД (см. {@link SyncState}): id строк на момент снятия копии.
+ * Если запись книги не удалась, прежнее состояние остаётся на диске.
+ * <p>
+ * Методы вызываются в потоке JavaFX, и обработчики тоже вызываются в нём.
+ */
+public class BookSaver {
+
+    // Метрики (см. Metrics): дозапись журнала, полная запись файла
+    // (от запроса до окончания записи на диск) и неудачные сохранения.
+    private static final Timer JOURNAL_TIMER = Metrics.timer("book.save.journal");
+    private static final Timer FULL_SAVE_TIMER = Metrics.timer("book.save.full");
+    private static final Counter FAILURES = Metrics.counter("book.save.failures");
+
+    private final PersonStoreList list;
+    private final ChangeJournal journal;
+
+    // Один поток записи: записи на диск не перекрываются.
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "book-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ReadOnlyStringWrapper status = new ReadOnlyStringWrapper(this, "status", "");
+
+    private Consumer<File> onSaved = file -> { };
+    private BiConsumer<File, Throwable> onFailed = (file, error) -> { };
+    private BiConsumer<File, Throwable> onWritten = (file, error) -> { };
+    private Supplier<SyncState> syncState = () -> SyncState.EMPTY;
+
+    private boolean writing;
+    // Файл для следующей записи, запрошенной во время текущей, или null.
+    private File followUp;
+    // Увеличивается в forget(): результаты прежних записей больше не нужны.
+    private int generation;
+
+    /**
+     * @param list    список адресатов
+     * @param journal журнал изменений этого списка
+     */
+    public BookSaver(PersonStoreList list, ChangeJournal journal) {
+        this.list = list;
+        this.journal = journal;
+    }
+
+    /**
+     * Состояние сохранения для заголовка окна, например "saved in 12 ms".
+     * Пустая строка, если сохранений ещё не было.
+     */
+    public ReadOnlyStringProperty statusProperty() {
+        return status.getReadOnlyProperty();
+    }
+
+    /**
+     * @return true, если запись на диск ещё идёт
+     */
+    public boolean isWriting() {
+        return writing;
+    }
+
+    /**
+     * Задаёт обработчик успешного сохранения.
+     */
+    public void setOnSaved(Consumer<File> onSaved) {
+        this.onSaved = onSaved;
+    }
+
+    /**
+     * Задаёт обработчик ошибки сохранения.
+     */
+    public void setOnFailed(BiConsumer<File, Throwable> onFailed) {
+        this.onFailed = onFailed;
+    }
+
+    /**
+     * Задаёт обработчик окончания каждой записи на диск, в том числе
+     * забытой ({@link #forget()}): ошибка - null, если запись удалась.
+     * Вызывается раньше обработчиков успеха и ошибки.
+     */
+    public void setOnWritten(BiConsumer<File, Throwable> onWritten) {
+        this.onWritten = onWritten;
+    }
+
+    /**
+     * Задаёт источник состояния синхронизации текущей книги: оно берётся
+     * в начале каждой записи. {@link SyncState#EMPTY} - файл состояния
+     * не пишется.
+     */
+    public void setSyncState(Supplier<SyncState> syncState) {
+        this.syncState = syncState;
+    }
+
+    /**
+     * Сохраняет книгу в указанный файл. Формат файла определяется по расширению.
+     *
+     * @param file файл книги
+     */
+    public void save(File file) {
+        if (writing) {
+            followUp = file;
+            status.set("save queued");
+            return;
+        }
+
+        // id строк БД форматы книги не хранят - они пишутся в файл состояния.
+        SyncState sync = syncState.get();
+        int[] rowIds = sync == SyncState.EMPTY ? null : list.getStore().copyIds();
+
+        if (journal.canAppend(file)) {
+            long start = System.nanoTime();
+            ChangeJournal.Batch batch = journal.takePending();
+            if (batch == null) {
+                // Книга на диске не изменилась, а id строк могли измениться.
+                writer.execute(() -> writeSyncState(sync, rowIds, file));
+                status.set("saved in 0 ms");
+                onSaved.accept(file);
+                return;
+            }
+            int saveGeneration = generation;
+            writing = true;
+
+            writer.execute(() -> {
+                Throwable error = null;
+                try {
+                    batch.write();
+                    writeSyncState(sync, rowIds, file);
+                } catch (Throwable e) {
+                    error = e;
+                }
+                Throwable result = error;
+                Platform.runLater(() -> finishAppend(saveGeneration, file, batch, start, result));
+            });
+            return;
+        }
+
+        long start = System.nanoTime();
+        // Файл книги будет заменён: хранилище, открытое из него, больше не
+        // должно его отображать (см. BookSnapshot).
+        list.getStore().unmap();
+        PersonStore snapshot = list.copyStore();
+        int mark = journal.beginFullSave();
+        int saveGeneration = generation;
+        writing = true;
+        status.set("saving...");
+
+        writer.execute(() -> {
+            Throwable error = null;
+            try {
+                writeAtomically(snapshot, file);
+                writeSyncState(sync, rowIds, file);
+            } catch (Throwable e) {
+                error = e;
+            }
+            Throwable result = error;
+            Platform.runLater(() -> finish(saveGeneration, file, mark, start, result));
+        });
+    }
+
+    /**
+     * Забывает о текущей записи: её результат и отложенная следующая запись
+     * больше не относятся к открытой книге (например, после New).
+     */
+    public void forget() {
+        generation++;
+        followUp = null;
+        status.set("");
+    }
+
+    private void finishAppend(int saveGeneration, File file, ChangeJournal.Batch batch, long start, Throwable error) {
+        writing = false;
+        if (error == null) {
+            journal.appended(batch);
+        } else {
+            journal.appendFailed(batch);
+        }
+        onWritten.accept(file, error);
+        if (saveGeneration == generation) {
+            if (error == null) {
+                JOURNAL_TIMER.stop(start);
+                status.set("saved in " + millisSince(start) + " ms");
+                onSaved.accept(file);
+            } else {
+                FAILURES.inc();
+                status.set("save failed");
+                onFailed.accept(file, error);
+            }
+        }
+        saveFollowUp();
+    }
+
+    private void finish(int saveGeneration, File file, int mark, long start, Throwable error) {
+        writing = false;
+        onWritten.accept(file, error);
+        if (saveGeneration == generation) {
+            if (error == null) {
+                FULL_SAVE_TIMER.stop(start);
+                journal.finishFullSave(file, mark);
+                status.set("saved in " + millisSince(start) + " ms");
+                onSaved.accept(file);
+            } else {
+                FAILURES.inc();
+                status.set("save failed");
+                onFailed.accept(file, error);
+            }
+        }
+        saveFollowUp();
+    }
+
+    private void saveFollowUp() {
+        if (followUp != null) {
+            File next = followUp;
+            followUp = null;
+            save(next);
+        }
+    }
+
+    /**
+     * Записывает снимок во временный файл и переименовывает его в файл книги.
+     */
+    private static void writeAtomically(PersonStore snapshot, File file) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        File tmp = new File(directory, file.getName() + ".saving");
+        try {
+            // Каждый формат (BookFormat.write) сам сбрасывает данные на диск
+            // перед закрытием файла.
+            BookFormat.of(file).write(snapshot, tmp);
+            try {
+                Files.move(tmp.toPath(), file.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            // Само переименование хранится в каталоге: без его сброса сбой
+            // может вернуть прежний файл книги.
+            syncDirectory(directory);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * Сбрасывает на диск содержимое каталога (fsync). В Windows каталог
+     * нельзя открыть как файл - там переименование записывается самой ОС.
+     */
+    private static void syncDirectory(File directory) {
+        try (FileChannel channel = FileChannel.open(directory.toPath(), StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Каталог не открывается (Windows) или не поддерживает fsync.
+        }
+    }
+
+    /**
+     * Записывает состояние синхронизации рядом с только что записанной
+     * книгой. Ошибка не считается ошибкой сохранения: без файла состояния
+     * следующая синхронизация сопоставит строки по хешу содержимого.
+     *
+     * @param rowIds id строк книги или null - состояния нет
+     */
+    private static void writeSyncState(SyncState sync, int[] rowIds, File file) {
+        if (rowIds == null) {
+            return;
+        }
+        try {
+            sync.write(file, rowIds);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static long millisSince(long start) {
+        return (System.nanoTime() - start) / 1_000_000;
+    }
+}
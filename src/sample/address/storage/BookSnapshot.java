@@ -0,0 +1,354 @@
+package sample.address.storage;
+
+import sample.address.model.PersonStore;
+import sample.address.model.StringDictionary;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Двоичный снимок адресной книги (файлы *.abook).
+ * <p>
+ * XML удобно читать человеку, но разбирать большой XML-файл долго.
+ * Снимок повторяет устройство {@link PersonStore} и открывается почти
+ * мгновенно. Структура файла (все числа big-endian):
+ * <pre>
+ * Заголовок, 32 байта:
+ *   int   MAGIC ("ABOK")
+ *   short VERSION
+ *   short RECORD_SIZE (24)
+ *   int   количество записей
+ *   int   количество строк в таблице строк
+ *   long  смещение таблицы строк
+ *   long  смещение записей
+ * Таблица строк:
+ *   int[количество строк + 1] смещения строк от начала данных строк
+ *   byte[] данные строк в UTF-8, каждая строка записана один раз
+ * Записи, по 24 байта (RECORD_SIZE) на адресата, по столбцам,
+ * каждый столбец - int[количество записей]:
+ *   имя, фамилия, улица (номера строк в таблице, -1 - null)
+ *   почтовый индекс
+ *   город (номер строки в таблице)
+ *   день рождения (номер дня от 1970-01-01, Integer.MIN_VALUE - null)
+ * </pre>
+ * <p>
+ * Столбцы записей не читаются: каждый отображается в память (FileChannel.map),
+ * и хранилище читает их прямо из отображения, а в массив копирует столбец
+ * только перед первой записью в него (см. {@link PersonStore#fromMapped}).
+ * Поэтому открытие книги стоит проверки кодов строк, а не копирования всех
+ * записей. Отображение держит файл открытым, и в Windows поверх него нельзя
+ * переименовать новую версию: перед заменой файла книги сохранение вызывает
+ * {@link PersonStore#unmap()}, и отображение освобождается сразу, не
+ * дожидаясь сборщика мусора. Файл книги, пока он отображён, нельзя
+ * изменять на месте - новая версия всегда пишется в другой файл.
+ * <p>
+ * Таблица строк читается через FileChannel блоками по 64 КБ. Строки
+ * создаются лениво - при первом обращении к ним (см. {@link StringDictionary#lazy}).
+ * Объекты Person создаются ещё позже - только для строк, которые показывает
+ * таблица (см. {@link sample.address.model.PersonStoreList}).
+ */
+public final class BookSnapshot {
+
+    private static final int MAGIC = 0x41424F4B;
+    private static final short VERSION = 1;
+    private static final short RECORD_SIZE = 24;
+    private static final int HEADER_SIZE = 32;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int FIELDS = RECORD_SIZE / 4;
+    // Столбцы записей с номерами строк таблицы: имя, фамилия, улица, город.
+    private static final int[] STRING_COLUMNS = {0, 1, 2, 4};
+
+    // Unsafe.invokeCleaner освобождает отображение сразу; null - если
+    // недоступен, тогда отображение освободит сборщик мусора.
+    private static final Object UNSAFE;
+    private static final Method INVOKE_CLEANER;
+
+    static {
+        Object unsafe = null;
+        Method invokeCleaner = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            unsafe = null;
+            invokeCleaner = null;
+        }
+        UNSAFE = unsafe;
+        INVOKE_CLEANER = invokeCleaner;
+    }
+
+    private BookSnapshot() {
+    }
+
+    /**
+     * Читает снимок адресной книги.
+     *
+     * @param file файл *.abook
+     * @return хранилище с адресатами из файла
+     * @throws IOException если файл не удалось прочитать или он повреждён
+     */
+    public static PersonStore read(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            if (fileSize < HEADER_SIZE) {
+                throw new IOException("Not an address book snapshot: " + file);
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+            // Заголовок.
+            buffer.limit(HEADER_SIZE);
+            readFully(channel, buffer, 0, file);
+            if (buffer.getInt(0) != MAGIC) {
+                throw new IOException("Not an address book snapshot: " + file);
+            }
+            if (buffer.getShort(4) != VERSION || buffer.getShort(6) != RECORD_SIZE) {
+                throw new IOException("Unsupported address book snapshot version: " + file);
+            }
+            int recordCount = buffer.getInt(8);
+            int stringCount = buffer.getInt(12);
+            long stringsOffset = buffer.getLong(16);
+            long recordsOffset = buffer.getLong(24);
+            if (recordCount < 0 || stringCount < 0
+                    || stringsOffset < HEADER_SIZE || recordsOffset < HEADER_SIZE
+                    || stringsOffset + 4L * (stringCount + 1) > fileSize
+                    || recordsOffset + (long) RECORD_SIZE * recordCount > fileSize) {
+                throw new IOException("Corrupted address book snapshot: " + file);
+            }
+
+            // Таблица строк: смещения и данные копируем в память целиком,
+            // а сами строки будем создавать по мере надобности.
+            int[] offsets = new int[stringCount + 1];
+            readInts(channel, buffer, stringsOffset, offsets, offsets.length, file);
+            long dataStart = stringsOffset + offsets.length * 4L;
+            int dataLength = offsets[stringCount];
+            if (dataLength < 0 || dataStart + dataLength > fileSize) {
+                throw new IOException("Corrupted address book snapshot: " + file);
+            }
+            for (int i = 0; i < stringCount; i++) {
+                if (offsets[i] < 0 || offsets[i] > offsets[i + 1]) {
+                    throw new IOException("Corrupted address book snapshot: " + file);
+                }
+            }
+            byte[] data = new byte[dataLength];
+            readFully(channel, ByteBuffer.wrap(data), dataStart, file);
+            StringDictionary dictionary = StringDictionary.lazy(stringCount,
+                    code -> new String(data, offsets[code], offsets[code + 1] - offsets[code], StandardCharsets.UTF_8));
+
+            // Отображение не зависит от канала и переживёт его закрытие.
+            MappedByteBuffer[] mappings = new MappedByteBuffer[FIELDS];
+            try {
+                IntBuffer[] columns = new IntBuffer[FIELDS];
+                for (int column = 0; column < FIELDS; column++) {
+                    mappings[column] = channel.map(FileChannel.MapMode.READ_ONLY,
+                            recordsOffset + 4L * recordCount * column, 4L * recordCount);
+                    columns[column] = mappings[column].asIntBuffer();
+                }
+                for (int column : STRING_COLUMNS) {
+                    checkCodes(columns[column], recordCount, stringCount, file);
+                }
+                return PersonStore.fromMapped(dictionary, recordCount, columns, column -> {
+                    unmap(mappings[column]);
+                    mappings[column] = null;
+                });
+            } catch (IOException | RuntimeException e) {
+                for (MappedByteBuffer mapping : mappings) {
+                    unmap(mapping);
+                }
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Записывает адресатов из хранилища в снимок. В таблицу строк попадают
+     * только строки, которые действительно используются.
+     *
+     * @param store хранилище адресатов
+     * @param file  файл *.abook
+     * @throws IOException если файл не удалось записать
+     */
+    public static void write(PersonStore store, File file) throws IOException {
+        int size = store.size();
+        StringDictionary dictionary = store.getDictionary();
+
+        // Перенумеровываем используемые строки словаря подряд.
+        StringRemap remap = new StringRemap(dictionary.size());
+        int[][] columns = new int[FIELDS][size];
+        for (int row = 0; row < size; row++) {
+            columns[0][row] = remap.map(store.getFirstNameCode(row));
+            columns[1][row] = remap.map(store.getLastNameCode(row));
+            columns[2][row] = remap.map(store.getStreetCode(row));
+            columns[3][row] = store.getPostalCode(row);
+            columns[4][row] = remap.map(store.getCityCode(row));
+            columns[5][row] = store.getBirthdayEpochDay(row);
+        }
+
+        int stringCount = remap.count;
+        byte[][] strings = new byte[stringCount][];
+        int[] offsets = new int[stringCount + 1];
+        for (int i = 0; i < stringCount; i++) {
+            strings[i] = dictionary.decode(remap.used[i]).getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + strings[i].length;
+        }
+
+        long stringsOffset = HEADER_SIZE;
+        long recordsOffset = align(stringsOffset + 4L * offsets.length + offsets[stringCount]);
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer out = ByteBuffer.allocateDirect(BUFFER_SIZE);
+            out.putInt(MAGIC);
+            out.putShort(VERSION);
+            out.putShort(RECORD_SIZE);
+            out.putInt(size);
+            out.putInt(stringCount);
+            out.putLong(stringsOffset);
+            out.putLong(recordsOffset);
+
+            for (int offset : offsets) {
+                ensureRoom(channel, out, 4);
+                out.putInt(offset);
+            }
+            for (byte[] bytes : strings) {
+                int written = 0;
+                while (written < bytes.length) {
+                    ensureRoom(channel, out, 1);
+                    int chunk = Math.min(out.remaining(), bytes.length - written);
+                    out.put(bytes, written, chunk);
+                    written += chunk;
+                }
+            }
+            long position = stringsOffset + 4L * offsets.length + offsets[stringCount];
+            for (; position < recordsOffset; position++) {
+                ensureRoom(channel, out, 1);
+                out.put((byte) 0);
+            }
+            for (int[] column : columns) {
+                int written = 0;
+                while (written < column.length) {
+                    ensureRoom(channel, out, 4);
+                    int chunk = Math.min(out.remaining() / 4, column.length - written);
+                    out.asIntBuffer().put(column, written, chunk);
+                    out.position(out.position() + 4 * chunk);
+                    written += chunk;
+                }
+            }
+            flush(channel, out);
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Перенумерация кодов словаря: используемые строки получают номера
+     * 0, 1, 2... в порядке первого появления.
+     */
+    private static final class StringRemap {
+        private final int[] codes;
+        private int[] used = new int[16];
+        private int count;
+
+        StringRemap(int dictionarySize) {
+            codes = new int[dictionarySize];
+            Arrays.fill(codes, -1);
+        }
+
+        int map(int code) {
+            if (code == StringDictionary.NULL_CODE) {
+                return code;
+            }
+            if (codes[code] < 0) {
+                if (count == used.length) {
+                    used = Arrays.copyOf(used, count * 2);
+                }
+                used[count] = code;
+                codes[code] = count++;
+            }
+            return codes[code];
+        }
+    }
+
+    /**
+     * Читает count чисел int с позиции position через буфер чтения.
+     */
+    private static void readInts(FileChannel channel, ByteBuffer buffer, long position,
+                                 int[] target, int count, File file) throws IOException {
+        int done = 0;
+        while (done < count) {
+            int chunk = Math.min(buffer.capacity() / 4, count - done);
+            buffer.clear();
+            buffer.limit(4 * chunk);
+            readFully(channel, buffer, position, file);
+            buffer.flip();
+            buffer.asIntBuffer().get(target, done, chunk);
+            done += chunk;
+            position += 4L * chunk;
+        }
+    }
+
+    /**
+     * Заполняет буфер до предела данными файла с позиции position.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position, File file) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new IOException("Corrupted address book snapshot: " + file);
+            }
+            position += read;
+        }
+    }
+
+    private static void checkCodes(IntBuffer codes, int count, int stringCount, File file) throws IOException {
+        for (int i = 0; i < count; i++) {
+            int code = codes.get(i);
+            if (code < StringDictionary.NULL_CODE || code >= stringCount) {
+                throw new IOException("Corrupted address book snapshot: " + file);
+            }
+        }
+    }
+
+    /**
+     * Освобождает отображение файла, не дожидаясь сборщика мусора.
+     * После этого обращаться к отображению нельзя.
+     */
+    private static void unmap(MappedByteBuffer mapping) {
+        if (mapping == null || INVOKE_CLEANER == null) {
+            return;
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, mapping);
+        } catch (ReflectiveOperationException e) {
+            // Отображение освободит сборщик мусора.
+        }
+    }
+
+    private static long align(long position) {
+        return (position + 7) & ~7L;
+    }
+
+    private static void ensureRoom(FileChannel channel, ByteBuffer out, int bytes) throws IOException {
+        if (out.remaining() < bytes) {
+            flush(channel, out);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer out) throws IOException {
+        out.flip();
+        while (out.hasRemaining()) {
+            channel.write(out);
+        }
+        out.clear();
+    }
+}
@@ -0,0 +1,757 @@
+package sample.address.storage;
+
+import javafx.application.Platform;
+import javafx.collections.ListChangeListener;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+import sample.address.util.DateCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал изменений адресной книги.
+ * <p>
+ * Раньше при каждом сохранении весь список адресатов записывался в файл
+ * заново, даже если изменился один адресат. Журнал запоминает сами
+ * изменения списка (вставка, удаление, изменение строки), а при сохранении
+ * дописывает их в конец файла-спутника "&lt;книга&gt;.journal". Сам файл книги
+ * (базовый файл) при этом не переписывается. При загрузке книги журнал
+ * проигрывается поверх базового файла.
+ * <p>
+ * Источник изменений - слушатель ListChangeListener на списке адресатов.
+ * Изменения свойств Person доходят до него как события обновления строки:
+ * {@link PersonStoreList} сам слушает свойства своих представлений.
+ * <p>
+ * Каждая запись журнала снабжена длиной и контрольной суммой CRC32, поэтому
+ * запись, оборванная сбоем, просто отбрасывается. В заголовке журнала
+ * хранятся длина и время изменения базового файла: если базовый файл
+ * изменили в обход журнала, то журнал не применяется.
+ * <p>
+ * Когда журнал вырастает больше {@link #COMPACT_THRESHOLD} байт, он
+ * "уплотняется" в фоновом потоке: текущее состояние книги записывается
+ * в новый базовый файл, а журнал начинается заново. Новый журнал сначала
+ * записывается в "&lt;книга&gt;.journal.tmp", затем подменяется базовый файл
+ * и только потом журнал. Если сбой придётся между двумя подменами, то при
+ * следующей загрузке подмена журнала доводится до конца.
+ * <p>
+ * Строки в записях хранятся как длина и байты в UTF-8, без ограничения
+ * длины.
+ * <p>
+ * Все методы вызываются в потоке JavaFX, кроме {@link Batch#write()}:
+ * дозапись в файл и fsync выполняет поток записи {@link BookSaver}.
+ */
+public class ChangeJournal {
+
+    /**
+     * Размер журнала, после которого он уплотняется в новый базовый файл.
+     */
+    public static final long COMPACT_THRESHOLD = 8L * 1024 * 1024;
+
+    private static final int MAGIC = 0x414A4E4C;
+    private static final short VERSION = 1;
+    private static final int HEADER_SIZE = 4 + 2 + 8 + 8;
+
+    private static final byte INSERT = 1;
+    private static final byte DELETE = 2;
+    private static final byte UPDATE = 3;
+
+    private final PersonStoreList list;
+    // Поток, в который возвращается результат уплотнения (поток JavaFX).
+    private final Executor fxThread;
+
+    // Базовый файл, к которому относится журнал, или null.
+    private File base;
+    private boolean recording;
+    private boolean suspended;
+
+    // Записи, ещё не дописанные в файл журнала.
+    private final RecordBuffer pending = new RecordBuffer();
+    private int lastUpdateRow = -1;
+    private int lastUpdateStart;
+
+    // Уплотнение: записи, сохранённые после снимка, и номер поколения,
+    // по которому отбрасываются устаревшие результаты уплотнения.
+    private boolean compacting;
+    private final RecordBuffer sinceSnapshot = new RecordBuffer();
+    private int generation;
+    private int markGeneration = -1;
+
+    // Пакет, который сейчас дописывается в журнал, или null. Пока он
+    // дописывается, подмена журнала результатом уплотнения откладывается.
+    private Batch inFlight;
+    private Runnable deferredSwitch;
+    // Позиции в потоке записей журнала: начало несохранённых изменений
+    // и место, на котором снят снимок уплотнения.
+    private long streamStart;
+    private long snapshotPosition;
+
+    /**
+     * Создаёт журнал и подписывается на изменения списка.
+     *
+     * @param list список адресатов
+     */
+    public ChangeJournal(PersonStoreList list) {
+        this(list, Platform::runLater);
+    }
+
+    /**
+     * Создаёт журнал, который возвращает результат уплотнения в указанный
+     * поток вместо потока JavaFX (для тестов).
+     *
+     * @param list     список адресатов
+     * @param fxThread поток, в котором вызываются методы журнала
+     */
+    ChangeJournal(PersonStoreList list, Executor fxThread) {
+        this.list = list;
+        this.fxThread = fxThread;
+        list.addListener(this::onChanged);
+    }
+
+    /**
+     * @return файл журнала для указанного базового файла
+     */
+    public static File journalFile(File base) {
+        return new File(base.getPath() + ".journal");
+    }
+
+    /**
+     * Открывает журнал для только что загруженной книги: проигрывает его
+     * поверх загруженных данных и начинает запись новых изменений.
+     *
+     * @param base базовый файл книги
+     * @return количество применённых записей журнала
+     * @throws IOException если журнал не удалось прочитать
+     */
+    public int open(File base) throws IOException {
+        close();
+        int applied = replay(base);
+        this.base = base;
+        suspended = false;
+        recording = true;
+        return applied;
+    }
+
+    /**
+     * Начинает записывать изменения книги, которая уже в памяти вместе
+     * с изменениями из журнала (например, вернулась из кэша рабочей
+     * области, см. {@link BookCache}): журнал не проигрывается.
+     *
+     * @param base    базовый файл книги
+     * @param current true, если базовый файл и журнал на диске совпадают
+     *                с книгой в памяти; иначе следующее сохранение
+     *                запишет книгу целиком
+     */
+    public void attach(File base, boolean current) {
+        close();
+        suspended = false;
+        if (current) {
+            this.base = base;
+            recording = true;
+        }
+    }
+
+    /**
+     * Отвязывает журнал от книги. Несохранённые изменения забываются.
+     */
+    public void close() {
+        base = null;
+        recording = false;
+        compacting = false;
+        generation++;
+        clearPending();
+        sinceSnapshot.reset();
+    }
+
+    /**
+     * Временно перестаёт записывать изменения (например, на время загрузки книги).
+     */
+    public void suspend() {
+        suspended = true;
+        recording = false;
+    }
+
+    /**
+     * Возобновляет запись изменений после {@link #suspend()}.
+     */
+    public void resume() {
+        suspended = false;
+        recording = base != null;
+    }
+
+    /**
+     * @return true, если журнал ведётся для указанного файла
+     */
+    public boolean isOpenFor(File file) {
+        return base != null && base.equals(file);
+    }
+
+    /**
+     * @return true, если есть изменения, ещё не записанные в журнал
+     */
+    public boolean hasPendingChanges() {
+        return pending.size() > 0;
+    }
+
+    /**
+     * Можно ли сохранить книгу, дописав изменения в журнал. Если изменений
+     * накопилось слишком много (например, список был отсортирован или
+     * заменён целиком), то выгоднее переписать базовый файл.
+     *
+     * @param file файл, в который сохраняется книга
+     * @return true, если изменения можно дописать в журнал
+     */
+    public boolean canAppend(File file) {
+        return isOpenFor(file) && pending.size() < COMPACT_THRESHOLD;
+    }
+
+    /**
+     * Забирает накопленные изменения для дозаписи в файл журнала. Сама
+     * запись ({@link Batch#write()}) выполняется в потоке записи, а её
+     * результат передаётся обратно в {@link #appended} или
+     * {@link #appendFailed}. Одновременно дописывается не больше одного пакета.
+     *
+     * @return пакет записей или null, если дописывать нечего
+     */
+    public Batch takePending() {
+        if (base == null || pending.size() == 0) {
+            return null;
+        }
+        Batch batch = new Batch(base, pending.toByteArray(), streamStart, generation);
+        streamStart += batch.records.length;
+        clearPending();
+        inFlight = batch;
+        return batch;
+    }
+
+    /**
+     * Вызывается, когда пакет дописан в журнал. Если журнал стал слишком
+     * большим, запускает его уплотнение.
+     *
+     * @param batch пакет из {@link #takePending()}
+     */
+    public void appended(Batch batch) {
+        inFlight = null;
+        if (batch.generation == generation) {
+            if (compacting) {
+                // Начало пакета могло уже попасть в снимок уплотнения.
+                int skip = (int) Math.max(0, Math.min(snapshotPosition - batch.position, batch.records.length));
+                sinceSnapshot.write(batch.records, skip, batch.records.length - skip);
+            } else if (batch.length > COMPACT_THRESHOLD) {
+                compact();
+            }
+        }
+        runDeferredSwitch();
+    }
+
+    /**
+     * Вызывается, если пакет не удалось дописать: его записи возвращаются
+     * в начало несохранённых изменений, и следующее сохранение попробует
+     * записать их снова.
+     *
+     * @param batch пакет из {@link #takePending()}
+     */
+    public void appendFailed(Batch batch) {
+        inFlight = null;
+        if (batch.generation == generation) {
+            byte[] later = pending.toByteArray();
+            int laterUpdateRow = lastUpdateRow;
+            int laterUpdateStart = lastUpdateStart;
+            pending.reset();
+            pending.write(batch.records, 0, batch.records.length);
+            pending.write(later, 0, later.length);
+            streamStart = batch.position;
+            lastUpdateRow = laterUpdateRow;
+            lastUpdateStart = laterUpdateStart + batch.records.length;
+        }
+        runDeferredSwitch();
+    }
+
+    /**
+     * Готовит журнал к записи книги целиком: отменяет идущее уплотнение
+     * и запоминает, какие изменения попадут в записываемый снимок.
+     * Изменения, сделанные позже, останутся в журнале.
+     *
+     * @return отметка, которую нужно передать в {@link #finishFullSave}
+     */
+    public int beginFullSave() {
+        compacting = false;
+        generation++;
+        sinceSnapshot.reset();
+        // После отметки записи не сливаются с более ранними.
+        lastUpdateRow = -1;
+        markGeneration = generation;
+        // Новую книгу журнал ещё не вёл - начинаем записывать изменения сейчас.
+        recording = !suspended;
+        return pending.size();
+    }
+
+    /**
+     * Начинает журнал заново после того, как книга целиком записана
+     * в базовый файл. Изменения, сделанные после {@link #beginFullSave()},
+     * остаются несохранёнными.
+     *
+     * @param base базовый файл книги
+     * @param mark отметка, полученная от {@link #beginFullSave()}
+     */
+    public void finishFullSave(File base, int mark) {
+        byte[] tail = markGeneration == generation && mark <= pending.size()
+                ? Arrays.copyOfRange(pending.toByteArray(), mark, pending.size())
+                : new byte[0];
+        close();
+        journalFile(base).delete();
+        this.base = base;
+        recording = !suspended;
+        pending.write(tail, 0, tail.length);
+    }
+
+    /**
+     * Записывает текущее состояние книги в новый базовый файл в фоновом
+     * потоке и начинает журнал заново.
+     */
+    private void compact() {
+        if (suspended || base == null) {
+            // В списке сейчас не книга из base (например, идёт загрузка другой).
+            return;
+        }
+        compacting = true;
+        sinceSnapshot.reset();
+        // Несохранённые изменения уже попадут в снимок, в новый журнал их
+        // переносить не нужно; записи после снимка не сливаются с ними.
+        snapshotPosition = streamStart + pending.size();
+        lastUpdateRow = -1;
+        int compactGeneration = generation;
+        File target = base;
+        // Базовый файл будет заменён - освобождаем его отображение.
+        list.getStore().unmap();
+        PersonStore snapshot = list.copyStore();
+
+        Thread thread = new Thread(() -> {
+            File tmp = new File(target.getPath() + ".tmp");
+            try {
+                BookFormat.of(target).write(snapshot, tmp);
+                fxThread.execute(() -> finishCompaction(compactGeneration, target, tmp));
+            } catch (IOException e) {
+                e.printStackTrace();
+                tmp.delete();
+                fxThread.execute(() -> {
+                    if (generation == compactGeneration) {
+                        compacting = false;
+                    }
+                });
+            }
+        }, "journal-compaction");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Подменяет базовый файл результатом уплотнения. В новый журнал попадают
+     * записи, сохранённые уже после снимка.
+     */
+    private void finishCompaction(int compactGeneration, File target, File tmp) {
+        if (generation != compactGeneration) {
+            // Пока шло уплотнение, книгу закрыли или сохранили целиком.
+            tmp.delete();
+            return;
+        }
+        if (inFlight != null) {
+            // Журнал сейчас дописывается - подменим его, когда запись закончится.
+            deferredSwitch = () -> finishCompaction(compactGeneration, target, tmp);
+            return;
+        }
+        File journal = journalFile(target);
+        File journalTmp = switchFile(journal);
+        try {
+            // Переименование сохраняет время изменения файла, поэтому
+            // заголовок нового журнала можно построить по временному файлу.
+            writeJournal(journalTmp, tmp, sinceSnapshot);
+            Files.move(tmp.toPath(), target.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.move(journalTmp.toPath(), journal.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            dropSnapshotted();
+        } catch (IOException e) {
+            e.printStackTrace();
+            tmp.delete();
+            journalTmp.delete();
+        } finally {
+            compacting = false;
+            sinceSnapshot.reset();
+        }
+    }
+
+    /**
+     * Убирает из несохранённых изменений записи, которые уже вошли в снимок
+     * уплотнения: иначе следующая дозапись добавила бы их в новый журнал
+     * ещё раз, и при загрузке они применились бы дважды.
+     */
+    private void dropSnapshotted() {
+        int count = (int) Math.max(0, Math.min(snapshotPosition - streamStart, pending.size()));
+        if (count == 0) {
+            return;
+        }
+        pending.dropFirst(count);
+        streamStart += count;
+        lastUpdateStart -= count;
+        if (lastUpdateStart < 0) {
+            lastUpdateRow = -1;
+        }
+    }
+
+    /**
+     * Проигрывает журнал поверх загруженных данных.
+     */
+    private int replay(File base) throws IOException {
+        File journal = journalFile(base);
+        recoverCompaction(journal, base);
+        if (!journal.exists()) {
+            return 0;
+        }
+        int applied = 0;
+        long validLength = HEADER_SIZE;
+        long journalLength = journal.length();
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal.toPath()))) {
+            if (!readHeader(in, base)) {
+                // Журнал относится к другой версии базового файла.
+                return 0;
+            }
+            CRC32 crc = new CRC32();
+            while (true) {
+                byte[] record;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > journalLength - validLength - 8) {
+                        break;
+                    }
+                    record = new byte[length];
+                    in.readFully(record);
+                    crc.reset();
+                    crc.update(record, 0, length);
+                    if (in.readInt() != (int) crc.getValue()) {
+                        break;
+                    }
+                } catch (EOFException e) {
+                    // Последняя запись оборвана - отбрасываем её.
+                    break;
+                }
+                if (!apply(record)) {
+                    break;
+                }
+                applied++;
+                validLength += 4 + record.length + 4;
+            }
+        }
+        if (journal.length() > validLength) {
+            // Отрезаем от журнала повреждённый хвост, чтобы новые записи
+            // дописывались после последней целой записи.
+            try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+                file.setLength(validLength);
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * Доводит до конца уплотнение, прерванное сбоем между подменой
+     * базового файла и подменой журнала: базовый файл уже новый, а новый
+     * журнал остался во временном файле. Временный файл от уплотнения,
+     * прерванного раньше, просто удаляется.
+     */
+    private static void recoverCompaction(File journal, File base) throws IOException {
+        File switched = switchFile(journal);
+        if (!switched.exists()) {
+            return;
+        }
+        if (!matchesBase(journal, base) && matchesBase(switched, base)) {
+            Files.move(switched.toPath(), journal.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            switched.delete();
+        }
+    }
+
+    /**
+     * @return true, если журнал есть и относится к этой версии базового файла
+     */
+    private static boolean matchesBase(File journal, File base) throws IOException {
+        if (!journal.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(journal.toPath()))) {
+            return readHeader(in, base);
+        }
+    }
+
+    /**
+     * Читает заголовок журнала.
+     *
+     * @return false, если заголовок не подходит к базовому файлу
+     */
+    private static boolean readHeader(DataInputStream in, File base) throws IOException {
+        try {
+            return in.readInt() == MAGIC && in.readShort() == VERSION
+                    && in.readLong() == base.length() && in.readLong() == base.lastModified();
+        } catch (EOFException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return временный файл, в который записывается новый журнал перед подменой
+     */
+    private static File switchFile(File journal) {
+        return new File(journal.getPath() + ".tmp");
+    }
+
+    /**
+     * Применяет одну запись журнала к списку.
+     *
+     * @return false, если запись не подходит к текущему списку
+     */
+    private boolean apply(byte[] record) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+        byte op = in.readByte();
+        int index = in.readInt();
+        switch (op) {
+            case INSERT:
+                if (index < 0 || index > list.size()) {
+                    return false;
+                }
+                list.add(index, readRow(in));
+                return true;
+            case UPDATE:
+                if (index < 0 || index >= list.size()) {
+                    return false;
+                }
+                list.set(index, readRow(in));
+                return true;
+            case DELETE:
+                int count = in.readInt();
+                if (index < 0 || count < 0 || index + count > list.size()) {
+                    return false;
+                }
+                list.remove(index, index + count);
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Записывает изменения списка в буфер журнала.
+     */
+    private void onChanged(ListChangeListener.Change<? extends Person> change) {
+        if (!recording) {
+            return;
+        }
+        PersonStore store = list.getStore();
+        while (change.next()) {
+            if (change.wasPermutated() || change.wasUpdated()) {
+                for (int row = change.getFrom(); row < change.getTo(); row++) {
+                    writeUpdate(store, row);
+                }
+            } else {
+                if (change.wasRemoved()) {
+                    writeDelete(change.getFrom(), change.getRemovedSize());
+                }
+                for (int row = change.getFrom(); row < change.getTo(); row++) {
+                    writeRow(INSERT, store, row);
+                }
+            }
+        }
+    }
+
+    private void writeUpdate(PersonStore store, int row) {
+        // Диалог редактирования меняет поля по одному - несколько изменений
+        // одной и той же строки подряд сводим в одну запись.
+        if (lastUpdateRow == row) {
+            pending.truncate(lastUpdateStart);
+        }
+        int start = pending.size();
+        writeRow(UPDATE, store, row);
+        lastUpdateRow = row;
+        lastUpdateStart = start;
+    }
+
+    private void writeDelete(int index, int count) {
+        try {
+            DataOutputStream out = pending.beginRecord();
+            out.writeByte(DELETE);
+            out.writeInt(index);
+            out.writeInt(count);
+            pending.endRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        lastUpdateRow = -1;
+    }
+
+    private void writeRow(byte op, PersonStore store, int row) {
+        try {
+            DataOutputStream out = pending.beginRecord();
+            out.writeByte(op);
+            out.writeInt(row);
+            writeString(out, store.getFirstName(row));
+            writeString(out, store.getLastName(row));
+            writeString(out, store.getStreet(row));
+            out.writeInt(store.getPostalCode(row));
+            writeString(out, store.getCity(row));
+            out.writeInt(store.getBirthdayEpochDay(row));
+            pending.endRecord();
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        lastUpdateRow = -1;
+    }
+
+    private static Person readRow(DataInputStream in) throws IOException {
+        Person person = new Person(readString(in), readString(in));
+        person.setStreet(readString(in));
+        person.setPostalCode(in.readInt());
+        person.setCity(readString(in));
+        person.setBirthday(DateCodec.toLocalDate(in.readInt()));
+        return person;
+    }
+
+    /**
+     * Записывает строку как длину в байтах (-1 для null) и байты в UTF-8.
+     * В отличие от writeUTF, длина строки не ограничена 64 КБ.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Corrupted journal record");
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void runDeferredSwitch() {
+        Runnable task = deferredSwitch;
+        deferredSwitch = null;
+        if (task != null) {
+            task.run();
+        }
+    }
+
+    private void clearPending() {
+        pending.reset();
+        lastUpdateRow = -1;
+    }
+
+    /**
+     * Записывает новый файл журнала: заголовок и, если есть, готовые записи.
+     */
+    private static void writeJournal(File journal, File base, RecordBuffer records) throws IOException {
+        try (FileOutputStream file = new FileOutputStream(journal)) {
+            DataOutputStream out = new DataOutputStream(file);
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(base.length());
+            out.writeLong(base.lastModified());
+            if (records != null) {
+                records.writeTo(out);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+    }
+
+    /**
+     * Пакет записей, забранный для дозаписи в журнал.
+     */
+    public static final class Batch {
+        private final File base;
+        private final byte[] records;
+        private final long position;
+        private final int generation;
+        private long length;
+
+        private Batch(File base, byte[] records, long position, int generation) {
+            this.base = base;
+            this.records = records;
+            this.position = position;
+            this.generation = generation;
+        }
+
+        /**
+         * Дописывает записи в конец файла журнала и сбрасывает его на диск
+         * (fsync). Вызывается в потоке записи, а не в потоке JavaFX.
+         *
+         * @throws IOException если журнал не удалось записать
+         */
+        public void write() throws IOException {
+            File journal = journalFile(base);
+            if (!journal.exists() || journal.length() < HEADER_SIZE) {
+                writeJournal(journal, base, null);
+            }
+            try (FileOutputStream out = new FileOutputStream(journal, true)) {
+                out.write(records);
+                out.getFD().sync();
+            }
+            length = journal.length();
+        }
+    }
+
+    /**
+     * Буфер записей журнала. Каждая запись обрамляется длиной и CRC32.
+     */
+    private static class RecordBuffer extends ByteArrayOutputStream {
+        private final ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+        private final CRC32 crc = new CRC32();
+
+        DataOutputStream beginRecord() {
+            record.reset();
+            return recordOut;
+        }
+
+        void endRecord() throws IOException {
+            byte[] bytes = record.toByteArray();
+            crc.reset();
+            crc.update(bytes, 0, bytes.length);
+            DataOutputStream out = new DataOutputStream(this);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+            out.writeInt((int) crc.getValue());
+        }
+
+        void truncate(int size) {
+            count = size;
+        }
+
+        void dropFirst(int size) {
+            System.arraycopy(buf, size, buf, 0, count - size);
+            count -= size;
+        }
+    }
+}
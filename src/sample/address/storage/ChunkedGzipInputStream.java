@@ -0,0 +1,274 @@
+package sample.address.storage;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+
+import static sample.address.storage.ChunkedGzipOutputStream.EMPTY_DEFLATE;
+import static sample.address.storage.ChunkedGzipOutputStream.HEADER_SIZE;
+import static sample.address.storage.ChunkedGzipOutputStream.INDEX_HEADER_SIZE;
+import static sample.address.storage.ChunkedGzipOutputStream.TRAILER_SIZE;
+
+/**
+ * Параллельная распаковка файла, записанного {@link ChunkedGzipOutputStream}.
+ * <p>
+ * По индексу в конце файла части читаются и распаковываются в нескольких
+ * потоках с опережением, а отдаются читателю строго по порядку - так что
+ * для {@link PersonXmlReader} это обычный поток документа. Опережение
+ * ограничено, поэтому в памяти одновременно лишь несколько частей.
+ * <p>
+ * Файлы, сжатые вручную (gzip без индекса), и несжатые файлы тоже
+ * открываются - см. {@link #open(File)}, - но читаются последовательно.
+ */
+public class ChunkedGzipInputStream extends InputStream {
+
+    private static final byte[] NO_DATA = new byte[0];
+
+    private final FileChannel channel;
+    private final long[] offsets;
+    private final int[] compressedSizes;
+    private final int[] sizes;
+    private final long length;
+    private final int maxAhead = 2 * Runtime.getRuntime().availableProcessors();
+    private final ArrayDeque<Future<byte[]>> ahead = new ArrayDeque<>();
+    private int next;
+    private byte[] current = NO_DATA;
+    private int position;
+
+    private ChunkedGzipInputStream(FileChannel channel, int[] compressedSizes, int[] sizes) {
+        this.channel = channel;
+        this.compressedSizes = compressedSizes;
+        this.sizes = sizes;
+        this.offsets = new long[sizes.length];
+        long offset = 0;
+        long total = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            offsets[i] = offset;
+            offset += compressedSizes[i];
+            total += sizes[i];
+        }
+        this.length = total;
+        while (next < sizes.length && ahead.size() < maxAhead) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Открывает файл адресной книги для чтения: сжатый с индексом - с
+     * параллельной распаковкой, просто сжатый gzip - через
+     * {@link GZIPInputStream}, несжатый - как есть. Формат определяется
+     * по содержимому, а не по расширению.
+     *
+     * @param file файл
+     * @return поток распакованных данных
+     * @throws IOException если файл не удалось открыть
+     */
+    public static InputStream open(File file) throws IOException {
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer magic = read(channel, 0, (int) Math.min(2, channel.size()));
+            if (magic.remaining() < 2 || magic.get(0) != 0x1f || magic.get(1) != (byte) 0x8b) {
+                channel.close();
+                return new FileInputStream(file);
+            }
+            ChunkedGzipInputStream indexed = readIndex(channel);
+            if (indexed != null) {
+                return indexed;
+            }
+            channel.close();
+            return new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024), 64 * 1024);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return длина распакованных данных в байтах
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Ищет индекс в пустом члене gzip в конце файла.
+     *
+     * @return поток или null, если индекса нет
+     */
+    private static ChunkedGzipInputStream readIndex(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int tail = 4 + EMPTY_DEFLATE.length + TRAILER_SIZE;
+        if (size < INDEX_HEADER_SIZE + tail) {
+            return null;
+        }
+        ByteBuffer end = read(channel, size - tail, tail);
+        if (end.get(4) != EMPTY_DEFLATE[0] || end.get(5) != EMPTY_DEFLATE[1] || end.getLong(6) != 0) {
+            return null;
+        }
+        int chunks = end.getInt(0);
+        if (chunks < 0 || chunks > ChunkedGzipOutputStream.MAX_INDEX_ENTRIES) {
+            return null;
+        }
+        int indexLength = 8 * chunks + 4;
+        long start = size - EMPTY_DEFLATE.length - TRAILER_SIZE - indexLength - INDEX_HEADER_SIZE;
+        if (start < 0) {
+            return null;
+        }
+        ByteBuffer index = read(channel, start, INDEX_HEADER_SIZE + indexLength);
+        if (index.get(0) != 0x1f || index.get(1) != (byte) 0x8b || index.get(2) != 8 || index.get(3) != 4
+                || (index.getShort(HEADER_SIZE) & 0xFFFF) != indexLength + 4
+                || index.get(HEADER_SIZE + 2) != ChunkedGzipOutputStream.INDEX_ID1
+                || index.get(HEADER_SIZE + 3) != ChunkedGzipOutputStream.INDEX_ID2
+                || (index.getShort(HEADER_SIZE + 4) & 0xFFFF) != indexLength) {
+            return null;
+        }
+        int[] compressedSizes = new int[chunks];
+        int[] sizes = new int[chunks];
+        long total = 0;
+        for (int i = 0; i < chunks; i++) {
+            compressedSizes[i] = index.getInt(INDEX_HEADER_SIZE + 8 * i);
+            sizes[i] = index.getInt(INDEX_HEADER_SIZE + 8 * i + 4);
+            if (compressedSizes[i] < HEADER_SIZE + TRAILER_SIZE || sizes[i] < 0) {
+                return null;
+            }
+            total += compressedSizes[i];
+        }
+        // Части должны занимать ровно всё место до индекса.
+        return total == start ? new ChunkedGzipInputStream(channel, compressedSizes, sizes) : null;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (position == current.length && !advance()) {
+            return -1;
+        }
+        return current[position++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position == current.length && !advance()) {
+            return -1;
+        }
+        int n = Math.min(len, current.length - position);
+        System.arraycopy(current, position, b, off, n);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public int available() {
+        return current.length - position;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> future : ahead) {
+            future.cancel(false);
+        }
+        ahead.clear();
+        current = NO_DATA;
+        position = 0;
+        channel.close();
+    }
+
+    /**
+     * Переходит к следующей распакованной части и ставит в очередь ещё одну.
+     *
+     * @return false, если части кончились
+     */
+    private boolean advance() throws IOException {
+        while (position == current.length) {
+            Future<byte[]> future = ahead.poll();
+            if (future == null) {
+                return false;
+            }
+            if (next < sizes.length) {
+                submitNext();
+            }
+            try {
+                current = future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Decompression interrupted");
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    private void submitNext() {
+        int chunk = next++;
+        ahead.add(ChunkedGzipOutputStream.CODERS.submit(() -> decompress(chunk)));
+    }
+
+    /**
+     * Читает и распаковывает одну часть; проверяет её контрольную сумму.
+     */
+    private byte[] decompress(int chunk) throws IOException {
+        ByteBuffer member = read(channel, offsets[chunk], compressedSizes[chunk]);
+        int end = member.limit() - TRAILER_SIZE;
+        if (member.get(0) != 0x1f || member.get(1) != (byte) 0x8b || member.get(2) != 8 || member.get(3) != 0) {
+            throw new IOException("Damaged compressed chunk " + chunk + ": no gzip header");
+        }
+        byte[] data = new byte[sizes[chunk]];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(member.array(), HEADER_SIZE, end - HEADER_SIZE);
+            int size = 0;
+            while (size < data.length && !inflater.finished()) {
+                int n = inflater.inflate(data, size, data.length - size);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                size += n;
+            }
+            CRC32 crc = new CRC32();
+            crc.update(data, 0, size);
+            if (size != data.length || member.getInt(end + 4) != data.length
+                    || member.getInt(end) != (int) crc.getValue()) {
+                throw new IOException("Damaged compressed chunk " + chunk + ": checksum mismatch");
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged compressed chunk " + chunk, e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    /**
+     * Читает участок файла целиком; позиция канала не меняется, поэтому
+     * читать можно из нескольких потоков сразу.
+     */
+    private static ByteBuffer read(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of compressed file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,281 @@
+package sample.address.storage;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Сжатие в gzip из нескольких независимых частей (multi-member gzip,
+ * RFC 1952) с индексом. Поток режется на части по {@link #CHUNK_SIZE}
+ * байт, каждая часть сжимается отдельно - в несколько потоков сразу - и
+ * пишется в файл как самостоятельный член gzip. Получается обычный
+ * gzip-файл: gunzip и zcat распаковывают его в исходный документ.
+ * <p>
+ * В конце файла пишется ещё один, пустой член gzip. В его заголовке
+ * (поле FEXTRA, подполе "AI") лежит индекс частей - по нему
+ * {@link ChunkedGzipInputStream} распаковывает части параллельно:
+ * <pre>
+ *   для каждой части: int размер сжатой части (вместе с заголовком gzip), int размер исходных данных
+ *   int количество частей
+ * </pre>
+ * Числа little-endian, как и все числа в формате gzip. За индексом идут
+ * только пустой блок deflate и конец члена gzip (10 байт), поэтому индекс
+ * легко найти с конца файла. Если частей больше {@link #MAX_INDEX_ENTRIES}, индекс не
+ * пишется, и файл читается последовательно.
+ */
+public class ChunkedGzipOutputStream extends OutputStream {
+
+    /**
+     * Размер части до сжатия.
+     */
+    static final int CHUNK_SIZE = 1024 * 1024;
+
+    /**
+     * Длина заголовка члена gzip без дополнительных полей.
+     */
+    static final int HEADER_SIZE = 10;
+
+    /**
+     * Длина конца члена gzip: CRC32 и размер исходных данных.
+     */
+    static final int TRAILER_SIZE = 8;
+
+    /**
+     * Заголовок пустого члена gzip до индекса: основной заголовок,
+     * XLEN, идентификатор подполя и его длина.
+     */
+    static final int INDEX_HEADER_SIZE = HEADER_SIZE + 2 + 4;
+
+    /**
+     * Пустой блок deflate, которым заканчивается член gzip с индексом.
+     */
+    static final byte[] EMPTY_DEFLATE = {3, 0};
+
+    /**
+     * Больше частей в индекс не помещается: длина поля FEXTRA - 16 бит.
+     */
+    static final int MAX_INDEX_ENTRIES = (0xFFFF - 4 - 4) / 8;
+
+    static final byte INDEX_ID1 = 'A';
+    static final byte INDEX_ID2 = 'I';
+
+    /**
+     * Потоки сжатия и распаковки частей, общие для всех файлов.
+     */
+    static final ExecutorService CODERS = createCoders();
+
+    private final OutputStream out;
+    private final int maxInFlight = 2 * Runtime.getRuntime().availableProcessors();
+    private final ArrayDeque<Future<byte[]>> inFlight = new ArrayDeque<>();
+    // Размеры частей до и после сжатия - для индекса.
+    private int[] sizes = new int[64];
+    private int[] compressedSizes = new int[64];
+    private int chunks;
+    private int written;
+    private byte[] buffer = new byte[CHUNK_SIZE];
+    private int count;
+    private boolean finished;
+
+    /**
+     * @param out поток, в который пишется сжатый файл
+     */
+    public ChunkedGzipOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            submit();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (count == buffer.length) {
+                submit();
+            }
+            int n = Math.min(len, buffer.length - count);
+            System.arraycopy(b, off, buffer, count, n);
+            count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Сбрасывает уже сжатые части. Недописанная часть не обрезается -
+     * иначе частые flush() испортили бы сжатие.
+     */
+    @Override
+    public void flush() throws IOException {
+        while (!inFlight.isEmpty() && inFlight.peek().isDone()) {
+            drain();
+        }
+        out.flush();
+    }
+
+    /**
+     * Дописывает последнюю часть и индекс. Поток назначения не закрывается.
+     *
+     * @throws IOException если запись не удалась
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        try {
+            if (count > 0 || chunks == 0) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                drain();
+            }
+            if (chunks <= MAX_INDEX_ENTRIES) {
+                writeIndex();
+            }
+            out.flush();
+            finished = true;
+        } finally {
+            for (Future<byte[]> future : inFlight) {
+                future.cancel(false);
+            }
+            inFlight.clear();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Отдаёт накопленную часть на сжатие. Если сжимается уже слишком
+     * много частей, сначала ждёт и пишет самую старую.
+     */
+    private void submit() throws IOException {
+        while (inFlight.size() >= maxInFlight) {
+            drain();
+        }
+        byte[] data = buffer;
+        int length = count;
+        inFlight.add(CODERS.submit(() -> compress(data, length)));
+        if (chunks == sizes.length) {
+            sizes = Arrays.copyOf(sizes, chunks * 2);
+            compressedSizes = Arrays.copyOf(compressedSizes, chunks * 2);
+        }
+        sizes[chunks++] = length;
+        buffer = new byte[CHUNK_SIZE];
+        count = 0;
+    }
+
+    /**
+     * Ждёт самую старую часть и пишет её в файл.
+     */
+    private void drain() throws IOException {
+        byte[] member;
+        try {
+            member = inFlight.peek().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Compression interrupted");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress a chunk", e.getCause());
+        }
+        inFlight.remove();
+        out.write(member);
+        compressedSizes[written++] = member.length;
+    }
+
+    private void writeIndex() throws IOException {
+        int length = 8 * chunks + 4;
+        byte[] index = new byte[length];
+        for (int i = 0; i < chunks; i++) {
+            putIntLE(index, 8 * i, compressedSizes[i]);
+            putIntLE(index, 8 * i + 4, sizes[i]);
+        }
+        putIntLE(index, 8 * chunks, chunks);
+        byte[] header = new byte[INDEX_HEADER_SIZE];
+        writeHeader(header, true);
+        putShortLE(header, HEADER_SIZE, length + 4);
+        header[HEADER_SIZE + 2] = INDEX_ID1;
+        header[HEADER_SIZE + 3] = INDEX_ID2;
+        putShortLE(header, HEADER_SIZE + 4, length);
+        out.write(header);
+        out.write(index);
+        out.write(EMPTY_DEFLATE);
+        // CRC32 и размер пустых данных - нули.
+        out.write(new byte[TRAILER_SIZE]);
+    }
+
+    /**
+     * Сжимает часть в самостоятельный член gzip.
+     */
+    private static byte[] compress(byte[] data, int length) {
+        byte[] member = new byte[HEADER_SIZE + length + (length >> 10) + 64 + TRAILER_SIZE];
+        writeHeader(member, false);
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        int size = HEADER_SIZE;
+        try {
+            deflater.setInput(data, 0, length);
+            deflater.finish();
+            while (!deflater.finished()) {
+                if (size == member.length - TRAILER_SIZE) {
+                    member = Arrays.copyOf(member, member.length * 2);
+                }
+                size += deflater.deflate(member, size, member.length - TRAILER_SIZE - size);
+            }
+        } finally {
+            deflater.end();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        putIntLE(member, size, (int) crc.getValue());
+        putIntLE(member, size + 4, length);
+        return Arrays.copyOf(member, size + TRAILER_SIZE);
+    }
+
+    private static void writeHeader(byte[] header, boolean extra) {
+        header[0] = 0x1f;
+        header[1] = (byte) 0x8b;
+        // CM: deflate; FLG: только FEXTRA у индекса; MTIME и XFL - нули.
+        header[2] = 8;
+        header[3] = (byte) (extra ? 4 : 0);
+        // OS: неизвестна.
+        header[9] = (byte) 0xff;
+    }
+
+    private static void putShortLE(byte[] bytes, int offset, int value) {
+        bytes[offset] = (byte) value;
+        bytes[offset + 1] = (byte) (value >>> 8);
+    }
+
+    private static void putIntLE(byte[] bytes, int offset, int value) {
+        putShortLE(bytes, offset, value);
+        putShortLE(bytes, offset + 2, value >>> 16);
+    }
+
+    private static ExecutorService createCoders() {
+        AtomicInteger number = new AtomicInteger();
+        return Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "book-gzip-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,134 @@
+package sample.address.storage;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+import sample.address.model.StringDictionary;
+
+import java.io.File;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Фоновая задача загрузки адресной книги из XML-файла.
+ * <p>
+ * Файл читается потоково через {@link PersonXmlReader}, адресаты
+ * складываются в пачки по {@link #BATCH_SIZE} штук, и каждая пачка
+ * добавляется в целевой список в потоке JavaFX (Platform.runLater).
+ * Так окно не замирает, а таблица заполняется по мере чтения файла.
+ * <p>
+ * Пачки - это {@link PersonStore} со словарём строк целевого списка:
+ * объекты Person не создаются, повторяющиеся строки сразу становятся
+ * кодами словаря, а в список пачка попадает копированием кодов.
+ * <p>
+ * Чтобы очередь событий JavaFX не переполнялась, одновременно в ней
+ * может находиться не больше {@link #MAX_PENDING_BATCHES} пачек -
+ * читающий поток ждёт, пока интерфейс их разберёт.
+ * <p>
+ * Большой несжатый XML разбирается параллельно по участкам
+ * (см. {@link ParallelPersonXmlReader}), пачки при этом идут в список
+ * в том же порядке, что и в файле.
+ * <p>
+ * Прогресс считается по прочитанным байтам документа (у сжатого файла -
+ * по распакованным). Задачу можно отменить
+ * методом cancel() - пачки, которые не успели попасть в список,
+ * будут отброшены.
+ */
+public class LoadPersonsTask extends Task<Integer> {
+
+    /**
+     * Количество адресатов в одной пачке.
+     */
+    public static final int BATCH_SIZE = 2000;
+
+    /**
+     * Сколько пачек может одновременно ждать своей очереди в потоке JavaFX.
+     */
+    private static final int MAX_PENDING_BATCHES = 4;
+
+    private final File file;
+    private final PersonStoreList target;
+    private final StringDictionary dictionary;
+    private final Semaphore pending = new Semaphore(MAX_PENDING_BATCHES);
+
+    /**
+     * @param file   XML-файл адресатов, возможно сжатый gzip
+     * @param target список, в который добавляются адресаты (изменяется только в потоке JavaFX)
+     */
+    public LoadPersonsTask(File file, PersonStoreList target) {
+        this.file = file;
+        this.target = target;
+        this.dictionary = target.getStore().getDictionary();
+        updateTitle(file.getName());
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        int count = ParallelPersonXmlReader.isSuitable(file) ? readParallel() : readSequential();
+        if (isCancelled()) {
+            return count;
+        }
+        // Ждём, пока все пачки окажутся в списке.
+        pending.acquire(MAX_PENDING_BATCHES);
+        pending.release(MAX_PENDING_BATCHES);
+        updateProgress(1, 1);
+        updateMessage("Loaded " + count + " persons");
+        return count;
+    }
+
+    private int readSequential() throws Exception {
+        int count = 0;
+        try (PersonXmlReader reader = new PersonXmlReader(file)) {
+            PersonStore batch = new PersonStore(dictionary);
+            while (reader.next(batch)) {
+                if (isCancelled()) {
+                    return count;
+                }
+                count++;
+                if (batch.size() == BATCH_SIZE) {
+                    publish(batch);
+                    batch = new PersonStore(dictionary);
+                    updateProgress(reader.getBytesRead(), reader.getLength());
+                    updateMessage("Loaded " + count + " persons");
+                }
+            }
+            if (batch.size() > 0) {
+                publish(batch);
+            }
+        }
+        return count;
+    }
+
+    private int readParallel() throws Exception {
+        int count = 0;
+        try (ParallelPersonXmlReader reader = new ParallelPersonXmlReader(file, dictionary)) {
+            PersonStore persons;
+            while ((persons = reader.nextBatch()) != null) {
+                if (isCancelled()) {
+                    return count;
+                }
+                publish(persons);
+                count += persons.size();
+                updateProgress(reader.getBytesRead(), reader.getLength());
+                updateMessage("Loaded " + count + " persons");
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Передаёт пачку адресатов в поток JavaFX.
+     */
+    private void publish(PersonStore batch) throws InterruptedException {
+        pending.acquire();
+        Platform.runLater(() -> {
+            try {
+                if (!isCancelled()) {
+                    target.addAll(batch);
+                }
+            } finally {
+                pending.release();
+            }
+        });
+    }
+}
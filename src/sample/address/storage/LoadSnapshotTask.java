@@ -0,0 +1,45 @@
+package sample.address.storage;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+
+import java.io.File;
+
+/**
+ * Фоновая задача загрузки двоичного снимка адресной книги (см. {@link BookSnapshot}).
+ * <p>
+ * Снимок читается целиком в новое хранилище, после чего содержимое
+ * целевого списка заменяется одним изменением в потоке JavaFX.
+ */
+public class LoadSnapshotTask extends Task<Integer> {
+
+    private final File file;
+    private final PersonStoreList target;
+
+    /**
+     * @param file   файл *.abook
+     * @param target список, содержимое которого будет заменено
+     */
+    public LoadSnapshotTask(File file, PersonStoreList target) {
+        this.file = file;
+        this.target = target;
+        updateTitle(file.getName());
+    }
+
+    @Override
+    protected Integer call() throws Exception {
+        updateMessage("Opening " + file.getName());
+        updateProgress(-1, 1);
+        PersonStore store = BookSnapshot.read(file);
+        Platform.runLater(() -> {
+            if (!isCancelled()) {
+                target.setAll(store);
+            }
+        });
+        updateProgress(1, 1);
+        updateMessage("Loaded " + store.size() + " persons");
+        return store.size();
+    }
+}
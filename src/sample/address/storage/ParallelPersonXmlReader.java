@@ -0,0 +1,377 @@
+package sample.address.storage;
+
+import sample.address.model.PersonStore;
+import sample.address.model.StringDictionary;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Параллельное чтение адресной книги в формате {@link sample.address.model.PersonListWrapper}.
+ * <p>
+ * Файл отображается в память и делится на участки примерно по
+ * {@link #RANGE_SIZE} байт; границы участков сдвигаются на начало
+ * ближайшего тега &lt;person&gt;. Каждый участок оборачивается в
+ * &lt;persons&gt;...&lt;/persons&gt; и разбирается обычным
+ * {@link PersonXmlReader} в общем пуле fork-join, так что адресаты
+ * и их даты получаются точно такими же, как при последовательном чтении.
+ * {@link #nextBatch()} отдаёт адресатов участков строго в порядке документа.
+ * <p>
+ * Каждый участок разбирается со своим словарём строк, чтобы задачи не
+ * ждали друг друга на блокировке общего словаря. {@link #nextBatch()}
+ * переводит пачку на общий словарь: каждая различная строка участка
+ * кодируется в нём один раз, а коды в столбцах заменяются по таблице.
+ * Поэтому пачки можно добавлять в хранилище с общим словарём простым
+ * копированием кодов.
+ * <p>
+ * Если участок не разбирается (в документе есть комментарии, CDATA,
+ * DOCTYPE или вложенные элементы, на которые граница легла неудачно,
+ * или файл просто повреждён), чтение продолжается последовательно
+ * с того адресата, на котором остановилось, - результат от этого
+ * не меняется, а ошибка в повреждённом файле будет та же, что и без
+ * параллельного разбора.
+ */
+public class ParallelPersonXmlReader implements AutoCloseable {
+
+    /**
+     * Системное свойство: false - всегда читать XML последовательно.
+     */
+    public static final String PARALLEL_PROPERTY = "address.xml.parallel";
+
+    /**
+     * Размер участка, который разбирается одной задачей.
+     */
+    static final int RANGE_SIZE = 1024 * 1024;
+
+    /**
+     * Файлы меньше этого размера быстрее прочитать последовательно.
+     */
+    static final long MIN_PARALLEL_LENGTH = 4L * RANGE_SIZE;
+
+    /**
+     * Сколько адресатов отдавать за раз после перехода на последовательное чтение.
+     */
+    private static final int SEQUENTIAL_BATCH = 2000;
+
+    private static final byte[] ROOT_START = "<persons>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] ROOT_END = "</persons>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] PERSON_TAG = "<person".getBytes(StandardCharsets.UTF_8);
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']*)[\"']");
+
+    private final File file;
+    private final StringDictionary dictionary;
+    private final FileChannel channel;
+    private final MappedByteBuffer data;
+    private final long[] bounds;
+    private final int maxAhead = 2 * ForkJoinPool.getCommonPoolParallelism() + 2;
+    private final ArrayDeque<Future<PersonStore>> ahead = new ArrayDeque<>();
+    private int next;
+    private int consumed;
+    private long returned;
+    private PersonXmlReader sequential;
+
+    /**
+     * Можно ли читать файл параллельно: несжатый XML не меньше
+     * {@link #MIN_PARALLEL_LENGTH} и параллельный разбор не выключен
+     * свойством {@link #PARALLEL_PROPERTY}.
+     */
+    public static boolean isSuitable(File file) {
+        if (!Boolean.parseBoolean(System.getProperty(PARALLEL_PROPERTY, "true"))
+                || ForkJoinPool.getCommonPoolParallelism() < 2
+                || BookFormat.of(file) != BookFormat.XML) {
+            return false;
+        }
+        long length = file.length();
+        return length >= MIN_PARALLEL_LENGTH && length <= Integer.MAX_VALUE;
+    }
+
+    /**
+     * Открывает файл и начинает разбирать первые участки.
+     *
+     * @param file       XML-файл адресатов, не больше 2 ГБ
+     * @param dictionary словарь строк для пачек
+     * @throws IOException если файл не удалось открыть
+     */
+    public ParallelPersonXmlReader(File file, StringDictionary dictionary) throws IOException {
+        this.file = file;
+        this.dictionary = dictionary;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        this.bounds = split(data);
+        while (next < bounds.length - 1 && ahead.size() < maxAhead) {
+            submitNext();
+        }
+    }
+
+    /**
+     * Делит документ на участки. Первый участок начинается с начала файла
+     * (пролог и открывающий тег корня), последний кончается в конце файла.
+     *
+     * @return границы участков: участок i - [bounds[i], bounds[i + 1])
+     */
+    private static long[] split(ByteBuffer data) {
+        int length = data.limit();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        // Всё до первого <person> - пролог и открывающий тег корня, это начало первого участка.
+        int position = findPerson(data, 0);
+        if (position < 0 || !isUtf8Prolog(data, position)) {
+            return new long[]{0, length};
+        }
+        while (position >= 0) {
+            position = findPerson(data, position + RANGE_SIZE);
+            if (position >= 0) {
+                bounds.add((long) position);
+            }
+        }
+        bounds.add((long) length);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Ищет открывающий тег &lt;person&gt; (но не &lt;persons&gt;) начиная с from.
+     *
+     * @return позиция '&lt;' или -1
+     */
+    private static int findPerson(ByteBuffer data, int from) {
+        int last = data.limit() - PERSON_TAG.length - 1;
+        search:
+        for (int i = Math.max(from, 0); i <= last; i++) {
+            if (data.get(i) != '<') {
+                continue;
+            }
+            for (int j = 1; j < PERSON_TAG.length; j++) {
+                if (data.get(i + j) != PERSON_TAG[j]) {
+                    continue search;
+                }
+            }
+            byte after = data.get(i + PERSON_TAG.length);
+            if (after == '>' || after == '/' || after == ' ' || after == '\t' || after == '\r' || after == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Участки, кроме первого, читаются без пролога - как UTF-8. Если пролог
+     * объявляет другую кодировку или DOCTYPE, делить файл нельзя.
+     */
+    private static boolean isUtf8Prolog(ByteBuffer data, int end) {
+        byte[] bytes = new byte[end];
+        data.duplicate().get(bytes);
+        String prolog = new String(bytes, StandardCharsets.ISO_8859_1).toLowerCase(Locale.ROOT);
+        if (prolog.contains("<!doctype")) {
+            return false;
+        }
+        Matcher encoding = ENCODING.matcher(prolog);
+        if (!encoding.find()) {
+            return true;
+        }
+        String declared = encoding.group(1);
+        return declared.equals("utf-8") || declared.equals("utf8") || declared.equals("us-ascii");
+    }
+
+    /**
+     * Возвращает адресатов следующего участка документа.
+     *
+     * @return адресаты (пачка может быть пустой) или null, если документ закончился
+     * @throws IOException        если файл не удалось прочитать
+     * @throws XMLStreamException если документ повреждён
+     */
+    public PersonStore nextBatch() throws IOException, XMLStreamException {
+        if (sequential != null) {
+            return nextSequential();
+        }
+        Future<PersonStore> future = ahead.poll();
+        if (future == null) {
+            return null;
+        }
+        if (next < bounds.length - 1) {
+            submitNext();
+        }
+        PersonStore persons;
+        try {
+            persons = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Parsing interrupted");
+        } catch (ExecutionException e) {
+            // Участок не разбирается сам по себе - дочитываем последовательно.
+            cancelAhead();
+            sequential = new PersonXmlReader(file);
+            for (long skipped = 0; skipped < returned; skipped++) {
+                sequential.next();
+            }
+            return nextSequential();
+        }
+        consumed++;
+        returned += persons.size();
+        return recode(persons);
+    }
+
+    /**
+     * Переводит пачку участка со словаря участка на общий словарь.
+     */
+    private PersonStore recode(PersonStore persons) {
+        StringDictionary local = persons.getDictionary();
+        int[] codes = new int[local.size()];
+        for (int code = 0; code < codes.length; code++) {
+            codes[code] = dictionary.encode(local.decode(code));
+        }
+        int size = persons.size();
+        int capacity = Math.max(size, 1);
+        int[] firstName = new int[capacity];
+        int[] lastName = new int[capacity];
+        int[] street = new int[capacity];
+        int[] postalCode = new int[capacity];
+        int[] city = new int[capacity];
+        int[] birthday = new int[capacity];
+        for (int row = 0; row < size; row++) {
+            firstName[row] = recode(codes, persons.getFirstNameCode(row));
+            lastName[row] = recode(codes, persons.getLastNameCode(row));
+            street[row] = recode(codes, persons.getStreetCode(row));
+            postalCode[row] = persons.getPostalCode(row);
+            city[row] = recode(codes, persons.getCityCode(row));
+            birthday[row] = persons.getBirthdayEpochDay(row);
+        }
+        return PersonStore.fromColumns(dictionary, size, firstName, lastName, street, postalCode, city, birthday);
+    }
+
+    private static int recode(int[] codes, int code) {
+        return code == StringDictionary.NULL_CODE ? code : codes[code];
+    }
+
+    private PersonStore nextSequential() throws XMLStreamException {
+        PersonStore persons = new PersonStore(dictionary);
+        while (persons.size() < SEQUENTIAL_BATCH && sequential.next(persons)) {
+            // читаем дальше
+        }
+        returned += persons.size();
+        return persons.size() == 0 ? null : persons;
+    }
+
+    /**
+     * @return сколько байт файла уже разобрано и отдано
+     */
+    public long getBytesRead() {
+        return sequential != null ? sequential.getBytesRead() : bounds[consumed];
+    }
+
+    /**
+     * @return длина файла в байтах
+     */
+    public long getLength() {
+        return data.limit();
+    }
+
+    @Override
+    public void close() throws IOException {
+        cancelAhead();
+        try {
+            if (sequential != null) {
+                sequential.close();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void cancelAhead() {
+        for (Future<PersonStore> future : ahead) {
+            future.cancel(false);
+        }
+        ahead.clear();
+    }
+
+    private void submitNext() {
+        int range = next++;
+        ahead.add(ForkJoinPool.commonPool().submit(() -> parse(range)));
+    }
+
+    /**
+     * Разбирает один участок, обернув его в корневой элемент.
+     */
+    private PersonStore parse(int range) throws IOException, XMLStreamException {
+        int start = (int) bounds[range];
+        int end = (int) bounds[range + 1];
+        ByteBuffer slice = data.duplicate();
+        slice.position(start).limit(end);
+        InputStream body = new ByteBufferInputStream(slice);
+        // Первый участок открывает корень сам, последний сам его закрывает.
+        InputStream head = new ByteArrayInputStream(range == 0 ? new byte[0] : ROOT_START);
+        InputStream tail = new ByteArrayInputStream(range == bounds.length - 2 ? new byte[0] : ROOT_END);
+        InputStream in = new SequenceInputStream(Collections.enumeration(List.of(head, body, tail)));
+        // Свой словарь участка: общий словарь синхронизирован.
+        PersonStore persons = new PersonStore();
+        try (PersonXmlReader reader = new PersonXmlReader(in, end - start)) {
+            while (reader.next(persons)) {
+                // читаем до конца участка
+            }
+        }
+        return persons;
+    }
+
+    /**
+     * Чтение участка отображённого файла как потока.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buffer.remaining());
+            buffer.get(b, off, n);
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+}
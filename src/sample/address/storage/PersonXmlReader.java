@@ -0,0 +1,294 @@
+package sample.address.storage;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.util.DateCodec;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Потоковое (StAX) чтение адресной книги в формате {@link sample.address.model.PersonListWrapper}.
+ * <p>
+ * В отличие от JAXB, который строит в памяти сразу весь список адресатов,
+ * этот класс читает элементы &lt;person&gt; по одному. Каждый вызов
+ * {@link #next()} возвращает очередного адресата или null, если документ
+ * закончился. Порядок вложенных элементов внутри &lt;person&gt; не важен,
+ * неизвестные элементы пропускаются.
+ * <p>
+ * Для отображения прогресса можно узнать, сколько байт документа уже прочитано:
+ * {@link #getBytesRead()} и {@link #getLength()}.
+ * <p>
+ * Файл может быть сжат gzip (*.xml.gz) - он распаковывается на лету,
+ * см. {@link ChunkedGzipInputStream}.
+ */
+public class PersonXmlReader implements AutoCloseable {
+
+    private static final XMLInputFactory FACTORY = createFactory();
+    private static final int DEFAULT_BIRTHDAY = DateCodec.toEpochDay(Person.DEFAULT_BIRTHDAY);
+
+    private final CountingInputStream in;
+    private final XMLStreamReader reader;
+    private final long length;
+
+    // Поля адресата, который разбирается сейчас.
+    private String firstName;
+    private String lastName;
+    private String street;
+    private int postalCode;
+    private String city;
+    private int birthday;
+
+    /**
+     * Открывает файл адресной книги для чтения, сжатый или нет.
+     *
+     * @param file XML-файл адресатов
+     * @throws IOException        если файл не удалось открыть
+     * @throws XMLStreamException если файл не является XML-документом
+     */
+    public PersonXmlReader(File file) throws IOException, XMLStreamException {
+        this(ChunkedGzipInputStream.open(file), file);
+    }
+
+    private PersonXmlReader(InputStream stream, File file) throws XMLStreamException {
+        // Длина сжатого вручную файла до распаковки неизвестна.
+        this(stream, stream instanceof ChunkedGzipInputStream ? ((ChunkedGzipInputStream) stream).getLength()
+                : stream instanceof GZIPInputStream ? -1 : file.length());
+    }
+
+    /**
+     * Читает адресную книгу из произвольного потока.
+     *
+     * @param stream поток с XML-документом
+     * @param length длина потока в байтах или -1, если она неизвестна
+     * @throws XMLStreamException если поток не является XML-документом
+     */
+    public PersonXmlReader(InputStream stream, long length) throws XMLStreamException {
+        this.in = new CountingInputStream(new BufferedInputStream(stream, 64 * 1024));
+        this.length = length;
+        this.reader = FACTORY.createXMLStreamReader(in);
+    }
+
+    /**
+     * Читает следующего адресата из документа.
+     *
+     * @return адресат или null, если элементов &lt;person&gt; больше нет
+     * @throws XMLStreamException если документ повреждён
+     */
+    public Person next() throws XMLStreamException {
+        if (!readPerson()) {
+            return null;
+        }
+        Person person = new Person(firstName, lastName);
+        person.setStreet(street);
+        person.setPostalCode(postalCode);
+        person.setCity(city);
+        person.setBirthday(DateCodec.toLocalDate(birthday));
+        return person;
+    }
+
+    /**
+     * Читает следующего адресата сразу в строку хранилища, не создавая
+     * объекта Person: строки кодируются словарём хранилища, так что
+     * повторяющиеся города, улицы и имена хранятся один раз.
+     *
+     * @param store хранилище, в конец которого добавляется адресат
+     * @return false, если элементов &lt;person&gt; больше нет
+     * @throws XMLStreamException если документ повреждён
+     */
+    public boolean next(PersonStore store) throws XMLStreamException {
+        if (!readPerson()) {
+            return false;
+        }
+        store.add(firstName, lastName, street, postalCode, city, birthday);
+        return true;
+    }
+
+    /**
+     * Находит следующий элемент &lt;person&gt; и разбирает его содержимое
+     * в поля адресата. Незаданные поля получают значения нового Person.
+     *
+     * @return false, если элементов &lt;person&gt; больше нет
+     */
+    private boolean readPerson() throws XMLStreamException {
+        while (reader.hasNext()) {
+            if (reader.next() == XMLStreamConstants.START_ELEMENT
+                    && "person".equals(reader.getLocalName())) {
+                firstName = null;
+                lastName = null;
+                street = Person.DEFAULT_STREET;
+                postalCode = Person.DEFAULT_POSTAL_CODE;
+                city = Person.DEFAULT_CITY;
+                birthday = DEFAULT_BIRTHDAY;
+                readFields();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Разбирает содержимое одного элемента &lt;person&gt;. Курсор стоит
+     * на открывающем теге, после выхода - на закрывающем.
+     */
+    private void readFields() throws XMLStreamException {
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.END_ELEMENT) {
+                return;
+            }
+            if (event != XMLStreamConstants.START_ELEMENT) {
+                continue;
+            }
+            switch (reader.getLocalName()) {
+                case "firstName":
+                    firstName = reader.getElementText();
+                    break;
+                case "lastName":
+                    lastName = reader.getElementText();
+                    break;
+                case "street":
+                    street = reader.getElementText();
+                    break;
+                case "postalCode":
+                    postalCode = parseInt(reader.getElementText());
+                    break;
+                case "city":
+                    city = reader.getElementText();
+                    break;
+                case "birthday":
+                    birthday = parseDate(reader.getElementText(), birthday);
+                    break;
+                default:
+                    skipElement();
+                    break;
+            }
+        }
+        throw new XMLStreamException("Unexpected end of document inside <person>");
+    }
+
+    /**
+     * Пропускает неизвестный элемент вместе со всем его содержимым.
+     */
+    private void skipElement() throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
+
+    /**
+     * Разбирает почтовый индекс так же, как JAXB разбирает xs:int:
+     * пробельные символы пропускаются, переполнение не проверяется,
+     * а строка, которая не является числом, даёт 0.
+     */
+    private static int parseInt(String text) {
+        int sign = 1;
+        int value = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char ch = text.charAt(i);
+            if (ch >= '0' && ch <= '9') {
+                value = value * 10 + (ch - '0');
+            } else if (ch == '-') {
+                sign = -1;
+            } else if (ch != '+' && ch != ' ' && ch != '\t' && ch != '\n' && ch != '\r') {
+                return 0;
+            }
+        }
+        return value * sign;
+    }
+
+    /**
+     * Разбирает дату так же, как LocalDateAdapter, но без лишних объектов.
+     * Неверная дата, как и в JAXB, не меняет день рождения по умолчанию.
+     *
+     * @return номер дня от 1970-01-01
+     */
+    private static int parseDate(String text, int defaultValue) {
+        int epochDay = DateCodec.parseIsoSmart(text);
+        return epochDay == DateCodec.INVALID ? defaultValue : epochDay;
+    }
+
+    /**
+     * @return сколько байт исходного файла уже прочитано
+     */
+    public long getBytesRead() {
+        return in.count;
+    }
+
+    /**
+     * @return длина файла в байтах или -1, если она неизвестна
+     */
+    public long getLength() {
+        return length;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        // Внешние сущности и DTD в адресной книге не нужны - отключаем их.
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        return factory;
+    }
+
+    /**
+     * Поток, считающий прочитанные байты.
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private volatile long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package sample.address.storage;
+
+import sample.address.model.PersonStore;
+import sample.address.util.DateCodec;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Потоковая (StAX) запись адресной книги в формате {@link sample.address.model.PersonListWrapper}.
+ * <p>
+ * Пишет тот же документ, что и JAXB (элементы внутри &lt;person&gt; в
+ * алфавитном порядке, пустые значения пропускаются), но прямо из столбцов
+ * {@link PersonStore}, не создавая объектов Person. Поэтому запись можно
+ * выполнять в фоновом потоке над копией хранилища.
+ */
+public final class PersonXmlWriter {
+
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+
+    /**
+     * Начало документа: то, что пишется перед первым &lt;person&gt;.
+     */
+    public static final String DOCUMENT_START = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<persons>";
+
+    /**
+     * Конец документа: то, что пишется после последнего &lt;person&gt;.
+     */
+    public static final String DOCUMENT_END = "\n</persons>";
+
+    private PersonXmlWriter() {
+    }
+
+    /**
+     * Записывает адресатов в XML-файл.
+     *
+     * @param store хранилище адресатов
+     * @param file  XML-файл
+     * @throws IOException если файл не удалось записать
+     */
+    public static void write(PersonStore store, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            write(store, out);
+            // Дожидаемся, пока данные действительно окажутся на диске.
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Записывает адресатов в XML-файл, сжатый gzip частями
+     * (см. {@link ChunkedGzipOutputStream}).
+     *
+     * @param store хранилище адресатов
+     * @param file  файл *.xml.gz
+     * @throws IOException если файл не удалось записать
+     */
+    public static void writeCompressed(PersonStore store, File file) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            ChunkedGzipOutputStream compressed = new ChunkedGzipOutputStream(out);
+            write(store, compressed);
+            compressed.finish();
+            out.getFD().sync();
+        }
+    }
+
+    /**
+     * Записывает адресатов в поток в кодировке UTF-8. Поток не закрывается.
+     *
+     * @param store хранилище адресатов
+     * @param out   поток для записи
+     * @throws IOException если запись не удалась
+     */
+    public static void write(PersonStore store, OutputStream out) throws IOException {
+        BufferedOutputStream buffered = new BufferedOutputStream(out, 64 * 1024);
+        try {
+            XMLStreamWriter writer = FACTORY.createXMLStreamWriter(buffered, StandardCharsets.UTF_8.name());
+            writer.writeStartDocument(StandardCharsets.UTF_8.name(), "1.0");
+            writer.writeCharacters("\n");
+            writer.writeStartElement("persons");
+            writeRows(writer, store);
+            writer.writeCharacters("\n");
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+            buffered.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Записывает только элементы &lt;person&gt; - часть документа между
+     * {@link #DOCUMENT_START} и {@link #DOCUMENT_END}. Так книгу можно
+     * записывать частями, и части можно готовить параллельно.
+     *
+     * @param store хранилище адресатов
+     * @param out   поток для записи, UTF-8; не закрывается
+     * @throws IOException если запись не удалась
+     */
+    public static void writeFragment(PersonStore store, OutputStream out) throws IOException {
+        try {
+            XMLStreamWriter writer = FACTORY.createXMLStreamWriter(out, StandardCharsets.UTF_8.name());
+            writeRows(writer, store);
+            writer.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private static void writeRows(XMLStreamWriter writer, PersonStore store) throws XMLStreamException {
+        StringBuilder date = new StringBuilder(10);
+        for (int row = 0; row < store.size(); row++) {
+            writer.writeCharacters("\n    ");
+            writer.writeStartElement("person");
+            int birthday = store.getBirthdayEpochDay(row);
+            if (birthday != DateCodec.INVALID) {
+                date.setLength(0);
+                writeElement(writer, "birthday", DateCodec.appendIso(date, birthday).toString());
+            }
+            writeElement(writer, "city", store.getCity(row));
+            writeElement(writer, "firstName", store.getFirstName(row));
+            writeElement(writer, "lastName", store.getLastName(row));
+            writeElement(writer, "postalCode", Integer.toString(store.getPostalCode(row)));
+            writeElement(writer, "street", store.getStreet(row));
+            writer.writeCharacters("\n    ");
+            writer.writeEndElement();
+        }
+    }
+
+    private static void writeElement(XMLStreamWriter writer, String name, String value) throws XMLStreamException {
+        if (value == null) {
+            return;
+        }
+        writer.writeCharacters("\n        ");
+        writer.writeStartElement(name);
+        writer.writeCharacters(value);
+        writer.writeEndElement();
+    }
+}
@@ -0,0 +1,322 @@
+package sample.address.storage;
+
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.util.DateCodec;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Состояние синхронизации адресной книги с таблицей persons.
+ * <p>
+ * Хранит:
+ * <ul>
+ * <li>водяной знак - самое позднее время created/updated строк БД, которые
+ * уже видела книга: в следующий раз из БД читаются только строки,
+ * изменённые позже;</li>
+ * <li>для каждой синхронизированной строки - её id в БД и хеш содержимого
+ * на момент синхронизации: строка книги с другим хешем изменена локально,
+ * а id, которого больше нет в книге, удалён локально;</li>
+ * <li>id строк книги по порядку строк - форматы книги их не хранят,
+ * а {@link PersonStore} держит их только в памяти.</li>
+ * </ul>
+ * Состояние лежит рядом с книгой в файле "&lt;книга&gt;.sync". Его пишет
+ * поток записи книги (см. BookSaver) только после того, как удалась запись
+ * самой книги, и запоминает в нём длину и время изменения файла книги и
+ * длину её журнала, как заголовок журнала (см. ChangeJournal). Если при
+ * чтении они не совпадают, id строк по порядку не используются.
+ * Объект неизменяемый: {@link #update} возвращает новое состояние,
+ * поэтому его можно передавать фоновым потокам.
+ */
+public final class SyncState {
+
+    /**
+     * Хеш, которого нет ни у одной строки: id не синхронизирован.
+     */
+    public static final long NO_HASH = 0;
+
+    /**
+     * Книга ещё ни разу не синхронизировалась.
+     */
+    public static final SyncState EMPTY = new SyncState(null, new int[0], new long[0], null);
+
+    private static final int MAGIC = 0x4153594E;
+    private static final short VERSION = 1;
+
+    private final LocalDateTime watermark;
+    // Синхронизированные id по возрастанию и хеши их содержимого.
+    private final int[] ids;
+    private final long[] hashes;
+    // id строк книги на момент записи файла (только у прочитанного состояния,
+    // если книга с тех пор не менялась), иначе null.
+    private final int[] rowIds;
+
+    private SyncState(LocalDateTime watermark, int[] ids, long[] hashes, int[] rowIds) {
+        this.watermark = watermark;
+        this.ids = ids;
+        this.hashes = hashes;
+        this.rowIds = rowIds;
+    }
+
+    /**
+     * @param book файл книги
+     * @return файл состояния синхронизации этой книги
+     */
+    public static File fileFor(File book) {
+        return new File(book.getPath() + ".sync");
+    }
+
+    /**
+     * @return время, до которого включительно изменения БД уже получены,
+     * или null, если синхронизации ещё не было
+     */
+    public LocalDateTime getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return количество синхронизированных строк
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @param index номер синхронизированной строки, от 0 до {@link #size()}
+     * @return её id в БД (id идут по возрастанию)
+     */
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    /**
+     * @return хеш содержимого строки с этим id на момент синхронизации
+     * или {@link #NO_HASH}
+     */
+    public long hashOf(int id) {
+        int at = Arrays.binarySearch(ids, id);
+        return at >= 0 ? hashes[at] : NO_HASH;
+    }
+
+    /**
+     * Новое состояние после синхронизации.
+     *
+     * @param watermark новый водяной знак
+     * @param putIds    синхронизированные строки
+     * @param putHashes хеши их содержимого
+     * @param removeIds строки, которых больше нет ни в книге, ни в БД
+     * @return новое состояние
+     */
+    public SyncState update(LocalDateTime watermark, int[] putIds, long[] putHashes, int[] removeIds) {
+        Map<Integer, Long> changes = new HashMap<>();
+        for (int i = 0; i < putIds.length; i++) {
+            changes.put(putIds[i], putHashes[i]);
+        }
+        for (int id : removeIds) {
+            changes.put(id, NO_HASH);
+        }
+        int[] newIds = new int[ids.length + putIds.length];
+        long[] newHashes = new long[newIds.length];
+        int count = 0;
+        for (int i = 0; i < ids.length; i++) {
+            Long change = changes.remove(ids[i]);
+            long hash = change != null ? change : hashes[i];
+            if (hash != NO_HASH) {
+                newIds[count] = ids[i];
+                newHashes[count++] = hash;
+            }
+        }
+        // Остались новые id - добавляем и восстанавливаем порядок.
+        int added = count;
+        for (Map.Entry<Integer, Long> change : changes.entrySet()) {
+            if (change.getValue() != NO_HASH) {
+                newIds[count] = change.getKey();
+                newHashes[count++] = change.getValue();
+            }
+        }
+        if (count > added) {
+            long[] packed = new long[count];
+            for (int i = 0; i < count; i++) {
+                packed[i] = (long) newIds[i] << 32 | i;
+            }
+            Arrays.sort(packed);
+            int[] sortedIds = new int[count];
+            long[] sortedHashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                sortedIds[i] = (int) (packed[i] >> 32);
+                sortedHashes[i] = newHashes[(int) packed[i]];
+            }
+            newIds = sortedIds;
+            newHashes = sortedHashes;
+        }
+        return new SyncState(watermark, Arrays.copyOf(newIds, count), Arrays.copyOf(newHashes, count), null);
+    }
+
+    /**
+     * Проставляет строкам хранилища id из прочитанного файла состояния.
+     * Если файл книги и её журнал те же, что при записи состояния, и число
+     * строк совпадает, id берутся по порядку строк. Иначе (книгу меняли в
+     * обход приложения, или состояние не успели записать после неё) строки
+     * сопоставляются по хешу содержимого, а несопоставленные строки
+     * считаются новыми.
+     *
+     * @param store хранилище только что загруженной книги
+     */
+    public void attach(PersonStore store) {
+        int size = store.size();
+        if (rowIds != null && rowIds.length == size) {
+            for (int row = 0; row < size; row++) {
+                store.setId(row, rowIds[row]);
+            }
+            return;
+        }
+        Map<Long, Deque<Integer>> byHash = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            byHash.computeIfAbsent(hashes[i], key -> new ArrayDeque<>()).add(ids[i]);
+        }
+        for (int row = 0; row < size; row++) {
+            Deque<Integer> candidates = byHash.get(rowHash(store, row));
+            store.setId(row, candidates != null && !candidates.isEmpty() ? candidates.poll() : 0);
+        }
+    }
+
+    /**
+     * Читает состояние синхронизации книги.
+     *
+     * @param book файл книги
+     * @return состояние или {@link #EMPTY}, если книга не синхронизировалась
+     */
+    public static SyncState read(File book) throws IOException {
+        File file = fileFor(book);
+        if (!file.isFile()) {
+            return EMPTY;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                throw new IOException("Not a sync state file: " + file);
+            }
+            long seconds = in.readLong();
+            LocalDateTime watermark = seconds == Long.MIN_VALUE
+                    ? null : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+            int count = in.readInt();
+            int[] ids = new int[count];
+            long[] hashes = new long[count];
+            for (int i = 0; i < count; i++) {
+                ids[i] = in.readInt();
+                hashes[i] = in.readLong();
+            }
+            if (in.readLong() != book.length() || in.readLong() != book.lastModified()
+                    || in.readLong() != ChangeJournal.journalFile(book).length()) {
+                // Книга изменилась после записи состояния: порядок строк неизвестен.
+                return new SyncState(watermark, ids, hashes, null);
+            }
+            int rows = in.readInt();
+            int[] rowIds = new int[rows];
+            for (int row = 0; row < rows; row++) {
+                rowIds[row] = in.readInt();
+            }
+            return new SyncState(watermark, ids, hashes, rowIds);
+        }
+    }
+
+    /**
+     * Записывает состояние рядом с книгой: во временный файл, затем
+     * атомарным переименованием. Вызывается после записи книги и её
+     * журнала, чтобы запомнить именно их.
+     *
+     * @param book   файл книги
+     * @param rowIds id строк книги по порядку строк
+     */
+    public void write(File book, int[] rowIds) throws IOException {
+        File file = fileFor(book);
+        File temp = new File(file.getPath() + ".saving");
+        try (FileOutputStream stream = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeLong(watermark == null ? Long.MIN_VALUE : watermark.toEpochSecond(ZoneOffset.UTC));
+            out.writeInt(ids.length);
+            for (int i = 0; i < ids.length; i++) {
+                out.writeInt(ids[i]);
+                out.writeLong(hashes[i]);
+            }
+            out.writeLong(book.length());
+            out.writeLong(book.lastModified());
+            out.writeLong(ChangeJournal.journalFile(book).length());
+            out.writeInt(rowIds.length);
+            for (int id : rowIds) {
+                out.writeInt(id);
+            }
+            out.flush();
+            stream.getFD().sync();
+        }
+        try {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Хеш содержимого строки хранилища (без id).
+     */
+    public static long rowHash(PersonStore store, int row) {
+        return hash(store.getFirstName(row), store.getLastName(row), store.getStreet(row),
+                store.getPostalCode(row), store.getCity(row), store.getBirthdayEpochDay(row));
+    }
+
+    /**
+     * Хеш содержимого адресата (без id), совпадает с {@link #rowHash}.
+     */
+    public static long personHash(Person person) {
+        return hash(person.getFirstName(), person.getLastName(), person.getStreet(),
+                person.getPostalCode(), person.getCity(), DateCodec.toEpochDay(person.getBirthday()));
+    }
+
+    // 64-битный FNV-1a по всем полям. 0 зарезервирован для NO_HASH.
+    private static long hash(String firstName, String lastName, String street,
+                             int postalCode, String city, int birthday) {
+        long h = 0xCBF29CE484222325L;
+        h = mix(h, firstName);
+        h = mix(h, lastName);
+        h = mix(h, street);
+        h = mix(h, postalCode);
+        h = mix(h, city);
+        h = mix(h, birthday);
+        return h == NO_HASH ? 1 : h;
+    }
+
+    private static long mix(long h, String value) {
+        if (value == null) {
+            return mix(h, -1);
+        }
+        for (int i = 0; i < value.length(); i++) {
+            h = (h ^ value.charAt(i)) * 0x100000001B3L;
+        }
+        // Разделитель полей, чтобы "ab"+"c" и "a"+"bc" различались.
+        return (h ^ 0xFFFF) * 0x100000001B3L;
+    }
+
+    private static long mix(long h, int value) {
+        for (int shift = 0; shift < 32; shift += 8) {
+            h = (h ^ (value >>> shift & 0xFF)) * 0x100000001B3L;
+        }
+        return h;
+    }
+}
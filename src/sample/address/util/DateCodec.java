@@ -0,0 +1,385 @@
+package sample.address.util;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Locale;
+
+/**
+ * Быстрое преобразование дат в строки и обратно для двух форматов программы:
+ * - "dd.MM.yyyy" - так дата показывается и вводится в интерфейсе;
+ * - "yyyy-MM-dd" (ISO 8601) - так дата хранится в XML и передаётся в БД.
+ * <p>
+ * DateTimeFormatter универсален, но при разборе создаёт промежуточные
+ * объекты, а о неверной дате сообщает исключением. При загрузке
+ * и сохранении больших адресных книг это заметно. Здесь дата разбирается
+ * по символам сразу в номер дня от 1970-01-01 (как LocalDate.toEpochDay()),
+ * без промежуточных объектов и без исключений: для неверной строки
+ * возвращается {@link #INVALID}.
+ * <p>
+ * Разбор строгий: ровно 2 цифры дня, 2 цифры месяца и 4 цифры года
+ * (год от 0001 до 9999), день должен существовать в указанном месяце.
+ * LocalDate допускает и другие годы - такие даты (редкие) форматируются
+ * и разбираются обычным DateTimeFormatter.
+ * <p>
+ * Даты из XML разбираются нестрого ({@link #parseIsoSmart}), так же, как их
+ * всегда разбирал JAXB через LocalDateAdapter: несуществующий день месяца
+ * заменяется последним днём этого месяца.
+ */
+public final class DateCodec {
+
+    /**
+     * Результат разбора неверной строки, а также значение для даты null.
+     */
+    public static final int INVALID = Integer.MIN_VALUE;
+
+    // Номер первого дня каждого месяца в високосном году (от 0).
+    private static final int[] LEAP_MONTH_STARTS = {0, 31, 60, 91, 121, 152, 182, 213, 244, 274, 305, 335};
+
+    /**
+     * Длина строки даты в обоих форматах.
+     */
+    private static final int LENGTH = 10;
+
+    // Количество дней от 0000-03-01 до 1970-01-01.
+    private static final int DAYS_0000_TO_1970 = 719468;
+
+    // Даты за пределами годов 0001-9999 - через DateTimeFormatter.
+    private static final DateTimeFormatter DOTTED_FALLBACK =
+            DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT);
+    private static final DateTimeFormatter ISO_FALLBACK = DateTimeFormatter.ISO_LOCAL_DATE;
+    // Формат, которым даты из XML разбирал прежний LocalDateAdapter (ResolverStyle.SMART).
+    private static final DateTimeFormatter ISO_SMART_FALLBACK =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
+
+    // Дни 0001-01-01 и 9999-12-31: между ними годы из четырёх цифр.
+    private static final int MIN_FAST_DAY = (int) LocalDate.of(1, 1, 1).toEpochDay();
+    private static final int MAX_FAST_DAY = (int) LocalDate.of(9999, 12, 31).toEpochDay();
+
+    private DateCodec() {
+    }
+
+    /**
+     * Разбирает дату в формате "dd.MM.yyyy".
+     *
+     * @param text строка или null
+     * @return номер дня от 1970-01-01 или {@link #INVALID}
+     */
+    public static int parseDotted(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        if (text.length() != LENGTH) {
+            return parseFallback(text, DOTTED_FALLBACK);
+        }
+        if (text.charAt(2) != '.' || text.charAt(5) != '.') {
+            return INVALID;
+        }
+        int year = digits(text, 6, 4);
+        if (year == 0) {
+            return parseFallback(text, DOTTED_FALLBACK);
+        }
+        return toEpochDay(year, digits(text, 3, 2), digits(text, 0, 2));
+    }
+
+    /**
+     * Разбирает дату в формате "yyyy-MM-dd".
+     *
+     * @param text строка или null
+     * @return номер дня от 1970-01-01 или {@link #INVALID}
+     */
+    public static int parseIso(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        if (text.length() != LENGTH) {
+            return parseFallback(text, ISO_FALLBACK);
+        }
+        if (text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = digits(text, 0, 4);
+        if (year == 0) {
+            return parseFallback(text, ISO_FALLBACK);
+        }
+        return toEpochDay(year, digits(text, 5, 2), digits(text, 8, 2));
+    }
+
+    /**
+     * Разбирает дату в формате "yyyy-MM-dd" так же, как DateTimeFormatter
+     * с ResolverStyle.SMART: день от 29 до 31, которого нет в указанном
+     * месяце, заменяется последним днём месяца (2020-02-31 - это 2020-02-29).
+     * Так даты адресной книги читаются из XML.
+     *
+     * @param text строка или null
+     * @return номер дня от 1970-01-01 или {@link #INVALID}
+     */
+    public static int parseIsoSmart(CharSequence text) {
+        if (text == null) {
+            return INVALID;
+        }
+        if (text.length() != LENGTH) {
+            return parseFallback(text, ISO_SMART_FALLBACK);
+        }
+        if (text.charAt(4) != '-' || text.charAt(7) != '-') {
+            return INVALID;
+        }
+        int year = digits(text, 0, 4);
+        if (year == 0) {
+            return parseFallback(text, ISO_SMART_FALLBACK);
+        }
+        int month = digits(text, 5, 2);
+        int day = digits(text, 8, 2);
+        if (year > 0 && month >= 1 && month <= 12 && day <= 31) {
+            day = Math.min(day, lengthOfMonth(year, month));
+        }
+        return toEpochDay(year, month, day);
+    }
+
+    /**
+     * Дописывает дату в формате "dd.MM.yyyy".
+     *
+     * @param out      куда писать
+     * @param epochDay номер дня от 1970-01-01
+     * @return out
+     */
+    public static StringBuilder appendDotted(StringBuilder out, int epochDay) {
+        if (!isFourDigitYear(epochDay)) {
+            return out.append(DOTTED_FALLBACK.format(LocalDate.ofEpochDay(epochDay)));
+        }
+        int date = civil(epochDay);
+        appendDigits(out, day(date), 2).append('.');
+        appendDigits(out, month(date), 2).append('.');
+        return appendDigits(out, year(date), 4);
+    }
+
+    /**
+     * Дописывает дату в формате "yyyy-MM-dd".
+     *
+     * @param out      куда писать
+     * @param epochDay номер дня от 1970-01-01
+     * @return out
+     */
+    public static StringBuilder appendIso(StringBuilder out, int epochDay) {
+        if (!isFourDigitYear(epochDay)) {
+            return out.append(ISO_FALLBACK.format(LocalDate.ofEpochDay(epochDay)));
+        }
+        int date = civil(epochDay);
+        appendDigits(out, year(date), 4).append('-');
+        appendDigits(out, month(date), 2).append('-');
+        return appendDigits(out, day(date), 2);
+    }
+
+    /**
+     * @param epochDay номер дня от 1970-01-01 или {@link #INVALID}
+     * @return дата в формате "dd.MM.yyyy" или null
+     */
+    public static String formatDotted(int epochDay) {
+        if (epochDay == INVALID) {
+            return null;
+        }
+        if (!isFourDigitYear(epochDay)) {
+            return DOTTED_FALLBACK.format(LocalDate.ofEpochDay(epochDay));
+        }
+        int date = civil(epochDay);
+        char[] chars = new char[LENGTH];
+        putDigits(chars, 0, day(date), 2);
+        chars[2] = '.';
+        putDigits(chars, 3, month(date), 2);
+        chars[5] = '.';
+        putDigits(chars, 6, year(date), 4);
+        return new String(chars);
+    }
+
+    /**
+     * @param epochDay номер дня от 1970-01-01 или {@link #INVALID}
+     * @return дата в формате "yyyy-MM-dd" или null
+     */
+    public static String formatIso(int epochDay) {
+        if (epochDay == INVALID) {
+            return null;
+        }
+        if (!isFourDigitYear(epochDay)) {
+            return ISO_FALLBACK.format(LocalDate.ofEpochDay(epochDay));
+        }
+        int date = civil(epochDay);
+        char[] chars = new char[LENGTH];
+        putDigits(chars, 0, year(date), 4);
+        chars[4] = '-';
+        putDigits(chars, 5, month(date), 2);
+        chars[7] = '-';
+        putDigits(chars, 8, day(date), 2);
+        return new String(chars);
+    }
+
+    /**
+     * @return номер дня от 1970-01-01 или {@link #INVALID} для null
+     * и для даты, номер дня которой не помещается в int
+     */
+    public static int toEpochDay(LocalDate date) {
+        if (date == null) {
+            return INVALID;
+        }
+        long epochDay = date.toEpochDay();
+        return epochDay > INVALID && epochDay <= Integer.MAX_VALUE ? (int) epochDay : INVALID;
+    }
+
+    /**
+     * @return дата или null для {@link #INVALID}
+     */
+    public static LocalDate toLocalDate(int epochDay) {
+        return epochDay == INVALID ? null : LocalDate.ofEpochDay(epochDay);
+    }
+
+    /**
+     * Номер дня от 1970-01-01 для указанной даты.
+     *
+     * @return номер дня или {@link #INVALID}, если такой даты нет
+     */
+    public static int toEpochDay(int year, int month, int day) {
+        if (year < 1 || year > 9999 || month < 1 || month > 12
+                || day < 1 || day > lengthOfMonth(year, month)) {
+            return INVALID;
+        }
+        // Год считаем с марта, тогда 29 февраля - последний день года.
+        int y = month <= 2 ? year - 1 : year;
+        int era = y / 400;
+        int yearOfEra = y - era * 400;
+        int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - DAYS_0000_TO_1970;
+    }
+
+    /**
+     * @return год для номера дня от 1970-01-01
+     */
+    public static int yearOf(int epochDay) {
+        return year(civil(epochDay));
+    }
+
+    /**
+     * @return месяц (1-12) для номера дня от 1970-01-01
+     */
+    public static int monthOf(int epochDay) {
+        return month(civil(epochDay));
+    }
+
+    /**
+     * @return день месяца (1-31) для номера дня от 1970-01-01
+     */
+    public static int dayOfMonthOf(int epochDay) {
+        return day(civil(epochDay));
+    }
+
+    /**
+     * Номер дня в году (0-365) по календарю високосного года: у каждой
+     * даты он один и тот же в любом году, 29 февраля - всегда 59, 1 марта - 60.
+     * Удобно для группировки дней рождений по дню года.
+     *
+     * @return номер дня для номера дня от 1970-01-01
+     */
+    public static int dayOfLeapYearOf(int epochDay) {
+        int civil = civil(epochDay);
+        return LEAP_MONTH_STARTS[month(civil) - 1] + day(civil) - 1;
+    }
+
+    public static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    public static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * @return true, если год даты от 0001 до 9999 и её можно форматировать по символам
+     */
+    private static boolean isFourDigitYear(int epochDay) {
+        return epochDay >= MIN_FAST_DAY && epochDay <= MAX_FAST_DAY;
+    }
+
+    /**
+     * Разбирает дату с годом не из четырёх цифр.
+     *
+     * @return номер дня или {@link #INVALID}
+     */
+    private static int parseFallback(CharSequence text, DateTimeFormatter formatter) {
+        try {
+            long epochDay = LocalDate.parse(text, formatter).toEpochDay();
+            return epochDay > INVALID && epochDay <= Integer.MAX_VALUE ? (int) epochDay : INVALID;
+        } catch (DateTimeParseException e) {
+            return INVALID;
+        }
+    }
+
+    /**
+     * Переводит номер дня в год, месяц и день, упакованные в одно число
+     * (год * 10000 + месяц * 100 + день), чтобы не создавать объектов.
+     */
+    private static int civil(int epochDay) {
+        int z = epochDay + DAYS_0000_TO_1970;
+        int era = Math.floorDiv(z, 146097);
+        int dayOfEra = z - era * 146097;
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int mp = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * mp + 2) / 5 + 1;
+        int month = mp < 10 ? mp + 3 : mp - 9;
+        int year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+        return year * 10000 + month * 100 + day;
+    }
+
+    private static int year(int civil) {
+        return civil / 10000;
+    }
+
+    private static int month(int civil) {
+        return civil / 100 % 100;
+    }
+
+    private static int day(int civil) {
+        return civil % 100;
+    }
+
+    /**
+     * Читает count десятичных цифр начиная с from.
+     *
+     * @return число или -1, если встретился не цифровой символ
+     */
+    private static int digits(CharSequence text, int from, int count) {
+        int value = 0;
+        for (int i = from; i < from + count; i++) {
+            int digit = text.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static StringBuilder appendDigits(StringBuilder out, int value, int count) {
+        for (int divisor = count == 4 ? 1000 : 10; divisor > 0; divisor /= 10) {
+            out.append((char) ('0' + value / divisor % 10));
+        }
+        return out;
+    }
+
+    private static void putDigits(char[] chars, int from, int value, int count) {
+        for (int i = from + count - 1; i >= from; i--) {
+            chars[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+}
@@ -3,8 +3,6 @@ package sample.address.util;
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
-import java.util.Locale;
 
 /**
  * Класс для преобразование дня рождения в строку.
@@ -45,19 +43,18 @@ import java.util.Locale;
  * * GG - эра
  * * E - день недели (сокращение) - Вт
  * * EEEE - день недели (полностью) - пятница
+ * <p>
+ * Даты в формате {@link DateUtil#DATE_PATTERN} разбираются и форматируются
+ * через {@link DateCodec} - без создания DateTimeFormatter на каждый вызов
+ * и без исключений при проверке.
  */
 public class DateUtil {
     /**
-     * Шаблон даты, используемый для преобразования. Можно поменять на свой.
+     * Шаблон даты, используемый для преобразования (его понимает {@link DateCodec}).
      */
     private static final String DATE_PATTERN = "dd.MM.yyyy";
-    private static final String DATE_TIME_PATTERN = "dd.MM.yyyy HH:mm";
-
-    /**
-     * Форматировщик даты.
-     */
-    private static final DateTimeFormatter DATE_FORMATTER =
-            DateTimeFormatter.ofPattern(DATE_PATTERN);
+    // Дата со временем показывается так же, как раньше: через дефисы.
+    private static final String DATE_TIME_PATTERN = "dd-MM-yyyy HH:mm";
 
     /**
      * Форматировщик даты и времени.
@@ -73,21 +70,14 @@ public class DateUtil {
      * @return отформатированную строку
      */
     public static String format(LocalDate date) {
-        if (date == null) {
-            return null;
-        }
-        DateTimeFormatter pattern = DateTimeFormatter.ofPattern("dd.MM.yyyy");
-
-        return date.format(pattern);
-//        return DATE_FORMATTER.format(date);
+        return DateCodec.formatDotted(DateCodec.toEpochDay(date));
     }
 
     public static String formatDateTime(LocalDateTime dateTime) {
         if (dateTime == null) {
             return null;
         }
-        DateTimeFormatter patten = DateTimeFormatter.ofPattern("dd-MM-yyyy HH:mm");
-        return dateTime.format(patten);
+        return DATE_TIME_FORMATTER.format(dateTime);
     }
 
     /**
@@ -100,14 +90,7 @@ public class DateUtil {
      * @return объект даты или null, если строка не может быть преобразована
      */
     public static LocalDate parse(String dateString) {
-        try {
-            DateTimeFormatter formatter = DateTimeFormatter.ofPattern("dd.MM.yyyy", Locale.ENGLISH);
-
-            return LocalDate.parse(dateString, formatter);
-//            return DATE_FORMATTER.parse(dateString, LocalDate::from);
-        } catch (DateTimeParseException e) {
-            return null;
-        }
+        return DateCodec.toLocalDate(DateCodec.parseDotted(dateString));
     }
 
     /**
@@ -117,7 +100,7 @@ public class DateUtil {
      * @return true, если строка является корректной датой
      */
     public static boolean validDate(String dateString) {
-        // Пытаемся разобрать строку.
-        return DateUtil.parse(dateString) != null;
+        // Разбираем строку без создания объекта даты и без исключений.
+        return DateCodec.parseDotted(dateString) != DateCodec.INVALID;
     }
 }
@@ -1,14 +1,14 @@
 package sample.address.util;
 
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
-import java.util.Locale;
 
 import javax.xml.bind.annotation.adapters.XmlAdapter;
 
 /**
  * Адаптер (для JAXB) для преобразования между типом LocalDate и строковым
  * представлением даты в стандарте ISO 8601, например как '2012-12-03'.
+ * Сам разбор и форматирование выполняет {@link DateCodec}; разбор нестрогий,
+ * как у DateTimeFormatter с ResolverStyle.SMART (см. {@link DateCodec#parseIsoSmart}).
  *
  * @author Marco Jakob
  */
@@ -16,15 +16,15 @@ public class LocalDateAdapter extends XmlAdapter<String, LocalDate> {
 
     @Override
     public LocalDate unmarshal(String v) throws Exception {
-        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
-        return LocalDate.parse(v, formatter);
-//        return LocalDate.parse(v);
+        int epochDay = DateCodec.parseIsoSmart(v);
+        if (epochDay == DateCodec.INVALID) {
+            throw new IllegalArgumentException("No valid date (yyyy-MM-dd): " + v);
+        }
+        return LocalDate.ofEpochDay(epochDay);
     }
 
     @Override
     public String marshal(LocalDate v) throws Exception {
-        DateTimeFormatter pattern = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
-        return v.format(pattern);
-//        return v.toString();
+        return DateCodec.formatIso(DateCodec.toEpochDay(v));
     }
 }
\ No newline at end of file
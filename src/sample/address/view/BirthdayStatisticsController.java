@@ -1,17 +1,22 @@
 package sample.address.view;
 
 import java.text.DateFormatSymbols;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 
+import javafx.application.Platform;
+import javafx.beans.InvalidationListener;
+import javafx.beans.WeakInvalidationListener;
 import javafx.collections.FXCollections;
 import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
+import javafx.scene.chart.AreaChart;
 import javafx.scene.chart.BarChart;
 import javafx.scene.chart.CategoryAxis;
 import javafx.scene.chart.XYChart;
-import sample.address.model.Person;
+import sample.address.model.BirthdayHistogram;
 
 /**
  * Контроллер для представления статистики дней рождений.
@@ -23,11 +28,13 @@ import sample.address.model.Person;
  * записей в конкретном месяце.
  * - Ось xAxis мы используем для добавления названий месяцев.
  * 2) Метод initialize() заполняет ось X строковыми значениями названий всех месяцев.
- * 3) Метод setPersonData(...) будет доступен классу MainApp для передачи
- * данных об адресатах. Он проходится по всем адресатам и подсчитывает
- * количество дней рождений в каждом месяце. Потом он добавляет
- * XYChart.Data для каждого месяца в серию данных XYChart.Series.
+ * 3) Метод setHistogram(...) будет доступен классу MainApp для передачи
+ * гистограмм дней рождений. Адресатов он не перебирает: гистограммы
+ * ведёт {@link BirthdayHistogram}, а контроллер только переносит готовые
+ * счётчики в XYChart.Data - по одному на месяц, день года или год.
  * Каждый объект XYChart.Data будет представлять один столбец диаграммы.
+ * 4) Пока окно открыто, диаграммы обновляются при каждом изменении
+ * адресатов.
  *
  * @author Marco Jakob
  */
@@ -39,8 +46,23 @@ public class BirthdayStatisticsController {
     @FXML
     private CategoryAxis xAxis;
 
+    @FXML
+    private AreaChart<Number, Number> dayChart;
+
+    @FXML
+    private AreaChart<Number, Number> yearChart;
+
     private ObservableList<String> monthNames = FXCollections.observableArrayList();
 
+    private final XYChart.Series<String, Integer> monthSeries = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> daySeries = new XYChart.Series<>();
+    private final XYChart.Series<Number, Number> yearSeries = new XYChart.Series<>();
+
+    private BirthdayHistogram histogram;
+    // Гистограмма живёт дольше окна, поэтому подписываемся слабой ссылкой.
+    private final InvalidationListener histogramListener = observable -> scheduleRefresh();
+    private boolean refreshPending;
+
     /**
      * Инициализирует класс-контроллер. Этот метод вызывается автоматически
      * после того, как fxml-файл был загружен.
@@ -61,26 +83,75 @@ public class BirthdayStatisticsController {
     }
 
     /**
-     * Задаёт адресатов, о которых будет показана статистика.
+     * Задаёт гистограммы дней рождений, которые будут показаны на диаграммах.
      *
-     * @param persons список адресатов
+     * @param histogram гистограммы дней рождений адресатов
      */
-    public void setPersonData(List<Person> persons) {
-        // Считаем адресатов, имеющих дни рождения в указанном месяце.
-        int[] monthCounter = new int[12];
-        for (Person p : persons) {
-            int month = p.getBirthday().getMonthValue() - 1;
-            monthCounter[month]++;
+    public void setHistogram(BirthdayHistogram histogram) {
+        this.histogram = histogram;
+
+        // Создаём объект XYChart.Data для каждого месяца и дня года.
+        // Добавляем его в серии.
+        for (int i = 0; i < 12; i++) {
+            monthSeries.getData().add(new XYChart.Data<>(monthNames.get(i), 0));
+        }
+        for (int day = 0; day < BirthdayHistogram.DAYS; day++) {
+            daySeries.getData().add(new XYChart.Data<>(day + 1, 0));
         }
+        refresh();
 
-        XYChart.Series<String, Integer> series = new XYChart.Series<>();
+        barChart.getData().add(monthSeries);
+        dayChart.getData().add(daySeries);
+        yearChart.getData().add(yearSeries);
 
-        // Создаём объект XYChart.Data для каждого месяца.
-        // Добавляем его в серии.
-        for (int i = 0; i < monthCounter.length; i++) {
-            series.getData().add(new XYChart.Data<>(monthNames.get(i), monthCounter[i]));
+        histogram.addListener(new WeakInvalidationListener(histogramListener));
+    }
+
+    /**
+     * Обновляет диаграммы один раз на несколько изменений подряд
+     * (например, при загрузке книги пачками).
+     */
+    private void scheduleRefresh() {
+        if (!refreshPending) {
+            refreshPending = true;
+            Platform.runLater(this::refresh);
+        }
+    }
+
+    /**
+     * Переносит счётчики гистограмм в диаграммы.
+     */
+    private void refresh() {
+        refreshPending = false;
+        for (int i = 0; i < 12; i++) {
+            setValue(monthSeries.getData().get(i), histogram.getMonthCount(i + 1));
+        }
+        for (int day = 0; day < BirthdayHistogram.DAYS; day++) {
+            setValue(daySeries.getData().get(day), histogram.getDayCount(day));
+        }
+
+        // По годам показываем только годы от самого раннего до самого позднего.
+        int minYear = histogram.getMinYear();
+        int maxYear = histogram.getMaxYear();
+        int years = minYear == 0 ? 0 : maxYear - minYear + 1;
+        ObservableList<XYChart.Data<Number, Number>> yearData = yearSeries.getData();
+        if (yearData.size() != years
+                || (years > 0 && yearData.get(0).getXValue().intValue() != minYear)) {
+            List<XYChart.Data<Number, Number>> points = new ArrayList<>(years);
+            for (int i = 0; i < years; i++) {
+                points.add(new XYChart.Data<>(minYear + i, histogram.getYearCount(minYear + i)));
+            }
+            yearData.setAll(points);
+        } else {
+            for (int i = 0; i < years; i++) {
+                setValue(yearData.get(i), histogram.getYearCount(minYear + i));
+            }
         }
+    }
 
-        barChart.getData().add(series);
+    private static <X> void setValue(XYChart.Data<X, ? super Integer> data, int value) {
+        if (!Integer.valueOf(value).equals(data.getYValue())) {
+            data.setYValue(value);
+        }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,196 @@
+package sample.address.view;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.concurrent.ForkJoinPool;
+
+import javafx.collections.ListChangeListener;
+import javafx.concurrent.Task;
+import javafx.fxml.FXML;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.stage.Stage;
+import sample.address.model.DuplicateCluster;
+import sample.address.model.DuplicateFinder;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+import sample.address.util.DateUtil;
+
+/**
+ * Окно поиска дубликатов.
+ * <p>
+ * При открытии окна поиск ({@link DuplicateFinder}) запускается в фоновом
+ * потоке над копией адресатов. Найденные группы показываются списком;
+ * кнопка Merge объединяет выбранную группу в одного адресата, Merge All -
+ * все группы сразу. Если адресаты изменились не через это окно (например,
+ * закончилась загрузка книги), поиск запускается заново.
+ */
+public class DuplicatesController {
+
+    @FXML
+    private Label statusLabel;
+    @FXML
+    private ListView<DuplicateCluster> clusterList;
+    @FXML
+    private Button mergeButton;
+
+    private Stage dialogStage;
+    private PersonStoreList personData;
+    private Task<DuplicateFinder.Result> search;
+    private boolean merging;
+
+    private final ListChangeListener<Person> personListener = change -> {
+        if (!merging) {
+            startSearch();
+        }
+    };
+
+    /**
+     * Инициализирует класс-контроллер. Этот метод вызывается автоматически
+     * после того, как fxml-файл будет загружен.
+     */
+    @FXML
+    private void initialize() {
+        clusterList.setCellFactory(list -> new ListCell<DuplicateCluster>() {
+            @Override
+            protected void updateItem(DuplicateCluster cluster, boolean empty) {
+                super.updateItem(cluster, empty);
+                setText(empty || cluster == null ? null : describe(cluster));
+            }
+        });
+        mergeButton.disableProperty().bind(clusterList.getSelectionModel().selectedItemProperty().isNull());
+    }
+
+    /**
+     * Устанавливает сцену для этого окна.
+     *
+     * @param dialogStage
+     */
+    public void setDialogStage(Stage dialogStage) {
+        this.dialogStage = dialogStage;
+        dialogStage.setOnHidden(event -> {
+            personData.removeListener(personListener);
+            if (search != null) {
+                search.cancel();
+            }
+        });
+    }
+
+    /**
+     * Задаёт адресатов и запускает поиск дубликатов.
+     *
+     * @param personData список адресатов
+     */
+    public void setPersonData(PersonStoreList personData) {
+        this.personData = personData;
+        personData.addListener(personListener);
+        startSearch();
+    }
+
+    private void startSearch() {
+        if (search != null) {
+            search.cancel();
+        }
+        clusterList.getItems().clear();
+        statusLabel.setText("Searching...");
+        PersonStore snapshot = personData.copyStore();
+        Task<DuplicateFinder.Result> task = new Task<DuplicateFinder.Result>() {
+            @Override
+            protected DuplicateFinder.Result call() {
+                return DuplicateFinder.find(snapshot, ForkJoinPool.commonPool(), this::isCancelled);
+            }
+        };
+        long started = System.nanoTime();
+        task.setOnSucceeded(event -> {
+            DuplicateFinder.Result result = task.getValue();
+            List<DuplicateCluster> clusters = result.getClusters();
+            long millis = (System.nanoTime() - started) / 1_000_000;
+            String status = clusters.size() + " groups of duplicates among "
+                    + snapshot.size() + " persons (" + millis + " ms)";
+            if (result.getWindowedBlocks() > 0) {
+                // Большие блоки сравнивались не целиком - сообщаем об этом.
+                status += "; " + result.getWindowedBlocks() + " blocks larger than "
+                        + DuplicateFinder.MAX_BLOCK + " (" + result.getWindowedRows()
+                        + " persons) compared only with the " + DuplicateFinder.WINDOW + " nearest neighbours";
+            }
+            statusLabel.setText(status);
+            clusterList.getItems().setAll(clusters);
+        });
+        task.setOnFailed(event -> {
+            statusLabel.setText("Search failed: " + task.getException());
+            task.getException().printStackTrace();
+        });
+        search = task;
+        Thread thread = new Thread(task, "duplicate-finder");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Вызывается, когда пользователь нажимает на кнопку Merge.
+     */
+    @FXML
+    private void handleMerge() {
+        DuplicateCluster cluster = clusterList.getSelectionModel().getSelectedItem();
+        if (cluster != null) {
+            merge(Arrays.asList(cluster));
+        }
+    }
+
+    /**
+     * Вызывается, когда пользователь нажимает на кнопку Merge All.
+     */
+    @FXML
+    private void handleMergeAll() {
+        merge(new ArrayList<>(clusterList.getItems()));
+    }
+
+    /**
+     * Вызывается, когда пользователь нажимает на кнопку Close.
+     */
+    @FXML
+    private void handleClose() {
+        dialogStage.close();
+    }
+
+    private void merge(List<DuplicateCluster> clusters) {
+        List<DuplicateCluster> remaining = clusterList.getItems();
+        int[] removed;
+        merging = true;
+        try {
+            removed = DuplicateFinder.merge(personData, clusters);
+        } finally {
+            merging = false;
+        }
+        // Удалённые строки сдвигают номера строк остальных групп:
+        // пересчитываем их один раз после всех объединений.
+        Set<DuplicateCluster> merged = Collections.newSetFromMap(new IdentityHashMap<>());
+        merged.addAll(clusters);
+        remaining.removeIf(merged::contains);
+        for (DuplicateCluster other : remaining) {
+            other.shift(removed);
+        }
+        remaining.removeIf(cluster -> cluster.size() < 2);
+        clusterList.refresh();
+        statusLabel.setText(remaining.size() + " groups of duplicates left");
+    }
+
+    private String describe(DuplicateCluster cluster) {
+        StringJoiner text = new StringJoiner("\n");
+        for (int row : cluster.getRows()) {
+            Person person = personData.get(row);
+            text.add(person.getFirstName() + " " + person.getLastName() + ", "
+                    + person.getStreet() + ", " + person.getPostalCode() + " " + person.getCity()
+                    + (person.getBirthday() != null ? ", " + DateUtil.format(person.getBirthday()) : ""));
+        }
+        return text.toString();
+    }
+}
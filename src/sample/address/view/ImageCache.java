@@ -0,0 +1,30 @@
+package sample.address.view;
+
+import javafx.scene.image.Image;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Общий кэш картинок из resources/images: каждая картинка читается
+ * с диска один раз, дальше окна получают тот же объект Image.
+ * Картинки можно запрашивать из любого потока, например при фоновой
+ * подготовке окон.
+ */
+public final class ImageCache {
+
+    private static final String LOCATION = "file:resources/images/";
+
+    private static final Map<String, Image> IMAGES = new ConcurrentHashMap<>();
+
+    private ImageCache() {
+    }
+
+    /**
+     * @param name имя файла в resources/images, например "icon_edit.png"
+     * @return картинка
+     */
+    public static Image get(String name) {
+        return IMAGES.computeIfAbsent(name, key -> new Image(LOCATION + key));
+    }
+}
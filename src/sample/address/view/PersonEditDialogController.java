@@ -6,6 +6,7 @@ import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.TextField;
 import javafx.stage.Stage;
 import sample.address.model.Person;
+import sample.address.model.StringDictionary;
 import sample.address.util.DateUtil;
 
 /**
@@ -42,6 +43,7 @@ public class PersonEditDialogController {
 
     private Stage dialogStage;
     private Person person;
+    private StringDictionary dictionary = new StringDictionary();
     private boolean okClicked = false;
 
     /**
@@ -61,13 +63,26 @@ public class PersonEditDialogController {
         this.dialogStage = dialogStage;
     }
 
+    /**
+     * Задаёт словарь строк книги: введённые значения заменяются
+     * равными строками из словаря, чтобы не хранить их копии.
+     *
+     * @param dictionary словарь строк
+     */
+    public void setDictionary(StringDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
     /**
      * Задаёт адресата, информацию о котором будем менять.
+     * Окно переиспользуется, поэтому здесь же сбрасывается прежний ответ.
      *
      * @param person
      */
     public void setPerson(Person person) {
         this.person = person;
+        okClicked = false;
+        firstNameField.requestFocus();
 
         firstNameField.setText(person.getFirstName());
         lastNameField.setText(person.getLastName());
@@ -93,11 +108,11 @@ public class PersonEditDialogController {
     @FXML
     private void handleOk() {
         if (isInputValid()) {
-            person.setFirstName(firstNameField.getText());
-            person.setLastName(lastNameField.getText());
-            person.setStreet(streetField.getText());
+            person.setFirstName(dictionary.intern(firstNameField.getText()));
+            person.setLastName(dictionary.intern(lastNameField.getText()));
+            person.setStreet(dictionary.intern(streetField.getText()));
             person.setPostalCode(Integer.parseInt(postalCodeField.getText()));
-            person.setCity(cityField.getText());
+            person.setCity(dictionary.intern(cityField.getText()));
             person.setBirthday(DateUtil.parse(birthdayField.getText()));
 
             okClicked = true;
@@ -1,14 +1,26 @@
 package sample.address.view;
 
+import javafx.application.Platform;
+import javafx.collections.ObservableList;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.TableView;
 import javafx.scene.control.Label;
+import javafx.scene.control.ListView;
 import javafx.scene.control.TableColumn;
+import javafx.scene.control.TextField;
 import sample.address.MainApp;
+import sample.address.model.BirthdayIndex;
 import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.SearchResultList;
 import sample.address.util.DateUtil;
 
+import java.time.LocalDate;
+import java.util.List;
+import java.util.function.IntBinaryOperator;
+import java.util.function.IntFunction;
+
 /*Теперь мы отобразим в нашей таблице некоторые данные.
  *Для этого необходимо создать класс-контроллер для представления
  *PersonOverview.fxml.
@@ -44,6 +56,9 @@ public class PersonOverviewController {
     @FXML
     private TableColumn<Person, String> lastNameColumn;
 
+    @FXML
+    private TextField searchField;
+
     @FXML
     private Label firstNameLabel;
     @FXML
@@ -57,6 +72,9 @@ public class PersonOverviewController {
     @FXML
     private Label birthdayLabel;
 
+    @FXML
+    private ListView<String> upcomingList;
+
     @FXML
     private Label createdLabel;
 
@@ -66,6 +84,14 @@ public class PersonOverviewController {
     // Ссылка на главное приложение.
     private MainApp mainApp;
 
+    // Адресаты, подходящие под строку поиска.
+    private SearchResultList searchResults;
+
+    // Сколько дней вперёд показывать ближайшие дни рождения.
+    private static final int UPCOMING_DAYS = 14;
+    private static final int UPCOMING_LIMIT = 100;
+    private boolean upcomingRefreshPending;
+
     /**
      * Конструктор.
      * Конструктор вызывается раньше метода initialize().
@@ -113,8 +139,129 @@ public class PersonOverviewController {
     public void setMainApp(MainApp mainApp) {
         this.mainApp = mainApp;
 
-        // Добавление в таблицу данных из наблюдаемого списка
-        personTable.setItems(mainApp.getPersonData());
+        // Добавление в таблицу данных из наблюдаемого списка.
+        // Таблица показывает адресатов, подходящих под строку поиска.
+        searchResults = mainApp.getSearchResults();
+        personTable.setItems(searchResults);
+        searchField.textProperty().addListener(
+                (observable, oldValue, newValue) -> searchResults.setQuery(newValue));
+
+        // Панель ближайших дней рождений обновляется при изменении адресатов.
+        BirthdayIndex birthdayIndex = mainApp.getBirthdayIndex();
+        birthdayIndex.addListener(observable -> scheduleUpcomingRefresh());
+        refreshUpcoming();
+
+        // Список результатов поиска нельзя переставлять, поэтому при
+        // сортировке по столбцу сортируем саму адресную книгу - прямо
+        // в столбцах хранилища, одной перестановкой.
+        personTable.setSortPolicy(table -> {
+            if (isShowingDatabase()) {
+                // Строки из БД идут в порядке id и не сортируются.
+                return false;
+            }
+            IntBinaryOperator comparator = rowComparator(table.getSortOrder());
+            if (comparator != null) {
+                mainApp.getPersonData().sortRows(comparator);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Строит сравнение строк хранилища по порядку сортировки таблицы.
+     * Значения сравниваются так же, как в TableColumn по умолчанию:
+     * null меньше любой строки, строки - через compareTo.
+     *
+     * @return сравнение или null, если сортировать не нужно
+     */
+    private IntBinaryOperator rowComparator(List<TableColumn<Person, ?>> sortOrder) {
+        PersonStore store = mainApp.getPersonData().getStore();
+        IntBinaryOperator result = null;
+        for (TableColumn<Person, ?> column : sortOrder) {
+            IntFunction<String> value = column == firstNameColumn ? store::getFirstName : store::getLastName;
+            boolean descending = column.getSortType() == TableColumn.SortType.DESCENDING;
+            IntBinaryOperator byColumn = (a, b) -> {
+                int order = compareText(value.apply(a), value.apply(b));
+                return descending ? -order : order;
+            };
+            IntBinaryOperator previous = result;
+            result = previous == null ? byColumn : (a, b) -> {
+                int order = previous.applyAsInt(a, b);
+                return order != 0 ? order : byColumn.applyAsInt(a, b);
+            };
+        }
+        return result;
+    }
+
+    private static int compareText(String a, String b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        return a.compareTo(b);
+    }
+
+    /**
+     * Обновляет панель ближайших дней рождений один раз на несколько
+     * изменений подряд.
+     */
+    private void scheduleUpcomingRefresh() {
+        if (!upcomingRefreshPending) {
+            upcomingRefreshPending = true;
+            Platform.runLater(this::refreshUpcoming);
+        }
+    }
+
+    /**
+     * Показывает дни рождения на ближайшие UPCOMING_DAYS дней.
+     */
+    private void refreshUpcoming() {
+        upcomingRefreshPending = false;
+        LocalDate today = LocalDate.now();
+        StringBuilder line = new StringBuilder();
+        upcomingList.getItems().clear();
+        for (BirthdayIndex.Occurrence occurrence : mainApp.getBirthdayIndex()
+                .between(today, today.plusDays(UPCOMING_DAYS - 1), UPCOMING_LIMIT)) {
+            Person person = mainApp.getPersonData().get(occurrence.getRow());
+            line.setLength(0);
+            line.append(DateUtil.format(occurrence.getDate())).append("  ")
+                    .append(person.getFirstName()).append(' ').append(person.getLastName())
+                    .append(" (").append(occurrence.getAge()).append(')');
+            upcomingList.getItems().add(line.toString());
+        }
+    }
+
+    /**
+     * Показывает в таблице адресатов из БД вместо адресной книги.
+     * Пока показывается БД, поиск и изменение адресатов недоступны.
+     *
+     * @param items адресаты из БД или null, чтобы вернуться к адресной книге
+     */
+    public void showDatabase(ObservableList<Person> items) {
+        personTable.setItems(items != null ? items : searchResults);
+        searchField.setDisable(items != null);
+    }
+
+    private boolean isShowingDatabase() {
+        return personTable.getItems() != searchResults;
+    }
+
+    /**
+     * Предупреждает, что адресатов из БД нельзя изменять в таблице.
+     *
+     * @return true, если показывается БД
+     */
+    private boolean checkReadOnly() {
+        if (!isShowingDatabase()) {
+            return false;
+        }
+        Alert alert = new Alert(Alert.AlertType.INFORMATION);
+        alert.initOwner(mainApp.getPrimaryStage());
+        alert.setTitle("Read Only");
+        alert.setHeaderText("Database view is read-only");
+        alert.setContentText("Open an address book to edit persons.");
+
+        alert.showAndWait();
+        return true;
     }
 
     /**
@@ -138,8 +285,9 @@ public class PersonOverviewController {
             // TODO: Нам нужен способ для перевода дня рождения в тип String!
             birthdayLabel.setText(DateUtil.format(person.getBirthday()));
 
-//            createdLabel.setText(DateUtil.formatDateTime(person.getCreated()));
-//            updatedLabel.setText(DateUtil.formatDateTime(person.getUdated()));
+            // Время создания и изменения есть только у адресатов из БД.
+            createdLabel.setText(DateUtil.formatDateTime(person.getCreated()));
+            updatedLabel.setText(DateUtil.formatDateTime(person.getUpdated()));
         } else {
             // Если Person = null, то убираем весь текст.
             firstNameLabel.setText("");
@@ -148,8 +296,8 @@ public class PersonOverviewController {
             postalCodeLabel.setText("");
             cityLabel.setText("");
             birthdayLabel.setText("");
-//            createdLabel.setText("");
-//            updatedLabel.setText("");
+            createdLabel.setText("");
+            updatedLabel.setText("");
         }
     }
 
@@ -160,13 +308,18 @@ public class PersonOverviewController {
      */
     @FXML
     private void handleDeletePerson() {
+        if (checkReadOnly()) {
+            return;
+        }
         // selectedIndex - это число будет соответствовать номеру элемента в
         // массиве, т.е. от 0 до конца массива.
         // Если ничего не будет выбрано, то метод getSelectedIndex()
         // вернеи нам -1
         int selectedIndex = personTable.getSelectionModel().getSelectedIndex();
         if (selectedIndex >= 0) {
-            personTable.getItems().remove(selectedIndex);
+            // Таблица показывает результаты поиска - удаляем адресата
+            // из самой адресной книги.
+            mainApp.getPersonData().remove(searchResults.getSourceIndex(selectedIndex));
         } else {
             // Ничего не выбрано.
             Alert alert = new Alert(Alert.AlertType.WARNING);
@@ -185,6 +338,9 @@ public class PersonOverviewController {
      */
     @FXML
     private void handleNewPerson() {
+        if (checkReadOnly()) {
+            return;
+        }
         Person tempPerson = new Person();
         boolean okClicked = mainApp.showPersonEditDialog(tempPerson);
         if (okClicked) {
@@ -198,6 +354,9 @@ public class PersonOverviewController {
      */
     @FXML
     private void handleEditPerson() {
+        if (checkReadOnly()) {
+            return;
+        }
         Person selectedPerson = personTable.getSelectionModel().getSelectedItem();
         if (selectedPerson != null) {
             boolean okClicked = mainApp.showPersonEditDialog(selectedPerson);
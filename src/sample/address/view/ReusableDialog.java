@@ -0,0 +1,162 @@
+package sample.address.view;
+
+import javafx.fxml.FXMLLoader;
+import javafx.scene.Parent;
+import javafx.scene.Scene;
+import javafx.stage.Modality;
+import javafx.stage.Stage;
+import javafx.stage.WindowEvent;
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.function.BiConsumer;
+
+/**
+ * Окно, которое строится один раз и затем показывается снова и снова.
+ * <p>
+ * Разбор FXML и создание контроллера - самая долгая часть открытия окна.
+ * Поэтому макет можно разобрать заранее в фоновом потоке
+ * ({@link #preload(Executor)}), а при первом показе в потоке JavaFX
+ * остаётся только создать Stage и Scene. Если окно понадобилось раньше,
+ * чем закончилась фоновая загрузка, то показ её дожидается; без preload
+ * макет загружается при первом показе.
+ * <p>
+ * Контроллер переиспользуется, поэтому перед каждым показом его нужно
+ * заново настроить (например, передать адресата). Время от запроса окна
+ * до его появления на экране пишется в метрику dialog.&lt;name&gt;.open.
+ * <p>
+ * Все методы, кроме preload, вызываются в потоке JavaFX.
+ *
+ * @param <C> класс контроллера
+ */
+public final class ReusableDialog<C> {
+
+    private final URL location;
+    private final String title;
+    private final String icon;
+    private final Stage owner;
+    private final BiConsumer<Stage, C> setup;
+    private final Timer openTimer;
+
+    private FutureTask<FXMLLoader> loading;
+    private Stage stage;
+    private C controller;
+    private long requestedAt;
+
+    /**
+     * @param location fxml-файл окна
+     * @param title    заголовок окна
+     * @param icon     иконка окна (имя файла для {@link ImageCache})
+     * @param owner    главное окно
+     * @param setup    однократная настройка нового окна и контроллера
+     */
+    public ReusableDialog(URL location, String title, String icon, Stage owner, BiConsumer<Stage, C> setup) {
+        this.location = location;
+        this.title = title;
+        this.icon = icon;
+        this.owner = owner;
+        this.setup = setup;
+        String path = location.getPath();
+        this.openTimer = Metrics.timer("dialog." + path.substring(path.lastIndexOf('/') + 1)
+                .replace(".fxml", "") + ".open");
+    }
+
+    /**
+     * Начинает разбор FXML и загрузку иконки в фоновом потоке.
+     *
+     * @param executor фоновый исполнитель
+     */
+    public void preload(Executor executor) {
+        if (loading == null && stage == null) {
+            loading = new FutureTask<>(() -> {
+                ImageCache.get(icon);
+                return ViewLoader.load(location);
+            });
+            executor.execute(loading);
+        }
+    }
+
+    /**
+     * @return контроллер окна; окно строится, если ещё не построено
+     */
+    public C getController() {
+        if (requestedAt == 0) {
+            requestedAt = System.nanoTime();
+        }
+        build();
+        return controller;
+    }
+
+    /**
+     * Показывает окно и сразу возвращается.
+     */
+    public void show() {
+        beforeShow();
+        stage.show();
+        stage.toFront();
+    }
+
+    /**
+     * Показывает окно и ждёт, пока его закроют.
+     */
+    public void showAndWait() {
+        beforeShow();
+        stage.showAndWait();
+    }
+
+    private void beforeShow() {
+        getController();
+        if (stage.isShowing()) {
+            // Окно уже на экране - события показа не будет.
+            requestedAt = 0;
+        }
+    }
+
+    private void build() {
+        if (stage != null) {
+            return;
+        }
+        FXMLLoader loader;
+        try {
+            if (loading != null) {
+                loader = loading.get();
+            } else {
+                loader = ViewLoader.load(location);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (ExecutionException e) {
+            // Фоновая загрузка не удалась - пробуем ещё раз здесь, чтобы
+            // ошибка дошла до вызывающего.
+            try {
+                loader = ViewLoader.load(location);
+            } catch (IOException again) {
+                throw new UncheckedIOException(again);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading " + location, e);
+        } finally {
+            loading = null;
+        }
+
+        stage = new Stage();
+        stage.setTitle(title);
+        stage.getIcons().add(ImageCache.get(icon));
+        stage.initModality(Modality.WINDOW_MODAL);
+        stage.initOwner(owner);
+        stage.setScene(new Scene((Parent) loader.getRoot()));
+        stage.addEventHandler(WindowEvent.WINDOW_SHOWN, event -> {
+            openTimer.record(System.nanoTime() - requestedAt);
+            requestedAt = 0;
+        });
+        controller = loader.getController();
+        setup.accept(stage, controller);
+    }
+}
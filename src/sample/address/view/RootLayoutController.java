@@ -1,12 +1,22 @@
 package sample.address.view;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
+import javafx.beans.InvalidationListener;
+import javafx.concurrent.Task;
 import javafx.fxml.FXML;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
+import javafx.scene.control.Label;
+import javafx.scene.control.Menu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.control.ProgressBar;
+import javafx.scene.layout.HBox;
 import javafx.stage.FileChooser;
 import sample.address.MainApp;
+import sample.address.storage.BookFormat;
 
 /**
  * Контроллер для корневого макета. Корневой макет предоставляет базовый
@@ -17,9 +27,30 @@ import sample.address.MainApp;
  */
 public class RootLayoutController {
 
+    // Панель прогресса загрузки адресной книги.
+    @FXML
+    private HBox loadPane;
+    @FXML
+    private Label loadLabel;
+    @FXML
+    private ProgressBar loadProgress;
+
+    // Пункты Edit -> Undo/Redo доступны, только когда есть что отменять или повторять.
+    @FXML
+    private MenuItem undoItem;
+    @FXML
+    private MenuItem redoItem;
+
+    // File -> Open Recent: недавние книги, по пункту на книгу.
+    @FXML
+    private Menu recentMenu;
+
     // Ссылка на главное приложение
     private MainApp mainApp;
 
+    // Задача загрузки, которая сейчас выполняется.
+    private Task<?> loadTask;
+
     /**
      * Вызывается главным приложением, чтобы оставить ссылку на самого себя.
      *
@@ -27,6 +58,57 @@ public class RootLayoutController {
      */
     public void setMainApp(MainApp mainApp) {
         this.mainApp = mainApp;
+        undoItem.disableProperty().bind(mainApp.getHistory().canUndoProperty().not());
+        redoItem.disableProperty().bind(mainApp.getHistory().canRedoProperty().not());
+        mainApp.getRecentBooks().addListener((InvalidationListener) observable -> updateRecentMenu());
+        updateRecentMenu();
+    }
+
+    /**
+     * Перестраивает меню недавних книг по списку главного приложения.
+     */
+    private void updateRecentMenu() {
+        recentMenu.getItems().clear();
+        for (File file : mainApp.getRecentBooks()) {
+            MenuItem item = new MenuItem(file.getName() + " - " + file.getParent());
+            item.setMnemonicParsing(false);
+            item.setOnAction(event -> mainApp.openBook(file));
+            recentMenu.getItems().add(item);
+        }
+        recentMenu.setDisable(recentMenu.getItems().isEmpty());
+    }
+
+    /**
+     * Показывает панель прогресса для фоновой загрузки адресной книги.
+     * Панель скрывается сама, когда задача завершится, будет отменена
+     * или упадёт с ошибкой.
+     *
+     * @param task задача загрузки
+     */
+    public void showLoadProgress(Task<?> task) {
+        this.loadTask = task;
+        loadLabel.textProperty().bind(task.messageProperty());
+        loadProgress.progressProperty().bind(task.progressProperty());
+        loadPane.setManaged(true);
+        loadPane.setVisible(true);
+
+        task.runningProperty().addListener((observable, wasRunning, isRunning) -> {
+            if (!isRunning && loadTask == task) {
+                loadLabel.textProperty().unbind();
+                loadProgress.progressProperty().unbind();
+                loadPane.setManaged(false);
+                loadPane.setVisible(false);
+                loadTask = null;
+            }
+        });
+    }
+
+    /**
+     * Отменяет текущую загрузку адресной книги.
+     */
+    @FXML
+    private void handleCancelLoad() {
+        mainApp.cancelLoading();
     }
 
     /**
@@ -35,8 +117,7 @@ public class RootLayoutController {
      */
     @FXML
     private void handleNew() {
-        mainApp.getPersonData().clear();
-        mainApp.setPersonFilePath(null);
+        mainApp.newBook();
     }
 
     /**
@@ -47,19 +128,44 @@ public class RootLayoutController {
     private void handleOpen() {
         FileChooser fileChooser = new FileChooser();
 
-        // Задаём фильтр расширений
-        FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter(
-                "XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
+        // Задаём фильтры расширений: все адресные книги и каждый формат отдельно
+        List<String> patterns = new ArrayList<>();
+        for (BookFormat format : BookFormat.values()) {
+            patterns.add(format.getPattern());
+        }
+        // Сжатые вручную книги могут называться как угодно, лишь бы *.gz.
+        patterns.add("*.gz");
+        fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                "Address books (" + String.join(", ", patterns) + ")", patterns));
+        for (BookFormat format : BookFormat.values()) {
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                    format.getDescription(), format.getPattern()));
+        }
 
         // Показываем диалог загрузки файла
         File file = fileChooser.showOpenDialog(mainApp.getPrimaryStage());
 
         if (file != null) {
-            mainApp.loadPersonDataFromFile(file);
+            mainApp.openBook(file);
         }
     }
 
+    /**
+     * Показывает в таблице адресатов из БД (таблица persons).
+     */
+    @FXML
+    private void handleOpenDatabase() {
+        mainApp.openDatabase();
+    }
+
+    /**
+     * Синхронизирует книгу с таблицей persons в БД.
+     */
+    @FXML
+    private void handleSyncDatabase() {
+        mainApp.syncWithDatabase();
+    }
+
     /**
      * Сохраняет файл в файл адресатов, который в настоящее время открыт.
      * Если файл не открыт, то отображается диалог "save as".
@@ -82,20 +188,24 @@ public class RootLayoutController {
     private void handleSaveAs() {
         FileChooser fileChooser = new FileChooser();
 
-        // Задаём фильтр расширений
-        FileChooser.ExtensionFilter extFilter = new FileChooser.ExtensionFilter(
-                "XML files (*.xml)", "*.xml");
-        fileChooser.getExtensionFilters().add(extFilter);
+        // Задаём фильтры расширений, по одному на каждый формат
+        for (BookFormat format : BookFormat.values()) {
+            fileChooser.getExtensionFilters().add(new FileChooser.ExtensionFilter(
+                    format.getDescription(), format.getPattern()));
+        }
 
         // Показываем диалог сохранения файла
         File file = fileChooser.showSaveDialog(mainApp.getPrimaryStage());
 
         if (file != null) {
-            // Убедитесь, что у него правильное расширение
-            if (!file.getPath().endsWith(".xml")) {
-                file = new File(file.getPath() + ".xml");
+            // Убедитесь, что у него правильное расширение: если его нет,
+            // то берём расширение формата, выбранного в фильтре
+            BookFormat format = BookFormat.of(file);
+            if (format == BookFormat.XML && !file.getName().toLowerCase().endsWith(BookFormat.XML.getExtension())) {
+                int selected = fileChooser.getExtensionFilters().indexOf(fileChooser.getSelectedExtensionFilter());
+                format = selected >= 0 ? BookFormat.values()[selected] : BookFormat.XML;
             }
-            mainApp.savePersonDataToFile(file);
+            mainApp.savePersonDataToFile(format.withExtension(file));
         }
     }
 
@@ -107,6 +217,30 @@ public class RootLayoutController {
         mainApp.showBirthdayStatistics();
     }
 
+    /**
+     * Отменяет последнюю правку книги.
+     */
+    @FXML
+    private void handleUndo() {
+        mainApp.getHistory().undo();
+    }
+
+    /**
+     * Повторяет последнюю отменённую правку.
+     */
+    @FXML
+    private void handleRedo() {
+        mainApp.getHistory().redo();
+    }
+
+    /**
+     * Открывает окно поиска дубликатов.
+     */
+    @FXML
+    private void handleFindDuplicates() {
+        mainApp.showDuplicates();
+    }
+
     /**
      * Открывает диалоговое окно about.
      */
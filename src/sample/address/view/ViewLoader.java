@@ -0,0 +1,39 @@
+package sample.address.view;
+
+import javafx.fxml.FXMLLoader;
+import sample.address.metrics.Metrics;
+import sample.address.metrics.Timer;
+
+import java.io.IOException;
+import java.net.URL;
+
+/**
+ * Загрузка макетов FXML с записью времени загрузки в метрику
+ * fxml.&lt;имя файла&gt; (см. {@link Metrics}).
+ */
+public final class ViewLoader {
+
+    private ViewLoader() {
+    }
+
+    /**
+     * Загружает макет. Макет ещё не показан на экране, поэтому загружать
+     * его можно и в фоновом потоке.
+     *
+     * @param location fxml-файл
+     * @return загрузчик с корневым узлом и контроллером
+     */
+    public static FXMLLoader load(URL location) throws IOException {
+        String path = location.getPath();
+        String name = path.substring(path.lastIndexOf('/') + 1).replace(".fxml", "");
+        Timer timer = Metrics.timer("fxml." + name);
+        long start = timer.start();
+        try {
+            FXMLLoader loader = new FXMLLoader(location);
+            loader.load();
+            return loader;
+        } finally {
+            timer.stop(start);
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package sample.address.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sample.address.model.PersonStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Запись и чтение двоичного снимка книги (*.abook).
+ */
+class BookSnapshotTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws Exception {
+        directory = TestBooks.createTempDirectory();
+    }
+
+    @AfterEach
+    void deleteDirectory() throws Exception {
+        TestBooks.deleteRecursively(directory);
+    }
+
+    @Test
+    void readsWhatWasWritten() throws Exception {
+        // Больше одного буфера чтения на столбец.
+        PersonStore book = TestBooks.sample(50000);
+        File file = directory.resolve("book.abook").toFile();
+        BookSnapshot.write(book, file);
+
+        TestBooks.assertSameRows(book, BookSnapshot.read(file));
+    }
+
+    @Test
+    void keepsNullValues() throws Exception {
+        PersonStore book = new PersonStore();
+        book.add(null, null, null, 0, null, PersonStore.NULL_DATE);
+        book.add("Анна", "Петрова", "Тверская", 125009, "Москва", 0);
+        File file = directory.resolve("nulls.abook").toFile();
+        BookSnapshot.write(book, file);
+
+        TestBooks.assertSameRows(book, BookSnapshot.read(file));
+    }
+
+    @Test
+    void readsEmptyBook() throws Exception {
+        File file = directory.resolve("empty.abook").toFile();
+        BookSnapshot.write(new PersonStore(), file);
+
+        PersonStore read = BookSnapshot.read(file);
+        assertEquals(0, read.size());
+        // В прочитанную пустую книгу можно добавлять адресатов.
+        read.add("Иван", "Иванов", "Ленина", 1, "Тула", 0);
+        assertEquals("Иван", read.getFirstName(0));
+    }
+
+    @Test
+    void writesOnlyUsedStrings() throws Exception {
+        PersonStore book = TestBooks.sample(10);
+        book.getDictionary().encode("never used");
+        File file = directory.resolve("book.abook").toFile();
+        BookSnapshot.write(book, file);
+
+        PersonStore read = BookSnapshot.read(file);
+        TestBooks.assertSameRows(book, read);
+        assertEquals(book.getDictionary().size() - 1, read.getDictionary().size());
+    }
+
+    @Test
+    void rejectsTruncatedFile() throws Exception {
+        File file = directory.resolve("book.abook").toFile();
+        BookSnapshot.write(TestBooks.sample(1000), file);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 100);
+        }
+
+        assertThrows(IOException.class, () -> BookSnapshot.read(file));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws Exception {
+        File file = directory.resolve("book.abook").toFile();
+        PersonXmlWriter.write(TestBooks.sample(10), file);
+
+        assertThrows(IOException.class, () -> BookSnapshot.read(file));
+    }
+
+    @Test
+    void changesDoNotReachTheFile() throws Exception {
+        PersonStore book = TestBooks.sample(1000);
+        File file = directory.resolve("book.abook").toFile();
+        BookSnapshot.write(book, file);
+
+        PersonStore read = BookSnapshot.read(file);
+        read.setCity(3, "Казань");
+        read.setBirthdayEpochDay(4, PersonStore.NULL_DATE);
+        book.setCity(3, "Казань");
+        book.setBirthdayEpochDay(4, PersonStore.NULL_DATE);
+        TestBooks.assertSameRows(book, read);
+        TestBooks.assertSameRows(TestBooks.sample(1000), BookSnapshot.read(file));
+
+        // Вставка и удаление строк копируют и остальные столбцы.
+        read.remove(0, 2);
+        read.add("Иван", "Иванов", "Ленина", 1, "Тула", 0);
+        book.remove(0, 2);
+        book.add("Иван", "Иванов", "Ленина", 1, "Тула", 0);
+        TestBooks.assertSameRows(book, read);
+    }
+
+    @Test
+    void fileCanBeReplacedAfterUnmapping() throws Exception {
+        File file = directory.resolve("book.abook").toFile();
+        File next = directory.resolve("book.abook.saving").toFile();
+        PersonStore original = TestBooks.sample(100);
+        BookSnapshot.write(original, file);
+        PersonStore read = BookSnapshot.read(file);
+        read.unmap();
+
+        PersonStore changed = TestBooks.sample(200);
+        BookSnapshot.write(changed, next);
+        Files.move(next.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        TestBooks.assertSameRows(changed, BookSnapshot.read(file));
+        // Хранилище прочитанной раньше книги скопировало её в память.
+        TestBooks.assertSameRows(original, read);
+    }
+}
@@ -0,0 +1,227 @@
+package sample.address.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sample.address.model.Person;
+import sample.address.model.PersonStore;
+import sample.address.model.PersonStoreList;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Дозапись изменений в журнал, его проигрывание при загрузке и уплотнение.
+ * <p>
+ * Потоком JavaFX в тестах служит очередь задач: результат уплотнения
+ * применяется, когда тест сам выполнит задачу из очереди.
+ */
+class ChangeJournalTest {
+
+    private final BlockingQueue<Runnable> fxTasks = new LinkedBlockingQueue<>();
+    private Path directory;
+    private File base;
+
+    @BeforeEach
+    void createBook() throws Exception {
+        directory = TestBooks.createTempDirectory();
+        base = directory.resolve("book.abook").toFile();
+        BookSnapshot.write(TestBooks.sample(20), base);
+    }
+
+    @AfterEach
+    void deleteBook() throws Exception {
+        TestBooks.deleteRecursively(directory);
+    }
+
+    @Test
+    void replaysAppendedChanges() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+
+        list.add(0, person("Новый", "Адресат"));
+        list.remove(5);
+        list.set(3, person("Замена", "Строки"));
+        list.get(7).setCity("Казань");
+        list.get(7).setStreet("Баумана");
+        list.add(list.size(), person("В конце", null));
+        save(journal);
+
+        assertReloadsAs(list.copyStore());
+    }
+
+    @Test
+    void replaysSeveralSaves() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+
+        list.add(2, person("Первое", "Сохранение"));
+        save(journal);
+        list.remove(0, 4);
+        list.get(0).setPostalCode(42);
+        save(journal);
+
+        assertReloadsAs(list.copyStore());
+    }
+
+    @Test
+    void retriesFailedAppend() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+
+        list.add(1, person("Не", "Записан"));
+        ChangeJournal.Batch failed = journal.takePending();
+        list.add(0, person("После", "Ошибки"));
+        journal.appendFailed(failed);
+        assertTrue(journal.hasPendingChanges());
+        save(journal);
+
+        assertReloadsAs(list.copyStore());
+    }
+
+    @Test
+    void dropsTornRecord() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+        list.add(0, person("Целая", "Запись"));
+        save(journal);
+        PersonStore saved = list.copyStore();
+
+        // Запись, оборванная сбоем: длина есть, данных и CRC нет.
+        try (FileOutputStream out = new FileOutputStream(ChangeJournal.journalFile(base), true)) {
+            out.write(new byte[]{0, 0, 0, 100, 1, 2, 3});
+        }
+        PersonStoreList reloaded = load();
+        ChangeJournal reopened = open(reloaded);
+        TestBooks.assertSameRows(saved, reloaded.getStore());
+
+        // Новые записи дописываются после последней целой записи.
+        reloaded.add(0, person("После", "Сбоя"));
+        save(reopened);
+        assertReloadsAs(reloaded.copyStore());
+    }
+
+    @Test
+    void ignoresJournalOfRewrittenBase() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+        list.add(0, person("Устаревшая", "Запись"));
+        save(journal);
+
+        PersonStore rewritten = TestBooks.sample(5);
+        BookSnapshot.write(rewritten, base);
+        assertReloadsAs(rewritten);
+    }
+
+    @Test
+    void compactionDoesNotRepeatSnapshottedRecords() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+
+        // Пакет больше порога уплотнения.
+        list.get(1).setStreet(longString(ChangeJournal.COMPACT_THRESHOLD));
+        ChangeJournal.Batch large = journal.takePending();
+        // Изменение, которое ещё не записано, но попадёт в снимок уплотнения.
+        list.add(0, person("До", "Снимка"));
+        large.write();
+        journal.appended(large);
+        // Изменение после снимка должно остаться в новом журнале.
+        list.get(2).setCity("После снимка");
+
+        Runnable finish = fxTasks.poll(60, TimeUnit.SECONDS);
+        assertNotNull(finish, "compaction did not finish");
+        finish.run();
+        save(journal);
+
+        PersonStore expected = list.copyStore();
+        assertEquals(expected.size(), BookSnapshot.read(base).size(), "compacted base");
+        assertReloadsAs(expected);
+    }
+
+    @Test
+    void closedJournalDoesNotCompact() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+        long baseModified = base.lastModified();
+        long baseLength = base.length();
+
+        list.get(1).setStreet(longString(ChangeJournal.COMPACT_THRESHOLD));
+        ChangeJournal.Batch large = journal.takePending();
+        // Книгу переключили, пока пакет дописывался.
+        journal.close();
+        journal.suspend();
+        list.setAll(new PersonStore());
+        large.write();
+        journal.appended(large);
+
+        assertNull(fxTasks.poll(1, TimeUnit.SECONDS), "compaction must not start");
+        assertEquals(baseLength, base.length());
+        assertEquals(baseModified, base.lastModified());
+    }
+
+    @Test
+    void suspendedJournalDoesNotCompact() throws Exception {
+        PersonStoreList list = load();
+        ChangeJournal journal = open(list);
+
+        list.get(1).setStreet(longString(ChangeJournal.COMPACT_THRESHOLD));
+        ChangeJournal.Batch large = journal.takePending();
+        journal.suspend();
+        large.write();
+        journal.appended(large);
+
+        assertNull(fxTasks.poll(1, TimeUnit.SECONDS), "compaction must not start");
+    }
+
+    private PersonStoreList load() throws IOException {
+        return new PersonStoreList(BookSnapshot.read(base));
+    }
+
+    private ChangeJournal open(PersonStoreList list) throws IOException {
+        ChangeJournal journal = new ChangeJournal(list, fxTasks::add);
+        journal.open(base);
+        return journal;
+    }
+
+    /**
+     * Дописывает накопленные изменения так же, как BookSaver.
+     */
+    private static void save(ChangeJournal journal) throws IOException {
+        ChangeJournal.Batch batch = journal.takePending();
+        if (batch != null) {
+            batch.write();
+            journal.appended(batch);
+        }
+    }
+
+    private void assertReloadsAs(PersonStore expected) throws IOException {
+        PersonStoreList reloaded = load();
+        open(reloaded);
+        TestBooks.assertSameRows(expected, reloaded.getStore());
+    }
+
+    private static Person person(String firstName, String lastName) {
+        Person person = new Person(firstName, lastName);
+        person.setBirthday(LocalDate.of(1985, 3, 14));
+        return person;
+    }
+
+    private static String longString(long length) {
+        StringBuilder value = new StringBuilder((int) length + 1);
+        while (value.length() <= length) {
+            value.append("abcdefghij");
+        }
+        return value.toString();
+    }
+}
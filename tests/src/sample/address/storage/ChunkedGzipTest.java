@@ -0,0 +1,130 @@
+package sample.address.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Сжатие частями с индексом и параллельная распаковка.
+ */
+class ChunkedGzipTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws Exception {
+        directory = TestBooks.createTempDirectory();
+    }
+
+    @AfterEach
+    void deleteDirectory() throws Exception {
+        TestBooks.deleteRecursively(directory);
+    }
+
+    @Test
+    void readsWhatWasWritten() throws Exception {
+        int chunk = ChunkedGzipOutputStream.CHUNK_SIZE;
+        for (int size : new int[]{0, 1, chunk - 1, chunk, chunk + 1, 3 * chunk + chunk / 2}) {
+            byte[] data = data(size);
+            File file = compress(data, "data-" + size + ".gz");
+
+            try (InputStream in = ChunkedGzipInputStream.open(file)) {
+                assertTrue(in instanceof ChunkedGzipInputStream, "indexed file of " + size + " bytes");
+                assertEquals(size, ((ChunkedGzipInputStream) in).getLength());
+                assertArrayEquals(data, readAll(in));
+            }
+        }
+    }
+
+    @Test
+    void isOrdinaryGzip() throws Exception {
+        byte[] data = data(2 * ChunkedGzipOutputStream.CHUNK_SIZE + 123);
+        File file = compress(data, "data.gz");
+
+        // Все части и член gzip с индексом читает и обычный GZIPInputStream.
+        try (InputStream in = new GZIPInputStream(new FileInputStream(file))) {
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test
+    void readsGzipWithoutIndex() throws Exception {
+        byte[] data = data(100000);
+        File file = directory.resolve("plain.gz").toFile();
+        try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+            out.write(data);
+        }
+
+        try (InputStream in = ChunkedGzipInputStream.open(file)) {
+            assertFalse(in instanceof ChunkedGzipInputStream);
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    @Test
+    void readsUncompressedFile() throws Exception {
+        byte[] data = data(1000);
+        File file = directory.resolve("plain.xml").toFile();
+        Files.write(file.toPath(), data);
+
+        try (InputStream in = ChunkedGzipInputStream.open(file)) {
+            assertArrayEquals(data, readAll(in));
+        }
+    }
+
+    private File compress(byte[] data, String name) throws IOException {
+        File file = directory.resolve(name).toFile();
+        try (OutputStream out = new ChunkedGzipOutputStream(new FileOutputStream(file))) {
+            // Пишем кусками разного размера, чтобы границы записей не совпадали с частями.
+            int written = 0;
+            int step = 1;
+            while (written < data.length) {
+                int n = Math.min(step, data.length - written);
+                out.write(data, written, n);
+                written += n;
+                step = step * 3 + 7;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Данные, которые сжимаются, но не вырождаются в один повтор.
+     */
+    private static byte[] data(int size) {
+        Random random = new Random(size);
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ('a' + random.nextInt(8));
+        }
+        return data;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, n);
+        }
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,130 @@
+package sample.address.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sample.address.model.Person;
+import sample.address.model.PersonListWrapper;
+import sample.address.model.PersonStore;
+import sample.address.model.StringDictionary;
+
+import javax.xml.bind.JAXBContext;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Запись книги в XML и чтение её обратно: последовательное, параллельное
+ * и из сжатого файла, а также совпадение результата с JAXB.
+ */
+class PersonXmlTest {
+
+    private Path directory;
+
+    @BeforeEach
+    void createDirectory() throws Exception {
+        directory = TestBooks.createTempDirectory();
+    }
+
+    @AfterEach
+    void deleteDirectory() throws Exception {
+        TestBooks.deleteRecursively(directory);
+    }
+
+    @Test
+    void readsWhatWasWritten() throws Exception {
+        PersonStore book = TestBooks.sample(2000);
+        File file = directory.resolve("book.xml").toFile();
+        PersonXmlWriter.write(book, file);
+
+        TestBooks.assertSameRows(book, TestBooks.readXml(file));
+    }
+
+    @Test
+    void readsEmptyBook() throws Exception {
+        File file = directory.resolve("empty.xml").toFile();
+        PersonXmlWriter.write(new PersonStore(), file);
+
+        assertEquals(0, TestBooks.readXml(file).size());
+    }
+
+    @Test
+    void readsCompressedBook() throws Exception {
+        // Больше одной части ChunkedGzipOutputStream.
+        PersonStore book = TestBooks.sample(30000);
+        File file = directory.resolve("book.xml.gz").toFile();
+        PersonXmlWriter.writeCompressed(book, file);
+
+        TestBooks.assertSameRows(book, TestBooks.readXml(file));
+    }
+
+    @Test
+    void parallelReadMatchesSequentialRead() throws Exception {
+        PersonStore book = TestBooks.sample(30000);
+        File file = directory.resolve("large.xml").toFile();
+        PersonXmlWriter.write(book, file);
+        assertTrue(file.length() > 4L * ParallelPersonXmlReader.RANGE_SIZE, "book must span several ranges");
+
+        StringDictionary dictionary = new StringDictionary();
+        PersonStore read = new PersonStore(dictionary);
+        try (ParallelPersonXmlReader reader = new ParallelPersonXmlReader(file, dictionary)) {
+            PersonStore batch;
+            while ((batch = reader.nextBatch()) != null) {
+                assertTrue(batch.getDictionary() == dictionary, "batch must use the shared dictionary");
+                read.insertAll(read.size(), batch);
+            }
+        }
+        TestBooks.assertSameRows(book, read);
+    }
+
+    @Test
+    void readsLikeJaxb() throws Exception {
+        String xml = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n<persons>"
+                + person("<firstName>Ok</firstName><postalCode> 77 </postalCode><birthday>2012-12-03</birthday>")
+                + person("<firstName>Feb31</firstName><birthday>2020-02-31</birthday>")
+                + person("<firstName>Apr31</firstName><birthday>2021-04-31</birthday>")
+                + person("<firstName>Month13</firstName><birthday>2021-13-01</birthday>")
+                + person("<firstName>Garbage</firstName><postalCode>12x</postalCode><birthday>soon</birthday>")
+                + person("<firstName>Spaces</firstName><birthday> 2020-01-01</birthday>")
+                + person("<firstName>Empty</firstName><postalCode></postalCode>")
+                + person("<firstName>Negative</firstName><postalCode>-5</postalCode>")
+                + person("<firstName>Overflow</firstName><postalCode>99999999999</postalCode>")
+                + person("<lastName>Defaults</lastName><unknown><nested/></unknown>")
+                + "\n</persons>";
+
+        PersonListWrapper wrapper = (PersonListWrapper) JAXBContext.newInstance(PersonListWrapper.class)
+                .createUnmarshaller().unmarshal(new StringReader(xml));
+        List<Person> streamed = new ArrayList<>();
+        try (PersonXmlReader reader = new PersonXmlReader(
+                new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8)), -1)) {
+            Person person;
+            while ((person = reader.next()) != null) {
+                streamed.add(person);
+            }
+        }
+
+        assertEquals(wrapper.getPersons().size(), streamed.size());
+        for (int i = 0; i < streamed.size(); i++) {
+            Person expected = wrapper.getPersons().get(i);
+            Person actual = streamed.get(i);
+            String name = String.valueOf(expected.getFirstName());
+            assertEquals(expected.getFirstName(), actual.getFirstName(), name);
+            assertEquals(expected.getLastName(), actual.getLastName(), name);
+            assertEquals(expected.getStreet(), actual.getStreet(), name);
+            assertEquals(expected.getPostalCode(), actual.getPostalCode(), name);
+            assertEquals(expected.getCity(), actual.getCity(), name);
+            assertEquals(expected.getBirthday(), actual.getBirthday(), name);
+        }
+    }
+
+    private static String person(String fields) {
+        return "\n<person>" + fields + "</person>";
+    }
+}
@@ -0,0 +1,87 @@
+package sample.address.storage;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import sample.address.model.PersonStore;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Файл состояния синхронизации: id строк по порядку, пока книга та же,
+ * и сопоставление по хешу, если книгу переписали.
+ */
+class SyncStateTest {
+
+    private Path directory;
+    private File book;
+
+    @BeforeEach
+    void createBook() throws Exception {
+        directory = TestBooks.createTempDirectory();
+        book = directory.resolve("book.abook").toFile();
+    }
+
+    @AfterEach
+    void deleteBook() throws Exception {
+        TestBooks.deleteRecursively(directory);
+    }
+
+    @Test
+    void attachesIdsByRowOfTheSameBook() throws Exception {
+        // Две одинаковые строки: по хешу их id не различить.
+        PersonStore store = twins();
+        BookSnapshot.write(store, book);
+        synced(store).write(book, new int[]{20, 10});
+
+        PersonStore read = BookSnapshot.read(book);
+        SyncState.read(book).attach(read);
+        assertEquals(20, read.getId(0));
+        assertEquals(10, read.getId(1));
+    }
+
+    @Test
+    void matchesRowsByHashWhenBookChanged() throws Exception {
+        PersonStore store = TestBooks.sample(3);
+        BookSnapshot.write(store, book);
+        SyncState.EMPTY.update(LocalDateTime.of(2020, 1, 1, 0, 0), new int[]{7, 8, 9},
+                new long[]{SyncState.rowHash(store, 0), SyncState.rowHash(store, 1), SyncState.rowHash(store, 2)},
+                new int[0]).write(book, new int[]{7, 8, 9});
+
+        // Книгу переписали в обход приложения: строки в другом порядке,
+        // число строк то же.
+        PersonStore rewritten = store.copy();
+        rewritten.permute(new int[]{2, 0, 1});
+        BookSnapshot.write(rewritten, book);
+        book.setLastModified(book.lastModified() + 2000);
+
+        PersonStore read = BookSnapshot.read(book);
+        SyncState.read(book).attach(read);
+        assertEquals(9, read.getId(0));
+        assertEquals(7, read.getId(1));
+        assertEquals(8, read.getId(2));
+    }
+
+    @Test
+    void unsyncedBookHasNoState() throws Exception {
+        BookSnapshot.write(TestBooks.sample(3), book);
+        assertEquals(SyncState.EMPTY, SyncState.read(book));
+    }
+
+    private static PersonStore twins() {
+        PersonStore store = new PersonStore();
+        store.add("Анна", "Петрова", "Тверская", 125009, "Москва", 0);
+        store.add("Анна", "Петрова", "Тверская", 125009, "Москва", 0);
+        return store;
+    }
+
+    private static SyncState synced(PersonStore store) {
+        long hash = SyncState.rowHash(store, 0);
+        return SyncState.EMPTY.update(LocalDateTime.of(2020, 1, 1, 0, 0),
+                new int[]{10, 20}, new long[]{hash, hash}, new int[0]);
+    }
+}
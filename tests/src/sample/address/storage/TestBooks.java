@@ -0,0 +1,84 @@
+package sample.address.storage;
+
+import sample.address.model.PersonStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Общие данные и проверки для тестов форматов адресной книги.
+ */
+final class TestBooks {
+
+    private static final String[] CITIES = {"Москва", "Санкт-Петербург", "Berlin", "Zürich", "A & B <Town>"};
+    private static final String[] STREETS = {"Тверская", "Невский проспект", "Unter den Linden", "\"Quoted\" st."};
+
+    private TestBooks() {
+    }
+
+    /**
+     * Книга с повторяющимися городами и улицами, символами, которые в XML
+     * нужно экранировать, и пустыми именами.
+     *
+     * @param size количество адресатов
+     */
+    static PersonStore sample(int size) {
+        PersonStore store = new PersonStore();
+        for (int i = 0; i < size; i++) {
+            store.add(i % 7 == 0 ? null : "Имя" + i,
+                    i % 11 == 0 ? null : "Фамилия" + (i % 97),
+                    STREETS[i % STREETS.length] + ", " + (i % 150),
+                    100000 + i,
+                    CITIES[i % CITIES.length],
+                    -25000 + i * 3);
+        }
+        return store;
+    }
+
+    /**
+     * Проверяет, что в хранилищах одни и те же адресаты в одном и том же порядке.
+     */
+    static void assertSameRows(PersonStore expected, PersonStore actual) {
+        assertEquals(expected.size(), actual.size(), "size");
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.getFirstName(row), actual.getFirstName(row), "firstName of row " + row);
+            assertEquals(expected.getLastName(row), actual.getLastName(row), "lastName of row " + row);
+            assertEquals(expected.getStreet(row), actual.getStreet(row), "street of row " + row);
+            assertEquals(expected.getPostalCode(row), actual.getPostalCode(row), "postalCode of row " + row);
+            assertEquals(expected.getCity(row), actual.getCity(row), "city of row " + row);
+            assertEquals(expected.getBirthdayEpochDay(row), actual.getBirthdayEpochDay(row), "birthday of row " + row);
+        }
+    }
+
+    /**
+     * Читает книгу в формате XML (сжатую или нет) последовательно.
+     */
+    static PersonStore readXml(File file) throws Exception {
+        PersonStore store = new PersonStore();
+        try (PersonXmlReader reader = new PersonXmlReader(file)) {
+            while (reader.next(store)) {
+                // читаем до конца документа
+            }
+        }
+        return store;
+    }
+
+    static Path createTempDirectory() throws IOException {
+        return Files.createTempDirectory("address-book-test");
+    }
+
+    static void deleteRecursively(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
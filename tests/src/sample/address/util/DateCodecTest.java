@@ -0,0 +1,83 @@
+package sample.address.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.format.ResolverStyle;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Совпадение {@link DateCodec} с DateTimeFormatter, которым даты
+ * разбирались и форматировались раньше.
+ */
+class DateCodecTest {
+
+    private static final DateTimeFormatter DOTTED =
+            DateTimeFormatter.ofPattern("dd.MM.uuuu").withResolverStyle(ResolverStyle.STRICT);
+    // Так даты из XML разбирал прежний LocalDateAdapter.
+    private static final DateTimeFormatter ADAPTER = DateTimeFormatter.ofPattern("yyyy-MM-dd", Locale.ENGLISH);
+
+    @Test
+    void formatsAndParsesEveryDayOfFourDigitYears() {
+        for (long day = LocalDate.of(1, 1, 1).toEpochDay(); day <= LocalDate.of(9999, 12, 31).toEpochDay(); day += 7) {
+            LocalDate date = LocalDate.ofEpochDay(day);
+            String iso = date.toString();
+            String dotted = DOTTED.format(date);
+            assertEquals(iso, DateCodec.formatIso((int) day));
+            assertEquals(dotted, DateCodec.formatDotted((int) day));
+            assertEquals((int) day, DateCodec.parseIso(iso), iso);
+            assertEquals((int) day, DateCodec.parseIsoSmart(iso), iso);
+            assertEquals((int) day, DateCodec.parseDotted(dotted), dotted);
+        }
+    }
+
+    @Test
+    void handlesYearsOutsideFourDigits() {
+        for (LocalDate date : new LocalDate[]{LocalDate.of(0, 1, 1), LocalDate.of(-44, 3, 15), LocalDate.of(12345, 6, 7)}) {
+            int day = DateCodec.toEpochDay(date);
+            assertEquals(date, DateCodec.toLocalDate(day));
+            assertEquals(date.toString(), DateCodec.formatIso(day));
+            assertEquals(day, DateCodec.parseIso(date.toString()));
+        }
+    }
+
+    @Test
+    void smartParsingMatchesLocalDateAdapter() {
+        String[] samples = {
+                "2020-02-29", "2020-02-30", "2020-02-31", "2021-02-29", "2021-04-31", "1900-02-29",
+                "2000-02-30", "2021-02-32", "2021-13-01", "2021-00-10", "2021-01-00", "0000-01-01",
+                "0001-01-01", "9999-12-31", "+10000-01-01", "2021-1-01", "2021/01/01", " 2021-01-01",
+                "2021-01-01 ", "abcd-ef-gh", "", "12345-02-30",
+        };
+        for (String text : samples) {
+            assertEquals(adapter(text), DateCodec.parseIsoSmart(text), text);
+        }
+        assertEquals(LocalDate.of(2020, 2, 29), LocalDate.ofEpochDay(DateCodec.parseIsoSmart("2020-02-31")));
+    }
+
+    @Test
+    void strictParsingRejectsMissingDays() {
+        assertEquals(DateCodec.INVALID, DateCodec.parseIso("2021-02-29"));
+        assertEquals(DateCodec.INVALID, DateCodec.parseDotted("31.04.2021"));
+        assertEquals(DateCodec.INVALID, DateCodec.parseDotted(null));
+    }
+
+    @Test
+    void rejectsDatesOutsideIntEpochDays() {
+        assertEquals(DateCodec.INVALID, DateCodec.toEpochDay(LocalDate.MAX));
+        assertEquals(DateCodec.INVALID, DateCodec.toEpochDay(LocalDate.MIN));
+        assertEquals(DateCodec.INVALID, DateCodec.toEpochDay((LocalDate) null));
+    }
+
+    private static int adapter(String text) {
+        try {
+            return (int) LocalDate.parse(text, ADAPTER).toEpochDay();
+        } catch (DateTimeParseException e) {
+            return DateCodec.INVALID;
+        }
+    }
+}